@@ -17,6 +17,9 @@ public final class AdresseIP implements Comparable<AdresseIP> {
   /** Chaîne IPv4 originale (non normalisée). */
   private final String value;
 
+  /** Forme entière, calculée une fois pour les tris et les index. */
+  private final int bits;
+
   /**
    * Crée une adresse IPv4 validée.
    *
@@ -29,6 +32,7 @@ public final class AdresseIP implements Comparable<AdresseIP> {
     if (!IPV4.matcher(this.value).matches()) {
       throw new IllegalArgumentException("Adresse IP invalide: " + value);
     }
+    this.bits = parse(this.value);
   }
 
   /** Retourne la chaîne IPv4 telle que fournie. */
@@ -36,6 +40,40 @@ public final class AdresseIP implements Comparable<AdresseIP> {
     return value;
   }
 
+  /**
+   * Retourne l'adresse sous forme d'entier non signé sur 32 bits
+   * (premier octet en poids fort).
+   */
+  public int toInt() {
+    return bits;
+  }
+
+  private static int parse(String value) {
+    int res = 0;
+    int octet = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '.') {
+        res = (res << 8) | octet;
+        octet = 0;
+      } else {
+        octet = octet * 10 + (c - '0');
+      }
+    }
+    return (res << 8) | octet;
+  }
+
+  /**
+   * Construit une adresse à partir de sa forme entière.
+   *
+   * @param bits adresse sur 32 bits (premier octet en poids fort)
+   * @return l'adresse correspondante, en notation décimale pointée
+   */
+  public static AdresseIP fromInt(int bits) {
+    return new AdresseIP((bits >>> 24) + "." + ((bits >>> 16) & 0xFF) + "."
+        + ((bits >>> 8) & 0xFF) + "." + (bits & 0xFF));
+  }
+
   @Override
   public String toString() {
     return value;
@@ -59,19 +97,11 @@ public final class AdresseIP implements Comparable<AdresseIP> {
   }
 
   /**
-   * Compare lexicalement par octets (numériquement, de gauche à droite).
+   * Compare lexicalement par octets (numériquement, de gauche à droite),
+   * c'est-à-dire selon la forme entière non signée.
    */
   @Override
   public int compareTo(AdresseIP other) {
-    String[] a = this.value.split("\\.");
-    String[] b = other.value.split("\\.");
-    for (int i = 0; i < 4; i++) {
-      int ai = Integer.parseInt(a[i]);
-      int bi = Integer.parseInt(b[i]);
-      if (ai != bi) {
-        return Integer.compare(ai, bi);
-      }
-    }
-    return 0;
+    return Integer.compareUnsigned(bits, other.bits);
   }
 }
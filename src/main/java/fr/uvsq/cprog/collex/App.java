@@ -1,31 +1,273 @@
 package fr.uvsq.cprog.collex;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
 
 /**
  * Application console du mini-système DNS.
+ *
+ * <p>Sans argument, l'application est interactive. Avec des arguments, ceux-ci
+ * forment une commande unique exécutée avant de quitter (ex. {@code App www.uvsq.fr}) ;
+ * combinée à {@code db.lazy=true}, la réponse ne nécessite pas de charger toute la base.
+ *
+ * <p>{@code App --batch [fichier] [--parallel n]} exécute un script sans invite
+ * ({@link BatchRunner}), lu dans le fichier ou sur l'entrée standard
+ * (redirection, tube). Le mode est toujours demandé explicitement : Java ne
+ * dit pas si l'entrée standard seule est un terminal.
+ *
+ * <p>{@code App --check [fichier] [--parallel n]} vérifie un fichier de base
+ * sans le charger ({@link ZoneCheck}), par défaut celui de {@code dns.properties} ;
+ * le code de sortie vaut 1 si une anomalie est trouvée.
+ *
+ * <p>{@code App --querylog [fichier]} décode un journal des requêtes
+ * ({@link QueryLog}), par défaut celui de {@code querylog.file}, fichiers
+ * renommés compris, du plus ancien au plus récent.
+ *
+ * <p>{@code App --load [options]} mesure la base sous une charge synthétique
+ * ou rejouée ({@link Workload}), avec la configuration de {@code dns.properties},
+ * et écrit le rapport JSON sur la sortie standard ou dans {@code --out}.
  */
 public final class App {
 
+  /** Taille des tampons d'entrée et de sortie du mode batch. */
+  private static final int BUFFER = 1 << 16;
+
+  /**
+   * Point d'entrée : session interactive sans argument, sinon mode batch
+   * ({@code --batch}), vérification ({@code --check}), lecture du journal des
+   * requêtes ({@code --querylog}), charge ({@code --load}) ou commande unique.
+   *
+   * @param args arguments de la ligne de commande
+   */
   public static void main(String[] args) {
-    new App().run();
+    if (args.length > 0 && args[0].equals("--batch")) {
+      if (!new App().batch(args)) {
+        System.exit(1);
+      }
+    } else if (args.length > 0 && args[0].equals("--check")) {
+      if (!new App().check(args, System.out)) {
+        System.exit(1);
+      }
+    } else if (args.length > 0 && args[0].equals("--querylog")) {
+      if (!new App().queryLog(args, System.out)) {
+        System.exit(1);
+      }
+    } else if (args.length > 0 && args[0].equals("--load")) {
+      if (!new App().load(args, System.out)) {
+        System.exit(1);
+      }
+    } else if (args.length > 0) {
+      new App().runOnce(String.join(" ", args));
+    } else {
+      new App().run();
+    }
   }
 
-  /** Boucle interactive. */
+  /**
+   * Boucle interactive. Avec {@code db.watch=true}, les modifications externes
+   * du fichier de base sont rechargées en cours de session ({@link ZoneWatcher}) ;
+   * si la surveillance ne peut démarrer, la session se poursuit sans elle.
+   */
   public void run() {
-    Dns dns = new Dns();
+    DnsBase dns = Dns.open();
+    boolean watch = Boolean.parseBoolean(Dns.defaultConfig().getProperty("db.watch", "false"));
+    ZoneWatcher watcher = null;
+    if (watch) {
+      try {
+        watcher = new ZoneWatcher(dns);
+      } catch (IOException e) {
+        System.err.println("ERREUR : surveillance impossible : " + e.getMessage());
+      }
+    }
     try (Scanner sc = new Scanner(System.in)) {
-      DnsTUI tui = new DnsTUI(sc, System.out);
-      while (true) {
+      interactive(dns, sc, System.out);
+    } finally {
+      if (watcher != null) {
         try {
-          Commande c = tui.nextCommande();
-          String out = c.execute(dns);
-          tui.affiche(out);
-        } catch (QuitException q) {
-          break;
-        } catch (Exception e) {
-          tui.affiche("ERREUR : " + e.getMessage());
+          watcher.close();
+        } catch (IOException e) {
+          System.err.println("ERREUR : arrêt de la surveillance : " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  /** Boucle interactive sur des flux donnés : invite, une commande, un affichage. */
+  static void interactive(DnsBase dns, Scanner sc, PrintStream out) {
+    DnsTUI tui = new DnsTUI(sc, out, dns);
+    while (true) {
+      try {
+        String line = tui.nextLine();
+        tui.affiche(DnsEvents.trace(tui.parse(line), line).execute(dns));
+      } catch (QuitException | NoSuchElementException q) {
+        break; // quit, ou fin de l'entrée
+      } catch (Exception e) {
+        tui.affiche("ERREUR : " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Mode batch : {@code --batch [fichier] [--parallel n]}.
+   *
+   * @param args arguments de la ligne de commande, {@code --batch} compris
+   * @return {@code true} si le script a pu être lu et exécuté
+   */
+  public boolean batch(String[] args) {
+    String file = null;
+    int threads = 1;
+    try {
+      for (int i = 1; i < args.length; i++) {
+        if (args[i].equals("--parallel") && i + 1 < args.length) {
+          threads = parallel(args[++i]);
+        } else {
+          file = args[i];
+        }
+      }
+    } catch (IllegalArgumentException e) {
+      System.err.println("ERREUR : " + e.getMessage());
+      return false;
+    }
+    Writer out = new BufferedWriter(
+        new OutputStreamWriter(System.out, StandardCharsets.UTF_8), BUFFER);
+    try (BufferedReader in = (file == null)
+        ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), BUFFER)
+        : Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+      new BatchRunner(Dns.open(), threads).run(in, out);
+      return true;
+    } catch (IOException | RuntimeException e) {
+      System.err.println("ERREUR : " + e.getMessage());
+      return false;
+    } finally {
+      try {
+        out.flush(); // réponses déjà produites, même si le script a échoué
+      } catch (IOException e) {
+        System.err.println("ERREUR : " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Mode vérification : {@code --check [fichier] [--parallel n]}.
+   *
+   * @param args arguments de la ligne de commande, {@code --check} compris
+   * @param out destination du rapport
+   * @return {@code true} si le fichier ne présente aucune anomalie
+   */
+  boolean check(String[] args, PrintStream out) {
+    String file = null;
+    int threads = Runtime.getRuntime().availableProcessors();
+    try {
+      for (int i = 1; i < args.length; i++) {
+        if (args[i].equals("--parallel") && i + 1 < args.length) {
+          threads = parallel(args[++i]);
+        } else {
+          file = args[i];
         }
       }
+      ZoneCheck.Report report = new ZoneCheck(threads, CommandeCheck.LIMITE_DEFAUT)
+          .check((file == null) ? Dns.dbFileOf(Dns.defaultConfig()) : Paths.get(file));
+      out.println(report);
+      return report.isValid();
+    } catch (IOException | RuntimeException e) {
+      out.println("ERREUR : " + e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Valeur de l'option {@code --parallel}.
+   *
+   * @param v valeur donnée sur la ligne de commande
+   * @return le nombre de threads
+   * @throws IllegalArgumentException si la valeur n'est pas un entier strictement positif
+   */
+  private static int parallel(String v) {
+    try {
+      int n = Integer.parseInt(v);
+      if (n >= 1) {
+        return n;
+      }
+    } catch (NumberFormatException e) {
+      // même message qu'une valeur nulle ou négative
+    }
+    throw new IllegalArgumentException("Valeur invalide pour --parallel : " + v);
+  }
+
+  /**
+   * Lecture du journal des requêtes : {@code --querylog [fichier]}, un événement par ligne.
+   *
+   * @param args arguments de la ligne de commande, {@code --querylog} compris
+   * @param out destination des événements décodés
+   * @return {@code true} si le journal a pu être lu
+   */
+  boolean queryLog(String[] args, PrintStream out) {
+    String file = (args.length > 1) ? args[1]
+        : Dns.defaultConfig().getProperty("querylog.file", "").trim();
+    if (file.isEmpty()) {
+      out.println("ERREUR : Propriété querylog.file absente");
+      return false;
+    }
+    try {
+      for (Path p : QueryLog.chronological(Paths.get(file))) {
+        QueryLog.read(p, out::println);
+      }
+      return true;
+    } catch (IOException e) {
+      out.println("ERREUR : " + e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Banc de charge : {@code --load [--entries n] [--threads n] [--ops n] [--mix ...]
+   * [--zipf s] [--replay fichier] [--record fichier] [--out fichier]}.
+   *
+   * @param args arguments de la ligne de commande, {@code --load} compris
+   * @param out destination du rapport, sauf avec {@code --out}
+   * @return {@code true} si la mesure a abouti
+   */
+  boolean load(String[] args, PrintStream out) {
+    try {
+      Workload.Options options = Workload.Options.parse(args, 1);
+      String json = new Workload(options, Dns.defaultConfig()).run().toJson();
+      if (options.out != null) {
+        Files.write(options.out, (json + System.lineSeparator())
+            .getBytes(StandardCharsets.UTF_8));
+      } else {
+        out.println(json);
+      }
+      return true;
+    } catch (IllegalArgumentException | IOException e) {
+      out.println("ERREUR : " + e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Exécute une seule commande puis rend la main.
+   *
+   * @param ligne ligne de commande à exécuter
+   */
+  public void runOnce(String ligne) {
+    try {
+      DnsBase dns = Dns.open();
+      DnsTUI tui = new DnsTUI(new Scanner(""), System.out, dns);
+      tui.affiche(DnsEvents.trace(tui.parse(ligne), ligne).execute(dns));
+    } catch (QuitException q) {
+      // rien à faire
+    } catch (Exception e) {
+      System.out.println("ERREUR : " + e.getMessage());
     }
   }
 }
@@ -0,0 +1,453 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Sauvegarde à chaud et restauration à un instant donné.
+ *
+ * <p>Un répertoire de sauvegarde contient des copies complètes du fichier de
+ * base ({@code base-*.db}), des segments de mutations ({@code changes-*.log})
+ * et un manifeste ({@code MANIFEST}, une ligne par fichier) qui donne pour
+ * chacun sa taille et sa somme de contrôle CRC32C.
+ *
+ * <p>Une copie complète ne bloque que l'ouverture du fichier
+ * ({@link Dns#backupSource}) ; la copie elle-même passe par
+ * {@link FileChannel#transferTo}, sans traverser le tas. Les sauvegardes
+ * suivantes du même chargement n'écrivent que les mutations intervenues
+ * depuis, prises dans le journal de la base ; si le journal ne les contient
+ * plus (plus de {@code log.size} mutations) ou si la base a été rechargée
+ * entre-temps, une nouvelle copie complète est faite.
+ *
+ * <p>Chaque mutation étant datée, {@link #restore} reconstruit la base telle
+ * qu'elle était à n'importe quel instant couvert : dernière copie complète
+ * antérieure, puis mutations jusqu'à l'instant demandé. Les fichiers utilisés
+ * sont vérifiés avant d'être lus.
+ */
+public final class Backup {
+
+  /** Nom du manifeste. */
+  static final String MANIFEST = "MANIFEST";
+
+  /** Signature d'un segment de mutations. */
+  private static final int MAGIC = 0x444E5342;
+
+  /** Taille des tranches projetées pour le calcul des sommes de contrôle. */
+  private static final long MAP_CHUNK = 1L << 26;
+
+  private Backup() {
+  }
+
+  /** Fichier de base figé par {@link Dns#backupSource}. */
+  static final class Source implements Closeable {
+    private final FileChannel channel;
+    private final long seq;
+    private final long time;
+    private final String epoch;
+
+    Source(FileChannel channel, long seq, long time, String epoch) {
+      this.channel = channel;
+      this.seq = seq;
+      this.time = time;
+      this.epoch = epoch;
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+
+  /**
+   * Sauvegarde une base : copie complète, ou segment des mutations depuis la
+   * sauvegarde précédente du même chargement.
+   *
+   * @param dns base à sauvegarder
+   * @param dir répertoire de sauvegarde (créé s'il n'existe pas)
+   * @param full forcer une copie complète
+   * @return le bilan
+   * @throws IOException en cas d'erreur d'entrée-sortie
+   */
+  public static Result backup(Dns dns, Path dir, boolean full) throws IOException {
+    long t0 = System.nanoTime();
+    Files.createDirectories(dir);
+    List<Entry> manifest = readManifest(dir);
+    Entry last = manifest.isEmpty() ? null : manifest.get(manifest.size() - 1);
+    if (!full && last != null && last.epoch.equals(dns.epoch())) {
+      List<Mutation> changes = dns.changesSince(last.toSeq);
+      if (changes != null && changes.isEmpty()) {
+        return new Result(null, 0, System.nanoTime() - t0);
+      }
+      if (changes != null) {
+        Entry e = writeChanges(dir, dns.epoch(), last.toSeq, changes);
+        manifest.add(e);
+        writeManifest(dir, manifest);
+        return new Result(e, changes.size(), System.nanoTime() - t0);
+      }
+    }
+    Entry e;
+    try (Source src = dns.backupSource()) {
+      e = copyBase(dir, src);
+    }
+    manifest.add(e);
+    writeManifest(dir, manifest);
+    return new Result(e, 0, System.nanoTime() - t0);
+  }
+
+  /** Copie le fichier figé par transferts de canal à canal, puis le vérifie. */
+  private static Entry copyBase(Path dir, Source src) throws IOException {
+    String name = String.format(Locale.ROOT, "base-%s-%d.db", shortEpoch(src.epoch), src.seq);
+    Path tmp = dir.resolve(name + ".tmp");
+    long size = src.channel.size();
+    try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      long pos = 0;
+      while (pos < size) {
+        pos += src.channel.transferTo(pos, size - pos, out);
+      }
+      out.force(true);
+    }
+    long crc = checksum(tmp);
+    Dns.replaceAtomically(tmp, dir.resolve(name));
+    return new Entry(Entry.BASE, src.epoch, src.seq, src.seq, src.time, name, size, crc);
+  }
+
+  /** Écrit un segment de mutations consécutives. */
+  private static Entry writeChanges(Path dir, String epoch, long fromSeq,
+      List<Mutation> changes) throws IOException {
+    long toSeq = changes.get(changes.size() - 1).getSeq();
+    String name = String.format(Locale.ROOT, "changes-%s-%d-%d.log", shortEpoch(epoch),
+        fromSeq + 1, toSeq);
+    Path tmp = dir.resolve(name + ".tmp");
+    try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Channels.newOutputStream(ch), 1 << 16));
+      out.writeInt(MAGIC);
+      out.writeInt(changes.size());
+      for (Mutation m : changes) {
+        m.writeTo(out);
+      }
+      out.flush();
+      ch.force(true);
+    }
+    long crc = checksum(tmp);
+    long size = Files.size(tmp);
+    Dns.replaceAtomically(tmp, dir.resolve(name));
+    long time = changes.get(changes.size() - 1).getTimestamp();
+    return new Entry(Entry.CHANGES, epoch, fromSeq, toSeq, time, name, size, crc);
+  }
+
+  /**
+   * Reconstruit le contenu d'une base à un instant donné.
+   *
+   * @param dir répertoire de sauvegarde
+   * @param target instant visé ; les entrées expirées à cet instant sont omises
+   * @return le contenu restauré et le bilan de la vérification
+   * @throws IOException si aucune sauvegarde ne couvre l'instant, si un fichier
+   *     manque ou si une somme de contrôle ne correspond pas
+   */
+  public static Restored restore(Path dir, Instant target) throws IOException {
+    final long t0 = System.nanoTime();
+    List<Entry> manifest = readManifest(dir);
+    long millis = target.toEpochMilli();
+    int base = -1;
+    for (int i = 0; i < manifest.size(); i++) {
+      Entry e = manifest.get(i);
+      if (e.kind.equals(Entry.BASE) && e.time <= millis) {
+        base = i;
+      }
+    }
+    if (base < 0) {
+      throw new IOException("Aucune sauvegarde complète antérieure à " + target);
+    }
+    // la copie complète puis les segments qui la prolongent
+    List<Entry> chain = new ArrayList<>();
+    Entry head = manifest.get(base);
+    chain.add(head);
+    long seq = head.toSeq;
+    for (int i = base + 1; i < manifest.size(); i++) {
+      Entry e = manifest.get(i);
+      if (!e.kind.equals(Entry.CHANGES) || !e.epoch.equals(head.epoch) || e.fromSeq != seq) {
+        break;
+      }
+      chain.add(e);
+      seq = e.toSeq;
+      if (e.time > millis) {
+        break; // segment qui franchit l'instant visé : dernier utile
+      }
+    }
+    long bytes = 0;
+    for (Entry e : chain) {
+      Path f = dir.resolve(e.file);
+      if (Files.notExists(f) || Files.size(f) != e.size) {
+        throw new IOException("Fichier de sauvegarde absent ou tronqué : " + e.file);
+      }
+      if (checksum(f) != e.crc) {
+        throw new IOException("Somme de contrôle incorrecte : " + e.file);
+      }
+      bytes += e.size;
+    }
+    final long verified = System.nanoTime() - t0;
+
+    Map<NomMachine, DnsItem> items = new LinkedHashMap<>();
+    Path baseFile = dir.resolve(head.file);
+    if (CompactZoneFile.isCompact(baseFile)) {
+      CompactZoneFile.forEach(baseFile, it -> items.put(it.getNom(), it));
+    } else {
+      for (String line : Files.readAllLines(baseFile, StandardCharsets.UTF_8)) {
+        DnsItem it = Dns.parseLine(line, false);
+        if (it != null) {
+          items.put(it.getNom(), it);
+        }
+      }
+    }
+    int replayed = 0;
+    long reached = head.toSeq;
+    for (Entry e : chain.subList(1, chain.size())) {
+      try (DataInputStream in = new DataInputStream(
+          new BufferedInputStream(Files.newInputStream(dir.resolve(e.file)), 1 << 16))) {
+        if (in.readInt() != MAGIC) {
+          throw new IOException("Segment de mutations invalide : " + e.file);
+        }
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+          Mutation m = Mutation.readFrom(in);
+          if (m.getTimestamp() > millis) {
+            break;
+          }
+          if (m.getType() == Mutation.Type.ADD) {
+            items.put(m.getItem().getNom(), m.getItem());
+          } else {
+            items.remove(m.getItem().getNom());
+          }
+          reached = m.getSeq();
+          replayed++;
+        }
+      }
+    }
+    items.values().removeIf(it -> it.isExpired(target));
+    return new Restored(new ArrayList<>(items.values()), target, head.toSeq, reached, replayed,
+        chain.size(), bytes, verified, System.nanoTime() - t0 - verified);
+  }
+
+  /** Somme CRC32C d'un fichier, lue par tranches projetées en mémoire. */
+  static long checksum(Path file) throws IOException {
+    CRC32C crc = new CRC32C();
+    try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = ch.size();
+      for (long pos = 0; pos < size; pos += MAP_CHUNK) {
+        MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, pos,
+            Math.min(MAP_CHUNK, size - pos));
+        crc.update(map);
+      }
+    }
+    return crc.getValue();
+  }
+
+  private static String shortEpoch(String epoch) {
+    return epoch.substring(0, 8);
+  }
+
+  // ---------------------------------------------------------------- manifeste
+
+  /** Ligne du manifeste : un fichier de sauvegarde. */
+  static final class Entry {
+    static final String BASE = "base";
+    static final String CHANGES = "changes";
+
+    final String kind;
+    final String epoch;
+    final long fromSeq;
+    final long toSeq;
+    final long time;
+    final String file;
+    final long size;
+    final long crc;
+
+    Entry(String kind, String epoch, long fromSeq, long toSeq, long time, String file,
+        long size, long crc) {
+      this.kind = kind;
+      this.epoch = epoch;
+      this.fromSeq = fromSeq;
+      this.toSeq = toSeq;
+      this.time = time;
+      this.file = file;
+      this.size = size;
+      this.crc = crc;
+    }
+
+    /** Ligne d'index : {@code type chargement depuis jusqu'à instant fichier taille crc32c}. */
+    String format() {
+      return String.format(Locale.ROOT, "%s %s %d %d %s %s %d %08x", kind, epoch, fromSeq,
+          toSeq, Instant.ofEpochMilli(time), file, size, crc);
+    }
+
+    static Entry parse(String line) throws IOException {
+      String[] p = line.trim().split("\\s+");
+      if (p.length != 8 || (!p[0].equals(BASE) && !p[0].equals(CHANGES))) {
+        throw new IOException("Manifeste invalide : " + line);
+      }
+      try {
+        return new Entry(p[0], p[1], Long.parseLong(p[2]), Long.parseLong(p[3]),
+            Instant.parse(p[4]).toEpochMilli(), p[5], Long.parseLong(p[6]),
+            Long.parseLong(p[7], 16));
+      } catch (RuntimeException e) {
+        throw new IOException("Manifeste invalide : " + line, e);
+      }
+    }
+  }
+
+  static List<Entry> readManifest(Path dir) throws IOException {
+    Path f = dir.resolve(MANIFEST);
+    List<Entry> res = new ArrayList<>();
+    if (Files.notExists(f)) {
+      return res;
+    }
+    for (String line : Files.readAllLines(f, StandardCharsets.UTF_8)) {
+      if (!line.isBlank() && !line.startsWith("#")) {
+        res.add(Entry.parse(line));
+      }
+    }
+    return res;
+  }
+
+  private static void writeManifest(Path dir, Collection<Entry> entries) throws IOException {
+    List<String> lines = new ArrayList<>(entries.size() + 1);
+    lines.add("# type chargement depuis jusqu'à instant fichier taille crc32c");
+    for (Entry e : entries) {
+      lines.add(e.format());
+    }
+    Path tmp = dir.resolve(MANIFEST + ".tmp");
+    Files.write(tmp, lines, StandardCharsets.UTF_8);
+    Dns.replaceAtomically(tmp, dir.resolve(MANIFEST));
+  }
+
+  // ---------------------------------------------------------------- bilans
+
+  /** Bilan d'une sauvegarde. */
+  public static final class Result {
+    private final Entry entry;
+    private final int mutations;
+    private final long nanos;
+
+    Result(Entry entry, int mutations, long nanos) {
+      this.entry = entry;
+      this.mutations = mutations;
+      this.nanos = nanos;
+    }
+
+    /** Vrai pour une copie complète, faux pour un segment ou s'il n'y avait rien à écrire. */
+    public boolean isFull() {
+      return entry != null && entry.kind.equals(Entry.BASE);
+    }
+
+    /** Fichier écrit, ou {@code null} si la base n'a pas changé depuis la sauvegarde précédente. */
+    public String getFile() {
+      return (entry == null) ? null : entry.file;
+    }
+
+    /** Numéro de la dernière mutation couverte. */
+    public long getSeq() {
+      return (entry == null) ? -1 : entry.toSeq;
+    }
+
+    /** Mutations écrites dans un segment. */
+    public int getMutations() {
+      return mutations;
+    }
+
+    @Override
+    public String toString() {
+      double ms = nanos / 1e6;
+      if (entry == null) {
+        return "Aucune modification depuis la dernière sauvegarde";
+      }
+      if (isFull()) {
+        return String.format(Locale.ROOT, "sauvegarde complète %s (#%d, %s) en %.1f ms",
+            entry.file, entry.toSeq, Footprint.Report.bytes(entry.size), ms);
+      }
+      return String.format(Locale.ROOT, "sauvegarde incrémentale %s (%d mutation(s), #%d à #%d,"
+          + " %s) en %.1f ms", entry.file, mutations, entry.fromSeq + 1, entry.toSeq,
+          Footprint.Report.bytes(entry.size), ms);
+    }
+  }
+
+  /** Contenu reconstruit par {@link #restore}. */
+  public static final class Restored {
+    private final List<DnsItem> items;
+    private final Instant target;
+    private final long baseSeq;
+    private final long seq;
+    private final int replayed;
+    private final int files;
+    private final long bytes;
+    private final long verifyNanos;
+    private final long replayNanos;
+
+    Restored(List<DnsItem> items, Instant target, long baseSeq, long seq, int replayed,
+        int files, long bytes, long verifyNanos, long replayNanos) {
+      this.items = items;
+      this.target = target;
+      this.baseSeq = baseSeq;
+      this.seq = seq;
+      this.replayed = replayed;
+      this.files = files;
+      this.bytes = bytes;
+      this.verifyNanos = verifyNanos;
+      this.replayNanos = replayNanos;
+    }
+
+    /** Entrées de la base à l'instant visé. */
+    public List<DnsItem> getItems() {
+      return items;
+    }
+
+    /** Numéro de la dernière mutation rejouée (celui de la copie si aucune). */
+    public long getSeq() {
+      return seq;
+    }
+
+    /** Mutations rejouées après la copie complète. */
+    public int getReplayed() {
+      return replayed;
+    }
+
+    /** Durée de la vérification des sommes de contrôle, en nanosecondes. */
+    public long getVerifyNanos() {
+      return verifyNanos;
+    }
+
+    /** Durée de la relecture de la copie et des journaux, en nanosecondes. */
+    public long getReplayNanos() {
+      return replayNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "restauré à %s : copie #%d + %d mutation(s) -> #%d,"
+          + " %d entrée(s) ; %d fichier(s) vérifié(s) (%s) en %.1f ms, relus en %.1f ms",
+          target, baseSeq, replayed, seq, items.size(), files, Footprint.Report.bytes(bytes),
+          verifyNanos / 1e6, replayNanos / 1e6);
+    }
+  }
+}
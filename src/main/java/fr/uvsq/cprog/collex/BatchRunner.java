@@ -0,0 +1,177 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Exécution non interactive d'un script de commandes.
+ *
+ * <p>Contrairement à la boucle interactive, aucune invite n'est affichée,
+ * l'entrée est lue par un {@link BufferedReader} et les résultats sont
+ * accumulés dans un tampon vidé par blocs. Les lignes sont interprétées par
+ * {@link DnsTUI#parse} et exécutées à la suite ; une erreur est affichée
+ * ({@code ERREUR : ...}) sans interrompre le script, {@code quit} l'arrête.
+ *
+ * <p>Avec plusieurs threads, les commandes consécutives en lecture seule
+ * ({@link Commande#lectureSeule}) sont réparties par paquets entre les threads ;
+ * une commande qui modifie la base attend la fin des lectures qui la précèdent
+ * et s'exécute seule. Les résultats sont écrits dans l'ordre du script : la
+ * sortie est identique à celle d'une exécution séquentielle.
+ *
+ * <p>Chaque commande émet un événement Java Flight Recorder ({@link DnsEvents})
+ * lorsqu'un enregistrement est actif.
+ */
+public final class BatchRunner {
+
+  /** Nombre de lignes lues avant de répartir les lectures. */
+  private static final int CHUNK = 4096;
+
+  /** Nombre de commandes par tâche parallèle. */
+  private static final int TASK = 128;
+
+  private final DnsBase dns;
+  private final int threads;
+
+  /**
+   * Crée un exécuteur de script.
+   *
+   * @param dns base sur laquelle exécuter les commandes
+   * @param threads nombre de threads pour les lectures (1 : séquentiel)
+   */
+  public BatchRunner(DnsBase dns, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Nombre de threads invalide: " + threads);
+    }
+    this.dns = dns;
+    this.threads = threads;
+  }
+
+  /**
+   * Exécute toutes les commandes d'un script.
+   *
+   * @param in script, une commande par ligne
+   * @param out destination des résultats (le flux n'est pas fermé)
+   * @return le nombre de commandes lues
+   * @throws IOException en cas d'erreur d'entrée-sortie
+   */
+  public long run(BufferedReader in, Writer out) throws IOException {
+    // la sortie en tâche de fond de « watch » n'a pas de sens dans un script
+    DnsTUI tui = new DnsTUI(new Scanner(""),
+        new PrintStream(OutputStream.nullOutputStream()), dns);
+    ExecutorService pool = (threads > 1) ? Executors.newFixedThreadPool(threads) : null;
+    try {
+      long count = 0;
+      List<Commande> chunk = new ArrayList<>(CHUNK);
+      String line;
+      boolean quit = false;
+      while (!quit && (line = in.readLine()) != null) {
+        Commande c = tui.parse(line);
+        chunk.add((c instanceof CommandeQuit) ? c : DnsEvents.trace(c, line));
+        if (chunk.size() == CHUNK) {
+          quit = execute(chunk, pool, out);
+          count += chunk.size();
+          chunk.clear();
+        }
+      }
+      if (!quit) {
+        execute(chunk, pool, out);
+        count += chunk.size();
+      }
+      out.flush();
+      return count;
+    } finally {
+      if (pool != null) {
+        pool.shutdownNow();
+      }
+    }
+  }
+
+  /** Exécute un bloc de commandes ; retourne {@code true} si {@code quit} a été rencontré. */
+  private boolean execute(List<Commande> chunk, ExecutorService pool, Writer out)
+      throws IOException {
+    if (pool == null) {
+      for (Commande c : chunk) {
+        if (c instanceof CommandeQuit) {
+          return true;
+        }
+        write(out, result(c));
+      }
+      return false;
+    }
+    List<Future<String[]>> pending = new ArrayList<>();
+    int start = 0;
+    for (int i = 0; i <= chunk.size(); i++) {
+      Commande c = (i < chunk.size()) ? chunk.get(i) : null;
+      boolean parallel = c != null && c.lectureSeule();
+      if (parallel && i - start < TASK) {
+        continue;
+      }
+      if (i > start) {
+        List<Commande> run = chunk.subList(start, i);
+        pending.add(pool.submit(() -> runAll(run)));
+      }
+      start = parallel ? i : i + 1;
+      if (c != null && !parallel) {
+        drain(pending, out);
+        if (c instanceof CommandeQuit) {
+          return true;
+        }
+        write(out, result(c));
+      }
+    }
+    drain(pending, out);
+    return false;
+  }
+
+  /** Écrit dans l'ordre les résultats des tâches en cours. */
+  private static void drain(List<Future<String[]>> pending, Writer out) throws IOException {
+    for (Future<String[]> f : pending) {
+      try {
+        for (String s : f.get()) {
+          write(out, s);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Exécution interrompue", e);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException(e.getCause());
+      }
+    }
+    pending.clear();
+  }
+
+  private String[] runAll(List<Commande> cmds) {
+    String[] res = new String[cmds.size()];
+    for (int i = 0; i < res.length; i++) {
+      res[i] = result(cmds.get(i));
+    }
+    return res;
+  }
+
+  private String result(Commande c) {
+    try {
+      return c.execute(dns);
+    } catch (QuitException q) {
+      return "";
+    } catch (Exception e) {
+      return "ERREUR : " + e.getMessage();
+    }
+  }
+
+  private static void write(Writer out, String s) throws IOException {
+    if (s != null && !s.isEmpty()) {
+      out.write(s);
+      out.write(System.lineSeparator());
+    }
+  }
+}
@@ -0,0 +1,312 @@
+package fr.uvsq.cprog.collex;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Base des moteurs qui rangent les entrées sous forme d'enregistrements
+ * binaires dans un {@link ByteBuffer} (hors tas ou projeté en mémoire).
+ *
+ * <p>Format d'un enregistrement :
+ * <pre>
+ *   [byte vivant][int ip][long expiration ms][short longueur][octets UTF-8 du FQDN]
+ * </pre>
+ * Les deux index sont des tables à adressage ouvert (sondage linéaire) de
+ * positions d'enregistrements, stockées dans des {@code int[]} : le tas ne
+ * contient donc aucun objet par entrée. Une suppression marque
+ * l'enregistrement comme mort ; l'espace est récupéré par compactage lorsque
+ * le tampon doit grandir.
+ */
+abstract class BufferDnsStore implements DnsStore {
+
+  /** Taille de l'en-tête d'un enregistrement. */
+  private static final int HEADER = 1 + 4 + 8 + 2;
+
+  /** Valeur d'expiration d'une entrée permanente. */
+  private static final long PERMANENT = Long.MIN_VALUE;
+
+  /** Capacité initiale du tampon en octets. */
+  private static final int INITIAL_BYTES = 1 << 16;
+
+  private ByteBuffer buf;
+  private int used;
+  private int deadBytes;
+  private int size;
+
+  /** Positions + 1 des enregistrements, indexées par hachage du nom (0 = libre). */
+  private int[] nameSlots = new int[16];
+
+  /** Positions + 1 des enregistrements, indexées par hachage de l'adresse (0 = libre). */
+  private int[] ipSlots = new int[16];
+
+  /**
+   * Fournit un tampon d'au moins {@code capacity} octets dont les
+   * {@code used} premiers reprennent ceux de {@code current}.
+   *
+   * @param current tampon actuel ({@code null} au premier appel)
+   * @param used nombre d'octets significatifs de {@code current}
+   * @param capacity capacité minimale demandée
+   * @return le nouveau tampon
+   */
+  protected abstract ByteBuffer grow(ByteBuffer current, int used, int capacity);
+
+  /** Alloue le tampon initial ; appelé par le constructeur des sous-classes. */
+  protected final void init() {
+    buf = grow(null, 0, INITIAL_BYTES);
+  }
+
+  @Override
+  public DnsItem get(NomMachine nom) {
+    int pos = findName(nom.getFqdn().getBytes(StandardCharsets.UTF_8));
+    return (pos < 0) ? null : decode(pos);
+  }
+
+  @Override
+  public DnsItem get(AdresseIP ip) {
+    int pos = findIp(ip.toInt());
+    return (pos < 0) ? null : decode(pos);
+  }
+
+  @Override
+  public void put(DnsItem item) {
+    byte[] name = item.getNom().getFqdn().getBytes(StandardCharsets.UTF_8);
+    int len = HEADER + name.length;
+    ensureRoom(len);
+    int pos = used;
+    buf.put(pos, (byte) 1);
+    buf.putInt(pos + 1, item.getIp().toInt());
+    Instant exp = item.getExpiration();
+    buf.putLong(pos + 5, (exp == null) ? PERMANENT : exp.toEpochMilli());
+    buf.putShort(pos + 13, (short) name.length);
+    buf.put(pos + HEADER, name);
+    used += len;
+    size++;
+    if (2 * size > nameSlots.length) {
+      rehash(nameSlots.length * 2);
+    }
+    insertSlot(nameSlots, hashName(pos), pos);
+    insertSlot(ipSlots, mix(ipAt(pos)), pos);
+  }
+
+  @Override
+  public DnsItem remove(NomMachine nom) {
+    int pos = findName(nom.getFqdn().getBytes(StandardCharsets.UTF_8));
+    if (pos < 0) {
+      return null;
+    }
+    deleteSlot(nameSlots, slotOf(nameSlots, pos, hashName(pos)), true);
+    deleteSlot(ipSlots, slotOf(ipSlots, pos, mix(ipAt(pos))), false);
+    buf.put(pos, (byte) 0);
+    deadBytes += HEADER + nameLength(pos);
+    size--;
+    return decode(pos);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void forEach(Consumer<? super DnsItem> action) {
+    int pos = 0;
+    while (pos < used) {
+      if (buf.get(pos) != 0) {
+        action.accept(decode(pos));
+      }
+      pos += HEADER + nameLength(pos);
+    }
+  }
+
+  @Override
+  public Map<String, Long> indexBytes(HeapLayout layout) {
+    Map<String, Long> res = new LinkedHashMap<>();
+    res.put("byName", layout.array(4, nameSlots.length));
+    res.put("byIp", layout.array(4, ipSlots.length));
+    return res;
+  }
+
+  @Override
+  public long offHeapBytes() {
+    return buf.capacity();
+  }
+
+  @Override
+  public boolean retainsItems() {
+    return false;
+  }
+
+  /** Nombre d'octets occupés par les enregistrements (vivants et morts). */
+  int usedBytes() {
+    return used;
+  }
+
+  // ---------------------------------------------------------------- tampon
+
+  private void ensureRoom(int len) {
+    if (used + len <= buf.capacity()) {
+      return;
+    }
+    if (deadBytes > used / 2) {
+      compact();
+      if (used + len <= buf.capacity()) {
+        return;
+      }
+    }
+    long capacity = Math.max((long) buf.capacity() * 2, (long) used + len);
+    if (capacity > Integer.MAX_VALUE - 8) {
+      throw new IllegalStateException("Capacité du moteur dépassée");
+    }
+    buf = grow(buf, used, (int) capacity);
+  }
+
+  /** Réécrit les seuls enregistrements vivants au début du tampon. */
+  private void compact() {
+    List<DnsItem> live = new ArrayList<>(size);
+    forEach(live::add);
+    used = 0;
+    deadBytes = 0;
+    size = 0;
+    nameSlots = new int[nameSlots.length];
+    ipSlots = new int[ipSlots.length];
+    for (DnsItem item : live) {
+      put(item);
+    }
+  }
+
+  private DnsItem decode(int pos) {
+    byte[] name = new byte[nameLength(pos)];
+    buf.get(pos + HEADER, name);
+    long exp = buf.getLong(pos + 5);
+    return new DnsItem(new NomMachine(new String(name, StandardCharsets.UTF_8)),
+        AdresseIP.fromInt(ipAt(pos)),
+        (exp == PERMANENT) ? null : Instant.ofEpochMilli(exp));
+  }
+
+  private int ipAt(int pos) {
+    return buf.getInt(pos + 1);
+  }
+
+  private int nameLength(int pos) {
+    return buf.getShort(pos + 13) & 0xFFFF;
+  }
+
+  // ---------------------------------------------------------------- index
+
+  private int findName(byte[] name) {
+    int mask = nameSlots.length - 1;
+    for (int i = hashBytes(name) & mask; nameSlots[i] != 0; i = (i + 1) & mask) {
+      int pos = nameSlots[i] - 1;
+      if (sameName(pos, name)) {
+        return pos;
+      }
+    }
+    return -1;
+  }
+
+  private int findIp(int ip) {
+    int mask = ipSlots.length - 1;
+    for (int i = mix(ip) & mask; ipSlots[i] != 0; i = (i + 1) & mask) {
+      int pos = ipSlots[i] - 1;
+      if (ipAt(pos) == ip) {
+        return pos;
+      }
+    }
+    return -1;
+  }
+
+  private boolean sameName(int pos, byte[] name) {
+    if (nameLength(pos) != name.length) {
+      return false;
+    }
+    for (int i = 0; i < name.length; i++) {
+      if (buf.get(pos + HEADER + i) != name[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void insertSlot(int[] table, int hash, int pos) {
+    int mask = table.length - 1;
+    int i = hash & mask;
+    while (table[i] != 0) {
+      i = (i + 1) & mask;
+    }
+    table[i] = pos + 1;
+  }
+
+  private static int slotOf(int[] table, int pos, int hash) {
+    int mask = table.length - 1;
+    int i = hash & mask;
+    while (table[i] != pos + 1) {
+      i = (i + 1) & mask;
+    }
+    return i;
+  }
+
+  /** Suppression par décalage arrière : aucune marque de suppression n'est laissée. */
+  private void deleteSlot(int[] table, int i, boolean byName) {
+    int mask = table.length - 1;
+    int j = i;
+    while (true) {
+      j = (j + 1) & mask;
+      if (table[j] == 0) {
+        break;
+      }
+      int pos = table[j] - 1;
+      int home = (byName ? hashName(pos) : mix(ipAt(pos))) & mask;
+      boolean inPlace = (i <= j) ? (i < home && home <= j) : (i < home || home <= j);
+      if (!inPlace) {
+        table[i] = table[j];
+        i = j;
+      }
+    }
+    table[i] = 0;
+  }
+
+  private void rehash(int capacity) {
+    int[] oldNames = nameSlots;
+    nameSlots = new int[capacity];
+    ipSlots = new int[capacity];
+    for (int slot : oldNames) {
+      if (slot != 0) {
+        int pos = slot - 1;
+        insertSlot(nameSlots, hashName(pos), pos);
+        insertSlot(ipSlots, mix(ipAt(pos)), pos);
+      }
+    }
+  }
+
+  private int hashName(int pos) {
+    int h = 0x811C9DC5;
+    int len = nameLength(pos);
+    for (int i = 0; i < len; i++) {
+      h = (h ^ buf.get(pos + HEADER + i)) * 0x01000193;
+    }
+    return mix(h);
+  }
+
+  private static int hashBytes(byte[] name) {
+    int h = 0x811C9DC5;
+    for (byte b : name) {
+      h = (h ^ b) * 0x01000193;
+    }
+    return mix(h);
+  }
+
+  /** Brassage final (murmur3) pour répartir les bits de poids faible. */
+  private static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    h *= 0xC2B2AE35;
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,155 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Flux ordonné des modifications d'une base, restreint à un suffixe de domaine.
+ *
+ * <p>Le flux est alimenté par le {@link MutationLog} de la base, sous son
+ * verrou d'écriture : une mutation retenue est déposée par {@code offer} dans
+ * une file bornée, sans jamais attendre. Quand la file est pleine, le flux
+ * passe en retard et cesse d'y déposer ; le consommateur, une fois la file
+ * vidée, relit les mutations manquées dans le journal de la base. Un abonné
+ * lent ne ralentit donc jamais {@link Dns#addItem} : il est rattrapé à son
+ * rythme. Si le journal ne conserve plus les mutations manquées, le saut est
+ * compté par {@link #gaps()} et visible dans les numéros de séquence.
+ *
+ * <p>Un flux se consomme depuis un seul thread.
+ */
+public final class ChangeStream implements AutoCloseable {
+
+  private final Dns dns;
+  private final String suffixe;
+  private final ArrayBlockingQueue<Mutation> queue;
+  private final Consumer<Mutation> listener = this::offer;
+
+  /** Mutations relues dans le journal après un débordement. */
+  private final ArrayDeque<Mutation> pending = new ArrayDeque<>();
+
+  private volatile boolean overflow;
+  private volatile boolean closed;
+  private long lastSeq;
+  private long gaps;
+
+  /**
+   * Crée un flux ; appelé par {@link Dns#watch}.
+   *
+   * @param dns base observée
+   * @param filtre domaine observé, sous-domaines compris ({@code ""} : tout)
+   * @param capacity taille de la file
+   */
+  ChangeStream(Dns dns, String filtre, int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacité invalide: " + capacity);
+    }
+    this.dns = dns;
+    String f = filtre.trim();
+    this.suffixe = (f.isEmpty() || f.equals(".")) ? "" : "." + f;
+    this.queue = new ArrayBlockingQueue<>(capacity);
+  }
+
+  /** Auditeur à enregistrer auprès du journal. */
+  Consumer<Mutation> listener() {
+    return listener;
+  }
+
+  /** Fixe la position de départ (dernière mutation avant l'abonnement). */
+  void start(long seq) {
+    lastSeq = seq;
+  }
+
+  /** Indique si une mutation concerne le domaine observé. */
+  boolean matches(Mutation m) {
+    return m.getItem().getNom().getFqdn().endsWith(suffixe);
+  }
+
+  private void offer(Mutation m) {
+    if (closed || overflow || !matches(m)) {
+      return;
+    }
+    if (!queue.offer(m)) {
+      overflow = true;
+    }
+  }
+
+  /**
+   * Retourne la prochaine modification, en attendant au plus le délai donné.
+   *
+   * @param timeout délai maximal
+   * @param unit unité du délai
+   * @return la modification, ou {@code null} si aucune n'est arrivée à temps
+   *     ou si le flux est fermé
+   * @throws InterruptedException si le thread est interrompu pendant l'attente
+   */
+  public Mutation poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (!closed) {
+      Mutation m = pending.poll();
+      if (m == null) {
+        m = queue.poll();
+      }
+      if (m == null && overflow) {
+        catchUp();
+        continue;
+      }
+      if (m == null) {
+        long left = deadline - System.nanoTime();
+        if (left <= 0) {
+          return null;
+        }
+        m = queue.poll(left, TimeUnit.NANOSECONDS);
+        if (m == null) {
+          continue;
+        }
+      }
+      if (m.getSeq() > lastSeq) {
+        lastSeq = m.getSeq();
+        return m;
+      }
+      // déjà livrée par le rattrapage
+    }
+    return null;
+  }
+
+  /** Relit dans le journal les mutations perdues par débordement de la file. */
+  private void catchUp() {
+    overflow = false;
+    List<Mutation> missed = dns.changesSince(lastSeq);
+    if (missed == null) {
+      gaps++;
+      return;
+    }
+    for (Mutation m : missed) {
+      if (matches(m)) {
+        pending.add(m);
+      }
+    }
+  }
+
+  /** Numéro de la dernière modification livrée. */
+  public long lastSeq() {
+    return lastSeq;
+  }
+
+  /** Nombre de sauts : débordements dont les mutations n'étaient plus au journal. */
+  public long gaps() {
+    return gaps;
+  }
+
+  /** Indique si le flux est fermé. */
+  public boolean isClosed() {
+    return closed;
+  }
+
+  /** Désabonne le flux ; les modifications en attente sont abandonnées. */
+  @Override
+  public void close() {
+    closed = true;
+    dns.unsubscribe(listener);
+    queue.clear();
+  }
+}
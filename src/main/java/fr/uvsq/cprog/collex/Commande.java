@@ -8,5 +8,16 @@ public interface Commande {
    * @param dns instance du système DNS sur laquelle la commande agit
    * @return le message à afficher après exécution (ou {@code ""} si aucun)
    */
-  String execute(Dns dns);
+  String execute(DnsBase dns);
+
+  /**
+   * Indique si la commande se contente de lire la base. Le mode batch
+   * ({@link BatchRunner}) peut exécuter en parallèle des commandes consécutives
+   * en lecture seule ; les autres sont exécutées seules, dans l'ordre.
+   *
+   * @return {@code true} si la commande ne modifie ni la base ni l'état de l'application
+   */
+  default boolean lectureSeule() {
+    return false;
+  }
 }
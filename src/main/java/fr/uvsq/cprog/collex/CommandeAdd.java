@@ -1,5 +1,8 @@
 package fr.uvsq.cprog.collex;
 
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Commande permettant d’ajouter une nouvelle entrée DNS (association IP ↔ FQDN).
  * <p>
@@ -19,15 +22,43 @@ public final class CommandeAdd implements Commande {
   /** Nom de machine associé à l’adresse IP. */
   private final NomMachine nom;
 
+  /** Durée de vie de l'entrée, ou {@code null} pour une entrée permanente. */
+  private final Duration ttl;
+
+  /** Transaction de la session en cours, ou {@code null} hors session. */
+  private final AtomicReference<Transaction> session;
+
   /**
-   * Crée une commande d’ajout d’entrée DNS.
+   * Crée une commande d’ajout d’entrée DNS permanente.
    *
    * @param ip adresse IP à associer
    * @param nom nom de machine à associer
    */
   public CommandeAdd(AdresseIP ip, NomMachine nom) {
+    this(ip, nom, null);
+  }
+
+  /**
+   * Crée une commande d’ajout d’entrée DNS avec une durée de vie.
+   *
+   * @param ip adresse IP à associer
+   * @param nom nom de machine à associer
+   * @param ttl durée de vie de l'entrée, ou {@code null} pour une entrée permanente
+   */
+  public CommandeAdd(AdresseIP ip, NomMachine nom, Duration ttl) {
+    this(ip, nom, ttl, null);
+  }
+
+  /**
+   * Crée une commande d’ajout qui s’inscrit dans la transaction de la session
+   * si une transaction y est ouverte au moment de l’exécution.
+   */
+  CommandeAdd(AdresseIP ip, NomMachine nom, Duration ttl,
+      AtomicReference<Transaction> session) {
     this.ip = ip;
     this.nom = nom;
+    this.ttl = ttl;
+    this.session = session;
   }
 
   /**
@@ -38,8 +69,24 @@ public final class CommandeAdd implements Commande {
    * @throws IllegalStateException si le nom ou l’adresse IP existent déjà
    */
   @Override
-  public String execute(Dns dns) {
-    dns.addItem(ip, nom);
+  public String execute(DnsBase dns) {
+    Transaction tx = (session == null) ? null : session.get();
+    QueryLog log = dns.queryLog();
+    try {
+      if (tx != null) {
+        tx.addItem(ip, nom, ttl);
+      } else {
+        dns.addItem(ip, nom, ttl);
+      }
+    } catch (RuntimeException e) {
+      if (log != null) {
+        log.publish(QueryLog.Type.ADD, QueryLog.Status.ERROR, nom.getFqdn(), ip);
+      }
+      throw e;
+    }
+    if (log != null) {
+      log.publish(QueryLog.Type.ADD, QueryLog.Status.OK, nom.getFqdn(), ip);
+    }
     return ""; // pas de sortie particulière si OK
   }
 }
@@ -0,0 +1,49 @@
+package fr.uvsq.cprog.collex;
+
+import java.time.Duration;
+
+/**
+ * Commande ajoutant une machine à la première adresse libre d'un sous-réseau.
+ *
+ * <p>Exemples :
+ * <pre>
+ *   alloc web3.uvsq.fr 10.0.0.0/24        affiche l'adresse attribuée
+ *   alloc tmp.uvsq.fr 10.0.1.0/28 3600    entrée d'une heure
+ * </pre>
+ */
+public final class CommandeAlloc implements Commande {
+
+  /** Nom de machine à ajouter. */
+  private final NomMachine nom;
+
+  /** Sous-réseau dans lequel choisir l'adresse. */
+  private final Subnet subnet;
+
+  /** Durée de vie de l'entrée, ou {@code null} pour une entrée permanente. */
+  private final Duration ttl;
+
+  /**
+   * Crée une commande d'allocation.
+   *
+   * @param nom nom de machine à ajouter
+   * @param subnet sous-réseau dans lequel choisir l'adresse
+   * @param ttl durée de vie de l'entrée, ou {@code null} pour une entrée permanente
+   */
+  public CommandeAlloc(NomMachine nom, Subnet subnet, Duration ttl) {
+    this.nom = nom;
+    this.subnet = subnet;
+    this.ttl = ttl;
+  }
+
+  /**
+   * Exécute l'allocation.
+   *
+   * @param dns instance du système DNS
+   * @return l'adresse attribuée
+   * @throws IllegalStateException si le nom existe déjà ou si le sous-réseau est plein
+   */
+  @Override
+  public String execute(DnsBase dns) {
+    return dns.allocate(nom, subnet, ttl).value();
+  }
+}
@@ -0,0 +1,62 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+/**
+ * Commande sauvegardant la base à chaud ({@link Backup}) : copie complète au
+ * premier appel, puis seulement les mutations intervenues depuis.
+ *
+ * <p>Exemples :
+ * <pre>
+ *   backup /var/backups/collex
+ *   backup -full /var/backups/collex
+ * </pre>
+ */
+public final class CommandeBackup implements Commande {
+
+  /** Base sauvegardée. */
+  private final Dns base;
+
+  /** Répertoire de sauvegarde. */
+  private final Path dir;
+
+  /** Indique si une copie complète est exigée. */
+  private final boolean full;
+
+  /**
+   * Crée une commande de sauvegarde.
+   *
+   * @param base base à sauvegarder (une base simple : une base composée n'a
+   *     pas de journal unique à copier)
+   * @param dir répertoire de sauvegarde
+   * @param full {@code true} pour forcer une copie complète
+   */
+  public CommandeBackup(Dns base, Path dir, boolean full) {
+    this.base = base;
+    this.dir = dir;
+    this.full = full;
+  }
+
+  /**
+   * Exécute la sauvegarde de la base donnée à la construction.
+   *
+   * @param dns instance du système DNS
+   * @return le bilan de la sauvegarde
+   */
+  @Override
+  public String execute(DnsBase dns) {
+    try {
+      return Backup.backup(base, dir, full).toString();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Erreur de sauvegarde: " + e.getMessage(), e);
+    }
+  }
+
+  /** La sauvegarde ne modifie pas la base. */
+  @Override
+  public boolean lectureSeule() {
+    return true;
+  }
+}
@@ -0,0 +1,29 @@
+package fr.uvsq.cprog.collex;
+
+/**
+ * Commande affichant les statistiques du cache de recherche ({@link LookupCache}).
+ *
+ * <p>Exemple de sortie :
+ * <pre>
+ *   hits=1520 misses=312 evictions=40 taux=0.830
+ * </pre>
+ */
+public final class CommandeCache implements Commande {
+
+  /**
+   * Exécute le rapport.
+   *
+   * @param dns instance du système DNS
+   * @return les statistiques, ou un message d'erreur si le cache est désactivé
+   */
+  @Override
+  public String execute(DnsBase dns) {
+    LookupCache.Stats stats = dns.cacheStats();
+    return (stats == null) ? "ERREUR : Cache de recherche désactivé" : stats.toString();
+  }
+
+  @Override
+  public boolean lectureSeule() {
+    return true;
+  }
+}
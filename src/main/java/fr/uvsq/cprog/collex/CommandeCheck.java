@@ -0,0 +1,70 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * Commande vérifiant un fichier de base ({@link ZoneCheck}) : lignes mal
+ * formées, noms et adresses invalides ou en double, zones non triées.
+ *
+ * <p>Exemples :
+ * <pre>
+ *   check                 vérifie le fichier de la base ouverte
+ *   check /tmp/zone.txt   vérifie un autre fichier, sans le charger
+ * </pre>
+ * Une base partitionnée ou par zones a plusieurs fichiers ({@link DnsBase#dataFiles}) :
+ * chacun est vérifié, son rapport précédé de son chemin.
+ */
+public final class CommandeCheck implements Commande {
+
+  /** Nombre maximal d'anomalies détaillées par catégorie. */
+  public static final int LIMITE_DEFAUT = 1000;
+
+  /** Fichier à vérifier, ou {@code null} pour celui de la base. */
+  private final Path file;
+
+  /**
+   * Crée une commande de vérification.
+   *
+   * @param file fichier à vérifier, ou {@code null} pour celui de la base
+   */
+  public CommandeCheck(Path file) {
+    this.file = file;
+  }
+
+  /**
+   * Exécute la vérification, répartie sur tous les processeurs.
+   *
+   * @param dns instance du système DNS
+   * @return les anomalies, une par ligne, suivies du bilan
+   */
+  @Override
+  public String execute(DnsBase dns) {
+    ZoneCheck check = new ZoneCheck(Runtime.getRuntime().availableProcessors(), LIMITE_DEFAUT);
+    Set<Path> targets = (file != null) ? Set.of(file) : dns.dataFiles().keySet();
+    try {
+      if (targets.size() == 1) {
+        return check.check(targets.iterator().next()).toString();
+      }
+      StringBuilder sb = new StringBuilder();
+      for (Path target : targets) {
+        if (sb.length() > 0) {
+          sb.append(System.lineSeparator());
+        }
+        sb.append("== ").append(target).append(System.lineSeparator())
+            .append(check.check(target));
+      }
+      return sb.toString();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Erreur de lecture: " + e.getMessage(), e);
+    }
+  }
+
+  /** Seul le fichier est lu. */
+  @Override
+  public boolean lectureSeule() {
+    return true;
+  }
+}
@@ -0,0 +1,75 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * Commande comparant deux fichiers de zone triés, et appliquant éventuellement
+ * leur différence à la base.
+ *
+ * <p>Exemples :
+ * <pre>
+ *   diff staging.txt prod.txt          affiche les différences
+ *   diff -apply prod.txt staging.txt   rend la base conforme à staging.txt
+ * </pre>
+ * Sans {@code -apply}, les fichiers sont lus en flux et la base n'est pas
+ * consultée. Avec {@code -apply}, la différence est appliquée en un seul lot
+ * ({@link Dns#applyChanges}).
+ */
+public final class CommandeDiff implements Commande {
+
+  /** Fichier de départ. */
+  private final Path from;
+
+  /** Fichier d'arrivée. */
+  private final Path to;
+
+  /** Indique si la différence doit être appliquée à la base. */
+  private final boolean apply;
+
+  /**
+   * Crée une commande de comparaison.
+   *
+   * @param from fichier de départ
+   * @param to fichier d'arrivée
+   * @param apply {@code true} pour appliquer la différence à la base
+   */
+  public CommandeDiff(Path from, Path to, boolean apply) {
+    this.from = from;
+    this.to = to;
+    this.apply = apply;
+  }
+
+  /**
+   * Exécute la comparaison.
+   *
+   * @param dns instance du système DNS
+   * @return les différences, une par ligne, ou le bilan de l'application
+   */
+  @Override
+  public String execute(DnsBase dns) {
+    try {
+      if (apply) {
+        List<ZoneDiff.Change> changes = new ArrayList<>();
+        ZoneDiff.diff(from, to, changes::add);
+        int n = dns.applyChanges(changes);
+        return changes.size() + " différence(s), " + n + " mutation(s) appliquée(s)";
+      }
+      StringJoiner out = new StringJoiner(System.lineSeparator());
+      ZoneDiff.diff(from, to, c -> out.add(c.toString()));
+      return out.toString();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Erreur de lecture: " + e.getMessage(), e);
+    }
+  }
+
+  /** Sans {@code -apply}, seuls les fichiers sont lus. */
+  @Override
+  public boolean lectureSeule() {
+    return !apply;
+  }
+}
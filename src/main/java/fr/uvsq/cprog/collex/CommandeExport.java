@@ -0,0 +1,51 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+/**
+ * Commande exportant la base en fichiers de zone BIND ({@link ZoneExport}) :
+ * une zone directe par domaine et une zone inverse par /24.
+ *
+ * <p>Exemple :
+ * <pre>
+ *   export /var/named/collex
+ * </pre>
+ */
+public final class CommandeExport implements Commande {
+
+  /** Répertoire de destination. */
+  private final Path dir;
+
+  /**
+   * Crée une commande d'export.
+   *
+   * @param dir répertoire de destination
+   */
+  public CommandeExport(Path dir) {
+    this.dir = dir;
+  }
+
+  /**
+   * Exécute l'export, réparti sur tous les processeurs, à la date de l'horloge de la base.
+   *
+   * @param dns instance du système DNS
+   * @return le bilan de l'export
+   */
+  @Override
+  public String execute(DnsBase dns) {
+    int threads = Runtime.getRuntime().availableProcessors();
+    try {
+      return new ZoneExport(dir, threads, dns.now()).export(dns.snapshot()).toString();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Erreur d'écriture: " + e.getMessage(), e);
+    }
+  }
+
+  /** L'export ne modifie pas la base. */
+  @Override
+  public boolean lectureSeule() {
+    return true;
+  }
+}
@@ -0,0 +1,81 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Commande recherchant des machines par préfixe ou sous-chaîne de leur nom,
+ * dans tous les domaines.
+ *
+ * <p>Exemples :
+ * <pre>
+ *   find web-*        noms commençant par « web- »
+ *   find db           noms contenant « db »
+ *   find -n 10 *db*   idem, dix résultats au plus
+ * </pre>
+ */
+public final class CommandeFind implements Commande {
+
+  /** Nombre de résultats par défaut. */
+  public static final int LIMITE_DEFAUT = 100;
+
+  /** Texte recherché, sans les étoiles. */
+  private final String motif;
+
+  /** {@code true} pour une recherche par préfixe, {@code false} par sous-chaîne. */
+  private final boolean prefixe;
+
+  /** Nombre maximal de résultats. */
+  private final int limite;
+
+  /**
+   * Crée une commande de recherche.
+   *
+   * @param motif texte recherché
+   * @param prefixe {@code true} pour un préfixe, {@code false} pour une sous-chaîne
+   * @param limite nombre maximal de résultats
+   */
+  public CommandeFind(String motif, boolean prefixe, int limite) {
+    this.motif = motif;
+    this.prefixe = prefixe;
+    this.limite = limite;
+  }
+
+  /**
+   * Interprète un motif : {@code abc*} est un préfixe, {@code *abc*} ou
+   * {@code abc} une sous-chaîne.
+   *
+   * @param motif motif saisi
+   * @param limite nombre maximal de résultats
+   * @return la commande correspondante
+   */
+  public static CommandeFind of(String motif, int limite) {
+    boolean prefixe = motif.endsWith("*") && !motif.startsWith("*");
+    String texte = motif.replace("*", "");
+    if (texte.isEmpty()) {
+      throw new IllegalArgumentException("Motif de recherche vide");
+    }
+    return new CommandeFind(texte, prefixe, limite);
+  }
+
+  /**
+   * Exécute la recherche.
+   *
+   * @param dns instance du système DNS
+   * @return les entrées trouvées, une par ligne ({@code ip fqdn}), par ordre de nom
+   */
+  @Override
+  public String execute(DnsBase dns) {
+    List<DnsItem> items = prefixe
+        ? dns.findByPrefix(motif, limite)
+        : dns.findContaining(motif, limite);
+    return items.stream()
+        .map(i -> i.getIp().value() + " " + i.getNom().getFqdn())
+        .collect(Collectors.joining(System.lineSeparator()));
+  }
+
+  @Override
+  public boolean lectureSeule() {
+    return true;
+  }
+}
@@ -0,0 +1,30 @@
+package fr.uvsq.cprog.collex;
+
+/**
+ * Commande affichant les statistiques du résolveur amont ({@link Forwarder}).
+ *
+ * <p>Exemple de sortie :
+ * <pre>
+ *   recherches=150 cache=120 (80.0 %) regroupées=5 questions=25 échecs=0
+ *   latence=2.10 ms économisé=263 ms
+ * </pre>
+ */
+public final class CommandeForward implements Commande {
+
+  /**
+   * Exécute le rapport.
+   *
+   * @param dns instance du système DNS
+   * @return les statistiques, ou un message d'erreur si aucun résolveur n'est configuré
+   */
+  @Override
+  public String execute(DnsBase dns) {
+    Forwarder amont = dns.forwarder();
+    return (amont == null) ? "ERREUR : Aucun résolveur amont" : amont.stats().toString();
+  }
+
+  @Override
+  public boolean lectureSeule() {
+    return true;
+  }
+}
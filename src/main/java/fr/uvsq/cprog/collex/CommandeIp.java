@@ -1,5 +1,8 @@
 package fr.uvsq.cprog.collex;
 
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Commande permettant de rechercher un nom de machine (FQDN)
  * à partir d'une adresse IP.
@@ -9,27 +12,71 @@ public final class CommandeIp implements Commande {
   /** Adresse IP à rechercher. */
   private final AdresseIP ip;
 
+  /** Transaction de la session en cours, ou {@code null} hors session. */
+  private final AtomicReference<Transaction> session;
+
   /**
    * Crée une commande de recherche par adresse IP.
    *
    * @param ip adresse IP cible
    */
   public CommandeIp(AdresseIP ip) {
+    this(ip, null);
+  }
+
+  /**
+   * Crée une commande de recherche qui lit dans la transaction de la session
+   * si une transaction y est ouverte au moment de l'exécution.
+   */
+  CommandeIp(AdresseIP ip, AtomicReference<Transaction> session) {
     this.ip = ip;
+    this.session = session;
   }
 
   /**
    * Exécute la recherche sur le système DNS.
    *
    * @param dns instance du système DNS
-   * @return le FQDN associé à l’adresse IP, ou un message d’erreur si introuvable
+   * @return le FQDN associé à l’adresse IP (demandé au résolveur amont si la base
+   *     n'en a pas et qu'un {@link Forwarder} est configuré), ou un message d’erreur
    */
   @Override
-  public String execute(Dns dns) {
-    DnsItem item = dns.getItem(ip);
-    if (item == null) {
+  public String execute(DnsBase dns) {
+    Transaction tx = (session == null) ? null : session.get();
+    DnsItem item = (tx != null) ? tx.getItem(ip) : dns.getItem(ip);
+    if (item != null) {
+      journal(dns, QueryLog.Status.OK, item.getNom().getFqdn());
+      return item.getNom().getFqdn();
+    }
+    Forwarder amont = dns.forwarder();
+    if (amont == null) {
+      journal(dns, QueryLog.Status.NOT_FOUND, null);
       return "ERREUR : Élément introuvable";
     }
-    return item.getNom().getFqdn();
+    try {
+      String nom = amont.resolve(ip);
+      if (nom == null) {
+        journal(dns, QueryLog.Status.NOT_FOUND, null);
+        return "ERREUR : Élément introuvable";
+      }
+      journal(dns, QueryLog.Status.FORWARDED, nom);
+      return nom;
+    } catch (IOException e) {
+      journal(dns, QueryLog.Status.ERROR, null);
+      return "ERREUR : " + e.getMessage();
+    }
+  }
+
+  /** Publie la requête dans le journal de la base, s'il y en a un. */
+  private void journal(DnsBase dns, QueryLog.Status status, String nom) {
+    QueryLog log = dns.queryLog();
+    if (log != null) {
+      log.publish(QueryLog.Type.IP, status, nom, ip);
+    }
+  }
+
+  @Override
+  public boolean lectureSeule() {
+    return true;
   }
 }
@@ -38,7 +38,7 @@ public final class CommandeLs implements Commande {
    * @return une chaîne contenant toutes les entrées du domaine, une par ligne
    */
   @Override
-  public String execute(Dns dns) {
+  public String execute(DnsBase dns) {
     List<DnsItem> items = dns.getItems(domaine);
 
     // Tri éventuel par adresse IP
@@ -53,4 +53,9 @@ public final class CommandeLs implements Commande {
         .map(i -> i.getIp().value() + " " + i.getNom().getFqdn())
         .collect(Collectors.joining(System.lineSeparator()));
   }
+
+  @Override
+  public boolean lectureSeule() {
+    return true;
+  }
 }
@@ -0,0 +1,33 @@
+package fr.uvsq.cprog.collex;
+
+/**
+ * Commande affichant l'empreinte mémoire estimée de la base ({@link Footprint}).
+ *
+ * <p>Exemple de sortie :
+ * <pre>
+ *   entrées              100000 (0 à TTL)
+ *   byName               5.0 Mio
+ *   byIp                 5.0 Mio
+ *   ...
+ *   total tas            28.7 Mio (301.2 o/entrée)
+ *   partage des domaines : 12 domaine(s) distinct(s), 4.6 Mio récupérables
+ * </pre>
+ */
+public final class CommandeMem implements Commande {
+
+  /**
+   * Exécute le rapport.
+   *
+   * @param dns instance du système DNS
+   * @return une ligne par index ou catégorie d'objets, puis les totaux
+   */
+  @Override
+  public String execute(DnsBase dns) {
+    return dns.footprint().toString();
+  }
+
+  @Override
+  public boolean lectureSeule() {
+    return true;
+  }
+}
@@ -1,15 +1,59 @@
 package fr.uvsq.cprog.collex;
 
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
 public final class CommandeNom implements Commande {
   private final NomMachine nom;
+  private final AtomicReference<Transaction> session;
 
   public CommandeNom(NomMachine nom) {
+    this(nom, null);
+  }
+
+  /** Recherche dans la transaction de la session, si elle en a une d'ouverte. */
+  CommandeNom(NomMachine nom, AtomicReference<Transaction> session) {
     this.nom = nom;
+    this.session = session;
+  }
+
+  @Override
+  public String execute(DnsBase dns) {
+    Transaction tx = (session == null) ? null : session.get();
+    DnsItem item = (tx != null) ? tx.getItem(nom) : dns.getItem(nom);
+    if (item != null) {
+      journal(dns, QueryLog.Status.OK, item.getIp());
+      return item.getIp().value();
+    }
+    Forwarder amont = dns.forwarder();
+    if (amont == null) {
+      journal(dns, QueryLog.Status.NOT_FOUND, null);
+      return "ERREUR : Élément introuvable";
+    }
+    try {
+      AdresseIP ip = amont.resolve(nom);
+      if (ip == null) {
+        journal(dns, QueryLog.Status.NOT_FOUND, null);
+        return "ERREUR : Élément introuvable";
+      }
+      journal(dns, QueryLog.Status.FORWARDED, ip);
+      return ip.value();
+    } catch (IOException e) {
+      journal(dns, QueryLog.Status.ERROR, null);
+      return "ERREUR : " + e.getMessage();
+    }
+  }
+
+  /** Publie la requête dans le journal de la base, s'il y en a un. */
+  private void journal(DnsBase dns, QueryLog.Status status, AdresseIP ip) {
+    QueryLog log = dns.queryLog();
+    if (log != null) {
+      log.publish(QueryLog.Type.NOM, status, nom.getFqdn(), ip);
+    }
   }
 
   @Override
-  public String execute(Dns dns) {
-    DnsItem item = dns.getItem(nom);
-    return (item == null) ? "ERREUR : Élément introuvable" : item.getIp().value();
+  public boolean lectureSeule() {
+    return true;
   }
 }
@@ -3,5 +3,5 @@ package fr.uvsq.cprog.collex;
 
 /** Quitter l'application. */
 public final class CommandeQuit implements Commande {
-@Override public String execute(Dns dns) { throw new QuitException(); }
+@Override public String execute(DnsBase dns) { throw new QuitException(); }
 }
\ No newline at end of file
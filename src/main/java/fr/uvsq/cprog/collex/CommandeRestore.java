@@ -0,0 +1,82 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Commande restaurant la base telle qu'elle était à un instant donné, à partir
+ * d'un répertoire de sauvegarde ({@link Backup#restore}).
+ *
+ * <p>Exemples :
+ * <pre>
+ *   restore /var/backups/collex                         état le plus récent
+ *   restore /var/backups/collex 2025-01-01T12:00:00Z    état à cet instant
+ * </pre>
+ * Les fichiers de sauvegarde sont vérifiés avant d'être lus ; la base n'est
+ * modifiée que si la vérification réussit. Seule la différence avec le contenu
+ * courant est appliquée, en un seul lot ({@link Dns#applyChanges}).
+ */
+public final class CommandeRestore implements Commande {
+
+  /** Répertoire de sauvegarde. */
+  private final Path dir;
+
+  /** Instant visé, ou {@code null} pour l'instant présent. */
+  private final Instant target;
+
+  /**
+   * Crée une commande de restauration.
+   *
+   * @param dir répertoire de sauvegarde
+   * @param target instant visé, ou {@code null} pour l'état le plus récent
+   */
+  public CommandeRestore(Path dir, Instant target) {
+    this.dir = dir;
+    this.target = target;
+  }
+
+  /**
+   * Exécute la restauration.
+   *
+   * @param dns instance du système DNS
+   * @return le bilan de la vérification et de l'application
+   */
+  @Override
+  public String execute(DnsBase dns) {
+    Backup.Restored restored;
+    try {
+      restored = Backup.restore(dir, (target == null) ? dns.now() : target);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Erreur de restauration: " + e.getMessage(), e);
+    }
+    final long t0 = System.nanoTime();
+    Map<NomMachine, DnsItem> wanted = new HashMap<>();
+    for (DnsItem it : restored.getItems()) {
+      wanted.put(it.getNom(), it);
+    }
+    List<ZoneDiff.Change> changes = new ArrayList<>();
+    for (DnsItem cur : dns.snapshot()) {
+      DnsItem after = wanted.remove(cur.getNom());
+      if (after == null) {
+        changes.add(new ZoneDiff.Change(ZoneDiff.Kind.REMOVE, cur, null));
+      } else if (!cur.getIp().equals(after.getIp())
+          || !Objects.equals(cur.getExpiration(), after.getExpiration())) {
+        changes.add(new ZoneDiff.Change(ZoneDiff.Kind.CHANGE, cur, after));
+      }
+    }
+    for (DnsItem after : wanted.values()) {
+      changes.add(new ZoneDiff.Change(ZoneDiff.Kind.ADD, null, after));
+    }
+    int n = changes.isEmpty() ? 0 : dns.applyChanges(changes);
+    return restored + System.lineSeparator() + String.format(Locale.ROOT,
+        "%d mutation(s) appliquée(s) en %.1f ms", n, (System.nanoTime() - t0) / 1e6);
+  }
+}
@@ -0,0 +1,51 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Commande affichant l'occupation des sous-réseaux.
+ *
+ * <p>Exemples :
+ * <pre>
+ *   subnets                 sous-réseaux déjà utilisés par alloc
+ *   subnets 10.0.0.0/16     occupation de 10.0.0.0/16
+ * </pre>
+ * Chaque ligne a la forme {@code 10.0.0.0/24 12/254 (4.7 %)}.
+ */
+public final class CommandeSubnets implements Commande {
+
+  /** Sous-réseau à examiner, ou {@code null} pour tous les sous-réseaux suivis. */
+  private final Subnet subnet;
+
+  /**
+   * Crée une commande de rapport d'occupation.
+   *
+   * @param subnet sous-réseau à examiner, ou {@code null} pour tous ceux suivis
+   */
+  public CommandeSubnets(Subnet subnet) {
+    this.subnet = subnet;
+  }
+
+  /**
+   * Exécute le rapport.
+   *
+   * @param dns instance du système DNS
+   * @return une ligne par sous-réseau
+   */
+  @Override
+  public String execute(DnsBase dns) {
+    if (subnet != null) {
+      return dns.usage(subnet).toString();
+    }
+    List<SubnetAllocator.Usage> usages = dns.usages();
+    return usages.stream().map(Object::toString)
+        .collect(Collectors.joining(System.lineSeparator()));
+  }
+
+  /** Le rapport ne modifie pas la base. */
+  @Override
+  public boolean lectureSeule() {
+    return true;
+  }
+}
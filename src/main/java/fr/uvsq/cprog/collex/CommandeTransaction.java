@@ -0,0 +1,72 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Commande ouvrant, validant ou abandonnant la transaction de la TUI.
+ *
+ * <p>Exemple :
+ * <pre>
+ *   begin
+ *   add 10.0.1.1 srv1.uvsq.fr
+ *   add 10.0.1.2 srv2.uvsq.fr
+ *   commit          applique les deux ajouts en un lot, ou aucun
+ * </pre>
+ * Entre {@code begin} et {@code commit}, les ajouts et les recherches passent
+ * par la {@link Transaction} ; {@code abort} l'abandonne.
+ */
+public final class CommandeTransaction implements Commande {
+
+  /** Action sur la transaction. */
+  public enum Action {
+    BEGIN, COMMIT, ABORT
+  }
+
+  private final Action action;
+
+  /** Base sur laquelle {@code begin} ouvre la transaction. */
+  private final Dns base;
+
+  /** Transaction en cours de la TUI (partagée avec elle), vide hors transaction. */
+  private final AtomicReference<Transaction> session;
+
+  /**
+   * Crée une commande de transaction.
+   *
+   * @param action action à effectuer
+   * @param base base sur laquelle ouvrir la transaction (une base simple :
+   *     une base composée n'en offre pas)
+   * @param session transaction en cours, mise à jour par la commande
+   */
+  public CommandeTransaction(Action action, Dns base, AtomicReference<Transaction> session) {
+    this.action = action;
+    this.base = base;
+    this.session = session;
+  }
+
+  /**
+   * Exécute l'action sur la base donnée à la construction.
+   *
+   * @param dns instance du système DNS
+   * @return un message de confirmation ou d'erreur
+   */
+  @Override
+  public String execute(DnsBase dns) {
+    if (action == Action.BEGIN) {
+      Transaction tx = base.transaction();
+      if (!session.compareAndSet(null, tx)) {
+        return "ERREUR : Transaction déjà ouverte";
+      }
+      return "";
+    }
+    Transaction tx = session.getAndSet(null);
+    if (tx == null) {
+      return "ERREUR : Aucune transaction ouverte";
+    }
+    if (action == Action.ABORT) {
+      tx.abort();
+      return "Transaction abandonnée";
+    }
+    return tx.commit() + " mutation(s) appliquée(s)";
+  }
+}
@@ -0,0 +1,100 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Commande démarrant ou arrêtant la surveillance d'un domaine.
+ *
+ * <p>{@code watch example.com} ouvre un {@link ChangeStream} et affiche en tâche
+ * de fond chaque modification du domaine (sous-domaines compris), sous la forme
+ * {@code #seq + ip fqdn} pour un ajout et {@code #seq - ip fqdn} pour une
+ * suppression ; {@code unwatch example.com} y met fin.
+ */
+public final class CommandeWatch implements Commande {
+
+  /** Taille de la file de chaque surveillance. */
+  private static final int CAPACITE = 1024;
+
+  /** Base dont les modifications sont suivies. */
+  private final Dns base;
+
+  /** Domaine surveillé. */
+  private final String domaine;
+
+  /** {@code true} pour arrêter la surveillance, {@code false} pour la démarrer. */
+  private final boolean arret;
+
+  /** Flux d'affichage des modifications. */
+  private final PrintStream out;
+
+  /** Surveillances en cours, par domaine (partagées avec la TUI). */
+  private final Map<String, ChangeStream> actives;
+
+  /**
+   * Crée une commande de surveillance.
+   *
+   * @param base base surveillée (une base simple : une base composée n'a pas
+   *     de journal unique à suivre)
+   * @param domaine domaine à surveiller ou à ne plus surveiller
+   * @param arret {@code true} pour {@code unwatch}
+   * @param out flux où afficher les modifications
+   * @param actives surveillances en cours, mises à jour par la commande
+   */
+  public CommandeWatch(Dns base, String domaine, boolean arret, PrintStream out,
+      Map<String, ChangeStream> actives) {
+    this.base = base;
+    this.domaine = domaine;
+    this.arret = arret;
+    this.out = out;
+    this.actives = actives;
+  }
+
+  /**
+   * Démarre ou arrête la surveillance de la base donnée à la construction.
+   *
+   * @param dns instance du système DNS
+   * @return un message de confirmation
+   */
+  @Override
+  public String execute(DnsBase dns) {
+    if (arret) {
+      ChangeStream stream = actives.remove(domaine);
+      if (stream == null) {
+        return "ERREUR : Aucune surveillance de " + domaine;
+      }
+      stream.close();
+      return "Surveillance de " + domaine + " arrêtée";
+    }
+    if (actives.containsKey(domaine)) {
+      return "ERREUR : " + domaine + " est déjà surveillé";
+    }
+    ChangeStream stream = base.watch(domaine, CAPACITE);
+    actives.put(domaine, stream);
+    Thread t = new Thread(() -> tail(stream), "watch-" + domaine);
+    t.setDaemon(true);
+    t.start();
+    return "Surveillance de " + domaine + " (unwatch " + domaine + " pour arrêter)";
+  }
+
+  private void tail(ChangeStream stream) {
+    try {
+      while (!stream.isClosed()) {
+        Mutation m = stream.poll(500, TimeUnit.MILLISECONDS);
+        if (m != null) {
+          out.println(format(m));
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Formate une modification : {@code #seq +|- ip fqdn}. */
+  static String format(Mutation m) {
+    DnsItem it = m.getItem();
+    return "#" + m.getSeq() + (m.getType() == Mutation.Type.ADD ? " + " : " - ")
+        + it.getIp().value() + " " + it.getNom().getFqdn();
+  }
+}
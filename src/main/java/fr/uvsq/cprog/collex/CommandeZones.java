@@ -0,0 +1,33 @@
+package fr.uvsq.cprog.collex;
+
+/**
+ * Commande affichant, pour chaque zone hébergée ({@link ZonedDns}), son
+ * empreinte mémoire et son activité d'écriture.
+ *
+ * <p>Exemple de sortie :
+ * <pre>
+ *   uvsq.fr              120000 entrée(s), 34.2 Mio ; 12 mutation(s) (0.1/s), ...
+ *   iut.uvsq.fr          chargement en cours (zones/iut.txt)
+ * </pre>
+ */
+public final class CommandeZones implements Commande {
+
+  /**
+   * Exécute le rapport.
+   *
+   * @param dns instance du système DNS
+   * @return une ligne par zone, ou l'activité de la base unique
+   */
+  @Override
+  public String execute(DnsBase dns) {
+    if (dns instanceof ZonedDns) {
+      return ((ZonedDns) dns).zoneStats();
+    }
+    return "Base unique : " + dns.writeStats();
+  }
+
+  @Override
+  public boolean lectureSeule() {
+    return true;
+  }
+}
@@ -0,0 +1,394 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Format binaire compact d'un fichier de zone.
+ *
+ * <p>Les entrées sont triées selon leur nom à labels inversés
+ * ({@code www.uvsq.fr} devient {@code fr.uvsq.www}) : les machines d'un même
+ * domaine sont ainsi contiguës et partagent un long préfixe. Elles sont
+ * groupées en blocs décodables indépendamment ; dans un bloc, chaque nom ne
+ * stocke que la longueur du préfixe commun avec le précédent et son suffixe
+ * (« front coding »), chaque adresse l'écart avec la précédente en varint
+ * zigzag, et l'expiration en varint (0 pour une entrée permanente).
+ *
+ * <pre>
+ *   en-tête  : int MAGIC
+ *   bloc     : varint n, puis n × [varint commun][varint lg][suffixe][zigzag Δip][varint exp]
+ *   index    : varint nbBlocs, puis nbBlocs × [varint lg][premier nom inversé][long position]
+ *   pied     : long position de l'index, int MAGIC
+ * </pre>
+ * Une recherche par nom fait une dichotomie dans l'index et ne décode qu'un bloc.
+ */
+final class CompactZoneFile implements ZoneIndex {
+
+  /** Signature ({@code "DNSZ"}) en tête et en pied de fichier. */
+  static final int MAGIC = 0x444E535A;
+
+  private static final int FOOTER = 8 + 4;
+
+  private final Path file;
+  private final String[] firstKeys;
+  private final long[] offsets;
+  private final long indexOffset;
+
+  private CompactZoneFile(Path file, String[] firstKeys, long[] offsets, long indexOffset) {
+    this.file = file;
+    this.firstKeys = firstKeys;
+    this.offsets = offsets;
+    this.indexOffset = indexOffset;
+  }
+
+  /**
+   * Indique si un fichier est au format compact : signature en tête, et pied
+   * dont la signature et la position d'index sont cohérentes avec la taille.
+   * Une base texte dont la première ligne commence par {@code DNSZ} n'est donc
+   * pas prise pour un fichier compact.
+   *
+   * @param file fichier à examiner
+   * @return {@code true} si le fichier a l'en-tête et le pied du format
+   * @throws IOException en cas d'erreur de lecture
+   */
+  static boolean isCompact(Path file) throws IOException {
+    if (Files.notExists(file) || Files.size(file) < 4 + FOOTER) {
+      return false;
+    }
+    try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+      if (in.readInt() != MAGIC) {
+        return false;
+      }
+    }
+    return footer(file) >= 0;
+  }
+
+  /** Nom à labels inversés : {@code www.uvsq.fr} ↔ {@code fr.uvsq.www}. */
+  static String reverseLabels(String name) {
+    StringBuilder sb = new StringBuilder(name.length());
+    int end = name.length();
+    for (int i = name.length() - 1; i >= 0; i--) {
+      if (name.charAt(i) == '.') {
+        sb.append(name, i + 1, end).append('.');
+        end = i;
+      }
+    }
+    return sb.append(name, 0, end).toString();
+  }
+
+  // ---------------------------------------------------------------- écriture
+
+  /**
+   * Écrit des entrées au format compact.
+   *
+   * @param file fichier destination (remplacé)
+   * @param items entrées, dans un ordre quelconque
+   * @param blockSize nombre d'entrées par bloc
+   * @throws IOException en cas d'erreur d'écriture
+   */
+  static void write(Path file, List<DnsItem> items, int blockSize) throws IOException {
+    int n = items.size();
+    String[] keys = new String[n];
+    Integer[] order = new Integer[n];
+    for (int i = 0; i < n; i++) {
+      keys[i] = reverseLabels(items.get(i).getNom().getFqdn());
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> keys[a].compareTo(keys[b]));
+
+    List<byte[]> firstKeys = new ArrayList<>();
+    List<Long> offsets = new ArrayList<>();
+    ByteArrayOutputStream block = new ByteArrayOutputStream(blockSize * 16);
+    try (OutputStream out = Files.newOutputStream(file)) {
+      byte[] head = ByteBuffer.allocate(4).putInt(MAGIC).array();
+      out.write(head);
+      long pos = head.length;
+      for (int start = 0; start < n; start += blockSize) {
+        int end = Math.min(n, start + blockSize);
+        block.reset();
+        writeVarint(block, end - start);
+        byte[] prev = new byte[0];
+        int prevIp = 0;
+        for (int i = start; i < end; i++) {
+          byte[] key = keys[order[i]].getBytes(StandardCharsets.UTF_8);
+          int shared = 0;
+          int max = Math.min(prev.length, key.length);
+          while (shared < max && prev[shared] == key[shared]) {
+            shared++;
+          }
+          writeVarint(block, shared);
+          writeVarint(block, key.length - shared);
+          block.write(key, shared, key.length - shared);
+          DnsItem it = items.get(order[i]);
+          int ip = it.getIp().toInt();
+          writeVarint(block, zigzag(ip - prevIp));
+          Instant exp = it.getExpiration();
+          writeVarlong(block, (exp == null) ? 0 : exp.toEpochMilli() + 1);
+          if (i == start) {
+            firstKeys.add(key);
+            offsets.add(pos);
+          }
+          prev = key;
+          prevIp = ip;
+        }
+        block.writeTo(out);
+        pos += block.size();
+      }
+      block.reset();
+      writeVarint(block, firstKeys.size());
+      for (int i = 0; i < firstKeys.size(); i++) {
+        writeVarint(block, firstKeys.get(i).length);
+        block.write(firstKeys.get(i));
+        block.write(ByteBuffer.allocate(8).putLong(offsets.get(i)).array());
+      }
+      block.write(ByteBuffer.allocate(FOOTER).putLong(pos).putInt(MAGIC).array());
+      block.writeTo(out);
+    }
+  }
+
+  // ---------------------------------------------------------------- lecture
+
+  /**
+   * Décode toutes les entrées d'un fichier compact, dans l'ordre des noms inversés.
+   *
+   * @param file fichier à lire
+   * @param action action appliquée à chaque entrée
+   * @throws IOException en cas d'erreur de lecture ou de format
+   */
+  static void forEach(Path file, Consumer<? super DnsItem> action) throws IOException {
+    long indexOffset = readFooter(file);
+    try (InputStream is = Files.newInputStream(file);
+         DataInputStream in = new DataInputStream(new BufferedInputStream(is, 1 << 16))) {
+      in.readInt();
+      long pos = 4;
+      CountingBlock counting = new CountingBlock(in);
+      while (pos < indexOffset) {
+        counting.count = 0;
+        decodeBlock(counting, null, action);
+        pos += counting.count;
+      }
+    }
+  }
+
+  /**
+   * Ouvre l'index de blocs d'un fichier compact.
+   *
+   * @param file fichier à ouvrir
+   * @return l'index
+   * @throws IOException en cas d'erreur de lecture ou de format
+   */
+  static CompactZoneFile open(Path file) throws IOException {
+    long indexOffset = readFooter(file);
+    ByteBuffer bb = readRange(file, indexOffset, Files.size(file) - FOOTER);
+    int n = readVarint(bb);
+    String[] keys = new String[n];
+    long[] offsets = new long[n];
+    for (int i = 0; i < n; i++) {
+      byte[] key = new byte[readVarint(bb)];
+      bb.get(key);
+      keys[i] = new String(key, StandardCharsets.UTF_8);
+      offsets[i] = bb.getLong();
+    }
+    return new CompactZoneFile(file, keys, offsets, indexOffset);
+  }
+
+  @Override
+  public DnsItem lookup(NomMachine nom) throws IOException {
+    String key = reverseLabels(nom.getFqdn());
+    int k = Arrays.binarySearch(firstKeys, key);
+    if (k < 0) {
+      k = -k - 2;
+    }
+    if (k < 0) {
+      return null;
+    }
+    long to = (k + 1 < offsets.length) ? offsets[k + 1] : indexOffset;
+    ByteBuffer bb = readRange(file, offsets[k], to);
+    DnsItem[] found = new DnsItem[1];
+    decodeBlock(new BufferBlock(bb), key, it -> found[0] = it);
+    return found[0];
+  }
+
+  /**
+   * Décode un bloc. Si {@code target} est non nul, seule l'entrée de ce nom
+   * inversé est transmise et le décodage s'arrête dès qu'elle est dépassée.
+   */
+  private static void decodeBlock(Block in, String target, Consumer<? super DnsItem> action)
+      throws IOException {
+    int n = in.varint();
+    byte[] key = new byte[64];
+    int keyLen = 0;
+    int ip = 0;
+    for (int i = 0; i < n; i++) {
+      int shared = in.varint();
+      int len = in.varint();
+      if (shared + len > key.length) {
+        key = Arrays.copyOf(key, Math.max(key.length * 2, shared + len));
+      }
+      in.bytes(key, shared, len);
+      keyLen = shared + len;
+      ip += unzigzag(in.varint());
+      long exp = in.varlong();
+      String k = new String(key, 0, keyLen, StandardCharsets.UTF_8);
+      if (target != null) {
+        int c = k.compareTo(target);
+        if (c > 0) {
+          return;
+        }
+        if (c < 0) {
+          continue;
+        }
+      }
+      action.accept(new DnsItem(new NomMachine(reverseLabels(k)), AdresseIP.fromInt(ip),
+          (exp == 0) ? null : Instant.ofEpochMilli(exp - 1)));
+      if (target != null) {
+        return;
+      }
+    }
+  }
+
+  private static long readFooter(Path file) throws IOException {
+    long indexOffset = footer(file);
+    if (indexOffset < 0) {
+      throw new IOException("Fichier de zone compact corrompu: " + file);
+    }
+    return indexOffset;
+  }
+
+  /** Position de l'index d'après le pied, ou -1 si le pied est invalide. */
+  private static long footer(Path file) throws IOException {
+    long size = Files.size(file);
+    ByteBuffer foot = readRange(file, size - FOOTER, size);
+    long indexOffset = foot.getLong();
+    if (foot.getInt() != MAGIC || indexOffset < 4 || indexOffset > size - FOOTER) {
+      return -1;
+    }
+    return indexOffset;
+  }
+
+  private static ByteBuffer readRange(Path file, long from, long to) throws IOException {
+    ByteBuffer bb = ByteBuffer.allocate((int) (to - from));
+    try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+      while (bb.hasRemaining()) {
+        if (ch.read(bb, from + bb.position()) < 0) {
+          throw new EOFException("Fichier de zone compact tronqué: " + file);
+        }
+      }
+    }
+    return bb.flip();
+  }
+
+  // ---------------------------------------------------------------- varints
+
+  private static int zigzag(int v) {
+    return (v << 1) ^ (v >> 31);
+  }
+
+  private static int unzigzag(int v) {
+    return (v >>> 1) ^ -(v & 1);
+  }
+
+  private static void writeVarint(ByteArrayOutputStream out, int v) {
+    writeVarlong(out, v & 0xFFFFFFFFL);
+  }
+
+  private static void writeVarlong(ByteArrayOutputStream out, long v) {
+    while ((v & ~0x7FL) != 0) {
+      out.write((int) ((v & 0x7F) | 0x80));
+      v >>>= 7;
+    }
+    out.write((int) v);
+  }
+
+  private static int readVarint(ByteBuffer bb) {
+    return (int) readVarlong(bb);
+  }
+
+  private static long readVarlong(ByteBuffer bb) {
+    long v = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = bb.get();
+      v |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return v;
+      }
+    }
+  }
+
+  /** Source d'octets d'un bloc : flux séquentiel ou tampon déjà lu. */
+  private abstract static class Block {
+    abstract int read() throws IOException;
+
+    abstract void bytes(byte[] dst, int off, int len) throws IOException;
+
+    int varint() throws IOException {
+      return (int) varlong();
+    }
+
+    long varlong() throws IOException {
+      long v = 0;
+      for (int shift = 0; ; shift += 7) {
+        int b = read();
+        v |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return v;
+        }
+      }
+    }
+  }
+
+  private static final class CountingBlock extends Block {
+    private final DataInputStream in;
+    private long count;
+
+    CountingBlock(DataInputStream in) {
+      this.in = in;
+    }
+
+    @Override
+    int read() throws IOException {
+      count++;
+      return in.readUnsignedByte();
+    }
+
+    @Override
+    void bytes(byte[] dst, int off, int len) throws IOException {
+      in.readFully(dst, off, len);
+      count += len;
+    }
+  }
+
+  private static final class BufferBlock extends Block {
+    private final ByteBuffer bb;
+
+    BufferBlock(ByteBuffer bb) {
+      this.bb = bb;
+    }
+
+    @Override
+    int read() {
+      return bb.get() & 0xFF;
+    }
+
+    @Override
+    void bytes(byte[] dst, int off, int len) {
+      bb.get(dst, off, len);
+    }
+  }
+}
@@ -1,48 +1,195 @@
 package fr.uvsq.cprog.collex;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.LinkedHashMap;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
 
-public class Dns {
-  private final Map<NomMachine, AdresseIP> byName = new LinkedHashMap<>();
-  private final Map<AdresseIP, NomMachine> byIp = new LinkedHashMap<>();
+/**
+ * Base DNS : règles métier (unicité, TTL), chargement et persistance du fichier.
+ *
+ * <p>La représentation en mémoire est déléguée à un {@link DnsStore} choisi par
+ * la propriété {@code db.store}. La propriété {@code db.strict} rend le
+ * chargement strict : une ligne mal formée lève alors une exception au lieu
+ * d'être ignorée.
+ *
+ * <p>Avec {@code db.lazy=true}, le constructeur ne charge qu'un index clairsemé
+ * de la base ({@link SparseZoneIndex}, une ligne sur {@code db.lazy.step}) :
+ * {@link #getItem(NomMachine)} lit alors directement quelques lignes du fichier,
+ * et la base n'est chargée entièrement qu'à la première opération qui doit la
+ * parcourir (recherche par adresse, listage, ajout).
+ *
+ * <p>Avec {@code cache.size} strictement positif, les deux méthodes
+ * {@code getItem} passent par un {@link LookupCache} (W-TinyLFU) dont le budget
+ * s'exprime en entrées ou en octets selon {@code cache.unit}. Il est destiné
+ * aux modes où une recherche coûte une lecture ou un décodage (paresseux,
+ * {@code offheap}, {@code mmap}) ; chaque mutation invalide les clés touchées.
+ *
+ * <p>La propriété {@code db.format} choisit le format d'écriture : {@code text}
+ * (défaut, une ligne par entrée) ou {@code compact} ({@link CompactZoneFile},
+ * blocs de {@code db.compact.block} entrées). Le format d'un fichier existant
+ * est reconnu à sa signature, ce qui permet de migrer une base texte.
+ *
+ * <p>Chaque mutation est numérotée et conservée dans un {@link MutationLog}
+ * ({@code log.size} dernières) : c'est le flux diffusé aux suiveurs par
+ * {@link ReplicationLeader} et, filtré par domaine, aux {@link ChangeStream}
+ * ouverts par {@link #watch}. Les lectures partagent un verrou en lecture, les
+ * mutations prennent le verrou en écriture.
+ *
+ * <p>Le fichier est réécrit après chaque mutation par renommage d'un fichier
+ * complet ({@code <db.file>.tmp}) : une copie ou une sauvegarde ({@link Backup})
+ * ne voit jamais un fichier à moitié écrit.
+ *
+ * <p>C'est la seule implémentation de {@link DnsBase} à offrir transactions,
+ * surveillance, sauvegarde et réplication.
+ */
+public class Dns implements DnsBase {
+  /** Durée d'un tick de la roue d'expiration. */
+  private static final long TTL_TICK_MILLIS = 1000;
+
+  private final DnsStore store;
+  private final boolean strict;
+  private final boolean lazyMode;
+  private final int lazyStep;
+  private final boolean compact;
+  private final int compactBlock;
   private final Path dbFile;
+  private final Path tombstoneFile;
+  private final Clock clock;
+
+  /** Échéances des seules entrées à TTL, pour annulation en O(1). */
+  private final Map<NomMachine, TimerWheel.Timer<NomMachine>> timers = new HashMap<>();
+  private final TimerWheel<NomMachine> wheel;
+
+  /** Accès direct au fichier tant que la base n'est pas chargée, {@code null} ensuite. */
+  private volatile ZoneIndex lazy;
+
+  /** Cache des recherches par nom et par adresse, {@code null} si désactivé. */
+  private final LookupCache<Object, DnsItem> cache;
+
+  /** Index de recherche par préfixe et sous-chaîne, construit au premier {@code find}. */
+  private volatile NameIndex nameIndex;
+
+  /** Occupation des sous-réseaux utilisés par {@link #allocate}. */
+  private final SubnetAllocator subnets = new SubnetAllocator();
+
+  /** Empreinte des entrées, tenue à jour par {@link #insert} et {@link #remove}. */
+  private final Footprint footprint = new Footprint(HeapLayout.current());
+
+  /** Résolveur amont des recherches infructueuses, {@code null} si aucun. */
+  private volatile Forwarder forwarder;
+
+  /** Journal des requêtes des commandes, {@code null} si aucun. */
+  private volatile QueryLog queryLog;
+
+  private final MutationLog log;
+
+  /** Identifiant de ce chargement : les numéros de mutation repartent de 0 au suivant. */
+  private final String epoch = UUID.randomUUID().toString();
+
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
+  /** Taille et date du fichier tel que chargé ou écrit par cette instance. */
+  private volatile FileState fileState;
+
+  /** Réécritures du fichier, octets et temps d'écriture ; modifiés sous le verrou en écriture. */
+  private long rewrites;
+  private long writtenBytes;
+  private long writeNanos;
+
+  /** Instant du chargement, origine du débit d'écriture. */
+  private final long loadedAt = System.nanoTime();
+
+  /** Dernier tick pour lequel les expirations ont été traitées. */
+  private volatile long expiredTick;
+
+  /**
+   * Base alimentée par un meneur ({@link ReplicationFollower}) : elle n'expire
+   * rien d'elle-même, seules les suppressions du meneur retirent les entrées.
+   */
+  private volatile boolean replica;
+
+  /**
+   * Mutations journalisées par l'expiration ; modifié sous le verrou en
+   * écriture. {@link #reload} les retire du numéro de mutation qu'il surveille.
+   */
+  private long expirations;
+
+  /** Charge la base désignée par {@code dns.properties}. */
   public Dns() {
-    try {
-      Properties p = new Properties();
-      try (InputStream in =
-               getClass().getClassLoader().getResourceAsStream("dns.properties")) {
-        if (in == null) {
-          throw new IllegalStateException("dns.properties introuvable");
-        }
-        p.load(in);
-      }
-      String path = p.getProperty("db.file");
-      if (path == null) {
-        throw new IllegalStateException("Propriété db.file absente");
-      }
-      this.dbFile = Paths.get(path);
-      load();
-    } catch (IOException e) {
-      throw new IllegalStateException("Erreur de chargement: " + e.getMessage(), e);
-    }
+    this(defaultConfig());
+  }
+
+  private Dns(Properties config) {
+    this(dbFileOf(config), config, Clock.systemUTC());
   }
 
   public Dns(Path dbFile) {
+    this(dbFile, new Properties());
+  }
+
+  /**
+   * Charge une base avec la configuration donnée.
+   *
+   * @param dbFile fichier de base (créé vide s'il n'existe pas)
+   * @param config propriétés ({@code db.store}, {@code db.strict}, {@code db.lazy},
+   *     {@code db.lazy.step}, {@code cache.size}, {@code cache.unit}, {@code db.format},
+   *     {@code db.compact.block}, {@code log.size}) ;
+   *     {@code db.file} est ignorée
+   */
+  public Dns(Path dbFile, Properties config) {
+    this(dbFile, config, Clock.systemUTC());
+  }
+
+  Dns(Path dbFile, Clock clock) {
+    this(dbFile, new Properties(), clock);
+  }
+
+  Dns(Path dbFile, Properties config, Clock clock) {
     this.dbFile = Objects.requireNonNull(dbFile);
+    this.tombstoneFile = tombstonesOf(dbFile);
+    this.clock = Objects.requireNonNull(clock);
+    this.wheel = new TimerWheel<>(TTL_TICK_MILLIS, clock.millis());
+    this.store = DnsStore.create(config.getProperty("db.store", "hash"), dbFile);
+    this.strict = Boolean.parseBoolean(config.getProperty("db.strict", "false"));
+    this.lazyMode = Boolean.parseBoolean(config.getProperty("db.lazy", "false"));
+    this.lazyStep = Integer.parseInt(config.getProperty("db.lazy.step", "64"));
+    this.cache = createCache(config);
+    String format = config.getProperty("db.format", "text");
+    if (!format.equals("text") && !format.equals("compact")) {
+      throw new IllegalStateException("Format de base inconnu: " + format);
+    }
+    this.compact = format.equals("compact");
+    this.compactBlock = Integer.parseInt(config.getProperty("db.compact.block", "128"));
+    this.log = new MutationLog(Integer.parseInt(config.getProperty("log.size", "10000")));
     try {
       if (Files.notExists(dbFile)) {
         Path parent = dbFile.getParent();
@@ -51,83 +198,1380 @@ public class Dns {
         }
         Files.createFile(dbFile);
       }
-      load();
+      if (lazyMode) {
+        // fichier non trié (édité à la main) : retour au chargement complet
+        lazy = CompactZoneFile.isCompact(dbFile)
+            ? CompactZoneFile.open(dbFile)
+            : SparseZoneIndex.open(dbFile, lazyStep, this::parse);
+      }
+      if (lazy == null) {
+        load();
+      }
+      fileState = FileState.of(dbFile);
+    } catch (IOException e) {
+      throw new IllegalStateException("Erreur de chargement: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Ouvre la base décrite par {@code dns.properties} : une {@link ZonedDns} si
+   * {@code db.zones} est renseignée, sinon une instance simple, ou une
+   * {@link ShardedDns} si {@code db.shards} est supérieur à 1 ; munie d'un
+   * {@link Forwarder} si {@code forward.upstream} est renseignée et d'un
+   * {@link QueryLog} si {@code querylog.file} l'est.
+   *
+   * @return la base chargée
+   */
+  public static DnsBase open() {
+    Properties config = defaultConfig();
+    int shards = Integer.parseInt(config.getProperty("db.shards", "1"));
+    Map<String, Path> zones = ZonedDns.zonesOf(config);
+    DnsBase dns = !zones.isEmpty() ? new ZonedDns(zones, config)
+        : (shards > 1) ? new ShardedDns(dbFileOf(config), shards, config) : new Dns(config);
+    dns.setForwarder(Forwarder.fromConfig(config, Clock.systemUTC()));
+    QueryLog queries = QueryLog.fromConfig(config);
+    if (queries != null) {
+      // les événements encore dans l'anneau sont écrits à l'arrêt de la JVM
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          queries.close();
+        } catch (IOException e) {
+          System.err.println("ERREUR : journal des requêtes : " + e.getMessage());
+        }
+      }, "querylog-close"));
+      dns.setQueryLog(queries);
+    }
+    return dns;
+  }
+
+  /**
+   * Désigne le journal où les commandes de recherche et d'ajout publient leurs
+   * requêtes ({@code querylog.file}).
+   *
+   * @param queryLog journal, ou {@code null} pour ne rien journaliser
+   */
+  @Override
+  public void setQueryLog(QueryLog queryLog) {
+    this.queryLog = queryLog;
+  }
+
+  /** Journal des requêtes, ou {@code null} si aucun n'est configuré. */
+  @Override
+  public QueryLog queryLog() {
+    return queryLog;
+  }
+
+  /**
+   * Désigne le résolveur interrogé par les commandes de recherche pour les noms
+   * et adresses absents de la base ({@code forward.upstream}).
+   *
+   * @param forwarder résolveur amont, ou {@code null} pour ne rien transmettre
+   */
+  @Override
+  public void setForwarder(Forwarder forwarder) {
+    this.forwarder = forwarder;
+  }
+
+  /** Résolveur amont, ou {@code null} si aucun n'est configuré. */
+  @Override
+  public Forwarder forwarder() {
+    return forwarder;
+  }
+
+  /** Lit {@code dns.properties} sur le classpath. */
+  static Properties defaultConfig() {
+    Properties p = new Properties();
+    try (InputStream in = Dns.class.getClassLoader().getResourceAsStream("dns.properties")) {
+      if (in == null) {
+        throw new IllegalStateException("dns.properties introuvable");
+      }
+      p.load(in);
     } catch (IOException e) {
-      throw new IllegalStateException("Erreur init base test: " + e.getMessage(), e);
+      throw new IllegalStateException("Erreur de chargement: " + e.getMessage(), e);
     }
+    return p;
+  }
+
+  private static LookupCache<Object, DnsItem> createCache(Properties config) {
+    long size = Long.parseLong(config.getProperty("cache.size", "0"));
+    if (size <= 0) {
+      return null;
+    }
+    String unit = config.getProperty("cache.unit", "entries");
+    switch (unit) {
+      case "entries":
+        return new LookupCache<>(size, it -> 1, (int) Math.min(size, Integer.MAX_VALUE));
+      case "bytes":
+        return new LookupCache<>(size, Dns::estimatedBytes, (int) Math.min(size / 256, 1 << 24));
+      default:
+        throw new IllegalStateException("Unité de cache inconnue: " + unit);
+    }
+  }
+
+  /**
+   * Estimation de l'empreinte d'une entrée en cache : nœud et entrée de table,
+   * DnsItem, NomMachine et ses trois chaînes, AdresseIP et sa chaîne.
+   */
+  private static int estimatedBytes(DnsItem it) {
+    int fqdn = it.getNom().getFqdn().length();
+    return 48 + 32 + 24 + 24 + 3 * 40 + 2 * fqdn + 16 + 40 + it.getIp().value().length();
+  }
+
+  static Path dbFileOf(Properties config) {
+    String path = config.getProperty("db.file");
+    if (path == null) {
+      throw new IllegalStateException("Propriété db.file absente");
+    }
+    return Paths.get(path);
+  }
+
+  private static Path tombstonesOf(Path dbFile) {
+    return dbFile.resolveSibling(dbFile.getFileName() + ".tombstones");
   }
 
   private void load() throws IOException {
     if (Files.notExists(dbFile)) {
       return;
     }
-    List<String> lines = Files.readAllLines(dbFile, StandardCharsets.UTF_8);
-    for (String line : lines) {
-      String trimmed = line.trim();
-      if (trimmed.isEmpty() || trimmed.startsWith("#")) {
-        continue;
+    DnsEvents.Chargement ev = new DnsEvents.Chargement();
+    ev.begin();
+    Instant now = clock.instant();
+    List<DnsItem> expired = new ArrayList<>();
+    Consumer<DnsItem> loader = item -> {
+      if (item.isExpired(now)) {
+        expired.add(item);
+      } else {
+        insert(item);
       }
-      String[] parts = trimmed.split("\\s+");
-      if (parts.length != 2) {
-        continue;
+    };
+    if (CompactZoneFile.isCompact(dbFile)) {
+      CompactZoneFile.forEach(dbFile, loader);
+    } else {
+      for (String line : Files.readAllLines(dbFile, StandardCharsets.UTF_8)) {
+        DnsItem item = parse(line);
+        if (item != null) {
+          loader.accept(item);
+        }
+      }
+    }
+    if (!expired.isEmpty()) {
+      // lignes échues retirées du fichier : le prochain chargement ne les relit pas
+      tombstone(expired);
+      persist();
+    }
+    ev.end();
+    if (ev.shouldCommit()) {
+      ev.fichier = dbFile.toString();
+      ev.entrees = store.size();
+      ev.octets = Files.size(dbFile);
+      ev.commit();
+    }
+  }
+
+  /**
+   * Analyse une ligne de la base selon {@code db.strict}.
+   *
+   * @return l'entrée, ou {@code null} pour une ligne vide, un commentaire
+   *     ou (en mode non strict) une ligne mal formée
+   */
+  private DnsItem parse(String line) {
+    return parseLine(line, strict);
+  }
+
+  /**
+   * Analyse une ligne au format de la base ; partagé avec {@link ZoneDiff}.
+   *
+   * @param line ligne à analyser
+   * @param strict lever une exception plutôt qu'ignorer une ligne mal formée
+   * @return l'entrée, ou {@code null} pour une ligne vide, un commentaire
+   *     ou (en mode non strict) une ligne mal formée
+   */
+  static DnsItem parseLine(String line, boolean strict) {
+    String trimmed = line.trim();
+    if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+      return null;
+    }
+    String[] parts = trimmed.split("\\s+");
+    if (parts.length != 2 && parts.length != 3) {
+      if (strict) {
+        throw new IllegalArgumentException("Ligne invalide : " + line);
+      }
+      return null;
+    }
+    NomMachine nom = new NomMachine(parts[0]);
+    AdresseIP ip = new AdresseIP(parts[1]);
+    Instant expiration = null;
+    if (parts.length == 3) {
+      try {
+        expiration = Instant.parse(parts[2]);
+      } catch (DateTimeException e) {
+        if (strict) {
+          throw new IllegalArgumentException("Expiration invalide : " + line, e);
+        }
+        return null;
       }
-      NomMachine nom = new NomMachine(parts[0]);
-      AdresseIP ip = new AdresseIP(parts[1]);
-      insert(nom, ip);
+    }
+    return new DnsItem(nom, ip, expiration);
+  }
+
+  /** Charge entièrement la base si elle ne l'est pas encore (mode paresseux). */
+  private void ensureLoaded() {
+    if (lazy == null) {
+      return;
+    }
+    lazy = null;
+    try {
+      load();
+    } catch (IOException e) {
+      throw new IllegalStateException("Erreur de chargement: " + e.getMessage(), e);
+    }
+  }
+
+  /** Recherche par nom directement dans le fichier, sans charger la base. */
+  private DnsItem lazyLookup(NomMachine nom) {
+    try {
+      DnsItem item = lazy.lookup(nom);
+      return (item == null || item.isExpired(clock.instant())) ? null : item;
+    } catch (IOException e) {
+      throw new IllegalStateException("Erreur de lecture: " + e.getMessage(), e);
     }
   }
 
   private void persist() {
+    DnsEvents.Ecriture ev = new DnsEvents.Ecriture();
+    ev.begin();
+    long t0 = System.nanoTime();
     try {
-      List<DnsItem> items = new ArrayList<>();
-      for (Map.Entry<NomMachine, AdresseIP> e : byName.entrySet()) {
-        items.add(new DnsItem(e.getKey(), e.getValue()));
+      // écriture à côté puis renommage : un lecteur du fichier (sauvegarde,
+      // rechargement) voit l'ancienne version entière ou la nouvelle
+      Path tmp = dbFile.resolveSibling(dbFile.getFileName() + ".tmp");
+      if (compact) {
+        List<DnsItem> items = new ArrayList<>(store.size());
+        store.forEach(items::add);
+        CompactZoneFile.write(tmp, items, compactBlock);
+        replaceAtomically(tmp, dbFile);
+      } else {
+        List<String> out = new ArrayList<>(store.size());
+        store.forEach(it -> out.add(format(it)));
+        if (!store.isSorted()) {
+          // le FQDN ouvre la ligne : trier les lignes revient à trier par nom
+          out.sort(Comparator.naturalOrder());
+        }
+        Files.write(tmp, out, StandardCharsets.UTF_8);
+        replaceAtomically(tmp, dbFile);
+        if (lazyMode) {
+          SparseZoneIndex.write(dbFile, out, lazyStep);
+        }
       }
-      items.sort(Comparator.comparing(i -> i.getNom().getFqdn()));
-      List<String> out = new ArrayList<>();
-      for (DnsItem it : items) {
-        out.add(it.getNom().getFqdn() + " " + it.getIp().value());
+      fileState = FileState.of(dbFile);
+      rewrites++;
+      writtenBytes += fileState.size;
+      writeNanos += System.nanoTime() - t0;
+      ev.end();
+      if (ev.shouldCommit()) {
+        ev.fichier = dbFile.toString();
+        ev.entrees = store.size();
+        ev.octets = fileState.size;
+        ev.compact = compact;
+        ev.commit();
       }
-      Files.write(dbFile, out, StandardCharsets.UTF_8);
     } catch (IOException e) {
       throw new IllegalStateException("Erreur écriture base: " + e.getMessage(), e);
     }
   }
 
-  private void insert(NomMachine nom, AdresseIP ip) {
-    byName.put(nom, ip);
-    byIp.put(ip, nom);
+  /**
+   * Remplace un fichier par un autre en un renommage ; partagé avec {@link Backup}.
+   *
+   * @param tmp fichier complet, sur le même système de fichiers
+   * @param target fichier remplacé
+   * @throws IOException en cas d'erreur de renommage
+   */
+  static void replaceAtomically(Path tmp, Path target) throws IOException {
+    try {
+      Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /** Formate une entrée sur une ligne : {@code fqdn ip [expiration ISO-8601]}. */
+  private static String format(DnsItem it) {
+    String line = it.getNom().getFqdn() + " " + it.getIp().value();
+    return (it.getExpiration() == null) ? line : line + " " + it.getExpiration();
+  }
+
+  /**
+   * Insère une entrée ; une entrée antérieure de même nom ou de même adresse
+   * est remplacée (la dernière ligne du fichier l'emporte).
+   */
+  private void insert(DnsItem item) {
+    remove(item.getNom());
+    DnsItem sameIp = store.get(item.getIp());
+    if (sameIp != null) {
+      remove(sameIp.getNom());
+    }
+    store.put(item);
+    if (store.retainsItems()) {
+      footprint.add(item);
+    }
+    subnets.add(item.getIp());
+    if (nameIndex != null) {
+      nameIndex.add(item.getNom());
+    }
+    if (item.getExpiration() != null && !replica) {
+      timers.put(item.getNom(),
+          wheel.schedule(item.getNom(), item.getExpiration().toEpochMilli()));
+    }
+  }
+
+  private DnsItem remove(NomMachine nom) {
+    DnsItem old = store.remove(nom);
+    invalidate(old);
+    if (old != null) {
+      subnets.remove(old.getIp());
+      if (store.retainsItems()) {
+        footprint.remove(old);
+      }
+    }
+    if (old != null && nameIndex != null) {
+      nameIndex.remove(nom);
+    }
+    if (old != null && old.getExpiration() != null) {
+      wheel.cancel(timers.remove(nom));
+    }
+    return old;
+  }
+
+  /**
+   * Retire les entrées dont le TTL est échu. Seules les cases atteintes de la
+   * roue sont visitées : le coût est proportionnel au nombre d'expirations.
+   * Le fichier n'est pas réécrit ; les entrées expirées sont journalisées
+   * comme tombstones et retirées du fichier au prochain chargement.
+   */
+  private void expire() {
+    if (replica) {
+      return;
+    }
+    List<DnsItem> expired = new ArrayList<>();
+    long now = clock.millis();
+    wheel.advance(now, nom -> {
+      timers.remove(nom);
+      DnsItem item = store.remove(nom);
+      invalidate(item);
+      if (item != null) {
+        subnets.remove(item.getIp());
+        if (store.retainsItems()) {
+          footprint.remove(item);
+        }
+        if (nameIndex != null) {
+          nameIndex.remove(nom);
+        }
+        expired.add(item);
+        log.append(Mutation.Type.REMOVE, item, now);
+        expirations++;
+      }
+    });
+    tombstone(expired);
+  }
+
+  /**
+   * Prépare une lecture : traite les expirations (au plus une fois par tick)
+   * et, si demandé, achève le chargement paresseux. Le verrou en écriture
+   * n'est pris que lorsqu'il y a effectivement quelque chose à faire.
+   */
+  private void beforeRead(boolean needsLoad) {
+    long tick = clock.millis() / TTL_TICK_MILLIS;
+    if (tick != expiredTick || (needsLoad && lazy != null)) {
+      lock.writeLock().lock();
+      try {
+        if (needsLoad) {
+          ensureLoaded();
+        }
+        expire();
+        expiredTick = tick;
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+  }
+
+  /** Ajoute les entrées expirées au journal des tombstones. */
+  private void tombstone(List<DnsItem> expired) {
+    if (expired.isEmpty()) {
+      return;
+    }
+    List<String> out = new ArrayList<>(expired.size());
+    for (DnsItem it : expired) {
+      out.add(format(it));
+    }
+    try {
+      Files.write(tombstoneFile, out, StandardCharsets.UTF_8,
+          StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    } catch (IOException e) {
+      throw new IllegalStateException("Erreur écriture tombstones: " + e.getMessage(), e);
+    }
+  }
+
+  /** Retire du cache les deux clés d'une entrée modifiée. */
+  private void invalidate(DnsItem item) {
+    if (cache != null && item != null) {
+      cache.invalidate(item.getNom());
+      cache.invalidate(item.getIp());
+    }
+  }
+
+  /** Recherche via le cache s'il est actif ; seuls les résultats positifs sont retenus. */
+  private DnsItem cached(Object key, Function<Object, DnsItem> lookup) {
+    if (cache == null) {
+      return lookup.apply(key);
+    }
+    DnsItem item = cache.get(key);
+    if (item != null && item.isExpired(clock.instant())) {
+      cache.invalidate(key);
+      item = null;
+    } else if (item != null) {
+      return item;
+    }
+    item = lookup.apply(key);
+    if (item != null) {
+      cache.put(key, item);
+    }
+    return item;
+  }
+
+  /**
+   * Statistiques du cache de recherche ({@code cache.size}) : succès, échecs
+   * et évictions depuis le chargement.
+   *
+   * @return les compteurs, ou {@code null} si le cache est désactivé
+   */
+  @Override
+  public LookupCache.Stats cacheStats() {
+    return (cache == null) ? null : cache.stats();
   }
 
+  @Override
   public DnsItem getItem(AdresseIP ip) {
-    NomMachine nom = byIp.get(ip);
-    return (nom == null) ? null : new DnsItem(nom, ip);
+    beforeRead(true);
+    lock.readLock().lock();
+    try {
+      return cached(ip, k -> store.get(ip));
+    } finally {
+      lock.readLock().unlock();
+    }
   }
 
+  @Override
   public DnsItem getItem(NomMachine nom) {
-    AdresseIP ip = byName.get(nom);
-    return (ip == null) ? null : new DnsItem(nom, ip);
+    beforeRead(false);
+    lock.readLock().lock();
+    try {
+      if (lazy != null) {
+        return cached(nom, k -> lazyLookup(nom));
+      }
+      return cached(nom, k -> store.get(nom));
+    } finally {
+      lock.readLock().unlock();
+    }
   }
 
+  @Override
   public List<DnsItem> getItems(String domaine) {
+    beforeRead(true);
     List<DnsItem> res = new ArrayList<>();
-    for (Map.Entry<NomMachine, AdresseIP> e : byName.entrySet()) {
-      if (e.getKey().getDomaine().equals(domaine)) {
-        res.add(new DnsItem(e.getKey(), e.getValue()));
-      }
+    lock.readLock().lock();
+    try {
+      store.forEach(item -> {
+        if (item.getNom().getDomaine().equals(domaine)) {
+          res.add(item);
+        }
+      });
+    } finally {
+      lock.readLock().unlock();
+    }
+    if (!store.isSorted()) {
+      res.sort(Comparator.comparing(DnsItem::getNom));
     }
-    res.sort(Comparator.comparing(DnsItem::getNom));
     return Collections.unmodifiableList(res);
   }
 
-  public void addItem(AdresseIP ip, NomMachine nom) {
-    if (byName.containsKey(nom)) {
-      throw new IllegalStateException("Le nom de machine existe déjà !");
+  /** Copie de toutes les entrées non expirées, dans l'ordre du moteur. */
+  @Override
+  public List<DnsItem> snapshot() {
+    beforeRead(true);
+    lock.readLock().lock();
+    try {
+      List<DnsItem> res = new ArrayList<>(store.size());
+      store.forEach(res::add);
+      return res;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Nombre d'entrées non expirées, sans les copier. */
+  int size() {
+    beforeRead(true);
+    lock.readLock().lock();
+    try {
+      return store.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Recherche les entrées dont le FQDN commence par {@code prefix}, sans
+   * distinction de casse, triées par nom en minuscules puis par nom exact.
+   *
+   * @param prefix début du FQDN
+   * @param limit nombre maximal de résultats
+   * @return les entrées trouvées
+   */
+  @Override
+  public List<DnsItem> findByPrefix(String prefix, int limit) {
+    return find(idx -> idx.startingWith(prefix, limit));
+  }
+
+  /**
+   * Recherche les entrées dont le FQDN contient {@code part}, sans distinction
+   * de casse, triées par nom en minuscules puis par nom exact.
+   *
+   * @param part sous-chaîne recherchée
+   * @param limit nombre maximal de résultats
+   * @return les entrées trouvées
+   */
+  @Override
+  public List<DnsItem> findContaining(String part, int limit) {
+    return find(idx -> idx.containing(part, limit));
+  }
+
+  private List<DnsItem> find(Function<NameIndex, List<NomMachine>> query) {
+    beforeRead(true);
+    if (nameIndex == null) {
+      lock.writeLock().lock();
+      try {
+        if (nameIndex == null) {
+          DnsEvents.Index ev = new DnsEvents.Index();
+          ev.begin();
+          NameIndex idx = new NameIndex();
+          store.forEach(it -> idx.add(it.getNom()));
+          nameIndex = idx;
+          ev.end();
+          if (ev.shouldCommit()) {
+            ev.index = "noms";
+            ev.entrees = idx.size();
+            ev.commit();
+          }
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+    lock.readLock().lock();
+    try {
+      List<NomMachine> noms = query.apply(nameIndex);
+      List<DnsItem> res = new ArrayList<>(noms.size());
+      for (NomMachine nom : noms) {
+        res.add(store.get(nom));
+      }
+      return Collections.unmodifiableList(res);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Ajoute une entrée qui expirera après la durée donnée.
+   *
+   * @param ip adresse IP à associer
+   * @param nom nom de machine à associer
+   * @param ttl durée de vie de l'entrée, ou {@code null} pour une entrée permanente
+   * @throws IllegalStateException si le nom ou l'adresse IP existent déjà
+   * @throws IllegalArgumentException si le TTL n'est pas strictement positif
+   */
+  @Override
+  public void addItem(AdresseIP ip, NomMachine nom, Duration ttl) {
+    if (ttl != null && (ttl.isNegative() || ttl.isZero())) {
+      throw new IllegalArgumentException("TTL invalide: " + ttl);
+    }
+    lock.writeLock().lock();
+    try {
+      ensureLoaded();
+      expire();
+      if (store.get(nom) != null) {
+        throw new IllegalStateException("Le nom de machine existe déjà !");
+      }
+      if (store.get(ip) != null) {
+        throw new IllegalStateException("L'adresse IP existe déjà !");
+      }
+      Instant expiration = (ttl == null) ? null : clock.instant().plus(ttl);
+      DnsItem item = new DnsItem(nom, ip, expiration);
+      insert(item);
+      persist();
+      log.append(Mutation.Type.ADD, item, clock.millis());
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Attribue à un nom la première adresse libre d'un sous-réseau, pour une durée donnée.
+   *
+   * <p>La recherche et l'ajout se font sous le verrou en écriture : deux
+   * allocations concurrentes obtiennent des adresses distinctes. La recherche
+   * parcourt la table d'occupation du sous-réseau ({@link SubnetAllocator})
+   * mot par mot, sans interroger la base adresse par adresse.
+   *
+   * @param nom nom de machine à ajouter
+   * @param subnet sous-réseau dans lequel choisir l'adresse
+   * @param ttl durée de vie de l'entrée, ou {@code null} pour une entrée permanente
+   * @return l'adresse attribuée
+   * @throws IllegalStateException si le nom existe déjà ou si le sous-réseau est plein
+   * @throws IllegalArgumentException si le TTL n'est pas strictement positif
+   */
+  @Override
+  public AdresseIP allocate(NomMachine nom, Subnet subnet, Duration ttl) {
+    if (ttl != null && (ttl.isNegative() || ttl.isZero())) {
+      throw new IllegalArgumentException("TTL invalide: " + ttl);
+    }
+    lock.writeLock().lock();
+    try {
+      ensureLoaded();
+      expire();
+      if (store.get(nom) != null) {
+        throw new IllegalStateException("Le nom de machine existe déjà !");
+      }
+      subnets.track(subnet, store);
+      AdresseIP ip = subnets.nextFree(subnet);
+      if (ip == null) {
+        throw new IllegalStateException("Sous-réseau plein : " + subnet);
+      }
+      Instant expiration = (ttl == null) ? null : clock.instant().plus(ttl);
+      DnsItem item = new DnsItem(nom, ip, expiration);
+      insert(item);
+      persist();
+      log.append(Mutation.Type.ADD, item, clock.millis());
+      return ip;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Occupation d'un sous-réseau : lue dans sa table s'il est suivi, sinon
+   * comptée en un parcours de la base. Seule l'allocation fait suivre un
+   * sous-réseau ; une simple consultation ne construit pas de table.
+   *
+   * @param subnet sous-réseau
+   * @return le nombre d'adresses attribuées et attribuables
+   */
+  @Override
+  public SubnetAllocator.Usage usage(Subnet subnet) {
+    beforeRead(true);
+    lock.readLock().lock();
+    try {
+      return subnets.isTracked(subnet)
+          ? subnets.usage(subnet) : SubnetAllocator.count(subnet, store);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Première adresse libre d'un sous-réseau à partir d'une adresse, sans
+   * l'attribuer ; le sous-réseau est dès lors suivi. Sert à l'allocation d'une
+   * base composée, dont les partitions sont interrogées tour à tour.
+   *
+   * @param subnet sous-réseau
+   * @param from première adresse candidate, dans le sous-réseau
+   * @return l'adresse libre, ou {@code null} s'il n'y en a plus à partir de {@code from}
+   */
+  AdresseIP nextFree(Subnet subnet, AdresseIP from) {
+    beforeRead(true);
+    lock.writeLock().lock();
+    try {
+      subnets.track(subnet, store);
+      return subnets.nextFree(subnet, from);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Occupation des sous-réseaux suivis (utilisés par {@link #allocate}). */
+  @Override
+  public List<SubnetAllocator.Usage> usages() {
+    beforeRead(true);
+    lock.readLock().lock();
+    try {
+      return Collections.unmodifiableList(subnets.usages());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Empreinte mémoire estimée des entrées et des index du moteur. Les totaux
+   * sont tenus à jour à chaque mutation : l'appel ne parcourt pas la base et ne
+   * force pas le chargement d'une base paresseuse.
+   *
+   * @return le rapport d'empreinte
+   */
+  @Override
+  public Footprint.Report footprint() {
+    beforeRead(false);
+    lock.readLock().lock();
+    try {
+      return footprint.report(store);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Activité d'écriture depuis le chargement : mutations, réécritures du
+   * fichier, octets écrits et temps passé à écrire.
+   *
+   * @return les compteurs courants
+   */
+  @Override
+  public WriteStats writeStats() {
+    lock.readLock().lock();
+    try {
+      return new WriteStats(log.lastSeq(), rewrites, writtenBytes, writeNanos,
+          System.nanoTime() - loadedAt);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Activité d'écriture d'une base depuis son chargement ({@link #writeStats}). */
+  public static final class WriteStats {
+    private final long mutations;
+    private final long rewrites;
+    private final long bytes;
+    private final long nanos;
+    private final long elapsedNanos;
+
+    WriteStats(long mutations, long rewrites, long bytes, long nanos, long elapsedNanos) {
+      this.mutations = mutations;
+      this.rewrites = rewrites;
+      this.bytes = bytes;
+      this.nanos = nanos;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    /** Somme de deux activités (partitions d'une même base), sur la plus longue durée. */
+    WriteStats plus(WriteStats o) {
+      return new WriteStats(mutations + o.mutations, rewrites + o.rewrites, bytes + o.bytes,
+          nanos + o.nanos, Math.max(elapsedNanos, o.elapsedNanos));
+    }
+
+    /** Mutations appliquées. */
+    public long getMutations() {
+      return mutations;
+    }
+
+    /** Réécritures complètes du fichier. */
+    public long getRewrites() {
+      return rewrites;
+    }
+
+    /** Octets écrits dans le fichier. */
+    public long getBytes() {
+      return bytes;
+    }
+
+    /** Temps passé à écrire, en nanosecondes. */
+    public long getNanos() {
+      return nanos;
+    }
+
+    /** Mutations par seconde depuis le chargement. */
+    public double mutationsPerSecond() {
+      return (elapsedNanos == 0) ? 0 : mutations * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT,
+          "%d mutation(s) (%.1f/s), %d réécriture(s), %s écrits en %.1f ms", mutations,
+          mutationsPerSecond(), rewrites, Footprint.Report.bytes(bytes), nanos / 1e6);
+    }
+  }
+
+  /**
+   * Applique un lot de différences ({@link ZoneDiff}) en une seule opération :
+   * le lot est validé entièrement, puis appliqué sous un seul verrou en écriture
+   * et le fichier n'est réécrit qu'une fois. Les lecteurs voient la base avant
+   * ou après le lot, jamais entre les deux.
+   *
+   * @param changes différences à appliquer ; une suppression d'un nom absent est ignorée
+   * @return le nombre de mutations effectuées
+   * @throws IllegalStateException si une adresse ajoutée appartient à un nom que
+   *     le lot ne modifie pas, ou est ajoutée deux fois ; la base est alors inchangée
+   */
+  @Override
+  public int applyChanges(List<ZoneDiff.Change> changes) {
+    lock.writeLock().lock();
+    try {
+      ensureLoaded();
+      expire();
+      return applyLocked(changes);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Valide puis applique un lot ; sous verrou en écriture, base chargée. */
+  private int applyLocked(List<ZoneDiff.Change> changes) {
+    validate(changes, store::get);
+    long now = clock.millis();
+    int count = 0;
+    for (ZoneDiff.Change c : changes) {
+      if (c.getAfter() == null) {
+        DnsItem old = remove(c.getNom());
+        if (old != null) {
+          log.append(Mutation.Type.REMOVE, old, now);
+          count++;
+        }
+      }
+    }
+    for (ZoneDiff.Change c : changes) {
+      if (c.getAfter() != null) {
+        insert(c.getAfter());
+        log.append(Mutation.Type.ADD, c.getAfter(), now);
+        count++;
+      }
+    }
+    if (count > 0) {
+      persist();
+    }
+    return count;
+  }
+
+  /**
+   * Vérifie un lot comme {@link #applyChanges}, sans l'appliquer : une base
+   * composée valide ainsi toutes ses parties avant d'en appliquer aucune.
+   *
+   * @param changes différences à vérifier
+   * @throws IllegalStateException si une adresse ajoutée appartient à un nom que
+   *     le lot ne modifie pas, ou est ajoutée deux fois
+   */
+  @Override
+  public void validate(List<ZoneDiff.Change> changes) {
+    beforeRead(true);
+    lock.readLock().lock();
+    try {
+      validate(changes, store::get);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Vérifie un lot face aux entrées tenant déjà les adresses ajoutées. */
+  static void validate(List<ZoneDiff.Change> changes, Function<AdresseIP, DnsItem> holders) {
+    Set<NomMachine> touched = new HashSet<>();
+    for (ZoneDiff.Change c : changes) {
+      touched.add(c.getNom());
+    }
+    Set<AdresseIP> added = new HashSet<>();
+    for (ZoneDiff.Change c : changes) {
+      DnsItem after = c.getAfter();
+      if (after == null) {
+        continue;
+      }
+      DnsItem holder = holders.apply(after.getIp());
+      if (!added.add(after.getIp())
+          || (holder != null && !touched.contains(holder.getNom()))) {
+        throw new IllegalStateException("L'adresse IP existe déjà ! " + after.getIp().value());
+      }
+    }
+  }
+
+  /**
+   * Ouvre une transaction : les mutations sont conservées dans la transaction
+   * et n'atteignent la base qu'à {@link Transaction#commit()}.
+   *
+   * @return une transaction ouverte sur la version courante
+   */
+  public Transaction transaction() {
+    return new Transaction(this, version());
+  }
+
+  /**
+   * Exécute un script dans une transaction puis la valide ; si le script lève
+   * une exception, la transaction est annulée.
+   *
+   * <p>Un script peut échouer parce qu'il a lu la base pendant qu'une autre
+   * transaction la modifiait (nom absent puis présent, par exemple) : si le
+   * journal montre une mutation concurrente sur une entrée lue, c'est le
+   * conflit qui est levé, l'erreur du script lui étant attachée.
+   *
+   * @param script mutations à effectuer
+   * @return le nombre de mutations appliquées
+   * @throws TransactionConflictException si une mutation concurrente touche une
+   *     entrée lue ou écrite par le script ; la base est alors inchangée
+   */
+  public int transaction(Consumer<? super Transaction> script) {
+    Transaction tx = transaction();
+    try {
+      script.accept(tx);
+    } catch (RuntimeException e) {
+      tx.abort();
+      try {
+        tx.validate(log.since(tx.startVersion()));
+      } catch (TransactionConflictException c) {
+        c.addSuppressed(e);
+        throw c;
+      }
+      throw e;
+    }
+    return tx.commit();
+  }
+
+  /**
+   * Valide une transaction puis applique ses mutations en un lot.
+   *
+   * <p>Les conflits sont d'abord cherchés dans le journal sans prendre le
+   * verrou de la base : une transaction perdante est rejetée sans attendre
+   * les écritures en cours. La vérification est refaite sous le verrou en
+   * écriture, qui n'est tenu que le temps d'appliquer le lot.
+   */
+  int commit(Transaction tx) {
+    List<ZoneDiff.Change> changes = tx.changes();
+    if (changes.isEmpty()) {
+      return 0;
+    }
+    tx.validate(log.since(tx.startVersion()));
+    lock.writeLock().lock();
+    try {
+      ensureLoaded();
+      expire();
+      tx.validate(log.since(tx.startVersion()));
+      return applyLocked(changes);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Date courante selon l'horloge de la base. */
+  @Override
+  public Instant now() {
+    return clock.instant();
+  }
+
+  /** Numéro de la dernière mutation appliquée (0 si aucune depuis le chargement). */
+  @Override
+  public long version() {
+    return log.lastSeq();
+  }
+
+  // ---------------------------------------------------------------- rechargement
+
+  /** Taille et date de modification d'un fichier, pour reconnaître nos propres écritures. */
+  private static final class FileState {
+    private final long size;
+    private final long modified;
+
+    private FileState(long size, long modified) {
+      this.size = size;
+      this.modified = modified;
+    }
+
+    static FileState of(Path file) throws IOException {
+      return new FileState(Files.size(file), Files.getLastModifiedTime(file).toMillis());
+    }
+
+    boolean sameAs(FileState o) {
+      return o != null && size == o.size && modified == o.modified;
+    }
+  }
+
+  /** Écart entre le fichier et la mémoire, calculé par {@link #scan}. */
+  private static final class Delta {
+    final List<DnsItem> upserts = new ArrayList<>();
+    final List<NomMachine> removals = new ArrayList<>();
+    long[] seen = new long[1024];
+    int seenCount;
+    int matched;
+
+    void seen(NomMachine nom) {
+      if (seenCount == seen.length) {
+        seen = Arrays.copyOf(seen, seen.length * 2);
+      }
+      seen[seenCount++] = hash64(nom.getFqdn());
+    }
+  }
+
+  /**
+   * Fichiers de données de la base, chacun avec le rechargement qui en tient
+   * compte ({@link ZoneWatcher}, {@link CommandeCheck}).
+   *
+   * @return le rechargement de chaque fichier, dans l'ordre des fichiers
+   */
+  @Override
+  public Map<Path, IntSupplier> dataFiles() {
+    return Collections.singletonMap(dbFile, this::reload);
+  }
+
+  /**
+   * Relit le fichier de base après une modification externe et n'applique à la
+   * mémoire que la différence.
+   *
+   * <p>Le fichier est parcouru en flux sous le verrou en lecture : les
+   * recherches continuent d'être servies. Chaque ligne est comparée à l'entrée
+   * de même nom par une simple recherche ; seules les lignes différentes sont
+   * analysées. Les noms disparus ne sont recherchés que si des entrées en
+   * mémoire n'ont pas été retrouvées dans le fichier. La différence est ensuite
+   * appliquée d'un bloc sous le verrou en écriture (si une mutation s'est
+   * intercalée, le parcours est refait ; une expiration ne compte pas, la
+   * différence restant valable sans l'entrée expirée). Le fichier n'est pas
+   * réécrit ; les mutations sont journalisées comme les autres.
+   *
+   * <p>Un fichier dont la taille et la date n'ont pas changé depuis le dernier
+   * chargement ou la dernière écriture par cette instance est ignoré.
+   *
+   * @return le nombre de mutations appliquées
+   */
+  @Override
+  public int reload() {
+    beforeRead(false);
+    try {
+      while (true) {
+        FileState state = FileState.of(dbFile);
+        if (state.sameAs(fileState)) {
+          return 0;
+        }
+        if (lazy != null) {
+          return reopenLazy(state);
+        }
+        long version;
+        Delta delta;
+        lock.readLock().lock();
+        try {
+          version = log.lastSeq() - expirations;
+          delta = scan();
+        } finally {
+          lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+          if (log.lastSeq() - expirations != version || lazy != null) {
+            continue; // mutation intercalée : on recommence
+          }
+          long now = clock.millis();
+          for (NomMachine nom : delta.removals) {
+            DnsItem old = remove(nom);
+            if (old != null) {
+              log.append(Mutation.Type.REMOVE, old, now);
+            }
+          }
+          for (DnsItem item : delta.upserts) {
+            insert(item);
+            log.append(Mutation.Type.ADD, item, now);
+          }
+          fileState = state;
+          return delta.removals.size() + delta.upserts.size();
+        } finally {
+          lock.writeLock().unlock();
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Erreur de chargement: " + e.getMessage(), e);
+    }
+  }
+
+  /** Base non chargée (mode paresseux) : il suffit de rouvrir l'accès direct. */
+  private int reopenLazy(FileState state) throws IOException {
+    lock.writeLock().lock();
+    try {
+      if (lazy != null) {
+        ZoneIndex reopened = CompactZoneFile.isCompact(dbFile)
+            ? CompactZoneFile.open(dbFile)
+            : SparseZoneIndex.open(dbFile, lazyStep, this::parse);
+        if (cache != null) {
+          cache.clear();
+        }
+        lazy = reopened;
+        if (reopened == null) {
+          load(); // fichier devenu non trié
+        }
+        fileState = state;
+      }
+      return 0;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Compare le fichier à la mémoire ; appelé sous le verrou en lecture. */
+  private Delta scan() throws IOException {
+    Delta delta = new Delta();
+    Instant now = clock.instant();
+    if (CompactZoneFile.isCompact(dbFile)) {
+      CompactZoneFile.forEach(dbFile, item -> compare(delta, item, now));
+    } else {
+      try (BufferedReader in = Files.newBufferedReader(dbFile, StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = in.readLine()) != null) {
+          String trimmed = line.trim();
+          if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            continue;
+          }
+          int sp = 0;
+          while (sp < trimmed.length() && !Character.isWhitespace(trimmed.charAt(sp))) {
+            sp++;
+          }
+          try {
+            NomMachine nom = new NomMachine(trimmed.substring(0, sp));
+            DnsItem cur = store.get(nom);
+            if (cur != null && format(cur).equals(trimmed)) {
+              // ligne inchangée : pas d'analyse
+              delta.matched++;
+              delta.seen(nom);
+              continue;
+            }
+            DnsItem item = parse(trimmed);
+            if (item != null) {
+              compare(delta, item, now);
+            }
+          } catch (IllegalArgumentException | DateTimeException e) {
+            if (strict) {
+              throw e;
+            }
+          }
+        }
+      }
+    }
+    if (delta.matched < store.size()) {
+      long[] seen = Arrays.copyOf(delta.seen, delta.seenCount);
+      Arrays.sort(seen);
+      store.forEach(it -> {
+        if (Arrays.binarySearch(seen, hash64(it.getNom().getFqdn())) < 0) {
+          delta.removals.add(it.getNom());
+        }
+      });
+    }
+    return delta;
+  }
+
+  private void compare(Delta delta, DnsItem item, Instant now) {
+    if (item.isExpired(now)) {
+      return;
+    }
+    DnsItem cur = store.get(item.getNom());
+    delta.seen(item.getNom());
+    if (cur != null) {
+      delta.matched++;
+      if (cur.getIp().equals(item.getIp())
+          && Objects.equals(cur.getExpiration(), item.getExpiration())) {
+        return;
+      }
+    }
+    delta.upserts.add(item);
+  }
+
+  /** Empreinte sur 64 bits (FNV-1a) d'un FQDN ; partagée avec {@link ZoneCheck}. */
+  static long hash64(String s) {
+    long h = 0xCBF29CE484222325L;
+    for (int i = 0; i < s.length(); i++) {
+      h = (h ^ s.charAt(i)) * 0x100000001B3L;
+    }
+    return h;
+  }
+
+  // ---------------------------------------------------------------- flux de modifications
+
+  /**
+   * Abonne un flux aux modifications futures d'un domaine et de ses sous-domaines.
+   * Le flux ne bloque jamais les mutations : voir {@link ChangeStream}.
+   *
+   * @param domaine domaine observé ({@code ""} pour toute la base)
+   * @param capacity nombre de modifications en attente avant rattrapage par le journal
+   * @return le flux, à fermer après usage
+   */
+  public ChangeStream watch(String domaine, int capacity) {
+    ChangeStream stream = new ChangeStream(this, domaine, capacity);
+    lock.writeLock().lock();
+    try {
+      stream.start(log.lastSeq());
+      log.addListener(stream.listener());
+    } finally {
+      lock.writeLock().unlock();
+    }
+    return stream;
+  }
+
+  /**
+   * Mutations postérieures à {@code seq} encore conservées par le journal.
+   *
+   * @return les mutations, ou {@code null} si certaines ne sont plus conservées
+   */
+  List<Mutation> changesSince(long seq) {
+    return log.since(seq);
+  }
+
+  // ---------------------------------------------------------------- sauvegarde
+
+  /** Identifiant de ce chargement, qui qualifie les numéros de {@link #version}. */
+  String epoch() {
+    return epoch;
+  }
+
+  /**
+   * Ouvre le fichier de base tel qu'il est à la dernière mutation, pour une
+   * sauvegarde ({@link Backup}).
+   *
+   * <p>Le fichier est réécrit à chaque mutation, sous le verrou en écriture,
+   * par renommage d'un fichier complet : pris sous le verrou en lecture, le
+   * canal ouvert désigne une version cohérente avec {@link #version} et le
+   * reste une fois le verrou rendu, même si une écriture remplace le fichier
+   * pendant la copie. Les lecteurs ne sont pas bloqués ; les écrivains
+   * n'attendent que l'ouverture du fichier.
+   *
+   * @return le canal en lecture, le numéro de la dernière mutation et l'instant
+   * @throws IOException en cas d'erreur d'ouverture
+   */
+  Backup.Source backupSource() throws IOException {
+    beforeRead(false);
+    lock.readLock().lock();
+    try {
+      return new Backup.Source(FileChannel.open(dbFile, StandardOpenOption.READ),
+          log.lastSeq(), clock.millis(), epoch);
+    } finally {
+      lock.readLock().unlock();
     }
-    if (byIp.containsKey(ip)) {
-      throw new IllegalStateException("L'adresse IP existe déjà !");
+  }
+
+  // ---------------------------------------------------------------- réplication
+
+  /** Point de reprise remis à un abonné : mutations manquées, ou instantané complet. */
+  static final class Catchup {
+    private final long seq;
+    private final List<Mutation> missed;
+    private final List<DnsItem> snapshot;
+
+    private Catchup(long seq, List<Mutation> missed, List<DnsItem> snapshot) {
+      this.seq = seq;
+      this.missed = missed;
+      this.snapshot = snapshot;
+    }
+
+    /** Numéro de la dernière mutation couverte par ce point de reprise. */
+    long seq() {
+      return seq;
+    }
+
+    /** Mutations postérieures au numéro demandé, ou {@code null} si instantané. */
+    List<Mutation> missed() {
+      return missed;
+    }
+
+    /** Contenu complet de la base, ou {@code null} si les mutations suffisent. */
+    List<DnsItem> snapshot() {
+      return snapshot;
+    }
+  }
+
+  /**
+   * Abonne un auditeur aux mutations postérieures à {@code fromSeq}. Le point de
+   * reprise et l'abonnement sont établis sous le verrou en écriture : aucune
+   * mutation ne peut s'intercaler entre les deux.
+   *
+   * @param fromSeq dernière mutation connue de l'abonné (négatif : aucune)
+   * @param listener auditeur des mutations suivantes (ne doit pas bloquer)
+   * @return les mutations manquées, ou un instantané si elles ne sont plus conservées
+   */
+  Catchup subscribe(long fromSeq, Consumer<? super Mutation> listener) {
+    lock.writeLock().lock();
+    try {
+      ensureLoaded();
+      long seq = log.lastSeq();
+      List<Mutation> missed = (fromSeq < 0) ? null : log.since(fromSeq);
+      List<DnsItem> snapshot = null;
+      if (missed == null) {
+        snapshot = new ArrayList<>(store.size());
+        store.forEach(snapshot::add);
+      }
+      log.addListener(listener);
+      return new Catchup(seq, missed, snapshot);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Désabonne un auditeur enregistré par {@link #subscribe}. */
+  void unsubscribe(Consumer<? super Mutation> listener) {
+    log.removeListener(listener);
+  }
+
+  /**
+   * Fait de cette base la copie d'un meneur. Son expiration locale prendrait
+   * un numéro de mutation, et la mutation du meneur portant ce numéro serait
+   * ensuite ignorée comme déjà intégrée : la roue est donc vidée et les
+   * entrées à TTL attendent la suppression envoyée par le meneur.
+   */
+  void follow() {
+    lock.writeLock().lock();
+    try {
+      replica = true;
+      for (TimerWheel.Timer<NomMachine> t : timers.values()) {
+        wheel.cancel(t);
+      }
+      timers.clear();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Applique une mutation reçue d'un meneur, en conservant son numéro.
+   * Un suiveur ne réécrit pas son fichier : il sert les lectures en mémoire.
+   *
+   * @param m mutation suivant la dernière appliquée
+   */
+  void apply(Mutation m) {
+    lock.writeLock().lock();
+    try {
+      ensureLoaded();
+      if (m.getSeq() <= log.lastSeq()) {
+        return; // déjà intégrée (rattrapage qui chevauche le flux)
+      }
+      if (m.getType() == Mutation.Type.ADD) {
+        insert(m.getItem());
+      } else {
+        remove(m.getItem().getNom());
+      }
+      log.record(m);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Remplace tout le contenu par un instantané reçu d'un meneur.
+   *
+   * @param seq numéro de la dernière mutation couverte par l'instantané
+   * @param items contenu complet
+   */
+  void applySnapshot(long seq, List<DnsItem> items) {
+    lock.writeLock().lock();
+    try {
+      lazy = null;
+      List<NomMachine> noms = new ArrayList<>(store.size());
+      store.forEach(it -> noms.add(it.getNom()));
+      for (NomMachine nom : noms) {
+        remove(nom);
+      }
+      for (DnsItem item : items) {
+        insert(item);
+      }
+      log.reset(seq);
+    } finally {
+      lock.writeLock().unlock();
     }
-    insert(nom, ip);
-    persist();
   }
 }
@@ -0,0 +1,206 @@
+package fr.uvsq.cprog.collex;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntSupplier;
+
+/**
+ * Recherches et mutations d'une base DNS, telles que les commandes les utilisent.
+ *
+ * <p>Une base simple ({@link Dns}) tient ses entrées dans un seul fichier ;
+ * {@link ShardedDns} et {@link ZonedDns} en composent plusieurs. Les
+ * transactions, la surveillance, la sauvegarde et la réplication reposent sur
+ * le journal d'une seule base : elles ne sont offertes que par {@link Dns}.
+ */
+public interface DnsBase {
+
+  /**
+   * Recherche l'entrée d'une adresse.
+   *
+   * @param ip adresse IP
+   * @return l'entrée, ou {@code null} si l'adresse est absente
+   */
+  DnsItem getItem(AdresseIP ip);
+
+  /**
+   * Recherche l'entrée d'un nom.
+   *
+   * @param nom nom de machine
+   * @return l'entrée, ou {@code null} si le nom est absent
+   */
+  DnsItem getItem(NomMachine nom);
+
+  /**
+   * Entrées d'un domaine, triées par nom.
+   *
+   * @param domaine domaine exact (sans les sous-domaines)
+   * @return les entrées du domaine
+   */
+  List<DnsItem> getItems(String domaine);
+
+  /**
+   * Recherche les entrées dont le FQDN commence par {@code prefix}, sans
+   * distinction de casse, triées par nom en minuscules puis par nom exact.
+   *
+   * @param prefix début du FQDN
+   * @param limit nombre maximal de résultats
+   * @return les entrées trouvées
+   */
+  List<DnsItem> findByPrefix(String prefix, int limit);
+
+  /**
+   * Recherche les entrées dont le FQDN contient {@code part}, sans distinction
+   * de casse, triées par nom en minuscules puis par nom exact.
+   *
+   * @param part sous-chaîne recherchée
+   * @param limit nombre maximal de résultats
+   * @return les entrées trouvées
+   */
+  List<DnsItem> findContaining(String part, int limit);
+
+  /** Copie de toutes les entrées non expirées. */
+  List<DnsItem> snapshot();
+
+  /**
+   * Ajoute une entrée permanente.
+   *
+   * @param ip adresse IP à associer
+   * @param nom nom de machine à associer
+   * @throws IllegalStateException si le nom ou l'adresse IP existent déjà
+   */
+  default void addItem(AdresseIP ip, NomMachine nom) {
+    addItem(ip, nom, null);
+  }
+
+  /**
+   * Ajoute une entrée qui expirera après la durée donnée.
+   *
+   * @param ip adresse IP à associer
+   * @param nom nom de machine à associer
+   * @param ttl durée de vie de l'entrée, ou {@code null} pour une entrée permanente
+   * @throws IllegalStateException si le nom ou l'adresse IP existent déjà
+   * @throws IllegalArgumentException si le TTL n'est pas strictement positif
+   */
+  void addItem(AdresseIP ip, NomMachine nom, Duration ttl);
+
+  /**
+   * Attribue à un nom la première adresse libre d'un sous-réseau.
+   *
+   * @param nom nom de machine à ajouter
+   * @param subnet sous-réseau dans lequel choisir l'adresse
+   * @return l'adresse attribuée
+   * @throws IllegalStateException si le nom existe déjà ou si le sous-réseau est plein
+   */
+  default AdresseIP allocate(NomMachine nom, Subnet subnet) {
+    return allocate(nom, subnet, null);
+  }
+
+  /**
+   * Attribue à un nom la première adresse libre d'un sous-réseau, pour une durée donnée.
+   *
+   * @param nom nom de machine à ajouter
+   * @param subnet sous-réseau dans lequel choisir l'adresse
+   * @param ttl durée de vie de l'entrée, ou {@code null} pour une entrée permanente
+   * @return l'adresse attribuée
+   * @throws IllegalStateException si le nom existe déjà ou si le sous-réseau est plein
+   * @throws IllegalArgumentException si le TTL n'est pas strictement positif
+   */
+  AdresseIP allocate(NomMachine nom, Subnet subnet, Duration ttl);
+
+  /**
+   * Occupation d'un sous-réseau.
+   *
+   * @param subnet sous-réseau
+   * @return le nombre d'adresses attribuées et attribuables
+   */
+  SubnetAllocator.Usage usage(Subnet subnet);
+
+  /** Occupation des sous-réseaux suivis (utilisés par {@link #allocate}). */
+  List<SubnetAllocator.Usage> usages();
+
+  /**
+   * Applique un lot de différences ({@link ZoneDiff}).
+   *
+   * @param changes différences à appliquer ; une suppression d'un nom absent est ignorée
+   * @return le nombre de mutations effectuées
+   * @throws IllegalStateException si une adresse ajoutée appartient à un nom que
+   *     le lot ne modifie pas, ou est ajoutée deux fois ; la base est alors inchangée
+   */
+  int applyChanges(List<ZoneDiff.Change> changes);
+
+  /**
+   * Vérifie un lot comme {@link #applyChanges}, sans l'appliquer.
+   *
+   * @param changes différences à vérifier
+   * @throws IllegalStateException si une adresse ajoutée appartient à un nom que
+   *     le lot ne modifie pas, ou est ajoutée deux fois
+   */
+  void validate(List<ZoneDiff.Change> changes);
+
+  /**
+   * Relit les fichiers de la base modifiés depuis le dernier chargement.
+   *
+   * @return le nombre de mutations appliquées
+   */
+  int reload();
+
+  /**
+   * Fichiers de données de la base, chacun avec le rechargement qui en tient
+   * compte ({@link ZoneWatcher}, {@link CommandeCheck}).
+   *
+   * @return le rechargement de chaque fichier, dans l'ordre des fichiers
+   */
+  Map<Path, IntSupplier> dataFiles();
+
+  /** Numéro croissant à chaque mutation (0 si aucune depuis le chargement). */
+  long version();
+
+  /** Date courante selon l'horloge de la base. */
+  Instant now();
+
+  /**
+   * Statistiques du cache de recherche ({@code cache.size}).
+   *
+   * @return les compteurs, ou {@code null} si le cache est désactivé
+   */
+  LookupCache.Stats cacheStats();
+
+  /**
+   * Empreinte mémoire estimée des entrées et des index.
+   *
+   * @return le rapport d'empreinte
+   */
+  Footprint.Report footprint();
+
+  /**
+   * Activité d'écriture depuis le chargement.
+   *
+   * @return les compteurs courants
+   */
+  Dns.WriteStats writeStats();
+
+  /**
+   * Désigne le journal où les commandes de recherche et d'ajout publient leurs
+   * requêtes ({@code querylog.file}).
+   *
+   * @param queryLog journal, ou {@code null} pour ne rien journaliser
+   */
+  void setQueryLog(QueryLog queryLog);
+
+  /** Journal des requêtes, ou {@code null} si aucun n'est configuré. */
+  QueryLog queryLog();
+
+  /**
+   * Désigne le résolveur interrogé par les commandes de recherche pour les noms
+   * et adresses absents de la base ({@code forward.upstream}).
+   *
+   * @param forwarder résolveur amont, ou {@code null} pour ne rien transmettre
+   */
+  void setForwarder(Forwarder forwarder);
+
+  /** Résolveur amont, ou {@code null} si aucun n'est configuré. */
+  Forwarder forwarder();
+}
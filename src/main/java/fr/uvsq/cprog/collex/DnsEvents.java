@@ -0,0 +1,152 @@
+package fr.uvsq.cprog.collex;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Événements Java Flight Recorder de l'application.
+ *
+ * <p>Sans eux, une commande ou une écriture de la base n'apparaît dans un
+ * enregistrement que sous forme de cadres anonymes ({@code LinkedHashMap},
+ * {@code Files.write}). Chaque événement est une classe de {@code jdk.jfr} :
+ * tant qu'aucun enregistrement ne l'active, {@code begin}, {@code end} et
+ * {@code shouldCommit} se réduisent à un test, et les champs (nom de commande,
+ * taille de fichier...) ne sont calculés qu'une fois {@code shouldCommit} vrai.
+ * La configuration {@code jfr/dns.jfc} active ces événements avec leurs seuils.
+ */
+final class DnsEvents {
+
+  private DnsEvents() {
+  }
+
+  /**
+   * Trace l'exécution d'une commande.
+   *
+   * @param c commande interprétée
+   * @param ligne ligne de commande d'origine
+   * @return une commande équivalente qui émet un événement {@link Execution}
+   */
+  static Commande trace(Commande c, String ligne) {
+    return new Commande() {
+      @Override
+      public String execute(DnsBase dns) {
+        Execution ev = new Execution();
+        if (!ev.isEnabled()) {
+          return c.execute(dns);
+        }
+        ev.begin();
+        String res = null;
+        try {
+          res = c.execute(dns);
+          return res;
+        } finally {
+          ev.end();
+          if (ev.shouldCommit()) {
+            ev.type = type(c, ligne);
+            ev.argument = ligne;
+            ev.resultSize = (res == null) ? 0 : res.length();
+            ev.succes = res != null;
+            ev.commit();
+          }
+        }
+      }
+
+      @Override
+      public boolean lectureSeule() {
+        return c.lectureSeule();
+      }
+    };
+  }
+
+  /** Nom de la classe de la commande, ou premier mot de la ligne pour une commande anonyme. */
+  private static String type(Commande c, String ligne) {
+    Class<?> k = c.getClass();
+    if (!k.isAnonymousClass() && !k.isSynthetic() && !k.isHidden()) {
+      return k.getSimpleName();
+    }
+    String s = ligne.trim();
+    int sp = s.indexOf(' ');
+    return (sp < 0) ? s : s.substring(0, sp);
+  }
+
+  /** Exécution d'une commande de l'interface textuelle. */
+  @Name("fr.uvsq.cprog.collex.Commande")
+  @Label("Commande")
+  @Category({"DNS", "Commandes"})
+  @Description("Exécution d'une commande : type, ligne, taille du résultat")
+  @StackTrace(false)
+  static final class Execution extends Event {
+    @Label("Type")
+    String type;
+
+    @Label("Argument")
+    @Description("Ligne de commande complète")
+    String argument;
+
+    @Label("Taille du résultat")
+    @Description("Nombre de caractères du message affiché")
+    int resultSize;
+
+    @Label("Succès")
+    @Description("Faux si la commande a levé une exception")
+    boolean succes;
+  }
+
+  /** Chargement du fichier de base. */
+  @Name("fr.uvsq.cprog.collex.Chargement")
+  @Label("Chargement de la base")
+  @Category({"DNS", "Base"})
+  @Description("Lecture du fichier de zone en mémoire")
+  static final class Chargement extends Event {
+    @Label("Fichier")
+    String fichier;
+
+    @Label("Entrées")
+    @Description("Entrées en mémoire après le chargement")
+    int entrees;
+
+    @Label("Taille")
+    @DataAmount
+    long octets;
+  }
+
+  /** Écriture du fichier de base. */
+  @Name("fr.uvsq.cprog.collex.Ecriture")
+  @Label("Écriture de la base")
+  @Category({"DNS", "Base"})
+  @Description("Réécriture complète du fichier de zone")
+  static final class Ecriture extends Event {
+    @Label("Fichier")
+    String fichier;
+
+    @Label("Entrées")
+    int entrees;
+
+    @Label("Taille")
+    @DataAmount
+    long octets;
+
+    @Label("Compact")
+    @Description("Format binaire par blocs plutôt que texte")
+    boolean compact;
+  }
+
+  /** Construction ou reconstruction d'un index secondaire. */
+  @Name("fr.uvsq.cprog.collex.Index")
+  @Label("Reconstruction d'index")
+  @Category({"DNS", "Index"})
+  @Description("Construction complète d'un index de recherche")
+  static final class Index extends Event {
+    @Label("Index")
+    @Description("noms, noms (compactage) ou fichier clairsemé")
+    String index;
+
+    @Label("Entrées")
+    int entrees;
+  }
+}
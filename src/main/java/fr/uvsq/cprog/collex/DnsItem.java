@@ -1,10 +1,12 @@
 package fr.uvsq.cprog.collex;
 
+import java.time.Instant;
 import java.util.Objects;
 
 /**
  * Représente une entrée DNS, c’est-à-dire une association entre
  * un nom de machine ({@link NomMachine}) et une adresse IP ({@link AdresseIP}).
+ * Une entrée peut porter une date d'expiration (TTL) ; sans elle, elle est permanente.
  *
  * <p>Exemple :
  * <pre>{@code
@@ -21,16 +23,32 @@ public final class DnsItem {
   /** Adresse IP correspondante. */
   private final AdresseIP ip;
 
+  /** Instant d'expiration, ou {@code null} pour une entrée permanente. */
+  private final Instant expiration;
+
   /**
-   * Crée une nouvelle entrée DNS (nom + IP).
+   * Crée une nouvelle entrée DNS permanente (nom + IP).
    *
    * @param nom le nom de machine (non {@code null})
    * @param ip l’adresse IP correspondante (non {@code null})
    * @throws NullPointerException si {@code nom} ou {@code ip} est {@code null}
    */
   public DnsItem(NomMachine nom, AdresseIP ip) {
+    this(nom, ip, null);
+  }
+
+  /**
+   * Crée une nouvelle entrée DNS qui expire à l'instant donné.
+   *
+   * @param nom le nom de machine (non {@code null})
+   * @param ip l’adresse IP correspondante (non {@code null})
+   * @param expiration instant d'expiration, ou {@code null} pour une entrée permanente
+   * @throws NullPointerException si {@code nom} ou {@code ip} est {@code null}
+   */
+  public DnsItem(NomMachine nom, AdresseIP ip, Instant expiration) {
     this.nom = Objects.requireNonNull(nom, "nom");
     this.ip = Objects.requireNonNull(ip, "ip");
+    this.expiration = expiration;
   }
 
   /** Retourne le nom de machine. */
@@ -43,6 +61,21 @@ public final class DnsItem {
     return ip;
   }
 
+  /** Retourne l'instant d'expiration, ou {@code null} si l'entrée est permanente. */
+  public Instant getExpiration() {
+    return expiration;
+  }
+
+  /**
+   * Indique si l'entrée a expiré à l'instant donné.
+   *
+   * @param now instant de référence
+   * @return {@code true} si l'entrée porte un TTL échu
+   */
+  public boolean isExpired(Instant now) {
+    return expiration != null && !expiration.isAfter(now);
+  }
+
   @Override
   public String toString() {
     return ip + " " + nom;
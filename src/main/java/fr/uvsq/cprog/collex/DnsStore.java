@@ -0,0 +1,122 @@
+package fr.uvsq.cprog.collex;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Moteur de stockage des entrées DNS : index par nom de machine et par adresse IP.
+ *
+ * <p>Le moteur ne gère que la représentation en mémoire. Le chargement, la
+ * persistance et les règles métier (unicité, TTL) restent dans {@link Dns},
+ * qui les écrit une seule fois pour tous les moteurs. Le moteur est choisi
+ * par la propriété {@code db.store} de {@code dns.properties} :
+ * <ul>
+ *   <li>{@code hash} (défaut) : tables de hachage en tas ({@link HashDnsStore}) ;</li>
+ *   <li>{@code tree} : index trié par FQDN ({@link TreeDnsStore}) ;</li>
+ *   <li>{@code offheap} : enregistrements hors tas ({@link OffHeapDnsStore}) ;</li>
+ *   <li>{@code mmap} : enregistrements dans un fichier projeté ({@link MappedDnsStore}).</li>
+ * </ul>
+ */
+public interface DnsStore {
+
+  /**
+   * Recherche une entrée par nom de machine.
+   *
+   * @param nom nom recherché
+   * @return l'entrée, ou {@code null} si absente
+   */
+  DnsItem get(NomMachine nom);
+
+  /**
+   * Recherche une entrée par adresse IP.
+   *
+   * @param ip adresse recherchée
+   * @return l'entrée, ou {@code null} si absente
+   */
+  DnsItem get(AdresseIP ip);
+
+  /**
+   * Insère une entrée. L'appelant garantit qu'aucune entrée ne porte déjà
+   * le même nom ni la même adresse.
+   *
+   * @param item entrée à insérer
+   */
+  void put(DnsItem item);
+
+  /**
+   * Retire l'entrée portant ce nom des deux index.
+   *
+   * @param nom nom à retirer
+   * @return l'entrée retirée, ou {@code null} si absente
+   */
+  DnsItem remove(NomMachine nom);
+
+  /** Nombre d'entrées. */
+  int size();
+
+  /**
+   * Parcourt toutes les entrées.
+   *
+   * @param action action appliquée à chaque entrée
+   */
+  void forEach(Consumer<? super DnsItem> action);
+
+  /**
+   * Indique si {@link #forEach} parcourt les entrées par FQDN croissant,
+   * ce qui dispense l'appelant de trier.
+   */
+  default boolean isSorted() {
+    return false;
+  }
+
+  /**
+   * Empreinte estimée des index du moteur dans le tas (tables et nœuds), sans
+   * les objets des entrées elles-mêmes.
+   *
+   * @param layout dimensions des objets de la JVM
+   * @return octets par index, dans l'ordre d'affichage
+   */
+  default Map<String, Long> indexBytes(HeapLayout layout) {
+    return Collections.emptyMap();
+  }
+
+  /** Octets occupés hors du tas (tampon direct ou fichier projeté). */
+  default long offHeapBytes() {
+    return 0;
+  }
+
+  /**
+   * Indique si le moteur garde les {@link DnsItem} reçus, et donc leurs objets
+   * et chaînes, dans le tas ; un moteur à enregistrements binaires les recrée
+   * à chaque lecture.
+   */
+  default boolean retainsItems() {
+    return true;
+  }
+
+  /**
+   * Crée un moteur à partir de son nom de configuration.
+   *
+   * @param type {@code hash}, {@code tree}, {@code offheap} ou {@code mmap}
+   * @param dbFile fichier de base, dont le moteur {@code mmap} dérive son fichier projeté
+   * @return un moteur vide
+   * @throws IllegalArgumentException si le type est inconnu
+   */
+  static DnsStore create(String type, Path dbFile) {
+    switch (type.trim().toLowerCase(Locale.ROOT)) {
+      case "hash":
+        return new HashDnsStore();
+      case "tree":
+        return new TreeDnsStore();
+      case "offheap":
+        return new OffHeapDnsStore();
+      case "mmap":
+        return new MappedDnsStore(dbFile.resolveSibling(dbFile.getFileName() + ".store"));
+      default:
+        throw new IllegalArgumentException("Moteur de stockage inconnu: " + type);
+    }
+  }
+}
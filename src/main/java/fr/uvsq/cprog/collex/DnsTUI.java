@@ -1,7 +1,14 @@
 package fr.uvsq.cprog.collex;
 import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 
 /**
@@ -22,16 +29,32 @@ public class DnsTUI {
   private final Scanner in;
   private final PrintStream out;
 
+  /**
+   * Base simple servie, ou {@code null} pour une base composée
+   * ({@link ShardedDns}, {@link ZonedDns}) : les transactions, la surveillance
+   * et la sauvegarde sont alors refusées dès l'analyse de la commande.
+   */
+  private final Dns single;
+
+  /** Surveillances ({@code watch}) en cours, par domaine. */
+  private final Map<String, ChangeStream> watches = new ConcurrentHashMap<>();
+
+  /** Transaction ouverte par {@code begin}, vide hors transaction. */
+  private final AtomicReference<Transaction> session = new AtomicReference<>();
+
   /**
    * Construit une TUI avec les flux d'entrée/sortie fournis.
    *
    * @param in  scanner utilisé pour lire les lignes de commande
    * @param out flux de sortie pour afficher les messages
-   * @throws NullPointerException si {@code in} ou {@code out} est {@code null}
+   * @param dns base sur laquelle les commandes seront exécutées
+   * @throws NullPointerException si {@code in}, {@code out} ou {@code dns} est {@code null}
    */
-  public DnsTUI(Scanner in, PrintStream out) {
+  public DnsTUI(Scanner in, PrintStream out, DnsBase dns) {
     this.in = Objects.requireNonNull(in, "in");
     this.out = Objects.requireNonNull(out, "out");
+    Objects.requireNonNull(dns, "dns");
+    this.single = (dns instanceof Dns) ? (Dns) dns : null;
   }
 
   /**
@@ -40,9 +63,17 @@ public class DnsTUI {
    * @return la commande interprétée
    */
   public Commande nextCommande() {
+    return parse(nextLine());
+  }
+
+  /**
+   * Affiche l'invite et lit une ligne de commande sur {@code in}.
+   *
+   * @return la ligne lue, sans espaces de début et de fin
+   */
+  public String nextLine() {
     out.print("> ");
-    String line = in.nextLine().trim();
-    return parse(line);
+    return in.nextLine().trim();
   }
 
   /**
@@ -66,6 +97,16 @@ public class DnsTUI {
       return new CommandeQuit();
     }
 
+    if (line.equalsIgnoreCase("begin")) {
+      return transaction(CommandeTransaction.Action.BEGIN);
+    }
+    if (line.equalsIgnoreCase("commit")) {
+      return transaction(CommandeTransaction.Action.COMMIT);
+    }
+    if (line.equalsIgnoreCase("abort")) {
+      return transaction(CommandeTransaction.Action.ABORT);
+    }
+
     if (line.startsWith("ls ")) {
       String rest = line.substring(3).trim();
       boolean sortByAddress = false;
@@ -79,13 +120,150 @@ public class DnsTUI {
       return new CommandeLs(rest, sortByAddress);
     }
 
+    if (line.startsWith("watch ") || line.startsWith("unwatch ")) {
+      String[] parts = line.split("\\s+");
+      if (parts.length != 2) {
+        return l -> "ERREUR : Commande invalide";
+      }
+      if (single == null) {
+        return l -> "ERREUR : Surveillance indisponible sur une base partitionnée ou par zones";
+      }
+      return new CommandeWatch(single, parts[1], parts[0].equals("unwatch"), out, watches);
+    }
+
+    if (line.startsWith("find ")) {
+      // find [-n limite] motif
+      String[] parts = line.split("\\s+");
+      try {
+        if (parts.length == 2) {
+          return CommandeFind.of(parts[1], CommandeFind.LIMITE_DEFAUT);
+        }
+        if (parts.length == 4 && parts[1].equals("-n")) {
+          int limite = Integer.parseInt(parts[2]);
+          if (limite <= 0) {
+            throw new IllegalArgumentException("Limite invalide: " + parts[2]);
+          }
+          return CommandeFind.of(parts[3], limite);
+        }
+      } catch (IllegalArgumentException e) {
+        return l -> "ERREUR : " + e.getMessage();
+      }
+      return l -> "ERREUR : Commande invalide";
+    }
+
+    if (line.startsWith("diff ")) {
+      // diff [-apply] fichierDepart fichierArrivee
+      String[] parts = line.split("\\s+");
+      boolean apply = parts.length == 4 && parts[1].equals("-apply");
+      if (parts.length != (apply ? 4 : 3)) {
+        return l -> "ERREUR : Commande invalide";
+      }
+      Commande diff = new CommandeDiff(Paths.get(parts[parts.length - 2]),
+          Paths.get(parts[parts.length - 1]), apply);
+      return apply ? horsTransaction(diff) : diff;
+    }
+
+    if (line.equals("check") || line.startsWith("check ")) {
+      // check [fichier]
+      String[] parts = line.split("\\s+");
+      if (parts.length > 2) {
+        return l -> "ERREUR : Commande invalide";
+      }
+      return new CommandeCheck((parts.length == 2) ? Paths.get(parts[1]) : null);
+    }
+
+    if (line.startsWith("export ")) {
+      // export repertoire
+      String[] parts = line.split("\\s+");
+      if (parts.length != 2) {
+        return l -> "ERREUR : Commande invalide";
+      }
+      return new CommandeExport(Paths.get(parts[1]));
+    }
+
+    if (line.startsWith("backup ")) {
+      // backup [-full] repertoire
+      String[] parts = line.split("\\s+");
+      boolean full = parts.length == 3 && parts[1].equals("-full");
+      if (parts.length != (full ? 3 : 2)) {
+        return l -> "ERREUR : Commande invalide";
+      }
+      if (single == null) {
+        return l -> "ERREUR : Sauvegarde indisponible sur une base partitionnée ou par zones";
+      }
+      return new CommandeBackup(single, Paths.get(parts[parts.length - 1]), full);
+    }
+
+    if (line.startsWith("restore ")) {
+      // restore repertoire [instant ISO-8601]
+      String[] parts = line.split("\\s+");
+      if (parts.length != 2 && parts.length != 3) {
+        return l -> "ERREUR : Commande invalide";
+      }
+      try {
+        Instant target = (parts.length == 3) ? Instant.parse(parts[2]) : null;
+        return horsTransaction(new CommandeRestore(Paths.get(parts[1]), target));
+      } catch (DateTimeParseException e) {
+        return l -> "ERREUR : Instant invalide: " + parts[2];
+      }
+    }
+
     if (line.startsWith("add ")) {
+      // add ip fqdn [ttl en secondes]
+      String[] parts = line.split("\\s+");
+      if (parts.length != 3 && parts.length != 4) {
+        return l -> "ERREUR : Commande invalide";
+      }
+      try {
+        Duration ttl = null;
+        if (parts.length == 4) {
+          ttl = parseTtl(parts[3]);
+        }
+        return new CommandeAdd(new AdresseIP(parts[1]), new NomMachine(parts[2]), ttl, session);
+      } catch (IllegalArgumentException e) {
+        return l -> "ERREUR : " + e.getMessage();
+      }
+    }
+
+    if (line.startsWith("alloc ")) {
+      // alloc fqdn cidr [ttl en secondes]
+      String[] parts = line.split("\\s+");
+      if (parts.length != 3 && parts.length != 4) {
+        return l -> "ERREUR : Commande invalide";
+      }
+      try {
+        Duration ttl = (parts.length == 4) ? parseTtl(parts[3]) : null;
+        return horsTransaction(
+            new CommandeAlloc(new NomMachine(parts[1]), new Subnet(parts[2]), ttl));
+      } catch (IllegalArgumentException e) {
+        return l -> "ERREUR : " + e.getMessage();
+      }
+    }
+
+    if (line.equals("mem")) {
+      return new CommandeMem();
+    }
+
+    if (line.equals("zones")) {
+      return new CommandeZones();
+    }
+
+    if (line.equals("cache")) {
+      return new CommandeCache();
+    }
+
+    if (line.equals("forward")) {
+      return new CommandeForward();
+    }
+
+    if (line.equals("subnets") || line.startsWith("subnets ")) {
+      // subnets [cidr]
       String[] parts = line.split("\\s+");
-      if (parts.length != 3) {
+      if (parts.length > 2) {
         return l -> "ERREUR : Commande invalide";
       }
       try {
-        return new CommandeAdd(new AdresseIP(parts[1]), new NomMachine(parts[2]));
+        return new CommandeSubnets((parts.length == 2) ? new Subnet(parts[1]) : null);
       } catch (IllegalArgumentException e) {
         return l -> "ERREUR : " + e.getMessage();
       }
@@ -93,13 +271,13 @@ public class DnsTUI {
 
     if (IPV4.matcher(line).matches()) {
       // Ligne = IP → commande de recherche FQDN par IP
-      return new CommandeIp(new AdresseIP(line));
+      return new CommandeIp(new AdresseIP(line), session);
     }
 
     if (line.contains(".")) {
       // Ligne = FQDN → commande de recherche IP par nom
       try {
-        return new CommandeNom(new NomMachine(line));
+        return new CommandeNom(new NomMachine(line), session);
       } catch (IllegalArgumentException e) {
         return l -> "ERREUR : " + e.getMessage();
       }
@@ -108,6 +286,46 @@ public class DnsTUI {
     return l -> "ERREUR : Commande invalide";
   }
 
+  /** Commande de transaction, refusée sur une base composée. */
+  private Commande transaction(CommandeTransaction.Action action) {
+    if (single == null) {
+      return l -> "ERREUR : Transactions indisponibles sur une base partitionnée ou par zones";
+    }
+    return new CommandeTransaction(action, single, session);
+  }
+
+  /**
+   * Commande refusée si une transaction est ouverte au moment de l'exécution
+   * (le mode batch analyse les lignes avant de les exécuter).
+   */
+  private Commande horsTransaction(Commande direct) {
+    return new Commande() {
+      @Override
+      public String execute(DnsBase dns) {
+        return (session.get() == null)
+            ? direct.execute(dns) : "ERREUR : Commande impossible dans une transaction";
+      }
+
+      @Override
+      public boolean lectureSeule() {
+        return direct.lectureSeule();
+      }
+    };
+  }
+
+  /** Interprète un TTL exprimé en secondes (entier strictement positif). */
+  private static Duration parseTtl(String texte) {
+    try {
+      long secondes = Long.parseLong(texte);
+      if (secondes > 0) {
+        return Duration.ofSeconds(secondes);
+      }
+    } catch (NumberFormatException e) {
+      // traité ci-dessous
+    }
+    throw new IllegalArgumentException("TTL invalide: " + texte);
+  }
+
   /**
    * Affiche un texte sur {@code out} s'il est non vide.
    *
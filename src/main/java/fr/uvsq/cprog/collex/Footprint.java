@@ -0,0 +1,249 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Comptabilité de l'empreinte mémoire des entrées d'une base.
+ *
+ * <p>{@link Dns} signale chaque insertion et chaque retrait : les totaux (objets
+ * {@code DnsItem}, {@code NomMachine}, {@code AdresseIP} et {@code Instant},
+ * chaînes du FQDN, de la machine, du domaine et de l'adresse, échéances TTL)
+ * sont tenus à jour par addition et soustraction de tailles calculées selon
+ * {@link HeapLayout}. Un rapport ({@link #report}) coûte donc autant quelle que
+ * soit la taille de la base et peut être demandé périodiquement.
+ *
+ * <p>Les chaînes de domaine sont comptées par valeur : chaque {@code NomMachine}
+ * en possède sa propre copie, et toutes les copies après la première sont
+ * autant d'octets qu'un partage (internement) récupérerait.
+ *
+ * <p>Cette classe n'est pas thread-safe : {@link Dns} la modifie sous son verrou
+ * en écriture.
+ */
+public final class Footprint {
+
+  private final HeapLayout layout;
+
+  private int ttlEntries;
+  private int ttlPeak;
+  private long objectBytes;
+  private long fqdnBytes;
+  private long machineBytes;
+  private long domaineBytes;
+  private long ipBytes;
+
+  /** Copies de chaque chaîne de domaine. */
+  private final Map<String, int[]> domains = new HashMap<>();
+  private long duplicateDomainBytes;
+
+  Footprint(HeapLayout layout) {
+    this.layout = layout;
+  }
+
+  /** Compte une entrée insérée. */
+  void add(DnsItem it) {
+    update(it, 1);
+    String d = it.getNom().getDomaine();
+    int[] copies = domains.computeIfAbsent(d, k -> new int[1]);
+    if (copies[0]++ > 0) {
+      duplicateDomainBytes += layout.string(d);
+    }
+    if (it.getExpiration() != null) {
+      ttlPeak = Math.max(ttlPeak, ttlEntries);
+    }
+  }
+
+  /** Décompte une entrée retirée. */
+  void remove(DnsItem it) {
+    update(it, -1);
+    String d = it.getNom().getDomaine();
+    int[] copies = domains.get(d);
+    if (--copies[0] > 0) {
+      duplicateDomainBytes -= layout.string(d);
+    } else {
+      domains.remove(d);
+    }
+  }
+
+  private void update(DnsItem it, int sign) {
+    NomMachine nom = it.getNom();
+    // DnsItem (nom, ip, expiration), NomMachine (3 chaînes), AdresseIP (chaîne, int)
+    long objects = layout.object(3, 0) + layout.object(3, 0) + layout.object(1, 4);
+    if (it.getExpiration() != null) {
+      ttlEntries += sign;
+      objects += layout.object(0, 8 + 4); // Instant : secondes, nanosecondes
+    }
+    objectBytes += sign * objects;
+    fqdnBytes += sign * layout.string(nom.getFqdn());
+    machineBytes += sign * layout.string(nom.getMachine());
+    domaineBytes += sign * layout.string(nom.getDomaine());
+    ipBytes += sign * layout.string(it.getIp().value());
+  }
+
+  /**
+   * Rapport courant.
+   *
+   * @param store moteur de la base, pour l'empreinte de ses index
+   * @return le rapport
+   */
+  Report report(DnsStore store) {
+    Map<String, Long> parts = new LinkedHashMap<>(store.indexBytes(layout));
+    long entryBytes = 0;
+    long dedup = 0;
+    long derived = 0;
+    long ipText = 0;
+    if (store.retainsItems()) {
+      // échéances : nœud de la table des timers et minuterie de la roue
+      parts.put("échéances TTL", layout.hashTable(ttlPeak)
+          + ttlEntries * (layout.hashNode() + layout.object(4, 8 + 4)));
+      parts.put("objets des entrées", objectBytes);
+      parts.put("chaînes fqdn", fqdnBytes);
+      parts.put("chaînes machine", machineBytes);
+      parts.put("chaînes domaine", domaineBytes);
+      parts.put("chaînes ip", ipBytes);
+      dedup = duplicateDomainBytes;
+      derived = machineBytes + domaineBytes;
+      ipText = ipBytes;
+    }
+    for (long b : parts.values()) {
+      entryBytes += b;
+    }
+    return new Report(store.size(), ttlEntries, parts, entryBytes, store.offHeapBytes(),
+        store.retainsItems() ? domains.size() : 0, dedup, derived, ipText);
+  }
+
+  /** Empreinte mémoire estimée d'une base à un instant donné. */
+  public static final class Report {
+    private final int entries;
+    private final int ttlEntries;
+    private final Map<String, Long> parts;
+    private final long heapBytes;
+    private final long offHeapBytes;
+    private final int distinctDomains;
+    private final long duplicateDomainBytes;
+    private final long derivableBytes;
+    private final long ipTextBytes;
+
+    Report(int entries, int ttlEntries, Map<String, Long> parts, long heapBytes,
+        long offHeapBytes, int distinctDomains, long duplicateDomainBytes,
+        long derivableBytes, long ipTextBytes) {
+      this.entries = entries;
+      this.ttlEntries = ttlEntries;
+      this.parts = parts;
+      this.heapBytes = heapBytes;
+      this.offHeapBytes = offHeapBytes;
+      this.distinctDomains = distinctDomains;
+      this.duplicateDomainBytes = duplicateDomainBytes;
+      this.derivableBytes = derivableBytes;
+      this.ipTextBytes = ipTextBytes;
+    }
+
+    /**
+     * Somme de deux rapports (partitions d'une même base). Les doublons de
+     * domaine entre partitions ne sont pas comptés.
+     *
+     * @param o autre rapport
+     * @return le rapport cumulé
+     */
+    Report plus(Report o) {
+      Map<String, Long> sum = new LinkedHashMap<>(parts);
+      o.parts.forEach((k, v) -> sum.merge(k, v, Long::sum));
+      return new Report(entries + o.entries, ttlEntries + o.ttlEntries, sum,
+          heapBytes + o.heapBytes, offHeapBytes + o.offHeapBytes,
+          distinctDomains + o.distinctDomains, duplicateDomainBytes + o.duplicateDomainBytes,
+          derivableBytes + o.derivableBytes, ipTextBytes + o.ipTextBytes);
+    }
+
+    public int getEntries() {
+      return entries;
+    }
+
+    /** Entrées à durée de vie. */
+    public int getTtlEntries() {
+      return ttlEntries;
+    }
+
+    /** Octets estimés par index ou catégorie d'objets, dans l'ordre d'affichage. */
+    public Map<String, Long> getParts() {
+      return parts;
+    }
+
+    /** Total estimé dans le tas. */
+    public long getHeapBytes() {
+      return heapBytes;
+    }
+
+    /** Octets hors du tas (moteurs {@code offheap} et {@code mmap}). */
+    public long getOffHeapBytes() {
+      return offHeapBytes;
+    }
+
+    /** Octets de tas par entrée. */
+    public double bytesPerEntry() {
+      return (entries == 0) ? 0 : (double) heapBytes / entries;
+    }
+
+    /** Nombre de chaînes de domaine distinctes. */
+    public int getDistinctDomains() {
+      return distinctDomains;
+    }
+
+    /** Octets récupérables en partageant les chaînes de domaine identiques. */
+    public long getDuplicateDomainBytes() {
+      return duplicateDomainBytes;
+    }
+
+    /** Octets des chaînes machine et domaine, qui pourraient être dérivées du FQDN. */
+    public long getDerivableBytes() {
+      return derivableBytes;
+    }
+
+    /** Octets des adresses sous forme texte, redondante avec leur forme entière. */
+    public long getIpTextBytes() {
+      return ipTextBytes;
+    }
+
+    @Override
+    public String toString() {
+      String nl = System.lineSeparator();
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format(Locale.ROOT, "%-20s %d (%d à TTL)", "entrées", entries,
+          ttlEntries));
+      for (Map.Entry<String, Long> e : parts.entrySet()) {
+        sb.append(nl).append(String.format(Locale.ROOT, "%-20s %s", e.getKey(),
+            bytes(e.getValue())));
+      }
+      sb.append(nl).append(String.format(Locale.ROOT, "%-20s %s (%.1f o/entrée)", "total tas",
+          bytes(heapBytes), bytesPerEntry()));
+      if (offHeapBytes > 0) {
+        sb.append(nl).append(String.format(Locale.ROOT, "%-20s %s", "hors tas",
+            bytes(offHeapBytes)));
+      }
+      if (distinctDomains > 0) {
+        sb.append(nl).append(String.format(Locale.ROOT,
+            "partage des domaines : %d domaine(s) distinct(s), %s récupérables",
+            distinctDomains, bytes(duplicateDomainBytes)));
+        sb.append(nl).append("machine/domaine dérivables du fqdn : ")
+            .append(bytes(derivableBytes))
+            .append(" ; adresses en texte : ").append(bytes(ipTextBytes));
+      }
+      return sb.toString();
+    }
+
+    /** Octets en unités binaires ({@code 512 o}, {@code 1.5 Kio}, {@code 12.0 Mio}). */
+    static String bytes(long n) {
+      if (n < 1024) {
+        return n + " o";
+      }
+      if (n < 1024 * 1024) {
+        return String.format(Locale.ROOT, "%.1f Kio", n / 1024.0);
+      }
+      if (n < 1024L * 1024 * 1024) {
+        return String.format(Locale.ROOT, "%.1f Mio", n / (1024.0 * 1024));
+      }
+      return String.format(Locale.ROOT, "%.2f Gio", n / (1024.0 * 1024 * 1024));
+    }
+  }
+}
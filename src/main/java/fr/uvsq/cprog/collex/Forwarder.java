@@ -0,0 +1,438 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Résolveur amont pour les noms et adresses absents de la base.
+ *
+ * <p>Les questions ({@code A} pour un nom, {@code PTR} pour une adresse) sont
+ * envoyées en UDP au format DNS (RFC 1035) à un résolveur configuré par
+ * {@code forward.upstream}. Les réponses, positives ou négatives, sont gardées
+ * dans un {@link LookupCache} borné ({@code forward.cache.size} entrées),
+ * distinct des données de la base, jusqu'à l'échéance de leur TTL ; une réponse
+ * négative vit le temps indiqué par le {@code SOA} de la réponse, borné par
+ * {@code forward.negative.ttl}.
+ *
+ * <p>Des recherches simultanées d'une même clé absente du cache ne produisent
+ * qu'une question : la première crée un {@link CompletableFuture} dans la table
+ * des questions en cours, les suivantes attendent sa réponse.
+ */
+public final class Forwarder {
+
+  static final int TYPE_A = 1;
+  static final int TYPE_SOA = 6;
+  static final int TYPE_PTR = 12;
+  static final int TYPE_CNAME = 5;
+  static final int RCODE_NXDOMAIN = 3;
+
+  /** Taille maximale d'une réponse UDP sans EDNS. */
+  private static final int MAX_UDP = 512;
+
+  /** Envois d'une même question avant de renoncer. */
+  private static final int ATTEMPTS = 2;
+
+  private final InetSocketAddress upstream;
+  private final int timeoutMillis;
+  private final long negativeTtlMillis;
+  private final Clock clock;
+  private final LookupCache<String, Answer> cache;
+  private final ConcurrentMap<String, CompletableFuture<Answer>> inflight =
+      new ConcurrentHashMap<>();
+
+  private final LongAdder lookups = new LongAdder();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+  private final LongAdder queries = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  private final LongAdder answered = new LongAdder();
+  private final LongAdder upstreamNanos = new LongAdder();
+
+  /**
+   * Crée un résolveur amont.
+   *
+   * @param upstream adresse du résolveur interrogé
+   * @param cacheSize nombre maximal de réponses gardées
+   * @param timeout délai d'attente d'une réponse (deux essais)
+   * @param negativeTtl durée maximale de conservation d'une réponse négative
+   */
+  public Forwarder(InetSocketAddress upstream, int cacheSize, Duration timeout,
+      Duration negativeTtl) {
+    this(upstream, cacheSize, timeout, negativeTtl, Clock.systemUTC());
+  }
+
+  Forwarder(InetSocketAddress upstream, int cacheSize, Duration timeout, Duration negativeTtl,
+      Clock clock) {
+    if (cacheSize < 1) {
+      throw new IllegalArgumentException("Taille de cache invalide: " + cacheSize);
+    }
+    this.upstream = Objects.requireNonNull(upstream);
+    this.timeoutMillis = (int) Math.max(1, timeout.toMillis());
+    this.negativeTtlMillis = negativeTtl.toMillis();
+    this.clock = Objects.requireNonNull(clock);
+    this.cache = new LookupCache<>(cacheSize, a -> 1, cacheSize);
+  }
+
+  /**
+   * Crée le résolveur décrit par la configuration.
+   *
+   * @param config propriétés {@code forward.upstream} ({@code hôte[:port]}),
+   *     {@code forward.cache.size}, {@code forward.timeout} (ms) et
+   *     {@code forward.negative.ttl} (s)
+   * @param clock horloge des TTL
+   * @return le résolveur, ou {@code null} si {@code forward.upstream} est absente ou vide
+   */
+  static Forwarder fromConfig(Properties config, Clock clock) {
+    String spec = config.getProperty("forward.upstream", "").trim();
+    if (spec.isEmpty()) {
+      return null;
+    }
+    int colon = spec.lastIndexOf(':');
+    String host = (colon < 0) ? spec : spec.substring(0, colon);
+    int port = (colon < 0) ? 53 : Integer.parseInt(spec.substring(colon + 1));
+    return new Forwarder(new InetSocketAddress(host, port),
+        Integer.parseInt(config.getProperty("forward.cache.size", "10000")),
+        Duration.ofMillis(Long.parseLong(config.getProperty("forward.timeout", "2000"))),
+        Duration.ofSeconds(Long.parseLong(config.getProperty("forward.negative.ttl", "60"))),
+        clock);
+  }
+
+  /**
+   * Adresse d'un nom selon le résolveur amont.
+   *
+   * @param nom nom recherché
+   * @return l'adresse, ou {@code null} si le nom n'existe pas
+   * @throws IOException si le résolveur ne répond pas ou répond une erreur
+   */
+  public AdresseIP resolve(NomMachine nom) throws IOException {
+    String ip = lookup("A " + nom.getFqdn(), nom.getFqdn(), TYPE_A);
+    return (ip == null) ? null : new AdresseIP(ip);
+  }
+
+  /**
+   * Nom associé à une adresse selon le résolveur amont.
+   *
+   * @param ip adresse recherchée
+   * @return le nom (sans point final), ou {@code null} si l'adresse n'a pas de nom
+   * @throws IOException si le résolveur ne répond pas ou répond une erreur
+   */
+  public String resolve(AdresseIP ip) throws IOException {
+    int b = ip.toInt();
+    String qname = (b & 0xFF) + "." + ((b >>> 8) & 0xFF) + "." + ((b >>> 16) & 0xFF) + "."
+        + (b >>> 24) + ".in-addr.arpa";
+    return lookup("PTR " + ip.value(), qname, TYPE_PTR);
+  }
+
+  private String lookup(String key, String qname, int qtype) throws IOException {
+    lookups.increment();
+    long now = clock.millis();
+    Answer cached = cache.get(key);
+    if (cached != null) {
+      if (cached.expires > now) {
+        hits.increment();
+        return cached.value;
+      }
+      cache.invalidate(key);
+    }
+    CompletableFuture<Answer> mine = new CompletableFuture<>();
+    CompletableFuture<Answer> pending = inflight.putIfAbsent(key, mine);
+    if (pending == null) {
+      try {
+        Answer a = query(qname, qtype);
+        cache.put(key, a);
+        mine.complete(a);
+      } catch (IOException | RuntimeException e) {
+        failures.increment();
+        mine.completeExceptionally(e);
+      } finally {
+        inflight.remove(key, mine);
+      }
+      pending = mine;
+    } else {
+      coalesced.increment();
+    }
+    try {
+      return pending.get().value;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Résolution interrompue", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw (RuntimeException) e.getCause();
+    }
+  }
+
+  /** Pose une question au résolveur amont, avec un nouvel essai après un délai dépassé. */
+  private Answer query(String qname, int qtype) throws IOException {
+    int id = ThreadLocalRandom.current().nextInt(1 << 16);
+    byte[] question = encodeQuery(id, qname, qtype);
+    byte[] buf = new byte[MAX_UDP];
+    long start = System.nanoTime();
+    try (DatagramSocket socket = new DatagramSocket()) {
+      socket.setSoTimeout(timeoutMillis);
+      socket.connect(upstream);
+      for (int attempt = 1; ; attempt++) {
+        queries.increment();
+        socket.send(new DatagramPacket(question, question.length));
+        try {
+          while (true) {
+            DatagramPacket p = new DatagramPacket(buf, buf.length);
+            socket.receive(p);
+            Answer a = decode(ByteBuffer.wrap(buf, 0, p.getLength()), id, qtype);
+            if (a != null) {
+              upstreamNanos.add(System.nanoTime() - start);
+              answered.increment();
+              return a;
+            }
+            // réponse à une autre question (essai précédent) : on attend la suivante
+          }
+        } catch (SocketTimeoutException e) {
+          if (attempt >= ATTEMPTS) {
+            throw new IOException("Résolveur amont muet : " + upstream.getHostString() + ":"
+                + upstream.getPort());
+          }
+        }
+      }
+    }
+  }
+
+  /** Question DNS récursive pour un nom et un type (classe {@code IN}). */
+  static byte[] encodeQuery(int id, String qname, int qtype) {
+    ByteBuffer b = ByteBuffer.allocate(MAX_UDP);
+    b.putShort((short) id).putShort((short) 0x0100).putShort((short) 1)
+        .putShort((short) 0).putShort((short) 0).putShort((short) 0);
+    for (String label : qname.split("\\.")) {
+      byte[] l = label.getBytes(StandardCharsets.US_ASCII);
+      if (l.length == 0 || l.length > 63) {
+        throw new IllegalArgumentException("Nom invalide: " + qname);
+      }
+      b.put((byte) l.length).put(l);
+    }
+    b.put((byte) 0).putShort((short) qtype).putShort((short) 1);
+    byte[] res = new byte[b.position()];
+    b.flip();
+    b.get(res);
+    return res;
+  }
+
+  /**
+   * Lit une réponse.
+   *
+   * @return la réponse, ou {@code null} si elle ne correspond pas à la question
+   * @throws IOException si le résolveur signale une erreur autre que « nom inconnu »
+   */
+  private Answer decode(ByteBuffer b, int id, int qtype) throws IOException {
+    try {
+      if ((b.getShort() & 0xFFFF) != id) {
+        return null;
+      }
+      int flags = b.getShort() & 0xFFFF;
+      if ((flags & 0x8000) == 0) {
+        return null;
+      }
+      int rcode = flags & 0xF;
+      if ((flags & 0x0200) != 0) {
+        throw new IOException("Réponse amont tronquée");
+      }
+      if (rcode != 0 && rcode != RCODE_NXDOMAIN) {
+        throw new IOException("Erreur du résolveur amont (code " + rcode + ")");
+      }
+      int qd = b.getShort() & 0xFFFF;
+      int an = b.getShort() & 0xFFFF;
+      final int ns = b.getShort() & 0xFFFF;
+      b.getShort(); // enregistrements additionnels : ignorés
+      for (int i = 0; i < qd; i++) {
+        readName(b);
+        b.getInt();
+      }
+      long now = clock.millis();
+      // la chaîne de CNAME éventuelle vit aussi longtemps que son maillon le plus court
+      long ttl = Long.MAX_VALUE;
+      for (int i = 0; i < an; i++) {
+        readName(b);
+        int type = b.getShort() & 0xFFFF;
+        b.getShort();
+        long rrTtl = b.getInt() & 0xFFFFFFFFL;
+        int len = b.getShort() & 0xFFFF;
+        int end = b.position() + len;
+        if (type == TYPE_CNAME) {
+          ttl = Math.min(ttl, rrTtl);
+        } else if (type == qtype) {
+          ttl = Math.min(ttl, rrTtl);
+          String value = (type == TYPE_A)
+              ? AdresseIP.fromInt(b.getInt()).value()
+              : stripDot(readName(b));
+          return new Answer(value, now + ttl * 1000);
+        }
+        b.position(end);
+      }
+      long negative = negativeTtlMillis;
+      for (int i = 0; i < ns; i++) {
+        readName(b);
+        int type = b.getShort() & 0xFFFF;
+        b.getShort();
+        long rrTtl = b.getInt() & 0xFFFFFFFFL;
+        int len = b.getShort() & 0xFFFF;
+        int end = b.position() + len;
+        if (type == TYPE_SOA) {
+          readName(b);
+          readName(b);
+          b.position(b.position() + 16);
+          long minimum = b.getInt() & 0xFFFFFFFFL;
+          negative = Math.min(negative, Math.min(rrTtl, minimum) * 1000);
+        }
+        b.position(end);
+      }
+      return new Answer(null, now + negative);
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException("Réponse amont mal formée", e);
+    }
+  }
+
+  /** Lit un nom, pointeurs de compression compris. */
+  static String readName(ByteBuffer b) {
+    StringBuilder sb = new StringBuilder();
+    int resume = -1;
+    int jumps = 0;
+    while (true) {
+      int len = b.get() & 0xFF;
+      if (len == 0) {
+        break;
+      }
+      if ((len & 0xC0) == 0xC0) {
+        int target = ((len & 0x3F) << 8) | (b.get() & 0xFF);
+        if (++jumps > 32) {
+          throw new IllegalArgumentException("Boucle de compression");
+        }
+        if (resume < 0) {
+          resume = b.position();
+        }
+        b.position(target);
+        continue;
+      }
+      byte[] label = new byte[len];
+      b.get(label);
+      sb.append(new String(label, StandardCharsets.US_ASCII)).append('.');
+    }
+    if (resume >= 0) {
+      b.position(resume);
+    }
+    return sb.toString();
+  }
+
+  private static String stripDot(String name) {
+    return name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+  }
+
+  /** Nombre de réponses actuellement gardées en cache. */
+  int cacheSize() {
+    return cache.size();
+  }
+
+  /** Statistiques cumulées depuis la création. */
+  public Stats stats() {
+    return new Stats(lookups.sum(), hits.sum(), coalesced.sum(), queries.sum(), failures.sum(),
+        answered.sum(), upstreamNanos.sum());
+  }
+
+  /** Réponse gardée en cache : valeur ({@code null} : inexistant) et échéance en ms. */
+  private static final class Answer {
+    private final String value;
+    private final long expires;
+
+    Answer(String value, long expires) {
+      this.value = value;
+      this.expires = expires;
+    }
+  }
+
+  /** Statistiques d'un {@link Forwarder}. */
+  public static final class Stats {
+    private final long lookups;
+    private final long hits;
+    private final long coalesced;
+    private final long queries;
+    private final long failures;
+    private final long answered;
+    private final long upstreamNanos;
+
+    Stats(long lookups, long hits, long coalesced, long queries, long failures, long answered,
+        long upstreamNanos) {
+      this.lookups = lookups;
+      this.hits = hits;
+      this.coalesced = coalesced;
+      this.queries = queries;
+      this.failures = failures;
+      this.answered = answered;
+      this.upstreamNanos = upstreamNanos;
+    }
+
+    /** Recherches transmises au résolveur (hors entrées de la base). */
+    public long getLookups() {
+      return lookups;
+    }
+
+    /** Recherches servies par le cache. */
+    public long getHits() {
+      return hits;
+    }
+
+    /** Recherches qui ont attendu la question d'une recherche simultanée. */
+    public long getCoalesced() {
+      return coalesced;
+    }
+
+    /** Questions envoyées au résolveur amont, nouveaux essais compris. */
+    public long getQueries() {
+      return queries;
+    }
+
+    /** Questions restées sans réponse exploitable. */
+    public long getFailures() {
+      return failures;
+    }
+
+    /** Proportion des recherches servies par le cache. */
+    public double hitRate() {
+      return (lookups == 0) ? 0 : (double) hits / lookups;
+    }
+
+    /** Durée moyenne d'une résolution amont réussie, en ms. */
+    public double meanUpstreamMillis() {
+      return (answered == 0) ? 0 : upstreamNanos / 1e6 / answered;
+    }
+
+    /** Temps d'attente évité par le cache et le regroupement, estimé à la latence moyenne. */
+    public double savedMillis() {
+      return (hits + coalesced) * meanUpstreamMillis();
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT,
+          "recherches=%d cache=%d (%.1f %%) regroupées=%d questions=%d échecs=%d"
+              + " latence=%.2f ms économisé=%.0f ms",
+          lookups, hits, 100 * hitRate(), coalesced, queries, failures,
+          meanUpstreamMillis(), savedMillis());
+    }
+  }
+}
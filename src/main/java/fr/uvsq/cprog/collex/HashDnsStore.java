@@ -0,0 +1,64 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Moteur en tas à base de tables de hachage ; l'ordre d'insertion est conservé.
+ */
+public final class HashDnsStore implements DnsStore {
+
+  /** Indexation par nom de machine. */
+  private final Map<NomMachine, DnsItem> byName = new LinkedHashMap<>();
+
+  /** Indexation par adresse IP. */
+  private final Map<AdresseIP, DnsItem> byIp = new LinkedHashMap<>();
+
+  /** Plus grand nombre d'entrées atteint : les tables de hachage ne rétrécissent pas. */
+  private int peak;
+
+  @Override
+  public DnsItem get(NomMachine nom) {
+    return byName.get(nom);
+  }
+
+  @Override
+  public DnsItem get(AdresseIP ip) {
+    return byIp.get(ip);
+  }
+
+  @Override
+  public void put(DnsItem item) {
+    byName.put(item.getNom(), item);
+    byIp.put(item.getIp(), item);
+    peak = Math.max(peak, byName.size());
+  }
+
+  @Override
+  public DnsItem remove(NomMachine nom) {
+    DnsItem item = byName.remove(nom);
+    if (item != null) {
+      byIp.remove(item.getIp());
+    }
+    return item;
+  }
+
+  @Override
+  public int size() {
+    return byName.size();
+  }
+
+  @Override
+  public Map<String, Long> indexBytes(HeapLayout layout) {
+    Map<String, Long> res = new LinkedHashMap<>();
+    res.put("byName", layout.hashTable(peak) + byName.size() * layout.linkedHashNode());
+    res.put("byIp", layout.hashTable(peak) + byIp.size() * layout.linkedHashNode());
+    return res;
+  }
+
+  @Override
+  public void forEach(Consumer<? super DnsItem> action) {
+    byName.values().forEach(action);
+  }
+}
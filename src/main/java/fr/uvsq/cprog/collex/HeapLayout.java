@@ -0,0 +1,136 @@
+package fr.uvsq.cprog.collex;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Dimensions des objets dans le tas de la JVM courante, pour estimer
+ * l'empreinte d'une structure sans parcourir le tas.
+ *
+ * <p>Une taille d'objet est celle de son en-tête plus ses champs, arrondie à
+ * l'alignement ; l'en-tête et les références dépendent des options
+ * {@code UseCompressedOops} et {@code UseCompressedClassPointers}, lues une fois
+ * auprès de la JVM (valeurs par défaut d'une JVM 64 bits à tas de moins de
+ * 32 Go si elles ne sont pas disponibles). Une chaîne compte son objet
+ * {@code String} et son tableau d'octets, à un octet par caractère si
+ * {@code CompactStrings} est actif et que la chaîne est en Latin-1.
+ */
+public final class HeapLayout {
+
+  private static final HeapLayout CURRENT = detect();
+
+  private final int header;
+  private final int ref;
+  private final int arrayHeader;
+  private final int align;
+  private final boolean compactStrings;
+
+  HeapLayout(boolean compressedOops, boolean compressedClass, int align, boolean compactStrings) {
+    this.header = compressedClass ? 12 : 16;
+    this.ref = compressedOops ? 4 : 8;
+    this.arrayHeader = header + 4;
+    this.align = align;
+    this.compactStrings = compactStrings;
+  }
+
+  /** Dimensions de la JVM courante. */
+  public static HeapLayout current() {
+    return CURRENT;
+  }
+
+  private static HeapLayout detect() {
+    try {
+      HotSpotDiagnosticMXBean hs =
+          ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+      return new HeapLayout(
+          Boolean.parseBoolean(hs.getVMOption("UseCompressedOops").getValue()),
+          Boolean.parseBoolean(hs.getVMOption("UseCompressedClassPointers").getValue()),
+          Integer.parseInt(hs.getVMOption("ObjectAlignmentInBytes").getValue()),
+          Boolean.parseBoolean(hs.getVMOption("CompactStrings").getValue()));
+    } catch (RuntimeException | LinkageError e) {
+      return new HeapLayout(true, true, 8, true);
+    }
+  }
+
+  /** Taille d'une référence. */
+  public int ref() {
+    return ref;
+  }
+
+  /**
+   * Taille d'un objet.
+   *
+   * @param refs nombre de champs référence
+   * @param primitiveBytes taille cumulée des champs primitifs
+   * @return taille alignée, en octets
+   */
+  public long object(int refs, int primitiveBytes) {
+    return align(header + (long) refs * ref + primitiveBytes);
+  }
+
+  /**
+   * Taille d'un tableau.
+   *
+   * @param elementBytes taille d'un élément (celle d'une référence pour un tableau d'objets)
+   * @param length nombre d'éléments
+   * @return taille alignée, en octets
+   */
+  public long array(int elementBytes, long length) {
+    return align(arrayHeader + elementBytes * length);
+  }
+
+  /** Taille d'une chaîne : objet {@code String} (hash, coder, hashIsZero) et tableau. */
+  public long string(String s) {
+    return object(1, 4 + 1 + 1) + array(charBytes(s), s.length());
+  }
+
+  private int charBytes(String s) {
+    if (!compactStrings) {
+      return 2;
+    }
+    for (int i = 0; i < s.length(); i++) {
+      if (s.charAt(i) > 0xFF) {
+        return 2;
+      }
+    }
+    return 1;
+  }
+
+  /**
+   * Taille de la table d'une {@code HashMap} qui a contenu jusqu'à {@code peak}
+   * entrées : la table double quand elle est remplie aux trois quarts et ne
+   * rétrécit jamais.
+   *
+   * @param peak plus grand nombre d'entrées atteint
+   * @return taille du tableau de cases, 0 si la table n'a jamais servi
+   */
+  public long hashTable(long peak) {
+    if (peak == 0) {
+      return 0;
+    }
+    long capacity = 16;
+    while (capacity * 3 / 4 < peak) {
+      capacity *= 2;
+    }
+    return array(ref, capacity);
+  }
+
+  /** Nœud de {@code HashMap} : hash, clé, valeur, suivant. */
+  public long hashNode() {
+    return object(3, 4);
+  }
+
+  /** Nœud de {@code LinkedHashMap} : celui de {@code HashMap} plus le double chaînage. */
+  public long linkedHashNode() {
+    return object(5, 4);
+  }
+
+  /** Nœud de {@code TreeMap} : clé, valeur, gauche, droite, parent, couleur. */
+  public long treeNode() {
+    return object(5, 1);
+  }
+
+  private long align(long bytes) {
+    return (bytes + align - 1) / align * align;
+  }
+}
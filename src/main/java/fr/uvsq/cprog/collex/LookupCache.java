@@ -0,0 +1,439 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
+
+/**
+ * Cache borné de résultats de recherche à politique d'admission W-TinyLFU.
+ *
+ * <p>Les nouvelles entrées passent par une petite fenêtre LRU (1 % du budget) ;
+ * celles qui en sortent ne sont admises dans la zone principale (LRU segmentée :
+ * probation puis protégée) que si leur fréquence estimée dépasse celle de la
+ * victime désignée. Les fréquences sont tenues dans un « count-min sketch » de
+ * compteurs sur 4 bits, divisés par deux périodiquement pour oublier le passé.
+ * Un balayage ponctuel de noms froids ne chasse donc pas les noms chauds.
+ *
+ * <p>Le budget s'exprime en poids : 1 par entrée, ou une estimation en octets
+ * fournie par le « weigher ».
+ *
+ * <p>Les lectures ne prennent aucun verrou : la valeur est lue dans une table
+ * concurrente et l'accès est noté dans un tampon circulaire choisi selon le
+ * thread. Les tampons sont vidés sous le verrou d'éviction (réordonnancement
+ * des listes, sketch), par un lecteur qui l'obtient sans attendre ou par la
+ * prochaine écriture. Un tampon plein perd l'accès : la politique reste
+ * approximative, mais aucune lecture n'attend une autre.
+ *
+ * @param <K> type des clés
+ * @param <V> type des valeurs
+ */
+public final class LookupCache<K, V> {
+
+  /** Statistiques cumulées du cache. */
+  public static final class Stats {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+
+    private Stats(long hits, long misses, long evictions) {
+      this.hits = hits;
+      this.misses = misses;
+      this.evictions = evictions;
+    }
+
+    /** Nombre de recherches servies par le cache. */
+    public long getHits() {
+      return hits;
+    }
+
+    /** Nombre de recherches non servies par le cache. */
+    public long getMisses() {
+      return misses;
+    }
+
+    /** Nombre d'entrées évincées (ou refusées à l'admission). */
+    public long getEvictions() {
+      return evictions;
+    }
+
+    /** Proportion de recherches servies par le cache. */
+    public double hitRate() {
+      long total = hits + misses;
+      return (total == 0) ? 0 : (double) hits / total;
+    }
+
+    /** Cumul de deux caches (partitions ou zones). */
+    Stats plus(Stats o) {
+      return new Stats(hits + o.hits, misses + o.misses, evictions + o.evictions);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "hits=%d misses=%d evictions=%d taux=%.3f",
+          hits, misses, evictions, hitRate());
+    }
+  }
+
+  private static final int WINDOW = 0;
+  private static final int PROBATION = 1;
+  private static final int PROTECTED = 2;
+  /** File d'un nœud sorti du cache : ses accès encore en tampon sont ignorés. */
+  private static final int DEAD = -1;
+
+  /** Capacité d'un tampon de lectures (puissance de 2). */
+  private static final int READ_BUFFER = 16;
+
+  /** Nœud d'une des trois listes LRU. */
+  private static final class Node<K, V> {
+    final K key;
+    volatile V value;
+    int weight;
+    int queue;
+    Node<K, V> prev;
+    Node<K, V> next;
+
+    Node(K key, V value, int weight) {
+      this.key = key;
+      this.value = value;
+      this.weight = weight;
+    }
+  }
+
+  /** Liste doublement chaînée, tête = moins récemment utilisé. */
+  private static final class Queue<K, V> {
+    Node<K, V> head;
+    Node<K, V> tail;
+    long weight;
+
+    void addLast(Node<K, V> n) {
+      n.prev = tail;
+      n.next = null;
+      if (tail == null) {
+        head = n;
+      } else {
+        tail.next = n;
+      }
+      tail = n;
+      weight += n.weight;
+    }
+
+    void remove(Node<K, V> n) {
+      if (n.prev == null) {
+        head = n.next;
+      } else {
+        n.prev.next = n.next;
+      }
+      if (n.next == null) {
+        tail = n.prev;
+      } else {
+        n.next.prev = n.prev;
+      }
+      n.prev = null;
+      n.next = null;
+      weight -= n.weight;
+    }
+
+    void clear() {
+      head = null;
+      tail = null;
+      weight = 0;
+    }
+  }
+
+  /**
+   * Tampon circulaire des accès d'un groupe de threads. Plusieurs lecteurs y
+   * écrivent (réservation d'une case par CAS sur {@code tail}) ; seul le
+   * détenteur du verrou d'éviction le vide et avance {@code head}.
+   */
+  private static final class ReadBuffer<K, V> {
+    final AtomicReferenceArray<Node<K, V>> slots = new AtomicReferenceArray<>(READ_BUFFER);
+    final AtomicLong tail = new AtomicLong();
+    volatile long head;
+
+    /** Note un accès ; renvoie {@code false} si le tampon est plein (accès perdu). */
+    boolean offer(Node<K, V> n) {
+      long t = tail.get();
+      if (t - head >= READ_BUFFER) {
+        return false;
+      }
+      if (tail.compareAndSet(t, t + 1)) {
+        slots.lazySet((int) t & (READ_BUFFER - 1), n);
+      }
+      return true;
+    }
+
+    /** Nombre d'accès en attente. */
+    long pending() {
+      return tail.get() - head;
+    }
+  }
+
+  private final ConcurrentHashMap<K, Node<K, V>> data = new ConcurrentHashMap<>();
+  private final Queue<K, V> window = new Queue<>();
+  private final Queue<K, V> probation = new Queue<>();
+  private final Queue<K, V> protect = new Queue<>();
+  private final ReadBuffer<K, V>[] buffers;
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  private final ToIntFunction<? super V> weigher;
+  private final long windowMax;
+  private final long mainMax;
+  private final long protectedMax;
+  private final FrequencySketch sketch;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * Crée un cache.
+   *
+   * @param maximum budget total (en entrées ou en octets selon le weigher)
+   * @param weigher poids d'une valeur ({@code v -> 1} pour un budget en entrées)
+   * @param expectedEntries nombre d'entrées attendu, pour dimensionner le sketch
+   */
+  @SuppressWarnings("unchecked")
+  LookupCache(long maximum, ToIntFunction<? super V> weigher, int expectedEntries) {
+    if (maximum <= 0) {
+      throw new IllegalArgumentException("Taille de cache invalide: " + maximum);
+    }
+    this.weigher = weigher;
+    this.windowMax = Math.max(1, maximum / 100);
+    this.mainMax = Math.max(1, maximum - windowMax);
+    this.protectedMax = mainMax * 8 / 10;
+    this.sketch = new FrequencySketch(Math.max(16, expectedEntries));
+    int stripes = Integer.highestOneBit(
+        Math.min(64, 4 * Runtime.getRuntime().availableProcessors()) * 2 - 1);
+    this.buffers = (ReadBuffer<K, V>[]) new ReadBuffer<?, ?>[stripes];
+    for (int i = 0; i < stripes; i++) {
+      buffers[i] = new ReadBuffer<>();
+    }
+  }
+
+  /**
+   * Recherche une valeur et enregistre l'accès dans les statistiques.
+   *
+   * @param key clé recherchée
+   * @return la valeur, ou {@code null} si absente du cache
+   */
+  V get(K key) {
+    Node<K, V> n = data.get(key);
+    if (n == null) {
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    V value = n.value;
+    ReadBuffer<K, V> b = buffers[(int) Thread.currentThread().getId() & (buffers.length - 1)];
+    if ((!b.offer(n) || b.pending() >= READ_BUFFER / 2) && evictionLock.tryLock()) {
+      try {
+        drainReads();
+      } finally {
+        evictionLock.unlock();
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Ajoute ou remplace une valeur.
+   *
+   * @param key clé
+   * @param value valeur (non {@code null})
+   */
+  void put(K key, V value) {
+    int w = weigher.applyAsInt(value);
+    evictionLock.lock();
+    try {
+      drainReads();
+      Node<K, V> n = data.get(key);
+      if (n != null) {
+        Queue<K, V> q = queue(n.queue);
+        q.remove(n);
+        n.value = value;
+        n.weight = w;
+        q.addLast(n);
+        return;
+      }
+      // la fréquence d'une clé absente est notée à son insertion, qui suit l'échec
+      sketch.increment(key.hashCode());
+      n = new Node<>(key, value, w);
+      n.queue = WINDOW;
+      data.put(key, n);
+      window.addLast(n);
+      while (window.weight > windowMax && window.head != null) {
+        Node<K, V> candidate = window.head;
+        window.remove(candidate);
+        candidate.queue = PROBATION;
+        probation.addLast(candidate);
+        evictFromMain(candidate);
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /**
+   * Retire une clé du cache.
+   *
+   * @param key clé à invalider
+   */
+  void invalidate(K key) {
+    evictionLock.lock();
+    try {
+      Node<K, V> n = data.remove(key);
+      if (n != null) {
+        queue(n.queue).remove(n);
+        n.queue = DEAD;
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /** Vide le cache (les statistiques sont conservées). */
+  void clear() {
+    evictionLock.lock();
+    try {
+      drainReads();
+      for (Node<K, V> n : data.values()) {
+        n.queue = DEAD;
+      }
+      data.clear();
+      window.clear();
+      probation.clear();
+      protect.clear();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /** Nombre d'entrées présentes. */
+  int size() {
+    return data.size();
+  }
+
+  /** Instantané des statistiques. */
+  Stats stats() {
+    return new Stats(hits.sum(), misses.sum(), evictions.sum());
+  }
+
+  private Queue<K, V> queue(int q) {
+    return (q == WINDOW) ? window : (q == PROBATION) ? probation : protect;
+  }
+
+  /** Applique les accès en attente dans les tampons ; sous le verrou d'éviction. */
+  private void drainReads() {
+    for (ReadBuffer<K, V> b : buffers) {
+      long h = b.head;
+      long t = b.tail.get();
+      while (h < t) {
+        int i = (int) h & (READ_BUFFER - 1);
+        Node<K, V> n = b.slots.get(i);
+        if (n == null) {
+          break; // case réservée, pas encore écrite
+        }
+        b.slots.lazySet(i, null);
+        h++;
+        sketch.increment(n.key.hashCode());
+        if (n.queue != DEAD) {
+          onHit(n);
+        }
+      }
+      b.head = h;
+    }
+  }
+
+  private void onHit(Node<K, V> n) {
+    if (n.queue == PROBATION) {
+      probation.remove(n);
+      n.queue = PROTECTED;
+      protect.addLast(n);
+      while (protect.weight > protectedMax) {
+        Node<K, V> demoted = protect.head;
+        protect.remove(demoted);
+        demoted.queue = PROBATION;
+        probation.addLast(demoted);
+      }
+    } else {
+      Queue<K, V> q = queue(n.queue);
+      q.remove(n);
+      q.addLast(n);
+    }
+  }
+
+  /** Ramène la zone principale sous son budget : victime ou candidat, le moins fréquent sort. */
+  private void evictFromMain(Node<K, V> candidate) {
+    while (probation.weight + protect.weight > mainMax) {
+      Node<K, V> victim = probation.head;
+      if (victim == null) {
+        victim = protect.head;
+      }
+      Node<K, V> out = victim;
+      if (candidate != null && victim != candidate
+          && sketch.frequency(candidate.key.hashCode())
+              <= sketch.frequency(victim.key.hashCode())) {
+        out = candidate;
+        candidate = null;
+      }
+      queue(out.queue).remove(out);
+      data.remove(out.key);
+      out.queue = DEAD;
+      evictions.increment();
+    }
+  }
+
+  /** Estimation de fréquence : count-min sketch à compteurs de 4 bits. */
+  private static final class FrequencySketch {
+    private static final long[] SEEDS = {
+        0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int expected) {
+      int size = Integer.highestOneBit(Math.min(expected, 1 << 24) - 1) << 1;
+      this.table = new long[Math.max(8, size)];
+      this.sampleSize = 10 * Math.max(16, expected);
+    }
+
+    int frequency(int hash) {
+      int min = 15;
+      for (int i = 0; i < 4; i++) {
+        int idx = index(hash, i);
+        int count = (int) ((table[idx >>> 4] >>> ((idx & 15) << 2)) & 0xF);
+        min = Math.min(min, count);
+      }
+      return min;
+    }
+
+    void increment(int hash) {
+      boolean added = false;
+      for (int i = 0; i < 4; i++) {
+        int idx = index(hash, i);
+        int shift = (idx & 15) << 2;
+        long word = table[idx >>> 4];
+        if (((word >>> shift) & 0xF) < 15) {
+          table[idx >>> 4] = word + (1L << shift);
+          added = true;
+        }
+      }
+      if (added && ++additions >= sampleSize) {
+        for (int i = 0; i < table.length; i++) {
+          table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+      }
+    }
+
+    private int index(int hash, int row) {
+      long h = (hash + SEEDS[row]) * SEEDS[row];
+      h += h >>> 32;
+      return (int) h & ((table.length << 4) - 1);
+    }
+  }
+}
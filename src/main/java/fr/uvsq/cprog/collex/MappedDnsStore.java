@@ -0,0 +1,45 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * Moteur dont les enregistrements résident dans un fichier projeté en mémoire.
+ *
+ * <p>Le fichier projeté est un espace de travail reconstruit à chaque démarrage :
+ * la base de référence reste le fichier texte écrit par {@link Dns}. Le système
+ * d'exploitation peut ainsi évincer les pages froides sans solliciter le tas.
+ */
+public final class MappedDnsStore extends BufferDnsStore {
+
+  /** Fichier projeté. */
+  private final Path file;
+
+  /**
+   * Crée un moteur vide projeté sur le fichier donné (tronqué à l'ouverture).
+   *
+   * @param file fichier de travail
+   */
+  public MappedDnsStore(Path file) {
+    this.file = Objects.requireNonNull(file, "file");
+    init();
+  }
+
+  @Override
+  protected ByteBuffer grow(ByteBuffer current, int used, int capacity) {
+    StandardOpenOption[] options = (current == null)
+        ? new StandardOpenOption[] {StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING}
+        : new StandardOpenOption[] {StandardOpenOption.READ, StandardOpenOption.WRITE};
+    // Les octets déjà écrits sont dans le fichier : il suffit d'en projeter une plus grande part.
+    try (FileChannel ch = FileChannel.open(file, options)) {
+      return ch.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    } catch (IOException e) {
+      throw new IllegalStateException("Erreur de projection: " + e.getMessage(), e);
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * Modification élémentaire de la base, numérotée dans l'ordre d'application.
+ *
+ * <p>Les mutations forment le journal de {@link Dns} : elles alimentent la
+ * réplication vers les suiveurs et peuvent être rejouées sur une autre instance.
+ */
+public final class Mutation {
+
+  /** Nature d'une mutation. */
+  public enum Type {
+    /** Ajout (ou remplacement) d'une entrée. */
+    ADD,
+    /** Suppression d'une entrée (y compris par expiration du TTL). */
+    REMOVE
+  }
+
+  private static final long PERMANENT = Long.MIN_VALUE;
+
+  private final long seq;
+  private final long timestamp;
+  private final Type type;
+  private final DnsItem item;
+
+  /**
+   * Crée une mutation.
+   *
+   * @param seq numéro de séquence (strictement croissant)
+   * @param timestamp instant d'application chez l'émetteur, en millisecondes
+   * @param type nature de la mutation
+   * @param item entrée ajoutée ou retirée
+   */
+  public Mutation(long seq, long timestamp, Type type, DnsItem item) {
+    this.seq = seq;
+    this.timestamp = timestamp;
+    this.type = Objects.requireNonNull(type, "type");
+    this.item = Objects.requireNonNull(item, "item");
+  }
+
+  /** Retourne le numéro de séquence. */
+  public long getSeq() {
+    return seq;
+  }
+
+  /** Retourne l'instant d'application chez l'émetteur, en millisecondes. */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /** Retourne la nature de la mutation. */
+  public Type getType() {
+    return type;
+  }
+
+  /** Retourne l'entrée concernée. */
+  public DnsItem getItem() {
+    return item;
+  }
+
+  /**
+   * Écrit la mutation en binaire.
+   *
+   * @param out flux destination
+   * @throws IOException en cas d'erreur d'écriture
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeLong(seq);
+    out.writeLong(timestamp);
+    out.writeByte(type.ordinal());
+    writeItem(out, item);
+  }
+
+  /**
+   * Lit une mutation écrite par {@link #writeTo}.
+   *
+   * @param in flux source
+   * @return la mutation lue
+   * @throws IOException en cas d'erreur de lecture
+   */
+  public static Mutation readFrom(DataInput in) throws IOException {
+    long seq = in.readLong();
+    long timestamp = in.readLong();
+    Type type = Type.values()[in.readByte()];
+    return new Mutation(seq, timestamp, type, readItem(in));
+  }
+
+  /** Écrit une entrée en binaire (nom, adresse, expiration). */
+  static void writeItem(DataOutput out, DnsItem item) throws IOException {
+    out.writeUTF(item.getNom().getFqdn());
+    out.writeInt(item.getIp().toInt());
+    Instant exp = item.getExpiration();
+    out.writeLong((exp == null) ? PERMANENT : exp.toEpochMilli());
+  }
+
+  /** Lit une entrée écrite par {@link #writeItem}. */
+  static DnsItem readItem(DataInput in) throws IOException {
+    NomMachine nom = new NomMachine(in.readUTF());
+    AdresseIP ip = AdresseIP.fromInt(in.readInt());
+    long exp = in.readLong();
+    return new DnsItem(nom, ip, (exp == PERMANENT) ? null : Instant.ofEpochMilli(exp));
+  }
+
+  @Override
+  public String toString() {
+    return "#" + seq + " " + type + " " + item;
+  }
+}
@@ -0,0 +1,114 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Journal des mutations récentes d'une base.
+ *
+ * <p>Les {@code capacity} dernières mutations sont conservées pour permettre à
+ * un abonné déconnecté de reprendre là où il s'était arrêté ; au-delà, il doit
+ * repartir d'un instantané. Les abonnés sont notifiés de façon synchrone, dans
+ * l'ordre des numéros de séquence : ils ne doivent pas bloquer.
+ *
+ * <p>L'ajout est réalisé par {@link Dns} sous son verrou d'écriture.
+ */
+final class MutationLog {
+
+  private final ArrayDeque<Mutation> recent = new ArrayDeque<>();
+  private final int capacity;
+  private final List<Consumer<? super Mutation>> listeners = new CopyOnWriteArrayList<>();
+  private volatile long lastSeq;
+
+  /**
+   * Crée un journal.
+   *
+   * @param capacity nombre de mutations conservées pour la reprise
+   */
+  MutationLog(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /** Numéro de la dernière mutation (0 si aucune). */
+  long lastSeq() {
+    return lastSeq;
+  }
+
+  /**
+   * Numérote, conserve et diffuse une mutation.
+   *
+   * @param type nature de la mutation
+   * @param item entrée concernée
+   * @param timestamp instant d'application en millisecondes
+   * @return la mutation enregistrée
+   */
+  synchronized Mutation append(Mutation.Type type, DnsItem item, long timestamp) {
+    Mutation m = new Mutation(lastSeq + 1, timestamp, type, item);
+    record(m);
+    return m;
+  }
+
+  /**
+   * Conserve et diffuse une mutation déjà numérotée (reçue d'un meneur).
+   *
+   * @param m mutation dont le numéro suit le dernier enregistré
+   */
+  synchronized void record(Mutation m) {
+    lastSeq = m.getSeq();
+    if (capacity > 0) {
+      if (recent.size() == capacity) {
+        recent.removeFirst();
+      }
+      recent.addLast(m);
+    }
+    for (Consumer<? super Mutation> l : listeners) {
+      l.accept(m);
+    }
+  }
+
+  /**
+   * Retourne les mutations postérieures à {@code seq}.
+   *
+   * @param seq dernière mutation connue de l'appelant
+   * @return les mutations manquantes, ou {@code null} si certaines ne sont plus conservées
+   */
+  synchronized List<Mutation> since(long seq) {
+    if (seq > lastSeq) {
+      return null;
+    }
+    long oldest = recent.isEmpty() ? lastSeq + 1 : recent.peekFirst().getSeq();
+    if (seq + 1 < oldest) {
+      return null;
+    }
+    List<Mutation> res = new ArrayList<>((int) (lastSeq - seq));
+    for (Mutation m : recent) {
+      if (m.getSeq() > seq) {
+        res.add(m);
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Force le numéro courant (suiveur qui repart d'un instantané).
+   *
+   * @param seq numéro de la dernière mutation intégrée
+   */
+  synchronized void reset(long seq) {
+    recent.clear();
+    lastSeq = seq;
+  }
+
+  /** Abonne un auditeur aux mutations futures. */
+  void addListener(Consumer<? super Mutation> listener) {
+    listeners.add(listener);
+  }
+
+  /** Désabonne un auditeur. */
+  void removeListener(Consumer<? super Mutation> listener) {
+    listeners.remove(listener);
+  }
+}
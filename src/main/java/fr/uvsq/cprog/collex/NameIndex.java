@@ -0,0 +1,319 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Index de recherche sur les noms de machine : par préfixe et par sous-chaîne.
+ *
+ * <p>Chaque nom reçoit un numéro croissant à son insertion. Les noms sont indexés
+ * tels quels, comme la base les distingue ({@code Web.uvsq.fr} et
+ * {@code web.uvsq.fr} sont deux noms) ; la casse n'est ignorée que pour trier
+ * et comparer ({@link #ORDER}). Les recherches par préfixe parcourent une
+ * {@link TreeMap} des noms dans cet ordre à partir du préfixe et s'arrêtent à
+ * la limite. Les recherches par sous-chaîne passent par
+ * un index inversé de trigrammes : à chaque trigramme correspond la liste
+ * triée des numéros des noms qui le contiennent, codée en écarts successifs
+ * sur des entiers de longueur variable (un octet par nom le plus souvent).
+ * La requête intersecte les listes de ses trigrammes en commençant par la plus
+ * courte, tant que la suivante n'est pas beaucoup plus longue que les candidats
+ * restants, puis vérifie ceux-ci (des trigrammes communs ne garantissent pas la
+ * sous-chaîne).
+ *
+ * <p>Les numéros étant croissants, une insertion ne fait qu'ajouter en fin de
+ * liste. Une suppression marque le numéro comme mort ; l'index est reconstruit
+ * lorsque les morts dépassent les vivants.
+ *
+ * <p>Cette classe n'est pas thread-safe : {@link Dns} la modifie sous son verrou
+ * en écriture et l'interroge sous son verrou en lecture.
+ */
+final class NameIndex {
+
+  /**
+   * Ordre des résultats : sans distinction de casse, puis FQDN exact. Les
+   * bases composées fusionnent les résultats de leurs parties dans cet ordre.
+   */
+  static final Comparator<NomMachine> ORDER =
+      Comparator.comparing((NomMachine n) -> n.getFqdn().toLowerCase(Locale.ROOT))
+          .thenComparing(Comparator.naturalOrder());
+
+  /** Sépare, dans une clé, le nom en minuscules du nom exact. */
+  private static final char SEP = '\0';
+
+  /** Clés ({@link #key}) vers le numéro du nom, dans l'ordre {@link #ORDER}. */
+  private final NavigableMap<String, Integer> sorted = new TreeMap<>();
+
+  /** Listes de numéros par trigramme (trois caractères dans un {@code long}). */
+  private final Map<Long, Postings> trigrams = new HashMap<>();
+
+  private NomMachine[] names = new NomMachine[64];
+  private final BitSet live = new BitSet();
+  private int nextId;
+  private int dead;
+
+  /**
+   * Indexe un nom.
+   *
+   * @param nom nom à indexer (sans effet s'il l'est déjà)
+   */
+  void add(NomMachine nom) {
+    String key = key(nom);
+    if (sorted.containsKey(key)) {
+      return;
+    }
+    int id = nextId++;
+    if (id == names.length) {
+      names = Arrays.copyOf(names, names.length * 2);
+    }
+    names[id] = nom;
+    live.set(id);
+    sorted.put(key, id);
+    int end = key.indexOf(SEP);
+    for (int i = 0; i + 3 <= end; i++) {
+      long t = trigram(key, i);
+      Postings p = trigrams.get(t);
+      if (p == null) {
+        p = new Postings();
+        trigrams.put(t, p);
+      }
+      p.add(id); // un trigramme répété dans le nom n'est ajouté qu'une fois
+    }
+  }
+
+  /**
+   * Retire un nom de l'index.
+   *
+   * @param nom nom à retirer (sans effet s'il est absent)
+   */
+  void remove(NomMachine nom) {
+    Integer id = sorted.remove(key(nom));
+    if (id == null) {
+      return;
+    }
+    live.clear(id);
+    names[id] = null;
+    dead++;
+    if (dead > sorted.size() && dead > 1024) {
+      rebuild();
+    }
+  }
+
+  /** Nombre de noms indexés. */
+  int size() {
+    return sorted.size();
+  }
+
+  /**
+   * Noms commençant par {@code prefix} (sans distinction de casse), dans l'ordre {@link #ORDER}.
+   *
+   * @param prefix début du nom
+   * @param limit nombre maximal de résultats
+   * @return les noms trouvés
+   */
+  List<NomMachine> startingWith(String prefix, int limit) {
+    String p = prefix.toLowerCase(Locale.ROOT);
+    List<NomMachine> res = new ArrayList<>();
+    for (Map.Entry<String, Integer> e : sorted.tailMap(p, true).entrySet()) {
+      if (res.size() >= limit || !e.getKey().startsWith(p)) {
+        break;
+      }
+      res.add(names[e.getValue()]);
+    }
+    return res;
+  }
+
+  /**
+   * Noms contenant {@code part} (sans distinction de casse), dans l'ordre {@link #ORDER}.
+   *
+   * @param part sous-chaîne recherchée
+   * @param limit nombre maximal de résultats
+   * @return les noms trouvés
+   */
+  List<NomMachine> containing(String part, int limit) {
+    String p = part.toLowerCase(Locale.ROOT);
+    if (p.length() < 3) {
+      // pas de trigramme : parcours ordonné de tous les noms
+      List<NomMachine> res = new ArrayList<>();
+      for (Map.Entry<String, Integer> e : sorted.entrySet()) {
+        if (res.size() >= limit) {
+          break;
+        }
+        if (contains(e.getKey(), p)) {
+          res.add(names[e.getValue()]);
+        }
+      }
+      return res;
+    }
+    int[] candidates = candidates(p);
+    // les « limit » plus petits noms : tas max borné
+    PriorityQueue<String> best = new PriorityQueue<>(Collections.reverseOrder());
+    for (int id : candidates) {
+      if (!live.get(id)) {
+        continue;
+      }
+      String key = key(names[id]);
+      if (contains(key, p)) {
+        if (best.size() < limit) {
+          best.add(key);
+        } else if (limit > 0 && key.compareTo(best.peek()) < 0) {
+          best.poll();
+          best.add(key);
+        }
+      }
+    }
+    List<String> keys = new ArrayList<>(best);
+    Collections.sort(keys);
+    List<NomMachine> res = new ArrayList<>(keys.size());
+    for (String k : keys) {
+      res.add(names[sorted.get(k)]);
+    }
+    return res;
+  }
+
+  /** Intersection des listes des trigrammes de la requête, la plus courte d'abord. */
+  private int[] candidates(String p) {
+    List<Postings> lists = new ArrayList<>();
+    for (int i = 0; i + 3 <= p.length(); i++) {
+      Postings l = trigrams.get(trigram(p, i));
+      if (l == null) {
+        return new int[0];
+      }
+      lists.add(l);
+    }
+    lists.sort((a, b) -> Integer.compare(a.count, b.count));
+    int[] acc = lists.get(0).decode();
+    for (int i = 1; i < lists.size() && acc.length > 0; i++) {
+      if (lists.get(i).count > 16 * acc.length) {
+        break; // vérifier les candidats coûte moins que décoder une longue liste
+      }
+      acc = lists.get(i).intersect(acc);
+    }
+    return acc;
+  }
+
+  /** Reconstruit l'index en renumérotant les seuls noms vivants. */
+  private void rebuild() {
+    DnsEvents.Index ev = new DnsEvents.Index();
+    ev.begin();
+    List<NomMachine> vivants = new ArrayList<>(sorted.size());
+    for (int id : sorted.values()) {
+      vivants.add(names[id]);
+    }
+    sorted.clear();
+    trigrams.clear();
+    live.clear();
+    names = new NomMachine[Math.max(64, vivants.size() * 2)];
+    nextId = 0;
+    dead = 0;
+    for (NomMachine nom : vivants) {
+      add(nom);
+    }
+    ev.end();
+    if (ev.shouldCommit()) {
+      ev.index = "noms (compactage)";
+      ev.entrees = vivants.size();
+      ev.commit();
+    }
+  }
+
+  /**
+   * Clé d'un nom : le nom en minuscules, {@link #SEP}, puis le nom exact. Son
+   * ordre de chaîne est {@link #ORDER}, et un préfixe en minuscules la précède.
+   */
+  private static String key(NomMachine nom) {
+    String fqdn = nom.getFqdn();
+    return fqdn.toLowerCase(Locale.ROOT) + SEP + fqdn;
+  }
+
+  /** Indique si le nom en minuscules d'une clé contient {@code p}. */
+  private static boolean contains(String key, String p) {
+    int i = key.indexOf(p);
+    return i >= 0 && i + p.length() <= key.indexOf(SEP);
+  }
+
+  private static long trigram(String s, int i) {
+    return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+  }
+
+  /** Liste croissante de numéros, codée en écarts sur des entiers de longueur variable. */
+  private static final class Postings {
+    private byte[] data = new byte[4];
+    private int length;
+    private int count;
+    private int last = -1;
+
+    void add(int id) {
+      if (id == last) {
+        return;
+      }
+      if (length + 5 > data.length) {
+        data = Arrays.copyOf(data, data.length * 2);
+      }
+      int delta = id - last;
+      while ((delta & ~0x7F) != 0) {
+        data[length++] = (byte) ((delta & 0x7F) | 0x80);
+        delta >>>= 7;
+      }
+      data[length++] = (byte) delta;
+      last = id;
+      count++;
+    }
+
+    int[] decode() {
+      int[] res = new int[count];
+      int pos = 0;
+      int id = -1;
+      for (int i = 0; i < count; i++) {
+        int delta = 0;
+        int shift = 0;
+        byte b;
+        do {
+          b = data[pos++];
+          delta |= (b & 0x7F) << shift;
+          shift += 7;
+        } while (b < 0);
+        id += delta;
+        res[i] = id;
+      }
+      return res;
+    }
+
+    /** Numéros de {@code sortedIds} présents dans la liste, par fusion sans décodage complet. */
+    int[] intersect(int[] sortedIds) {
+      int[] res = new int[Math.min(count, sortedIds.length)];
+      int n = 0;
+      int pos = 0;
+      int id = -1;
+      int j = 0;
+      for (int i = 0; i < count && j < sortedIds.length; i++) {
+        int delta = 0;
+        int shift = 0;
+        byte b;
+        do {
+          b = data[pos++];
+          delta |= (b & 0x7F) << shift;
+          shift += 7;
+        } while (b < 0);
+        id += delta;
+        while (j < sortedIds.length && sortedIds[j] < id) {
+          j++;
+        }
+        if (j < sortedIds.length && sortedIds[j] == id) {
+          res[n++] = id;
+          j++;
+        }
+      }
+      return Arrays.copyOf(res, n);
+    }
+  }
+}
@@ -0,0 +1,24 @@
+package fr.uvsq.cprog.collex;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Moteur dont les enregistrements résident dans un tampon direct, hors du tas Java :
+ * les entrées ne pèsent ni sur la taille du tas ni sur le travail du ramasse-miettes.
+ */
+public final class OffHeapDnsStore extends BufferDnsStore {
+
+  /** Crée un moteur vide. */
+  public OffHeapDnsStore() {
+    init();
+  }
+
+  @Override
+  protected ByteBuffer grow(ByteBuffer current, int used, int capacity) {
+    ByteBuffer next = ByteBuffer.allocateDirect(capacity);
+    if (current != null) {
+      next.put(0, current, 0, used);
+    }
+    return next;
+  }
+}
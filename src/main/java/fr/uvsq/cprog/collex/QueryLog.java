@@ -0,0 +1,521 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Journal des requêtes (recherches et ajouts), écrit en arrière-plan.
+ *
+ * <p>Les frontaux publient des événements dans un anneau préalloué de
+ * {@code capacité} cases (puissance de deux) : champs dans des tableaux
+ * parallèles, nom encodé en UTF-8 dans une zone d'octets réservée à la case.
+ * Une publication ne prend aucun verrou et n'alloue rien : le producteur
+ * réserve un numéro de séquence sur un compteur atomique, remplit la case puis
+ * la marque publiée en y inscrivant ce numéro. Un unique consommateur lit les
+ * cases publiées dans l'ordre des numéros, les recopie par lots dans un tampon
+ * et les écrit dans le fichier, qui est renommé en {@code <fichier>.1} (les
+ * précédents décalés d'un rang, {@code files} au plus) lorsqu'il dépasse
+ * {@code maxBytes}.
+ *
+ * <p>Lorsque l'anneau est plein, la politique {@link Policy#DROP} abandonne
+ * l'événement (le nombre d'abandons est écrit dans le journal sous forme d'un
+ * événement {@link Type#DROPPED}) et {@link Policy#BLOCK} fait attendre le
+ * producteur.
+ *
+ * <p>Format du fichier : la signature {@code QLOG1}, puis des enregistrements
+ * {@code [long date ms][byte type][byte statut][int adresse][byte longueur][nom UTF-8]}.
+ * {@link #read} les décode.
+ */
+public final class QueryLog implements Closeable {
+
+  /** Nature d'un événement. */
+  public enum Type {
+    /** Recherche d'une adresse par nom. */
+    NOM,
+    /** Recherche d'un nom par adresse. */
+    IP,
+    /** Ajout d'une entrée. */
+    ADD,
+    /** Événements abandonnés faute de place ; le nombre est dans le champ adresse. */
+    DROPPED
+  }
+
+  /** Issue d'une requête. */
+  public enum Status {
+    OK,
+    /** Réponse obtenue du résolveur amont. */
+    FORWARDED,
+    NOT_FOUND,
+    ERROR
+  }
+
+  /** Comportement d'une publication lorsque l'anneau est plein. */
+  public enum Policy {
+    DROP,
+    BLOCK
+  }
+
+  private static final byte[] MAGIC = "QLOG1".getBytes(StandardCharsets.US_ASCII);
+
+  /** Longueur maximale d'un nom ; un nom plus long est tronqué. */
+  static final int MAX_NAME = 255;
+
+  /** En-tête d'un enregistrement, avant le nom. */
+  private static final int RECORD_HEADER = 8 + 1 + 1 + 4 + 1;
+
+  /** Taille du tampon d'écriture du consommateur. */
+  private static final int BATCH_BYTES = 1 << 16;
+
+  /** Attente du consommateur lorsque l'anneau est vide. */
+  private static final long IDLE_NANOS = 200_000;
+
+  private final int mask;
+  private final long[] times;
+  private final byte[] types;
+  private final byte[] statuses;
+  private final int[] ips;
+  private final byte[] nameLengths;
+  private final byte[] names;
+
+  /** Numéro publié dans chaque case ({@code -1} : jamais publiée). */
+  private final AtomicLongArray published;
+
+  /** Prochain numéro à réserver. */
+  private final AtomicLong claimed = new AtomicLong();
+
+  /** Prochain numéro à lire ; les cases des numéros inférieurs sont libres. */
+  private volatile long consumed;
+
+  private final Policy policy;
+  private final Clock clock;
+  private final Path file;
+  private final long maxBytes;
+  private final int files;
+  private final LongAdder dropped = new LongAdder();
+  private long droppedReported;
+  private volatile long written;
+
+  private final Thread consumer;
+  private volatile boolean closing;
+  private FileChannel channel;
+  private long fileSize;
+  private final ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_BYTES);
+
+  /**
+   * Ouvre un journal, à la suite du fichier s'il existe.
+   *
+   * @param file fichier du journal
+   * @param capacity nombre de cases de l'anneau (arrondi à une puissance de deux)
+   * @param policy comportement lorsque l'anneau est plein
+   * @param maxBytes taille à partir de laquelle le fichier est renommé
+   * @param files nombre de fichiers renommés conservés
+   * @throws IOException si le fichier ne peut être ouvert
+   */
+  public QueryLog(Path file, int capacity, Policy policy, long maxBytes, int files)
+      throws IOException {
+    this(file, capacity, policy, maxBytes, files, Clock.systemUTC(), true);
+  }
+
+  QueryLog(Path file, int capacity, Policy policy, long maxBytes, int files, Clock clock,
+      boolean start) throws IOException {
+    if (capacity < 2) {
+      throw new IllegalArgumentException("Capacité invalide: " + capacity);
+    }
+    int size = Integer.highestOneBit(capacity - 1) << 1;
+    this.mask = size - 1;
+    this.times = new long[size];
+    this.types = new byte[size];
+    this.statuses = new byte[size];
+    this.ips = new int[size];
+    this.nameLengths = new byte[size];
+    this.names = new byte[size * MAX_NAME];
+    this.published = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      published.set(i, -1);
+    }
+    this.policy = policy;
+    this.clock = clock;
+    this.file = file;
+    this.maxBytes = maxBytes;
+    this.files = files;
+    openFile();
+    this.consumer = new Thread(this::consumeLoop, "querylog-" + file.getFileName());
+    consumer.setDaemon(true);
+    if (start) {
+      consumer.start();
+    }
+  }
+
+  /**
+   * Ouvre le journal décrit par la configuration.
+   *
+   * @param config propriétés {@code querylog.file}, {@code querylog.capacity},
+   *     {@code querylog.policy} ({@code drop} ou {@code block}),
+   *     {@code querylog.max.bytes} et {@code querylog.files}
+   * @return le journal, ou {@code null} si {@code querylog.file} est absente ou vide
+   * @throws IllegalStateException si le fichier ne peut être ouvert
+   */
+  static QueryLog fromConfig(Properties config) {
+    String path = config.getProperty("querylog.file", "").trim();
+    if (path.isEmpty()) {
+      return null;
+    }
+    try {
+      return new QueryLog(Path.of(path),
+          Integer.parseInt(config.getProperty("querylog.capacity", "16384")),
+          Policy.valueOf(config.getProperty("querylog.policy", "drop").trim()
+              .toUpperCase(Locale.ROOT)),
+          Long.parseLong(config.getProperty("querylog.max.bytes", "67108864")),
+          Integer.parseInt(config.getProperty("querylog.files", "5")));
+    } catch (IOException e) {
+      throw new IllegalStateException("Journal des requêtes: " + e.getMessage(), e);
+    }
+  }
+
+  /** Démarre le consommateur d'un journal créé sans lui (tests). */
+  void start() {
+    consumer.start();
+  }
+
+  /**
+   * Publie un événement.
+   *
+   * @param type nature de la requête
+   * @param status issue de la requête
+   * @param name nom demandé ou obtenu, ou {@code null}
+   * @param ip adresse demandée ou obtenue, ou {@code null}
+   * @return {@code false} si l'événement a été abandonné (anneau plein, politique
+   *     {@link Policy#DROP}) ou si le journal est fermé
+   */
+  public boolean publish(Type type, Status status, CharSequence name, AdresseIP ip) {
+    return publish(type, status, name, (ip == null) ? 0 : ip.toInt());
+  }
+
+  private boolean publish(Type type, Status status, CharSequence name, int ip) {
+    if (closing) {
+      return false;
+    }
+    long seq;
+    if (policy == Policy.DROP) {
+      do {
+        seq = claimed.get();
+        if (seq - consumed > mask) {
+          dropped.increment();
+          return false;
+        }
+      } while (!claimed.compareAndSet(seq, seq + 1));
+    } else {
+      seq = claimed.getAndIncrement();
+      for (int spins = 0; seq - consumed > mask; spins++) {
+        if (spins < 100) {
+          Thread.onSpinWait();
+        } else {
+          LockSupport.parkNanos(IDLE_NANOS / 4);
+        }
+      }
+    }
+    int slot = (int) seq & mask;
+    times[slot] = clock.millis();
+    types[slot] = (byte) type.ordinal();
+    statuses[slot] = (byte) status.ordinal();
+    ips[slot] = ip;
+    nameLengths[slot] = (byte) encode(name, slot * MAX_NAME);
+    published.lazySet(slot, seq);
+    return true;
+  }
+
+  /** Encode un nom en UTF-8 dans la zone d'une case, sans allocation. */
+  private int encode(CharSequence s, int off) {
+    if (s == null) {
+      return 0;
+    }
+    int n = 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        if (n + 1 > MAX_NAME) {
+          break;
+        }
+        names[off + n++] = (byte) c;
+      } else if (c < 0x800) {
+        if (n + 2 > MAX_NAME) {
+          break;
+        }
+        names[off + n++] = (byte) (0xC0 | (c >> 6));
+        names[off + n++] = (byte) (0x80 | (c & 0x3F));
+      } else {
+        if (n + 3 > MAX_NAME) {
+          break;
+        }
+        // les paires de substitution sont rares dans un nom : encodées caractère par caractère
+        names[off + n++] = (byte) (0xE0 | (c >> 12));
+        names[off + n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        names[off + n++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+    return n;
+  }
+
+  // ---------------------------------------------------------------- consommateur
+
+  private void consumeLoop() {
+    long next = consumed;
+    try {
+      while (true) {
+        boolean stop = closing;
+        long start = next;
+        while (published.get((int) next & mask) == next) {
+          append((int) next & mask);
+          next++;
+          consumed = next;
+        }
+        reportDrops();
+        if (next > start || batch.position() > 0) {
+          flush();
+        } else if (stop && next == claimed.get()) {
+          return;
+        } else {
+          LockSupport.parkNanos(IDLE_NANOS);
+        }
+      }
+    } catch (IOException e) {
+      // disque indisponible : le journal cesse, les frontaux ne sont pas bloqués
+      closing = true;
+      consumed = Long.MAX_VALUE / 2;
+      System.err.println("ERREUR : journal des requêtes : " + e.getMessage());
+    }
+  }
+
+  private void append(int slot) throws IOException {
+    int len = nameLengths[slot] & 0xFF;
+    if (batch.remaining() < RECORD_HEADER + len) {
+      flush();
+    }
+    batch.putLong(times[slot]).put(types[slot]).put(statuses[slot]).putInt(ips[slot])
+        .put((byte) len).put(names, slot * MAX_NAME, len);
+  }
+
+  private void reportDrops() throws IOException {
+    long total = dropped.sum();
+    if (total == droppedReported) {
+      return;
+    }
+    long n = Math.min(total - droppedReported, Integer.MAX_VALUE);
+    droppedReported += n;
+    if (batch.remaining() < RECORD_HEADER) {
+      flush();
+    }
+    batch.putLong(clock.millis()).put((byte) Type.DROPPED.ordinal())
+        .put((byte) Status.ERROR.ordinal()).putInt((int) n).put((byte) 0);
+  }
+
+  private void flush() throws IOException {
+    batch.flip();
+    while (batch.hasRemaining()) {
+      fileSize += channel.write(batch);
+    }
+    batch.clear();
+    written = consumed;
+    if (fileSize >= maxBytes) {
+      roll();
+    }
+  }
+
+  private void openFile() throws IOException {
+    Path parent = file.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.APPEND);
+    fileSize = channel.size();
+    if (fileSize == 0) {
+      fileSize += channel.write(ByteBuffer.wrap(MAGIC));
+    }
+  }
+
+  /** Renomme le fichier courant en {@code .1}, après avoir décalé les précédents. */
+  private void roll() throws IOException {
+    channel.close();
+    Files.deleteIfExists(rolled(file, files));
+    for (int i = files - 1; i >= 1; i--) {
+      Path from = rolled(file, i);
+      if (Files.exists(from)) {
+        Files.move(from, rolled(file, i + 1), StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+    if (files >= 1) {
+      Files.move(file, rolled(file, 1), StandardCopyOption.REPLACE_EXISTING);
+    } else {
+      Files.delete(file);
+    }
+    openFile();
+  }
+
+  /** Fichier renommé de rang {@code i} (1 : le plus récent). */
+  static Path rolled(Path file, int i) {
+    return file.resolveSibling(file.getFileName() + "." + i);
+  }
+
+  /** Événements publiés puis écrits dans le fichier. */
+  public long written() {
+    return written;
+  }
+
+  /** Événements abandonnés faute de place. */
+  public long dropped() {
+    return dropped.sum();
+  }
+
+  /**
+   * Cesse d'accepter des événements, écrit ceux déjà publiés et ferme le fichier.
+   */
+  @Override
+  public void close() throws IOException {
+    closing = true;
+    if (consumer.isAlive()) {
+      try {
+        consumer.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    channel.close();
+  }
+
+  // ---------------------------------------------------------------- lecture
+
+  /**
+   * Fichiers d'un journal dans l'ordre chronologique : renommés du plus ancien
+   * au plus récent, puis le fichier courant.
+   *
+   * @param file fichier courant
+   * @return les fichiers existants
+   */
+  public static List<Path> chronological(Path file) {
+    List<Path> res = new ArrayList<>();
+    int last = 0;
+    while (Files.exists(rolled(file, last + 1))) {
+      last++;
+    }
+    for (int i = last; i >= 1; i--) {
+      res.add(rolled(file, i));
+    }
+    if (Files.exists(file)) {
+      res.add(file);
+    }
+    return res;
+  }
+
+  /**
+   * Décode un fichier de journal.
+   *
+   * @param file fichier à lire
+   * @param action action appliquée à chaque événement, dans l'ordre d'écriture
+   * @throws IOException si le fichier est illisible ou n'est pas un journal
+   */
+  public static void read(Path file, Consumer<? super Event> action) throws IOException {
+    try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+      byte[] magic = new byte[MAGIC.length];
+      if (b.remaining() < magic.length) {
+        throw new IOException("Journal des requêtes invalide: " + file);
+      }
+      b.get(magic);
+      if (!Arrays.equals(magic, MAGIC)) {
+        throw new IOException("Journal des requêtes invalide: " + file);
+      }
+      Type[] allTypes = Type.values();
+      Status[] allStatuses = Status.values();
+      byte[] name = new byte[MAX_NAME];
+      while (b.remaining() >= RECORD_HEADER) {
+        final long time = b.getLong();
+        int type = b.get();
+        int status = b.get();
+        if (type < 0 || type >= allTypes.length || status < 0 || status >= allStatuses.length) {
+          throw new IOException("Enregistrement invalide à l'octet " + (b.position() - 10)
+              + ": " + file);
+        }
+        int ip = b.getInt();
+        int len = b.get() & 0xFF;
+        if (b.remaining() < len) {
+          break; // enregistrement tronqué (arrêt brutal)
+        }
+        b.get(name, 0, len);
+        action.accept(new Event(Instant.ofEpochMilli(time), allTypes[type], allStatuses[status],
+            (len == 0) ? null : new String(name, 0, len, StandardCharsets.UTF_8), ip));
+      }
+    }
+  }
+
+  /** Événement décodé. */
+  public static final class Event {
+    private final Instant time;
+    private final Type type;
+    private final Status status;
+    private final String name;
+    private final int ip;
+
+    Event(Instant time, Type type, Status status, String name, int ip) {
+      this.time = time;
+      this.type = type;
+      this.status = status;
+      this.name = name;
+      this.ip = ip;
+    }
+
+    public Instant getTime() {
+      return time;
+    }
+
+    public Type getType() {
+      return type;
+    }
+
+    public Status getStatus() {
+      return status;
+    }
+
+    /** Nom demandé ou obtenu, ou {@code null}. */
+    public String getName() {
+      return name;
+    }
+
+    /** Adresse demandée ou obtenue (0 si aucune), ou nombre d'événements abandonnés. */
+    public int getIp() {
+      return ip;
+    }
+
+    /** Format {@code 2025-01-01T00:00:00Z NOM OK www.uvsq.fr 193.51.31.90}. */
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder().append(time).append(' ').append(type)
+          .append(' ').append(status);
+      if (type == Type.DROPPED) {
+        return sb.append(' ').append(Integer.toUnsignedLong(ip)).toString();
+      }
+      sb.append(' ').append((name == null) ? "-" : name);
+      sb.append(' ').append((ip == 0) ? "-" : AdresseIP.fromInt(ip).value());
+      return sb.toString();
+    }
+  }
+}
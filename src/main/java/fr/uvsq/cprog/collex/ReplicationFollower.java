@@ -0,0 +1,162 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Suiveur de réplication : maintient une {@link Dns} en lecture à jour à partir
+ * du journal d'un {@link ReplicationLeader}.
+ *
+ * <p>Au premier contact, ou si le meneur n'a plus les mutations manquées, le
+ * suiveur repart d'un instantané ; ensuite il applique les mutations une à une
+ * à ses index en mémoire. Après une coupure, il se reconnecte et reprend à sa
+ * dernière séquence appliquée.
+ */
+public final class ReplicationFollower implements Closeable {
+
+  private final Dns dns;
+  private final String host;
+  private final int port;
+  private final long retryMillis;
+  private final Thread worker;
+  private volatile Socket socket;
+  private volatile boolean closed;
+
+  /** Époque du meneur suivi (0 tant qu'aucun instantané n'a été reçu). */
+  private volatile long epoch;
+  private volatile boolean synced;
+  private volatile long applied;
+  private volatile long lagMillis;
+  private volatile long reconnects;
+
+  /**
+   * Démarre un suiveur.
+   *
+   * @param dns base locale, mise à jour par réplication (ne pas y écrire directement)
+   * @param host hôte du meneur
+   * @param port port du meneur
+   * @param retryMillis délai entre deux tentatives de connexion
+   */
+  public ReplicationFollower(Dns dns, String host, int port, long retryMillis) {
+    this.dns = Objects.requireNonNull(dns, "dns");
+    this.host = Objects.requireNonNull(host, "host");
+    this.port = port;
+    this.retryMillis = retryMillis;
+    dns.follow();
+    this.worker = new Thread(this::loop, "repl-follower-" + port);
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  /** Base locale servie par ce suiveur. */
+  public Dns dns() {
+    return dns;
+  }
+
+  /** Indique si un instantané ou un rattrapage a été intégré. */
+  public boolean isSynced() {
+    return synced;
+  }
+
+  /** Nombre de mutations appliquées depuis le démarrage. */
+  public long applied() {
+    return applied;
+  }
+
+  /** Retard observé sur la dernière mutation appliquée (horloge locale moins horodatage meneur). */
+  public long lagMillis() {
+    return lagMillis;
+  }
+
+  /** Nombre de reconnexions effectuées. */
+  public long reconnects() {
+    return reconnects;
+  }
+
+  /** Coupe la connexion courante (le suiveur se reconnecte ensuite). */
+  void disconnect() {
+    Socket s = socket;
+    if (s != null) {
+      try {
+        s.close();
+      } catch (IOException e) {
+        // déjà fermée
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    disconnect();
+    worker.interrupt();
+  }
+
+  private void loop() {
+    while (!closed) {
+      try (Socket s = new Socket()) {
+        socket = s;
+        s.connect(new InetSocketAddress(host, port), 1000);
+        s.setTcpNoDelay(true);
+        session(s);
+      } catch (IOException e) {
+        // meneur injoignable ou connexion perdue : nouvel essai
+      }
+      if (closed) {
+        break;
+      }
+      reconnects++;
+      try {
+        Thread.sleep(retryMillis);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  private void session(Socket s) throws IOException {
+    DataOutputStream out = new DataOutputStream(s.getOutputStream());
+    DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16));
+    out.writeLong(epoch);
+    out.writeLong(synced ? dns.version() : -1);
+    out.flush();
+    long theirEpoch = in.readLong();
+    byte kind = in.readByte();
+    if (kind == ReplicationLeader.SNAPSHOT) {
+      long seq = in.readLong();
+      int n = in.readInt();
+      List<DnsItem> items = new ArrayList<>(n);
+      for (int i = 0; i < n; i++) {
+        items.add(Mutation.readItem(in));
+      }
+      dns.applySnapshot(seq, items);
+    } else {
+      int n = in.readInt();
+      for (int i = 0; i < n; i++) {
+        apply(Mutation.readFrom(in));
+      }
+    }
+    epoch = theirEpoch;
+    synced = true;
+    while (!closed) {
+      if (in.readByte() != ReplicationLeader.MUTATION) {
+        throw new IOException("Message de réplication inattendu");
+      }
+      apply(Mutation.readFrom(in));
+    }
+  }
+
+  private void apply(Mutation m) {
+    dns.apply(m);
+    applied++;
+    lagMillis = System.currentTimeMillis() - m.getTimestamp();
+  }
+}
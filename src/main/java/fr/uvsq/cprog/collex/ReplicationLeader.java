@@ -0,0 +1,183 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Meneur de réplication : diffuse le journal des mutations d'une {@link Dns}
+ * aux suiveurs ({@link ReplicationFollower}) connectés en TCP.
+ *
+ * <p>Protocole (flux {@code DataOutput}) :
+ * <pre>
+ *   suiveur → meneur : long époque, long dernière séquence appliquée (-1 : aucune)
+ *   meneur → suiveur : long époque, puis
+ *                      'S' long seq, int n, n × entrée      (instantané)
+ *                   ou 'L' int n, n × mutation              (mutations manquées)
+ *                      puis indéfiniment 'M' mutation
+ * </pre>
+ * L'époque identifie l'historique du meneur : un suiveur qui en présente une
+ * autre repart d'un instantané. Chaque suiveur dispose d'une file bornée ; s'il
+ * ne suit pas, sa connexion est fermée plutôt que de ralentir les écritures, et
+ * il reprendra depuis sa dernière séquence.
+ */
+public final class ReplicationLeader implements Closeable {
+
+  static final byte SNAPSHOT = 'S';
+  static final byte MISSED = 'L';
+  static final byte MUTATION = 'M';
+
+  private final Dns dns;
+  private final ServerSocket server;
+  private final long epoch = ThreadLocalRandom.current().nextLong();
+  private final int queueCapacity;
+  private final Set<Link> links = ConcurrentHashMap.newKeySet();
+  private final Thread acceptor;
+  private volatile boolean closed;
+
+  /**
+   * Démarre un meneur à l'écoute sur l'interface locale.
+   *
+   * @param dns base répliquée
+   * @param port port d'écoute (0 : port libre choisi par le système)
+   * @param queueCapacity mutations en attente tolérées par suiveur
+   * @throws IOException si le port ne peut être ouvert
+   */
+  public ReplicationLeader(Dns dns, int port, int queueCapacity) throws IOException {
+    this.dns = Objects.requireNonNull(dns, "dns");
+    this.queueCapacity = queueCapacity;
+    this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    this.acceptor = new Thread(this::acceptLoop, "repl-leader-" + server.getLocalPort());
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /** Port d'écoute effectif. */
+  public int port() {
+    return server.getLocalPort();
+  }
+
+  /** Nombre de suiveurs connectés. */
+  public int followers() {
+    return links.size();
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    server.close();
+    for (Link l : links) {
+      l.close();
+    }
+  }
+
+  private void acceptLoop() {
+    while (!closed) {
+      try {
+        Socket s = server.accept();
+        s.setTcpNoDelay(true);
+        Link link = new Link(s);
+        links.add(link);
+        Thread t = new Thread(link, "repl-link-" + s.getPort());
+        t.setDaemon(true);
+        t.start();
+      } catch (IOException e) {
+        if (!closed) {
+          continue;
+        }
+      }
+    }
+  }
+
+  /** Connexion vers un suiveur : une file bornée alimentée par le journal. */
+  private final class Link implements Runnable, Consumer<Mutation> {
+    private final Socket socket;
+    private final BlockingQueue<Mutation> queue = new ArrayBlockingQueue<>(queueCapacity);
+
+    Link(Socket socket) {
+      this.socket = socket;
+    }
+
+    @Override
+    public void accept(Mutation m) {
+      if (!queue.offer(m)) {
+        close(); // suiveur trop lent : il reprendra depuis sa dernière séquence
+      }
+    }
+
+    @Override
+    public void run() {
+      try (DataInputStream in = new DataInputStream(
+               new BufferedInputStream(socket.getInputStream()));
+           DataOutputStream out = new DataOutputStream(
+               new BufferedOutputStream(socket.getOutputStream(), 1 << 16))) {
+        long theirEpoch = in.readLong();
+        long from = in.readLong();
+        Dns.Catchup c = dns.subscribe((theirEpoch == epoch) ? from : -1, this);
+        out.writeLong(epoch);
+        if (c.snapshot() != null) {
+          out.writeByte(SNAPSHOT);
+          out.writeLong(c.seq());
+          out.writeInt(c.snapshot().size());
+          for (DnsItem it : c.snapshot()) {
+            Mutation.writeItem(out, it);
+          }
+        } else {
+          out.writeByte(MISSED);
+          out.writeInt(c.missed().size());
+          for (Mutation m : c.missed()) {
+            m.writeTo(out);
+          }
+        }
+        out.flush();
+        List<Mutation> batch = new ArrayList<>();
+        while (!socket.isClosed()) {
+          Mutation m = queue.poll(100, TimeUnit.MILLISECONDS);
+          if (m == null) {
+            continue;
+          }
+          batch.add(m);
+          queue.drainTo(batch);
+          for (Mutation b : batch) {
+            out.writeByte(MUTATION);
+            b.writeTo(out);
+          }
+          batch.clear();
+          out.flush();
+        }
+      } catch (IOException e) {
+        // suiveur déconnecté
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        close();
+      }
+    }
+
+    void close() {
+      dns.unsubscribe(this);
+      links.remove(this);
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // déjà fermée
+      }
+    }
+  }
+}
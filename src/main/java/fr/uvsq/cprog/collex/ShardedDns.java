@@ -0,0 +1,488 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+
+/**
+ * Base DNS partitionnée : les entrées sont réparties entre {@code n}
+ * partitions selon le hachage de leur FQDN.
+ *
+ * <p>Chaque partition est une {@link Dns} complète (moteur, index, cache,
+ * verrou, journal) persistée dans son propre fichier {@code <db>.shard<i>} ;
+ * la configuration est commune à toutes. Une recherche par nom et un ajout ne
+ * touchent qu'une partition, si bien que des ajouts vers des partitions
+ * différentes progressent en parallèle.
+ *
+ * <p>L'unicité des noms découle du routage ; celle des adresses IP est vérifiée
+ * sur toutes les partitions, sous un verrou choisi par l'adresse parmi
+ * {@value #IP_STRIPES} : deux ajouts concurrents de la même adresse sont donc
+ * sérialisés, quelle que soit leur partition de destination. Une recherche
+ * par adresse interroge les partitions une à une (chacune en O(1)).
+ *
+ * <p>{@link #getItems} et les recherches ({@link #findByPrefix},
+ * {@link #findContaining}) interrogent toutes les partitions en parallèle puis
+ * fusionnent leurs résultats, déjà triés par nom, en un seul parcours.
+ *
+ * <p>Le routage dépend du nombre de partitions : celui-ci est inscrit à la
+ * création dans {@code <db>.shards} et la base refuse de s'ouvrir avec un
+ * autre {@code db.shards}, plutôt que de laisser des entrées introuvables.
+ *
+ * <p>Les transactions, la surveillance, la sauvegarde et la réplication
+ * reposent sur le journal d'une seule base : elles ne sont pas offertes.
+ */
+public class ShardedDns implements DnsBase {
+
+  /** Nombre de verrous protégeant l'unicité des adresses. */
+  private static final int IP_STRIPES = 64;
+
+  private final Path dbFile;
+  private final Clock clock;
+  private final Dns[] shards;
+  private final ReentrantLock[] ipLocks = new ReentrantLock[IP_STRIPES];
+  private volatile QueryLog queryLog;
+  private volatile Forwarder forwarder;
+
+  /**
+   * Ouvre (ou crée) une base partitionnée.
+   *
+   * @param dbFile fichier de base dont dérivent les fichiers des partitions
+   * @param n nombre de partitions (au moins 1)
+   * @param config propriétés communes aux partitions (voir {@link Dns})
+   * @throws IllegalStateException si la base a été créée avec un autre nombre de partitions
+   */
+  public ShardedDns(Path dbFile, int n, Properties config) {
+    this(dbFile, n, config, Clock.systemUTC());
+  }
+
+  ShardedDns(Path dbFile, int n, Properties config, Clock clock) {
+    if (n < 1) {
+      throw new IllegalArgumentException("Nombre de partitions invalide: " + n);
+    }
+    for (int i = 0; i < IP_STRIPES; i++) {
+      ipLocks[i] = new ReentrantLock();
+    }
+    this.dbFile = dbFile;
+    this.clock = clock;
+    checkShardCount(dbFile, n);
+    shards = new Dns[n];
+    List<CompletableFuture<Void>> loads = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      int k = i;
+      Path file = shardFile(dbFile, i);
+      loads.add(CompletableFuture.runAsync(() -> shards[k] = new Dns(file, config, clock)));
+    }
+    join(loads);
+  }
+
+  /** Fichier de la partition {@code i} d'une base. */
+  static Path shardFile(Path dbFile, int i) {
+    return dbFile.resolveSibling(dbFile.getFileName() + ".shard" + i);
+  }
+
+  /** Fichier retenant le nombre de partitions d'une base. */
+  static Path countFile(Path dbFile) {
+    return dbFile.resolveSibling(dbFile.getFileName() + ".shards");
+  }
+
+  /**
+   * Vérifie que la base a été créée avec {@code n} partitions, et l'inscrit
+   * pour une nouvelle base. Une base antérieure à ce fichier est mesurée au
+   * nombre de ses fichiers de partition.
+   */
+  private static void checkShardCount(Path dbFile, int n) {
+    Path file = countFile(dbFile);
+    try {
+      int stored = 0;
+      if (Files.exists(file)) {
+        stored = Integer.parseInt(Files.readString(file, StandardCharsets.UTF_8).trim());
+      } else {
+        while (Files.exists(shardFile(dbFile, stored))) {
+          stored++;
+        }
+      }
+      if (stored != 0 && stored != n) {
+        throw new IllegalStateException("Base créée avec " + stored
+            + " partitions, db.shards=" + n + " rendrait des entrées introuvables");
+      }
+      if (Files.notExists(file)) {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null && Files.notExists(parent)) {
+          Files.createDirectories(parent);
+        }
+        Files.writeString(file, n + System.lineSeparator(), StandardCharsets.UTF_8);
+      }
+    } catch (IOException | NumberFormatException e) {
+      throw new IllegalStateException("Erreur init base: " + e.getMessage(), e);
+    }
+  }
+
+  /** Un fichier par partition, rechargé par sa partition. */
+  @Override
+  public Map<Path, IntSupplier> dataFiles() {
+    Map<Path, IntSupplier> res = new LinkedHashMap<>();
+    for (int i = 0; i < shards.length; i++) {
+      res.put(shardFile(dbFile, i), shards[i]::reload);
+    }
+    return res;
+  }
+
+  /** Nombre de partitions. */
+  int shardCount() {
+    return shards.length;
+  }
+
+  /** Partition d'un nom de machine. */
+  int shardOf(NomMachine nom) {
+    int h = nom.hashCode();
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    return Math.floorMod(h, shards.length);
+  }
+
+  /** Nombre d'entrées de chaque partition. */
+  int[] shardSizes() {
+    int[] sizes = new int[shards.length];
+    for (int i = 0; i < shards.length; i++) {
+      sizes[i] = shards[i].size();
+    }
+    return sizes;
+  }
+
+  @Override
+  public DnsItem getItem(AdresseIP ip) {
+    for (Dns shard : shards) {
+      DnsItem item = shard.getItem(ip);
+      if (item != null) {
+        return item;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public DnsItem getItem(NomMachine nom) {
+    return shards[shardOf(nom)].getItem(nom);
+  }
+
+  @Override
+  public List<DnsItem> getItems(String domaine) {
+    return fanOut(shard -> shard.getItems(domaine), Integer.MAX_VALUE, Comparator.naturalOrder());
+  }
+
+  @Override
+  public List<DnsItem> findByPrefix(String prefix, int limit) {
+    return fanOut(shard -> shard.findByPrefix(prefix, limit), limit, NameIndex.ORDER);
+  }
+
+  @Override
+  public List<DnsItem> findContaining(String part, int limit) {
+    return fanOut(shard -> shard.findContaining(part, limit), limit, NameIndex.ORDER);
+  }
+
+  /** Interroge toutes les partitions en parallèle et fusionne les {@code limit} premiers. */
+  private List<DnsItem> fanOut(Function<Dns, List<DnsItem>> query, int limit,
+      Comparator<? super NomMachine> order) {
+    List<CompletableFuture<List<DnsItem>>> parts = new ArrayList<>(shards.length);
+    for (Dns shard : shards) {
+      parts.add(CompletableFuture.supplyAsync(() -> query.apply(shard)));
+    }
+    join(parts);
+    List<List<DnsItem>> sorted = new ArrayList<>(shards.length);
+    for (CompletableFuture<List<DnsItem>> f : parts) {
+      sorted.add(f.join());
+    }
+    List<DnsItem> res = merge(sorted, order);
+    return Collections.unmodifiableList(res.subList(0, Math.min(limit, res.size())));
+  }
+
+  /**
+   * Fusion k-voies de listes triées par nom.
+   *
+   * @param sorted listes triées dans l'ordre {@code order}
+   * @param order ordre des noms : naturel pour un listage, {@link NameIndex#ORDER}
+   *     pour une recherche
+   * @return les entrées de toutes les listes, dans cet ordre
+   */
+  static List<DnsItem> merge(List<List<DnsItem>> sorted, Comparator<? super NomMachine> order) {
+    int total = 0;
+    for (List<DnsItem> l : sorted) {
+      total += l.size();
+    }
+    List<DnsItem> res = new ArrayList<>(total);
+    int[] pos = new int[sorted.size()];
+    PriorityQueue<Integer> heads = new PriorityQueue<>(Math.max(1, sorted.size()),
+        (a, b) -> order.compare(sorted.get(a).get(pos[a]).getNom(),
+            sorted.get(b).get(pos[b]).getNom()));
+    for (int i = 0; i < sorted.size(); i++) {
+      if (!sorted.get(i).isEmpty()) {
+        heads.add(i);
+      }
+    }
+    while (!heads.isEmpty()) {
+      int i = heads.poll();
+      res.add(sorted.get(i).get(pos[i]++));
+      if (pos[i] < sorted.get(i).size()) {
+        heads.add(i);
+      }
+    }
+    return res;
+  }
+
+  @Override
+  public void addItem(AdresseIP ip, NomMachine nom, Duration ttl) {
+    Dns target = shards[shardOf(nom)];
+    ReentrantLock l = ipLock(ip);
+    l.lock();
+    try {
+      for (Dns shard : shards) {
+        if (shard != target && shard.getItem(ip) != null) {
+          throw new IllegalStateException("L'adresse IP existe déjà !");
+        }
+      }
+      target.addItem(ip, nom, ttl);
+    } finally {
+      l.unlock();
+    }
+  }
+
+  private ReentrantLock ipLock(AdresseIP ip) {
+    return ipLocks[Math.floorMod(ip.hashCode(), IP_STRIPES)];
+  }
+
+  /** Recharge chaque partition dont le fichier a changé. */
+  @Override
+  public int reload() {
+    int n = 0;
+    for (Dns shard : shards) {
+      n += shard.reload();
+    }
+    return n;
+  }
+
+  /**
+   * Applique un lot en le répartissant entre les partitions. L'unicité des
+   * adresses est vérifiée sur toutes les partitions, sous tous les verrous
+   * d'adresse, avant la moindre modification ; chaque partition applique
+   * ensuite sa part en une seule opération, en parallèle. Un lecteur peut donc
+   * voir le lot appliqué sur une partition et pas encore sur une autre.
+   */
+  @Override
+  public int applyChanges(List<ZoneDiff.Change> changes) {
+    for (ReentrantLock l : ipLocks) {
+      l.lock();
+    }
+    try {
+      Dns.validate(changes, this::getItem);
+      List<List<ZoneDiff.Change>> parts = new ArrayList<>(shards.length);
+      for (int i = 0; i < shards.length; i++) {
+        parts.add(new ArrayList<>());
+      }
+      for (ZoneDiff.Change c : changes) {
+        parts.get(shardOf(c.getNom())).add(c);
+      }
+      List<CompletableFuture<Integer>> tasks = new ArrayList<>(shards.length);
+      for (int i = 0; i < shards.length; i++) {
+        Dns shard = shards[i];
+        List<ZoneDiff.Change> part = parts.get(i);
+        if (!part.isEmpty()) {
+          tasks.add(CompletableFuture.supplyAsync(() -> shard.applyChanges(part)));
+        }
+      }
+      join(tasks);
+      int count = 0;
+      for (CompletableFuture<Integer> t : tasks) {
+        count += t.join();
+      }
+      return count;
+    } finally {
+      for (int i = IP_STRIPES - 1; i >= 0; i--) {
+        ipLocks[i].unlock();
+      }
+    }
+  }
+
+  /** Unicité des adresses vérifiée sur toutes les partitions. */
+  @Override
+  public void validate(List<ZoneDiff.Change> changes) {
+    Dns.validate(changes, this::getItem);
+  }
+
+  /**
+   * Attribue la première adresse libre du sous-réseau dans toutes les
+   * partitions : chacune est interrogée à partir du candidat courant, jusqu'à
+   * ce qu'aucune ne le repousse. L'adresse est ensuite réservée sous son verrou
+   * comme par {@link #addItem} ; prise entre-temps, la recherche reprend.
+   */
+  @Override
+  public AdresseIP allocate(NomMachine nom, Subnet subnet, Duration ttl) {
+    if (ttl != null && (ttl.isNegative() || ttl.isZero())) {
+      throw new IllegalArgumentException("TTL invalide: " + ttl);
+    }
+    Dns target = shards[shardOf(nom)];
+    while (true) {
+      if (target.getItem(nom) != null) {
+        throw new IllegalStateException("Le nom de machine existe déjà !");
+      }
+      AdresseIP ip = nextFree(subnet);
+      if (ip == null) {
+        throw new IllegalStateException("Sous-réseau plein : " + subnet);
+      }
+      ReentrantLock l = ipLock(ip);
+      l.lock();
+      try {
+        if (getItem(ip) == null) {
+          target.addItem(ip, nom, ttl);
+          return ip;
+        }
+      } finally {
+        l.unlock();
+      }
+    }
+  }
+
+  /** Plus petite adresse libre dans toutes les partitions, ou {@code null}. */
+  private AdresseIP nextFree(Subnet subnet) {
+    AdresseIP candidate = AdresseIP.fromInt(subnet.network());
+    int stable = 0;
+    for (int i = 0; stable < shards.length; i = (i + 1) % shards.length) {
+      AdresseIP next = shards[i].nextFree(subnet, candidate);
+      if (next == null) {
+        return null;
+      }
+      stable = next.equals(candidate) ? stable + 1 : 1;
+      candidate = next;
+    }
+    return candidate;
+  }
+
+  /** Somme des occupations des partitions. */
+  @Override
+  public SubnetAllocator.Usage usage(Subnet subnet) {
+    SubnetAllocator.Usage total = shards[0].usage(subnet);
+    for (int i = 1; i < shards.length; i++) {
+      total = total.plus(shards[i].usage(subnet));
+    }
+    return total;
+  }
+
+  /** Occupations des partitions, cumulées par sous-réseau. */
+  @Override
+  public List<SubnetAllocator.Usage> usages() {
+    Map<Subnet, SubnetAllocator.Usage> total = new TreeMap<>();
+    for (Dns shard : shards) {
+      for (SubnetAllocator.Usage u : shard.usages()) {
+        total.merge(u.getSubnet(), u, SubnetAllocator.Usage::plus);
+      }
+    }
+    return Collections.unmodifiableList(new ArrayList<>(total.values()));
+  }
+
+  /** Somme des versions des partitions : croît à chaque mutation. */
+  @Override
+  public long version() {
+    long v = 0;
+    for (Dns shard : shards) {
+      v += shard.version();
+    }
+    return v;
+  }
+
+  @Override
+  public List<DnsItem> snapshot() {
+    List<DnsItem> res = new ArrayList<>();
+    for (Dns shard : shards) {
+      res.addAll(shard.snapshot());
+    }
+    return res;
+  }
+
+  /** Cumul des caches des partitions, chacune ayant le sien. */
+  @Override
+  public LookupCache.Stats cacheStats() {
+    LookupCache.Stats total = null;
+    for (Dns shard : shards) {
+      LookupCache.Stats s = shard.cacheStats();
+      if (s != null) {
+        total = (total == null) ? s : total.plus(s);
+      }
+    }
+    return total;
+  }
+
+  /** Somme des empreintes des partitions. */
+  @Override
+  public Footprint.Report footprint() {
+    Footprint.Report total = shards[0].footprint();
+    for (int i = 1; i < shards.length; i++) {
+      total = total.plus(shards[i].footprint());
+    }
+    return total;
+  }
+
+  /** Somme de l'activité d'écriture des partitions. */
+  @Override
+  public Dns.WriteStats writeStats() {
+    Dns.WriteStats total = shards[0].writeStats();
+    for (int i = 1; i < shards.length; i++) {
+      total = total.plus(shards[i].writeStats());
+    }
+    return total;
+  }
+
+  @Override
+  public Instant now() {
+    return clock.instant();
+  }
+
+  @Override
+  public void setQueryLog(QueryLog queryLog) {
+    this.queryLog = queryLog;
+  }
+
+  @Override
+  public QueryLog queryLog() {
+    return queryLog;
+  }
+
+  @Override
+  public void setForwarder(Forwarder forwarder) {
+    this.forwarder = forwarder;
+  }
+
+  @Override
+  public Forwarder forwarder() {
+    return forwarder;
+  }
+
+  /** Attend toutes les tâches et relance la première erreur telle quelle. */
+  private static void join(List<? extends CompletableFuture<?>> tasks) {
+    try {
+      CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,289 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Index clairsemé d'un fichier de zone trié par FQDN.
+ *
+ * <p>Seule une ligne de données sur {@code step} est retenue (nom et position en
+ * octets). Une recherche par nom fait une dichotomie sur ces échantillons puis
+ * relit au plus {@code step} lignes du fichier. L'index est enregistré à côté
+ * de la base ({@code <db>.idx}) et réutilisé tant que la taille et la date de
+ * modification de la base n'ont pas changé ; sinon il est reconstruit par une
+ * lecture séquentielle unique, sans créer d'objet par ligne.
+ */
+final class SparseZoneIndex implements ZoneIndex {
+
+  /** Signature du fichier d'index. */
+  private static final int MAGIC = 0x444E5349;
+
+  private final Path db;
+  private final String[] names;
+  private final long[] offsets;
+  private final long end;
+
+  /** Analyseur de ligne, fourni par {@link Dns} ; {@code null} pour un index en écriture. */
+  private Function<String, DnsItem> parser;
+
+  private SparseZoneIndex(Path db, String[] names, long[] offsets, long end) {
+    this.db = db;
+    this.names = names;
+    this.offsets = offsets;
+    this.end = end;
+  }
+
+  /** Chemin de l'index associé à une base. */
+  static Path sidecarOf(Path db) {
+    return db.resolveSibling(db.getFileName() + ".idx");
+  }
+
+  /**
+   * Ouvre l'index d'une base : relit l'index enregistré s'il est à jour,
+   * sinon le reconstruit et l'enregistre.
+   *
+   * @param db fichier de zone
+   * @param step pas d'échantillonnage (en lignes de données)
+   * @param parser analyseur d'une ligne de données
+   * @return l'index, ou {@code null} si le fichier n'est pas trié par FQDN
+   * @throws IOException en cas d'erreur de lecture
+   */
+  static SparseZoneIndex open(Path db, int step, Function<String, DnsItem> parser)
+      throws IOException {
+    SparseZoneIndex idx = readSidecar(db);
+    if (idx == null) {
+      DnsEvents.Index ev = new DnsEvents.Index();
+      ev.begin();
+      idx = scan(db, step);
+      if (idx == null) {
+        return null;
+      }
+      idx.writeSidecar();
+      ev.end();
+      if (ev.shouldCommit()) {
+        ev.index = "fichier clairsemé";
+        ev.entrees = idx.names.length;
+        ev.commit();
+      }
+    }
+    idx.parser = parser;
+    return idx;
+  }
+
+  /**
+   * Enregistre l'index d'une base qui vient d'être écrite ligne à ligne,
+   * sans la relire.
+   *
+   * @param db fichier de zone qui vient d'être écrit
+   * @param lines lignes écrites, triées par FQDN
+   * @param step pas d'échantillonnage
+   * @throws IOException en cas d'erreur d'écriture
+   */
+  static void write(Path db, List<String> lines, int step) throws IOException {
+    int sep = System.lineSeparator().getBytes(StandardCharsets.UTF_8).length;
+    List<String> sampled = new ArrayList<>(lines.size() / step + 1);
+    long[] offs = new long[lines.size() / step + 1];
+    long pos = 0;
+    for (int i = 0; i < lines.size(); i++) {
+      String line = lines.get(i);
+      if (i % step == 0) {
+        offs[sampled.size()] = pos;
+        sampled.add(line.substring(0, line.indexOf(' ')));
+      }
+      pos += utf8Length(line) + sep;
+    }
+    new SparseZoneIndex(db, sampled.toArray(new String[0]),
+        Arrays.copyOf(offs, sampled.size()), pos).writeSidecar();
+  }
+
+  @Override
+  public DnsItem lookup(NomMachine nom) throws IOException {
+    String fqdn = nom.getFqdn();
+    // dernier échantillon inférieur ou égal : l'échantillon suivant est plus
+    // grand, donc la dernière ligne du nom (celle que garde un chargement
+    // complet) est dans cette plage, même si le nom est répété
+    int lo = 0;
+    int hi = names.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (names[mid].compareTo(fqdn) <= 0) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    int k = lo - 1;
+    if (k < 0) {
+      return null;
+    }
+    long from = offsets[k];
+    long to = (k + 1 < offsets.length) ? offsets[k + 1] : end;
+    ByteBuffer bb = ByteBuffer.allocate((int) (to - from));
+    try (FileChannel ch = FileChannel.open(db, StandardOpenOption.READ)) {
+      while (bb.hasRemaining() && ch.read(bb, from + bb.position()) >= 0) {
+        // lecture positionnelle jusqu'à remplir la plage
+      }
+    }
+    String chunk = new String(bb.array(), 0, bb.position(), StandardCharsets.UTF_8);
+    String found = null;
+    for (String line : chunk.split("\\R")) {
+      String trimmed = line.trim();
+      if (trimmed.split("\\s+", 2)[0].equals(fqdn)) {
+        found = trimmed;
+      }
+    }
+    return (found == null) ? null : parser.apply(found);
+  }
+
+  // ---------------------------------------------------------------- construction
+
+  /** Parcourt la base une fois ; retourne {@code null} si elle n'est pas triée. */
+  private static SparseZoneIndex scan(Path db, int step) throws IOException {
+    List<String> sampled = new ArrayList<>();
+    long[] offs = new long[16];
+    byte[] prev = new byte[256];
+    int prevLen = -1;
+    byte[] cur = new byte[256];
+    long pos = 0;
+    long lineStart = 0;
+    int curLen = 0;
+    boolean inName = true;
+    boolean blank = true;
+    int dataLines = 0;
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(db), 1 << 16)) {
+      int b;
+      while (true) {
+        b = in.read();
+        if (b == '\n' || b < 0) {
+          if (!blank && cur[0] != '#') {
+            if (prevLen >= 0 && compare(prev, prevLen, cur, curLen) > 0) {
+              return null;
+            }
+            if (dataLines % step == 0) {
+              if (sampled.size() == offs.length) {
+                offs = Arrays.copyOf(offs, offs.length * 2);
+              }
+              offs[sampled.size()] = lineStart;
+              sampled.add(new String(cur, 0, curLen, StandardCharsets.UTF_8));
+            }
+            dataLines++;
+            byte[] t = prev;
+            prev = cur;
+            cur = t;
+            prevLen = curLen;
+          }
+          if (b < 0) {
+            break;
+          }
+          lineStart = pos + 1;
+          curLen = 0;
+          inName = true;
+          blank = true;
+        } else if (b == ' ' || b == '\t' || b == '\r') {
+          if (!blank) {
+            inName = false;
+          }
+        } else {
+          blank = false;
+          if (inName) {
+            if (curLen == cur.length) {
+              cur = Arrays.copyOf(cur, cur.length * 2);
+              prev = Arrays.copyOf(prev, cur.length);
+            }
+            cur[curLen++] = (byte) b;
+          }
+        }
+        pos++;
+      }
+    }
+    return new SparseZoneIndex(db, sampled.toArray(new String[0]),
+        Arrays.copyOf(offs, sampled.size()), pos);
+  }
+
+  private static int compare(byte[] a, int alen, byte[] b, int blen) {
+    int n = Math.min(alen, blen);
+    for (int i = 0; i < n; i++) {
+      int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+      if (c != 0) {
+        return c;
+      }
+    }
+    return alen - blen;
+  }
+
+  private static int utf8Length(String s) {
+    int len = 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        len++;
+      } else if (c < 0x800) {
+        len += 2;
+      } else if (Character.isHighSurrogate(c)) {
+        len += 4;
+        i++;
+      } else {
+        len += 3;
+      }
+    }
+    return len;
+  }
+
+  // ---------------------------------------------------------------- fichier d'index
+
+  private void writeSidecar() throws IOException {
+    try (OutputStream os = Files.newOutputStream(sidecarOf(db));
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+      out.writeInt(MAGIC);
+      out.writeLong(Files.size(db));
+      out.writeLong(Files.getLastModifiedTime(db).toMillis());
+      out.writeLong(end);
+      out.writeInt(names.length);
+      for (int i = 0; i < names.length; i++) {
+        out.writeUTF(names[i]);
+        out.writeLong(offsets[i]);
+      }
+    }
+  }
+
+  private static SparseZoneIndex readSidecar(Path db) throws IOException {
+    Path side = sidecarOf(db);
+    if (Files.notExists(side)) {
+      return null;
+    }
+    try (InputStream is = Files.newInputStream(side);
+         DataInputStream in = new DataInputStream(new BufferedInputStream(is))) {
+      if (in.readInt() != MAGIC
+          || in.readLong() != Files.size(db)
+          || in.readLong() != Files.getLastModifiedTime(db).toMillis()) {
+        return null;
+      }
+      long end = in.readLong();
+      int n = in.readInt();
+      String[] names = new String[n];
+      long[] offsets = new long[n];
+      for (int i = 0; i < n; i++) {
+        names[i] = in.readUTF();
+        offsets[i] = in.readLong();
+      }
+      return new SparseZoneIndex(db, names, offsets, end);
+    } catch (IOException e) {
+      return null; // index illisible : il sera reconstruit
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.Objects;
+
+/**
+ * Représente un sous-réseau IPv4 immuable en notation CIDR ({@code 10.0.0.0/24}).
+ *
+ * <p>Les bits d'hôte de l'adresse sont ignorés : {@code 10.0.0.7/24} désigne
+ * le même sous-réseau que {@code 10.0.0.0/24}. Les préfixes acceptés vont de
+ * {@code /8} à {@code /32}, ce qui borne à 2 Mo la table d'occupation d'un
+ * sous-réseau ({@link SubnetAllocator}).
+ */
+public final class Subnet implements Comparable<Subnet> {
+
+  /** Plus petit préfixe accepté. */
+  static final int MIN_PREFIX = 8;
+
+  /** Adresse du réseau (bits d'hôte à zéro), premier octet en poids fort. */
+  private final int network;
+
+  /** Longueur du préfixe. */
+  private final int prefix;
+
+  /**
+   * Crée un sous-réseau à partir de sa notation CIDR.
+   *
+   * @param cidr sous-réseau (ex. {@code "192.168.1.0/24"})
+   * @throws NullPointerException si {@code cidr} est {@code null}
+   * @throws IllegalArgumentException si la notation ou le préfixe sont invalides
+   */
+  public Subnet(String cidr) {
+    String s = Objects.requireNonNull(cidr, "cidr").trim();
+    int slash = s.indexOf('/');
+    if (slash < 0) {
+      throw new IllegalArgumentException("Sous-réseau invalide: " + cidr);
+    }
+    int len;
+    try {
+      len = Integer.parseInt(s.substring(slash + 1));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Sous-réseau invalide: " + cidr, e);
+    }
+    if (len < MIN_PREFIX || len > 32) {
+      throw new IllegalArgumentException("Préfixe invalide (/" + MIN_PREFIX + " à /32): " + cidr);
+    }
+    this.prefix = len;
+    this.network = new AdresseIP(s.substring(0, slash)).toInt() & mask(len);
+  }
+
+  private Subnet(int network, int prefix) {
+    this.network = network;
+    this.prefix = prefix;
+  }
+
+  /**
+   * Sous-réseau de préfixe donné contenant une adresse.
+   *
+   * @param ip adresse sur 32 bits
+   * @param prefix longueur du préfixe
+   * @return le sous-réseau
+   */
+  static Subnet of(int ip, int prefix) {
+    return new Subnet(ip & mask(prefix), prefix);
+  }
+
+  static int mask(int prefix) {
+    return (prefix == 0) ? 0 : -1 << (32 - prefix);
+  }
+
+  /** Adresse du réseau sur 32 bits. */
+  int network() {
+    return network;
+  }
+
+  /** Longueur du préfixe. */
+  public int prefix() {
+    return prefix;
+  }
+
+  /** Nombre total d'adresses du sous-réseau. */
+  public int size() {
+    return 1 << (32 - prefix);
+  }
+
+  /**
+   * Indique si le sous-réseau contient une adresse.
+   *
+   * @param ip adresse à tester
+   * @return {@code true} si l'adresse appartient au sous-réseau
+   */
+  public boolean contains(AdresseIP ip) {
+    return contains(ip.toInt());
+  }
+
+  boolean contains(int ip) {
+    return (ip & mask(prefix)) == network;
+  }
+
+  @Override
+  public String toString() {
+    return AdresseIP.fromInt(network).value() + "/" + prefix;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Subnet)) {
+      return false;
+    }
+    Subnet that = (Subnet) o;
+    return network == that.network && prefix == that.prefix;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * network + prefix;
+  }
+
+  /** Compare par adresse de réseau, puis du plus large au plus étroit. */
+  @Override
+  public int compareTo(Subnet other) {
+    int c = Integer.compareUnsigned(network, other.network);
+    return (c != 0) ? c : Integer.compare(prefix, other.prefix);
+  }
+}
@@ -0,0 +1,303 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Tables d'occupation des sous-réseaux, pour l'allocation d'adresses libres.
+ *
+ * <p>Chaque sous-réseau suivi possède une table de bits (un {@code long} pour
+ * 64 adresses) où un bit à 1 marque une adresse indisponible : attribuée dans
+ * la base, ou réservée (adresses de réseau et de diffusion jusqu'au
+ * {@code /30}). La première adresse libre se trouve mot par mot : un mot
+ * plein vaut {@code -1L} et le premier bit nul d'un autre mot est donné par
+ * {@link Long#numberOfTrailingZeros}. Un curseur retient le premier mot non
+ * plein, de sorte que des allocations successives ne reparcourent pas le
+ * début du sous-réseau.
+ *
+ * <p>Un sous-réseau est suivi à partir de sa première allocation et la table
+ * est alors construite en un parcours de la base ; {@link Dns} la tient
+ * ensuite à jour à chaque insertion ou suppression. Pour retrouver les tables
+ * concernées par une adresse, elles sont rangées par longueur de préfixe : le
+ * coût d'une mise à jour dépend du nombre de longueurs distinctes suivies, non
+ * du nombre de sous-réseaux.
+ *
+ * <p>Cette classe n'est pas thread-safe : {@link Dns} la modifie sous son verrou
+ * en écriture et l'interroge sous son verrou en lecture.
+ */
+public final class SubnetAllocator {
+
+  /** Tables par longueur de préfixe, puis par adresse de réseau. */
+  private final Map<Integer, Map<Integer, Bitmap>> byPrefix = new TreeMap<>();
+
+  /** Indique si le sous-réseau est suivi. */
+  boolean isTracked(Subnet subnet) {
+    Map<Integer, Bitmap> m = byPrefix.get(subnet.prefix());
+    return m != null && m.containsKey(subnet.network());
+  }
+
+  /**
+   * Suit un sous-réseau, en y marquant les adresses déjà attribuées.
+   *
+   * @param subnet sous-réseau à suivre (sans effet s'il l'est déjà)
+   * @param store contenu actuel de la base
+   */
+  void track(Subnet subnet, DnsStore store) {
+    if (isTracked(subnet)) {
+      return;
+    }
+    Bitmap b = new Bitmap(subnet);
+    store.forEach(it -> {
+      int bits = it.getIp().toInt();
+      if (subnet.contains(bits)) {
+        b.set(bits);
+      }
+    });
+    byPrefix.computeIfAbsent(subnet.prefix(), p -> new HashMap<>()).put(subnet.network(), b);
+  }
+
+  /**
+   * Marque une adresse comme attribuée dans les sous-réseaux suivis qui la contiennent.
+   *
+   * @param ip adresse insérée dans la base
+   */
+  void add(AdresseIP ip) {
+    if (byPrefix.isEmpty()) {
+      return;
+    }
+    int bits = ip.toInt();
+    for (Map.Entry<Integer, Map<Integer, Bitmap>> e : byPrefix.entrySet()) {
+      Bitmap b = e.getValue().get(bits & Subnet.mask(e.getKey()));
+      if (b != null) {
+        b.set(bits);
+      }
+    }
+  }
+
+  /**
+   * Libère une adresse dans les sous-réseaux suivis qui la contiennent.
+   *
+   * @param ip adresse retirée de la base
+   */
+  void remove(AdresseIP ip) {
+    if (byPrefix.isEmpty()) {
+      return;
+    }
+    int bits = ip.toInt();
+    for (Map.Entry<Integer, Map<Integer, Bitmap>> e : byPrefix.entrySet()) {
+      Bitmap b = e.getValue().get(bits & Subnet.mask(e.getKey()));
+      if (b != null) {
+        b.clear(bits);
+      }
+    }
+  }
+
+  /**
+   * Première adresse libre d'un sous-réseau suivi, sans la marquer.
+   *
+   * @param subnet sous-réseau suivi
+   * @return l'adresse libre, ou {@code null} si le sous-réseau est plein
+   */
+  AdresseIP nextFree(Subnet subnet) {
+    int offset = bitmap(subnet).nextFree();
+    return (offset < 0) ? null : AdresseIP.fromInt(subnet.network() + offset);
+  }
+
+  /**
+   * Première adresse libre d'un sous-réseau suivi à partir d'une adresse, sans la marquer.
+   *
+   * @param subnet sous-réseau suivi
+   * @param from première adresse candidate, dans le sous-réseau
+   * @return l'adresse libre, ou {@code null} s'il n'y en a plus à partir de {@code from}
+   */
+  AdresseIP nextFree(Subnet subnet, AdresseIP from) {
+    int offset = bitmap(subnet).nextFree(from.toInt() - subnet.network());
+    return (offset < 0) ? null : AdresseIP.fromInt(subnet.network() + offset);
+  }
+
+  /**
+   * Occupation d'un sous-réseau suivi.
+   *
+   * @param subnet sous-réseau suivi
+   * @return son occupation
+   */
+  Usage usage(Subnet subnet) {
+    return bitmap(subnet).usage();
+  }
+
+  /**
+   * Occupation d'un sous-réseau non suivi, comptée en un parcours de la base,
+   * sans construire de table.
+   *
+   * @param subnet sous-réseau
+   * @param store contenu actuel de la base
+   * @return son occupation
+   */
+  static Usage count(Subnet subnet, DnsStore store) {
+    int[] used = new int[1];
+    store.forEach(it -> {
+      if (subnet.contains(it.getIp().toInt())) {
+        used[0]++;
+      }
+    });
+    return new Usage(subnet, used[0], capacity(subnet));
+  }
+
+  /** Nombre d'adresses attribuables (hors réseau et diffusion jusqu'au /30). */
+  private static int capacity(Subnet subnet) {
+    return subnet.size() - ((subnet.prefix() <= 30) ? 2 : 0);
+  }
+
+  /** Occupation de tous les sous-réseaux suivis, par adresse de réseau. */
+  List<Usage> usages() {
+    List<Usage> res = new ArrayList<>();
+    for (Map<Integer, Bitmap> m : byPrefix.values()) {
+      for (Bitmap b : m.values()) {
+        res.add(b.usage());
+      }
+    }
+    Collections.sort(res, (a, b) -> a.getSubnet().compareTo(b.getSubnet()));
+    return res;
+  }
+
+  private Bitmap bitmap(Subnet subnet) {
+    Map<Integer, Bitmap> m = byPrefix.get(subnet.prefix());
+    Bitmap b = (m == null) ? null : m.get(subnet.network());
+    if (b == null) {
+      throw new IllegalStateException("Sous-réseau non suivi: " + subnet);
+    }
+    return b;
+  }
+
+  /** Occupation d'un sous-réseau à un instant donné. */
+  public static final class Usage {
+    private final Subnet subnet;
+    private final int used;
+    private final int capacity;
+
+    Usage(Subnet subnet, int used, int capacity) {
+      this.subnet = subnet;
+      this.used = used;
+      this.capacity = capacity;
+    }
+
+    public Subnet getSubnet() {
+      return subnet;
+    }
+
+    /** Nombre d'adresses du sous-réseau attribuées dans la base. */
+    public int getUsed() {
+      return used;
+    }
+
+    /** Nombre d'adresses attribuables (hors réseau et diffusion jusqu'au /30). */
+    public int getCapacity() {
+      return capacity;
+    }
+
+    /** Cumul de deux occupations du même sous-réseau (partitions d'une base). */
+    Usage plus(Usage other) {
+      return new Usage(subnet, used + other.used, capacity);
+    }
+
+    /** Format {@code 10.0.0.0/24 12/254 (4.7 %)}. */
+    @Override
+    public String toString() {
+      double pct = (capacity == 0) ? 0 : 100.0 * Math.min(used, capacity) / capacity;
+      return subnet + " " + used + "/" + capacity + String.format(Locale.ROOT, " (%.1f %%)", pct);
+    }
+  }
+
+  /** Table de bits d'un sous-réseau : bit {@code i} pour l'adresse {@code réseau + i}. */
+  private static final class Bitmap {
+    private final Subnet subnet;
+    private final long[] words;
+    private final int reservedLow;
+    private final int reservedHigh;
+
+    /** Adresses du sous-réseau présentes dans la base, réservées comprises. */
+    private int used;
+
+    /** Tous les mots avant celui-ci sont pleins. */
+    private int firstFree;
+
+    Bitmap(Subnet subnet) {
+      this.subnet = subnet;
+      int size = subnet.size();
+      this.words = new long[(size + 63) >>> 6];
+      if (size % 64 != 0) {
+        // bits au-delà de la fin du sous-réseau (préfixes /27 à /32)
+        words[0] = -1L << size;
+      }
+      if (subnet.prefix() <= 30) {
+        reservedLow = 0;
+        reservedHigh = size - 1;
+        setBit(reservedLow);
+        setBit(reservedHigh);
+      } else {
+        reservedLow = -1;
+        reservedHigh = -1;
+      }
+    }
+
+    void set(int ip) {
+      int offset = ip - subnet.network();
+      used++;
+      setBit(offset);
+    }
+
+    void clear(int ip) {
+      int offset = ip - subnet.network();
+      used--;
+      if (offset != reservedLow && offset != reservedHigh) {
+        words[offset >>> 6] &= ~(1L << offset);
+        firstFree = Math.min(firstFree, offset >>> 6);
+      }
+    }
+
+    private void setBit(int offset) {
+      words[offset >>> 6] |= 1L << offset;
+    }
+
+    /** Décalage de la première adresse libre, ou -1 si le sous-réseau est plein. */
+    int nextFree() {
+      for (int w = firstFree; w < words.length; w++) {
+        long free = ~words[w];
+        if (free != 0) {
+          firstFree = w;
+          return (w << 6) + Long.numberOfTrailingZeros(free);
+        }
+      }
+      firstFree = words.length;
+      return -1;
+    }
+
+    /** Décalage de la première adresse libre à partir de {@code from}, ou -1. */
+    int nextFree(int from) {
+      int w = from >>> 6;
+      if (w < firstFree) {
+        return nextFree(); // mots pleins jusqu'au curseur
+      }
+      if (w >= words.length) {
+        return -1;
+      }
+      long free = ~words[w] & (-1L << from);
+      while (free == 0) {
+        if (++w == words.length) {
+          return -1;
+        }
+        free = ~words[w];
+      }
+      return (w << 6) + Long.numberOfTrailingZeros(free);
+    }
+
+    Usage usage() {
+      return new Usage(subnet, used, capacity(subnet));
+    }
+  }
+}
@@ -0,0 +1,210 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.function.Consumer;
+
+/**
+ * Roue de temporisation hiérarchique (« hierarchical timing wheel »).
+ *
+ * <p>Le temps est découpé en ticks de durée fixe. Quatre niveaux de 64 cases
+ * couvrent respectivement 1, 64, 64² et 64³ ticks par case ; une échéance est
+ * rangée au niveau le plus fin qui la contient, puis redescend (« cascade »)
+ * lorsque la roue inférieure fait un tour. Programmer et annuler une échéance
+ * sont en O(1) : chaque case est une liste doublement chaînée intrusive.
+ * L'avancée de la roue ne parcourt que les cases atteintes, jamais l'ensemble
+ * des échéances.
+ *
+ * <p>Cette classe n'est pas thread-safe : l'appelant synchronise les accès.
+ *
+ * @param <K> type des clés associées aux échéances
+ */
+final class TimerWheel<K> {
+
+  /** Nombre de bits par niveau (64 cases). */
+  private static final int BITS = 6;
+
+  /** Nombre de cases par niveau. */
+  private static final int SLOTS = 1 << BITS;
+
+  /** Masque d'indice de case. */
+  private static final int MASK = SLOTS - 1;
+
+  /** Nombre de niveaux de la roue. */
+  private static final int LEVELS = 4;
+
+  /** Horizon maximal (en ticks) couvert sans recalcul. */
+  private static final long HORIZON = 1L << (BITS * LEVELS);
+
+  /** Échéance programmée, retournée pour permettre l'annulation. */
+  static final class Timer<K> {
+    private final K key;
+    private final long deadline;
+    private Timer<K> prev;
+    private Timer<K> next;
+    private Timer<K>[] bucket;
+    private int slot = -1;
+
+    private Timer(K key, long deadline) {
+      this.key = key;
+      this.deadline = deadline;
+    }
+
+    /** Retourne la clé associée. */
+    K key() {
+      return key;
+    }
+
+    /** Indique si l'échéance est encore programmée. */
+    boolean isScheduled() {
+      return slot >= 0;
+    }
+  }
+
+  private final long tickMillis;
+  private final Timer<K>[][] wheels;
+  private long currentTick;
+  private int size;
+
+  /**
+   * Crée une roue dont le temps courant est {@code nowMillis}.
+   *
+   * @param tickMillis durée d'un tick en millisecondes (strictement positive)
+   * @param nowMillis instant de départ en millisecondes
+   */
+  @SuppressWarnings("unchecked")
+  TimerWheel(long tickMillis, long nowMillis) {
+    if (tickMillis <= 0) {
+      throw new IllegalArgumentException("Durée de tick invalide: " + tickMillis);
+    }
+    this.tickMillis = tickMillis;
+    this.currentTick = nowMillis / tickMillis;
+    this.wheels = (Timer<K>[][]) new Timer<?>[LEVELS][];
+    for (int i = 0; i < LEVELS; i++) {
+      wheels[i] = (Timer<K>[]) new Timer<?>[SLOTS];
+    }
+  }
+
+  /** Nombre d'échéances programmées. */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Programme une échéance.
+   *
+   * @param key clé à signaler à l'expiration
+   * @param deadlineMillis instant d'expiration en millisecondes
+   * @return le jeton permettant d'annuler l'échéance
+   */
+  Timer<K> schedule(K key, long deadlineMillis) {
+    // Arrondi au tick supérieur : une entrée n'expire jamais en avance.
+    long deadline = Math.floorDiv(deadlineMillis + tickMillis - 1, tickMillis);
+    Timer<K> t = new Timer<>(key, Math.max(deadline, currentTick + 1));
+    place(t);
+    size++;
+    return t;
+  }
+
+  /**
+   * Annule une échéance ; sans effet si elle a déjà expiré ou été annulée.
+   *
+   * @param t jeton retourné par {@link #schedule}
+   */
+  void cancel(Timer<K> t) {
+    if (t != null && t.isScheduled()) {
+      unlink(t);
+      size--;
+    }
+  }
+
+  /**
+   * Fait avancer la roue jusqu'à {@code nowMillis} et signale les clés expirées.
+   *
+   * @param nowMillis instant courant en millisecondes
+   * @param expired action appelée pour chaque clé expirée
+   */
+  void advance(long nowMillis, Consumer<? super K> expired) {
+    long target = nowMillis / tickMillis;
+    if (size == 0) {
+      currentTick = Math.max(currentTick, target);
+      return;
+    }
+    while (currentTick < target && size > 0) {
+      currentTick++;
+      cascade(1);
+      Timer<K>[] level0 = wheels[0];
+      int idx = (int) (currentTick & MASK);
+      Timer<K> t;
+      while ((t = level0[idx]) != null) {
+        unlink(t);
+        size--;
+        expired.accept(t.key);
+      }
+    }
+    currentTick = Math.max(currentTick, target);
+  }
+
+  /** Redescend les échéances du niveau {@code level} lorsque le niveau inférieur boucle. */
+  private void cascade(int level) {
+    if (level >= LEVELS || (currentTick & ((1L << (BITS * level)) - 1)) != 0) {
+      return;
+    }
+    cascade(level + 1);
+    Timer<K>[] bucket = wheels[level];
+    int idx = (int) ((currentTick >>> (BITS * level)) & MASK);
+    Timer<K> t = bucket[idx];
+    bucket[idx] = null;
+    while (t != null) {
+      Timer<K> next = t.next;
+      t.prev = null;
+      t.next = null;
+      t.slot = -1;
+      place(t);
+      t = next;
+    }
+  }
+
+  /** Range une échéance dans la case du niveau le plus fin qui la contient. */
+  private void place(Timer<K> t) {
+    long delta = t.deadline - currentTick;
+    long when = t.deadline;
+    if (delta >= HORIZON) {
+      // Au-delà de l'horizon : on la range au plus loin, elle sera replacée.
+      when = currentTick + HORIZON - 1;
+      delta = HORIZON - 1;
+    }
+    int level = 0;
+    while (level < LEVELS - 1 && delta >= (1L << (BITS * (level + 1)))) {
+      level++;
+    }
+    if (delta <= 0) {
+      // Échéance atteinte pendant une cascade : case traitée dans ce tick.
+      when = currentTick;
+    }
+    int idx = (int) ((when >>> (BITS * level)) & MASK);
+    Timer<K>[] bucket = wheels[level];
+    t.bucket = bucket;
+    t.slot = idx;
+    t.prev = null;
+    t.next = bucket[idx];
+    if (t.next != null) {
+      t.next.prev = t;
+    }
+    bucket[idx] = t;
+  }
+
+  /** Retire une échéance de sa case. */
+  private void unlink(Timer<K> t) {
+    if (t.prev != null) {
+      t.prev.next = t.next;
+    } else {
+      t.bucket[t.slot] = t.next;
+    }
+    if (t.next != null) {
+      t.next.prev = t.prev;
+    }
+    t.prev = null;
+    t.next = null;
+    t.bucket = null;
+    t.slot = -1;
+  }
+}
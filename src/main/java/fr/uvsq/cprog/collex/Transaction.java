@@ -0,0 +1,208 @@
+package fr.uvsq.cprog.collex;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Transaction sur une base {@link Dns}, à validation optimiste.
+ *
+ * <p>Les mutations sont conservées dans la transaction, qui les voit dans ses
+ * propres lectures ; la base n'est pas verrouillée pendant le script. La
+ * transaction retient les noms et adresses qu'elle a consultés. À
+ * {@link #commit()}, les mutations enregistrées dans le journal de la base
+ * depuis l'ouverture sont comparées à cet ensemble : si l'une d'elles touche
+ * un nom ou une adresse consultés, la transaction est rejetée
+ * ({@link TransactionConflictException}) ; sinon ses mutations sont appliquées
+ * en un seul lot et le fichier n'est réécrit qu'une fois. Une transaction dont
+ * l'ouverture précède les mutations encore conservées par le journal
+ * ({@code log.size}) est rejetée de même.
+ *
+ * <p>Les méthodes sont synchronisées : une transaction peut être partagée
+ * entre threads, mais elle est prévue pour un seul script.
+ */
+public final class Transaction {
+
+  private final Dns dns;
+  private final long startVersion;
+
+  /** Mutations en attente, par nom, dans l'ordre du script. */
+  private final Map<NomMachine, ZoneDiff.Change> writes = new LinkedHashMap<>();
+
+  /** Adresses attribuées ({@code null} : libérée) par les mutations en attente. */
+  private final Map<AdresseIP, NomMachine> ipWrites = new HashMap<>();
+
+  private final Set<NomMachine> readNames = new HashSet<>();
+  private final Set<AdresseIP> readIps = new HashSet<>();
+  private boolean closed;
+
+  Transaction(Dns dns, long startVersion) {
+    this.dns = dns;
+    this.startVersion = startVersion;
+  }
+
+  /** Version de la base à l'ouverture. */
+  public long startVersion() {
+    return startVersion;
+  }
+
+  /**
+   * Recherche une entrée par nom, mutations de la transaction comprises.
+   *
+   * @param nom nom recherché
+   * @return l'entrée, ou {@code null} si absente
+   */
+  public synchronized DnsItem getItem(NomMachine nom) {
+    checkOpen();
+    readNames.add(nom);
+    ZoneDiff.Change c = writes.get(nom);
+    return (c != null) ? c.getAfter() : dns.getItem(nom);
+  }
+
+  /**
+   * Recherche une entrée par adresse, mutations de la transaction comprises.
+   *
+   * @param ip adresse recherchée
+   * @return l'entrée, ou {@code null} si absente
+   */
+  public synchronized DnsItem getItem(AdresseIP ip) {
+    checkOpen();
+    readIps.add(ip);
+    if (ipWrites.containsKey(ip)) {
+      NomMachine nom = ipWrites.get(ip);
+      return (nom == null) ? null : writes.get(nom).getAfter();
+    }
+    DnsItem item = dns.getItem(ip);
+    if (item != null && writes.containsKey(item.getNom())) {
+      return null; // nom supprimé ou réadressé dans la transaction
+    }
+    return item;
+  }
+
+  /**
+   * Ajoute une entrée permanente.
+   *
+   * @param ip adresse IP à associer
+   * @param nom nom de machine à associer
+   * @throws IllegalStateException si le nom ou l'adresse IP existent déjà
+   */
+  public void addItem(AdresseIP ip, NomMachine nom) {
+    addItem(ip, nom, null);
+  }
+
+  /**
+   * Ajoute une entrée, avec les mêmes règles que {@link Dns#addItem(AdresseIP, NomMachine,
+   * Duration)} appliquées à la vue de la transaction.
+   *
+   * @param ip adresse IP à associer
+   * @param nom nom de machine à associer
+   * @param ttl durée de vie de l'entrée, ou {@code null} pour une entrée permanente
+   * @throws IllegalStateException si le nom ou l'adresse IP existent déjà
+   * @throws IllegalArgumentException si le TTL n'est pas strictement positif
+   */
+  public synchronized void addItem(AdresseIP ip, NomMachine nom, Duration ttl) {
+    if (ttl != null && (ttl.isNegative() || ttl.isZero())) {
+      throw new IllegalArgumentException("TTL invalide: " + ttl);
+    }
+    if (getItem(nom) != null) {
+      throw new IllegalStateException("Le nom de machine existe déjà !");
+    }
+    if (getItem(ip) != null) {
+      throw new IllegalStateException("L'adresse IP existe déjà !");
+    }
+    DnsItem item = new DnsItem(nom, ip, (ttl == null) ? null : dns.now().plus(ttl));
+    ZoneDiff.Change prev = writes.get(nom);
+    DnsItem before = (prev == null) ? null : prev.getBefore();
+    writes.put(nom, new ZoneDiff.Change(
+        (before == null) ? ZoneDiff.Kind.ADD : ZoneDiff.Kind.CHANGE, before, item));
+    ipWrites.put(ip, nom);
+  }
+
+  /**
+   * Supprime une entrée.
+   *
+   * @param nom nom à supprimer
+   * @return l'entrée supprimée, ou {@code null} si absente
+   */
+  public synchronized DnsItem removeItem(NomMachine nom) {
+    DnsItem old = getItem(nom);
+    if (old == null) {
+      return null;
+    }
+    ZoneDiff.Change prev = writes.get(nom);
+    DnsItem before = (prev == null) ? old : prev.getBefore();
+    if (before == null) {
+      writes.remove(nom); // ajout de la transaction : rien ne reste à faire
+    } else {
+      writes.put(nom, new ZoneDiff.Change(ZoneDiff.Kind.REMOVE, before, null));
+    }
+    ipWrites.put(old.getIp(), null);
+    return old;
+  }
+
+  /** Nombre de noms modifiés par la transaction. */
+  public synchronized int size() {
+    return writes.size();
+  }
+
+  /**
+   * Valide la transaction et applique ses mutations en un lot.
+   *
+   * @return le nombre de mutations appliquées
+   * @throws TransactionConflictException si une mutation concurrente touche une
+   *     entrée lue ou écrite ; la base est alors inchangée
+   * @throws IllegalStateException si la transaction est déjà terminée
+   */
+  public synchronized int commit() {
+    checkOpen();
+    closed = true;
+    return dns.commit(this);
+  }
+
+  /** Abandonne la transaction ; sans effet si elle est déjà terminée. */
+  public synchronized void abort() {
+    closed = true;
+  }
+
+  /** Indique si la transaction est validée ou abandonnée. */
+  public synchronized boolean isClosed() {
+    return closed;
+  }
+
+  /** Mutations en attente, pour {@link Dns#commit}. */
+  synchronized List<ZoneDiff.Change> changes() {
+    return new ArrayList<>(writes.values());
+  }
+
+  /**
+   * Vérifie qu'aucune mutation postérieure à l'ouverture ne touche un nom ou
+   * une adresse consultés.
+   *
+   * @param since mutations depuis l'ouverture, ou {@code null} si le journal ne les a plus
+   * @throws TransactionConflictException en cas de conflit
+   */
+  synchronized void validate(List<Mutation> since) {
+    if (since == null) {
+      throw new TransactionConflictException(
+          "Transaction en conflit : journal dépassé depuis la version " + startVersion);
+    }
+    for (Mutation m : since) {
+      DnsItem it = m.getItem();
+      if (readNames.contains(it.getNom()) || readIps.contains(it.getIp())) {
+        throw new TransactionConflictException("Transaction en conflit : " + it.getNom()
+            + " modifié (#" + m.getSeq() + ")");
+      }
+    }
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("Transaction terminée");
+    }
+  }
+}
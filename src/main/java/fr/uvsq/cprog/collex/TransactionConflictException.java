@@ -0,0 +1,19 @@
+package fr.uvsq.cprog.collex;
+
+/**
+ * Levée à la validation d'une {@link Transaction} lorsqu'une mutation
+ * concurrente a touché une entrée qu'elle a lue ou écrite. La base est
+ * inchangée ; la transaction peut être rejouée.
+ */
+public final class TransactionConflictException extends IllegalStateException {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Crée l'exception.
+   *
+   * @param message description du conflit
+   */
+  public TransactionConflictException(String message) {
+    super(message);
+  }
+}
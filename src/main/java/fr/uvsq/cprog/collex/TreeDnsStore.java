@@ -0,0 +1,75 @@
+package fr.uvsq.cprog.collex;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Moteur en tas dont l'index par nom est trié par FQDN.
+ *
+ * <p>Le parcours étant déjà ordonné, la persistance et le listage n'ont pas à trier.
+ * L'index par adresse reste une table de hachage : aucun parcours n'en a besoin trié.
+ */
+public final class TreeDnsStore implements DnsStore {
+
+  /** Indexation triée par nom de machine. */
+  private final NavigableMap<NomMachine, DnsItem> byName = new TreeMap<>();
+
+  /** Indexation par adresse IP. */
+  private final Map<AdresseIP, DnsItem> byIp = new HashMap<>();
+
+  /** Plus grand nombre d'entrées atteint : les tables de hachage ne rétrécissent pas. */
+  private int peak;
+
+  @Override
+  public DnsItem get(NomMachine nom) {
+    return byName.get(nom);
+  }
+
+  @Override
+  public DnsItem get(AdresseIP ip) {
+    return byIp.get(ip);
+  }
+
+  @Override
+  public void put(DnsItem item) {
+    byName.put(item.getNom(), item);
+    byIp.put(item.getIp(), item);
+    peak = Math.max(peak, byName.size());
+  }
+
+  @Override
+  public DnsItem remove(NomMachine nom) {
+    DnsItem item = byName.remove(nom);
+    if (item != null) {
+      byIp.remove(item.getIp());
+    }
+    return item;
+  }
+
+  @Override
+  public int size() {
+    return byName.size();
+  }
+
+  @Override
+  public Map<String, Long> indexBytes(HeapLayout layout) {
+    Map<String, Long> res = new LinkedHashMap<>();
+    res.put("byName", byName.size() * layout.treeNode());
+    res.put("byIp", layout.hashTable(peak) + byIp.size() * layout.hashNode());
+    return res;
+  }
+
+  @Override
+  public void forEach(Consumer<? super DnsItem> action) {
+    byName.values().forEach(action);
+  }
+
+  @Override
+  public boolean isSorted() {
+    return true;
+  }
+}
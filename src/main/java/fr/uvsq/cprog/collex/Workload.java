@@ -0,0 +1,720 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+/**
+ * Banc de charge de bout en bout : des flux de commandes passent par le même
+ * chemin que l'application ({@link DnsTUI#parse} puis {@link Commande#execute})
+ * sur une base réelle, depuis plusieurs threads clients.
+ *
+ * <p>Les flux sont générés sur une zone synthétique de {@code --entries}
+ * entrées ({@code h<i>.d<k>.load.test}, adresses {@code 10.0.0.0} et
+ * suivantes) : chaque commande est tirée selon les proportions de
+ * {@code --mix} (recherche par nom, par adresse, {@code ls}, {@code ls -a},
+ * {@code add}) et ses clés selon une loi de Zipf d'exposant {@code --zipf},
+ * les entrées de petit rang étant les plus demandées. Les flux sont générés
+ * avant la mesure ; {@code --record} les enregistre et {@code --replay} rejoue
+ * un fichier de commandes, réparti ligne à ligne entre les threads (le même
+ * nombre de threads retrouve les mêmes flux).
+ *
+ * <p>Le rapport ({@link Report#toJson}) donne le débit, les centiles de
+ * latence par type de commande, le temps passé en GC et le débit
+ * d'allocation des threads clients, ainsi que la configuration de la base :
+ * deux versions se comparent en rejouant le même fichier.
+ */
+public final class Workload {
+
+  /** Types de commandes, dans l'ordre de {@code --mix}. */
+  public enum Op {
+    NOM("nom"), IP("ip"), LS("ls"), LSA("lsa"), ADD("add"), AUTRE("autre");
+
+    private final String key;
+
+    Op(String key) {
+      this.key = key;
+    }
+
+    /** Nom dans {@code --mix} et dans le rapport. */
+    public String key() {
+      return key;
+    }
+
+    /** Type d'une ligne de commande rejouée. */
+    static Op of(String line) {
+      if (line.startsWith("add ")) {
+        return ADD;
+      }
+      if (line.startsWith("ls -a")) {
+        return LSA;
+      }
+      if (line.startsWith("ls ")) {
+        return LS;
+      }
+      if (!line.isEmpty() && Character.isDigit(line.charAt(0))) {
+        return IP;
+      }
+      return (line.indexOf(' ') < 0 && line.indexOf('.') > 0) ? NOM : AUTRE;
+    }
+  }
+
+  /** Domaine de la zone synthétique. */
+  static final String ZONE = "load.test";
+
+  /** Première adresse de la zone synthétique. */
+  private static final int BASE_IP = 0x0A000000;
+
+  /** Première adresse des ajouts, {@code 2^20} par thread. */
+  private static final int ADD_IP = 0x0B000000;
+
+  private final Options options;
+  private final Properties config;
+
+  /**
+   * Prépare un banc de charge.
+   *
+   * @param options paramètres du banc
+   * @param config propriétés de la base mesurée (voir {@link Dns}) ;
+   *     {@code db.file} est ignorée
+   */
+  public Workload(Options options, Properties config) {
+    this.options = options;
+    this.config = config;
+  }
+
+  // ---------------------------------------------------------------- paramètres
+
+  /** Paramètres du banc, lus sur la ligne de commande ({@link #parse}). */
+  public static final class Options {
+    int entries = 100_000;
+    int domains;
+    int threads = 1;
+    int ops = 100_000;
+    int warmup = -1;
+    double zipf = 0.99;
+    double[] mix = {70, 20, 4, 4, 2};
+    long seed = 42;
+    Path db;
+    Path replay;
+    Path record;
+    Path out;
+
+    /**
+     * Lit les options {@code --entries n --domains n --threads n --ops n
+     * --warmup n --zipf s --mix nom=70,ip=20,ls=4,lsa=4,add=2 --seed n
+     * --db fichier --replay fichier --record fichier --out fichier}.
+     *
+     * @param args arguments, à partir de {@code from}
+     * @param from indice de la première option
+     * @return les options
+     * @throws IllegalArgumentException si une option est inconnue ou invalide
+     */
+    public static Options parse(String[] args, int from) {
+      Options o = new Options();
+      for (int i = from; i < args.length; i++) {
+        String name = args[i];
+        if (i + 1 >= args.length) {
+          throw new IllegalArgumentException("Valeur manquante pour " + name);
+        }
+        String v = args[++i];
+        try {
+          switch (name) {
+            case "--entries":
+              o.entries = positive(name, Integer.parseInt(v));
+              break;
+            case "--domains":
+              o.domains = positive(name, Integer.parseInt(v));
+              break;
+            case "--threads":
+              o.threads = positive(name, Integer.parseInt(v));
+              break;
+            case "--ops":
+              o.ops = positive(name, Integer.parseInt(v));
+              break;
+            case "--warmup":
+              o.warmup = Math.max(0, Integer.parseInt(v));
+              break;
+            case "--zipf":
+              o.zipf = Double.parseDouble(v);
+              break;
+            case "--mix":
+              o.mix = mix(v);
+              break;
+            case "--seed":
+              o.seed = Long.parseLong(v);
+              break;
+            case "--db":
+              o.db = Paths.get(v);
+              break;
+            case "--replay":
+              o.replay = Paths.get(v);
+              break;
+            case "--record":
+              o.record = Paths.get(v);
+              break;
+            case "--out":
+              o.out = Paths.get(v);
+              break;
+            default:
+              throw new IllegalArgumentException("Option inconnue : " + name);
+          }
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("Valeur invalide pour " + name + " : " + v);
+        }
+      }
+      if (o.zipf < 0) {
+        throw new IllegalArgumentException("Exposant de Zipf négatif : " + o.zipf);
+      }
+      return o;
+    }
+
+    private static int positive(String name, int v) {
+      if (v <= 0) {
+        throw new IllegalArgumentException("Valeur invalide pour " + name + " : " + v);
+      }
+      return v;
+    }
+
+    /** Proportions {@code type=poids} ; les types absents ont un poids nul. */
+    private static double[] mix(String spec) {
+      double[] res = new double[Op.ADD.ordinal() + 1];
+      double total = 0;
+      for (String part : spec.split(",")) {
+        String[] kv = part.trim().split("=");
+        Op op = null;
+        for (Op o : Op.values()) {
+          if (o != Op.AUTRE && o.key.equals(kv[0])) {
+            op = o;
+          }
+        }
+        if (op == null || kv.length != 2) {
+          throw new IllegalArgumentException("Proportion invalide : " + part.trim());
+        }
+        res[op.ordinal()] = Double.parseDouble(kv[1]);
+        if (res[op.ordinal()] < 0) {
+          throw new IllegalArgumentException("Proportion invalide : " + part.trim());
+        }
+        total += res[op.ordinal()];
+      }
+      if (total <= 0) {
+        throw new IllegalArgumentException("Proportions toutes nulles : " + spec);
+      }
+      return res;
+    }
+
+    /** Nombre de domaines de la zone synthétique (un pour mille entrées par défaut). */
+    int domains() {
+      return (domains > 0) ? domains : Math.max(1, entries / 1000);
+    }
+
+    /** Commandes de mise en route par thread (un dixième de la mesure par défaut). */
+    int warmup() {
+      return (warmup >= 0) ? warmup : ops / threads / 10;
+    }
+  }
+
+  // ---------------------------------------------------------------- génération
+
+  /** Tirage de rangs {@code 0..n-1} selon une loi de Zipf, par table cumulée. */
+  static final class Zipf {
+    private final double[] cdf;
+
+    Zipf(int n, double s) {
+      cdf = new double[n];
+      double sum = 0;
+      for (int i = 0; i < n; i++) {
+        sum += 1 / Math.pow(i + 1, s);
+        cdf[i] = sum;
+      }
+      for (int i = 0; i < n; i++) {
+        cdf[i] /= sum;
+      }
+    }
+
+    int next(SplittableRandom rnd) {
+      int i = Arrays.binarySearch(cdf, rnd.nextDouble());
+      return Math.min((i >= 0) ? i : -i - 1, cdf.length - 1);
+    }
+  }
+
+  /** Nom de l'entrée {@code i} de la zone synthétique. */
+  static String name(int i, int domains) {
+    return "h" + i + ".d" + (i % domains) + "." + ZONE;
+  }
+
+  /** Flux de commandes d'un thread : mise en route puis mesure. */
+  private List<String> generate(int thread, int count, Zipf keys, Zipf doms) {
+    SplittableRandom rnd = new SplittableRandom(options.seed * 31 + thread);
+    double total = 0;
+    for (double w : options.mix) {
+      total += w;
+    }
+    int domains = options.domains();
+    List<String> lines = new ArrayList<>(count);
+    int added = 0;
+    for (int k = 0; k < count; k++) {
+      double u = rnd.nextDouble() * total;
+      int op = 0;
+      while (op < options.mix.length - 1 && u >= options.mix[op]) {
+        u -= options.mix[op++];
+      }
+      switch (Op.values()[op]) {
+        case NOM:
+          lines.add(name(keys.next(rnd), domains));
+          break;
+        case IP:
+          lines.add(AdresseIP.fromInt(BASE_IP + keys.next(rnd)).value());
+          break;
+        case LS:
+          lines.add("ls d" + doms.next(rnd) + "." + ZONE);
+          break;
+        case LSA:
+          lines.add("ls -a d" + doms.next(rnd) + "." + ZONE);
+          break;
+        default:
+          lines.add("add " + AdresseIP.fromInt(ADD_IP + (thread << 20) + added).value()
+              + " n" + thread + "x" + added + ".new." + ZONE);
+          added++;
+          break;
+      }
+    }
+    return lines;
+  }
+
+  /** Flux de chaque thread, générés ou lus dans le fichier à rejouer. */
+  private List<List<String>> streams() throws IOException {
+    int threads = options.threads;
+    List<List<String>> res = new ArrayList<>(threads);
+    for (int t = 0; t < threads; t++) {
+      res.add(new ArrayList<>());
+    }
+    if (options.replay != null) {
+      try (BufferedReader in = Files.newBufferedReader(options.replay, StandardCharsets.UTF_8)) {
+        String line;
+        int i = 0;
+        while ((line = in.readLine()) != null) {
+          line = line.trim();
+          if (!line.isEmpty()) {
+            res.get(i++ % threads).add(line);
+          }
+        }
+      }
+      return res;
+    }
+    Zipf keys = new Zipf(options.entries, options.zipf);
+    Zipf doms = new Zipf(options.domains(), options.zipf);
+    int warmup = options.warmup();
+    for (int t = 0; t < threads; t++) {
+      int measured = options.ops / threads + ((t < options.ops % threads) ? 1 : 0);
+      res.set(t, generate(t, warmup + measured, keys, doms));
+    }
+    if (options.record != null) {
+      // entrelacés ligne à ligne : rejoués avec autant de threads, mêmes flux
+      try (BufferedWriter w = Files.newBufferedWriter(options.record, StandardCharsets.UTF_8)) {
+        for (int i = 0; ; i++) {
+          boolean any = false;
+          for (List<String> s : res) {
+            if (i < s.size()) {
+              w.write(s.get(i));
+              w.newLine();
+              any = true;
+            }
+          }
+          if (!any) {
+            break;
+          }
+        }
+      }
+    }
+    return res;
+  }
+
+  /** Écrit la zone synthétique, ou copie la base donnée par {@code --db}. */
+  private void prepareZone(Path file) throws IOException {
+    if (options.db != null) {
+      Files.copy(options.db, file);
+      return;
+    }
+    int domains = options.domains();
+    try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+      for (int i = 0; i < options.entries; i++) {
+        w.write(name(i, domains));
+        w.write(' ');
+        w.write(AdresseIP.fromInt(BASE_IP + i).value());
+        w.newLine();
+      }
+    }
+  }
+
+  // ---------------------------------------------------------------- exécution
+
+  /**
+   * Prépare la zone dans un répertoire temporaire, exécute les flux puis
+   * supprime la zone.
+   *
+   * @return le rapport de la mesure
+   * @throws IOException en cas d'erreur d'entrée-sortie
+   */
+  public Report run() throws IOException {
+    Path dir = Files.createTempDirectory("collex-load");
+    try {
+      Path file = dir.resolve("zone.txt");
+      prepareZone(file);
+      long t0 = System.nanoTime();
+      Dns dns = new Dns(file, config);
+      long loadNanos = System.nanoTime() - t0;
+      return execute(dns, streams(), loadNanos);
+    } finally {
+      try (Stream<Path> files = Files.walk(dir)) {
+        files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+      }
+    }
+  }
+
+  private Report execute(Dns dns, List<List<String>> streams, long loadNanos) {
+    int threads = streams.size();
+    int warmup = (options.replay != null && options.warmup < 0) ? 0 : options.warmup();
+    Histogram[][] hist = new Histogram[threads][Op.values().length];
+    long[] allocated = new long[threads];
+    long[] errors = new long[threads];
+    CountDownLatch ready = new CountDownLatch(threads);
+    CountDownLatch go = new CountDownLatch(1);
+    ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+    List<Thread> workers = new ArrayList<>(threads);
+    for (int t = 0; t < threads; t++) {
+      int id = t;
+      Thread w = new Thread(() -> {
+        DnsTUI tui = new DnsTUI(new Scanner(""),
+            new PrintStream(OutputStream.nullOutputStream()), dns);
+        List<String> lines = streams.get(id);
+        int start = Math.min(warmup, lines.size());
+        for (int i = 0; i < start; i++) {
+          runLine(tui, dns, lines.get(i));
+        }
+        Histogram[] h = hist[id];
+        for (int k = 0; k < h.length; k++) {
+          h[k] = new Histogram();
+        }
+        ready.countDown();
+        try {
+          go.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        long bytes = allocatedBytes(mx);
+        for (int i = start; i < lines.size(); i++) {
+          String line = lines.get(i);
+          long s = System.nanoTime();
+          boolean ok = runLine(tui, dns, line);
+          h[Op.of(line).ordinal()].record(System.nanoTime() - s);
+          if (!ok) {
+            errors[id]++;
+          }
+        }
+        allocated[id] = (bytes < 0) ? -1 : allocatedBytes(mx) - bytes;
+      }, "load-" + t);
+      workers.add(w);
+      w.start();
+    }
+    try {
+      ready.await();
+      long gcCount = 0;
+      long gcMillis = 0;
+      for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+        gcCount -= Math.max(0, gc.getCollectionCount());
+        gcMillis -= Math.max(0, gc.getCollectionTime());
+      }
+      long t0 = System.nanoTime();
+      go.countDown();
+      for (Thread w : workers) {
+        w.join();
+      }
+      final long elapsed = System.nanoTime() - t0;
+      for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+        gcCount += Math.max(0, gc.getCollectionCount());
+        gcMillis += Math.max(0, gc.getCollectionTime());
+      }
+      Histogram[] merged = new Histogram[Op.values().length];
+      for (int k = 0; k < merged.length; k++) {
+        merged[k] = new Histogram();
+        for (Histogram[] h : hist) {
+          merged[k].add(h[k]);
+        }
+      }
+      long bytes = 0;
+      long errs = 0;
+      for (int t = 0; t < threads; t++) {
+        bytes = (bytes < 0 || allocated[t] < 0) ? -1 : bytes + allocated[t];
+        errs += errors[t];
+      }
+      return new Report(options, config, merged, elapsed, loadNanos, errs, gcCount, gcMillis,
+          bytes);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Mesure interrompue", e);
+    }
+  }
+
+  /** Exécute une ligne comme l'application ; indique si elle a réussi. */
+  private static boolean runLine(DnsTUI tui, Dns dns, String line) {
+    try {
+      String res = tui.parse(line).execute(dns);
+      return res == null || !res.startsWith("ERREUR");
+    } catch (RuntimeException e) {
+      return false;
+    }
+  }
+
+  /** Octets alloués par le thread courant, ou -1 si la JVM ne les compte pas. */
+  private static long allocatedBytes(ThreadMXBean mx) {
+    if (mx instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean hs = (com.sun.management.ThreadMXBean) mx;
+      if (hs.isThreadAllocatedMemorySupported() && hs.isThreadAllocatedMemoryEnabled()) {
+        return hs.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return -1;
+  }
+
+  // ---------------------------------------------------------------- mesures
+
+  /**
+   * Histogramme de latences à précision relative constante : 64 cases par
+   * puissance de deux, soit moins de 1,6 % d'erreur sur un centile.
+   */
+  static final class Histogram {
+    private static final int SUB = 64;
+    private final long[] counts = new long[(64 - 5) * SUB];
+    private long count;
+    private long sum;
+    private long max;
+
+    void record(long nanos) {
+      long v = Math.max(0, nanos);
+      counts[index(v)]++;
+      count++;
+      sum += v;
+      max = Math.max(max, v);
+    }
+
+    void add(Histogram o) {
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] += o.counts[i];
+      }
+      count += o.count;
+      sum += o.sum;
+      max = Math.max(max, o.max);
+    }
+
+    static int index(long v) {
+      if (v < SUB) {
+        return (int) v;
+      }
+      int exp = 63 - Long.numberOfLeadingZeros(v);
+      return (exp - 5) * SUB + (int) ((v >>> (exp - 6)) & (SUB - 1));
+    }
+
+    /** Milieu de la case {@code i}. */
+    static long value(int i) {
+      if (i < SUB) {
+        return i;
+      }
+      int exp = i / SUB + 5;
+      long low = (long) (SUB + i % SUB) << (exp - 6);
+      return low + ((1L << (exp - 6)) >>> 1);
+    }
+
+    long count() {
+      return count;
+    }
+
+    /** Centile {@code q} (entre 0 et 1), en nanosecondes ; 0 si vide. */
+    long percentile(double q) {
+      if (count == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(q * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.min(value(i), max);
+        }
+      }
+      return max;
+    }
+
+    double mean() {
+      return (count == 0) ? 0 : (double) sum / count;
+    }
+
+    long max() {
+      return max;
+    }
+  }
+
+  /** Résultat d'une mesure. */
+  public static final class Report {
+    private final Options options;
+    private final Properties config;
+    private final Histogram[] latency;
+    private final long elapsedNanos;
+    private final long loadNanos;
+    private final long errors;
+    private final long gcCount;
+    private final long gcMillis;
+    private final long allocatedBytes;
+
+    Report(Options options, Properties config, Histogram[] latency, long elapsedNanos,
+        long loadNanos, long errors, long gcCount, long gcMillis, long allocatedBytes) {
+      this.options = options;
+      this.config = config;
+      this.latency = latency;
+      this.elapsedNanos = elapsedNanos;
+      this.loadNanos = loadNanos;
+      this.errors = errors;
+      this.gcCount = gcCount;
+      this.gcMillis = gcMillis;
+      this.allocatedBytes = allocatedBytes;
+    }
+
+    /** Commandes mesurées. */
+    public long getOps() {
+      long n = 0;
+      for (Histogram h : latency) {
+        n += h.count();
+      }
+      return n;
+    }
+
+    /** Commandes mesurées d'un type. */
+    public long count(Op op) {
+      return latency[op.ordinal()].count();
+    }
+
+    /** Commandes en erreur (exception ou message {@code ERREUR}). */
+    public long getErrors() {
+      return errors;
+    }
+
+    /** Commandes par seconde, tous threads confondus. */
+    public double getThroughput() {
+      return (elapsedNanos == 0) ? 0 : getOps() * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * Rapport au format JSON, sur une ligne.
+     *
+     * @return l'objet JSON
+     */
+    public String toJson() {
+      StringBuilder sb = new StringBuilder("{");
+      sb.append("\"version\":").append(quote(Workload.class.getPackage()
+          .getImplementationVersion()));
+      sb.append(",\"java\":").append(quote(System.getProperty("java.version")));
+      sb.append(",\"cpus\":").append(Runtime.getRuntime().availableProcessors());
+      sb.append(",\"config\":{\"store\":").append(quote(config.getProperty("db.store", "hash")))
+          .append(",\"format\":").append(quote(config.getProperty("db.format", "text")))
+          .append(",\"cache\":").append(config.getProperty("cache.size", "0").trim())
+          .append(",\"lazy\":").append(Boolean.parseBoolean(config.getProperty("db.lazy")))
+          .append(",\"entries\":").append(options.entries)
+          .append(",\"domains\":").append(options.domains())
+          .append(",\"threads\":").append(options.threads)
+          .append(",\"zipf\":").append(number(options.zipf))
+          .append(",\"seed\":").append(options.seed)
+          .append(",\"replay\":").append(quote((options.replay == null) ? null
+              : options.replay.toString()))
+          .append(",\"mix\":{");
+      for (int i = 0; i < options.mix.length; i++) {
+        sb.append((i == 0) ? "" : ",").append(quote(Op.values()[i].key()))
+            .append(':').append(number(options.mix[i]));
+      }
+      sb.append("}}");
+      double seconds = elapsedNanos / 1e9;
+      sb.append(",\"loadMs\":").append(number(loadNanos / 1e6));
+      sb.append(",\"elapsedMs\":").append(number(elapsedNanos / 1e6));
+      sb.append(",\"ops\":").append(getOps());
+      sb.append(",\"errors\":").append(errors);
+      sb.append(",\"throughput\":").append(number(getThroughput()));
+      sb.append(",\"gc\":{\"count\":").append(gcCount).append(",\"timeMs\":").append(gcMillis)
+          .append(",\"share\":").append(number((seconds == 0) ? 0 : gcMillis / 1e3 / seconds))
+          .append('}');
+      sb.append(",\"allocation\":{\"bytes\":").append(allocatedBytes)
+          .append(",\"bytesPerOp\":").append(number((allocatedBytes < 0 || getOps() == 0) ? -1
+              : (double) allocatedBytes / getOps()))
+          .append(",\"mbPerSecond\":").append(number((allocatedBytes < 0 || seconds == 0) ? -1
+              : allocatedBytes / 1e6 / seconds))
+          .append('}');
+      Histogram all = new Histogram();
+      for (Histogram h : latency) {
+        all.add(h);
+      }
+      sb.append(",\"latencyUs\":{");
+      latency(sb, "all", all);
+      for (Op op : Op.values()) {
+        if (latency[op.ordinal()].count() > 0) {
+          sb.append(',');
+          latency(sb, op.key(), latency[op.ordinal()]);
+        }
+      }
+      return sb.append("}}").toString();
+    }
+
+    private static void latency(StringBuilder sb, String name, Histogram h) {
+      sb.append(quote(name)).append(":{\"count\":").append(h.count())
+          .append(",\"mean\":").append(number(h.mean() / 1e3))
+          .append(",\"p50\":").append(number(h.percentile(0.50) / 1e3))
+          .append(",\"p90\":").append(number(h.percentile(0.90) / 1e3))
+          .append(",\"p99\":").append(number(h.percentile(0.99) / 1e3))
+          .append(",\"p999\":").append(number(h.percentile(0.999) / 1e3))
+          .append(",\"max\":").append(number(h.max() / 1e3)).append('}');
+    }
+
+    private static String number(double v) {
+      return String.format(Locale.ROOT, "%.3f", v);
+    }
+
+    private static String quote(String s) {
+      if (s == null) {
+        return "null";
+      }
+      StringBuilder sb = new StringBuilder("\"");
+      for (int i = 0; i < s.length(); i++) {
+        char c = s.charAt(i);
+        if (c == '"' || c == '\\') {
+          sb.append('\\').append(c);
+        } else if (c < 0x20) {
+          sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+        } else {
+          sb.append(c);
+        }
+      }
+      return sb.append('"').toString();
+    }
+
+    @Override
+    public String toString() {
+      return toJson();
+    }
+  }
+}
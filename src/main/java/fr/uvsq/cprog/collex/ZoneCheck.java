@@ -0,0 +1,663 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Vérification d'un fichier de base texte, sans le charger.
+ *
+ * <p>Le chargement ({@link Dns}) ignore les lignes mal formées et laisse la
+ * dernière de deux lignes de même nom l'emporter. La vérification signale au
+ * contraire chaque anomalie avec son numéro de ligne : ligne mal formée, nom
+ * ou adresse invalide, nom ou adresse en double, zone non triée par FQDN.
+ *
+ * <p>Le fichier est découpé en morceaux d'au plus 8 Mo alignés sur des fins de
+ * ligne, analysés en parallèle ; chaque morceau ne conserve de ses entrées que
+ * trois tableaux primitifs (empreinte 64 bits du nom, adresse, numéro de
+ * ligne), soit 16 octets par entrée. Les doublons sont ensuite cherchés en
+ * parallèle par partition d'empreinte : chaque thread remplit, dans l'ordre du
+ * fichier, des tables à adressage ouvert ({@code long} vers {@code int}) pour
+ * sa seule partition. Les lignes des doublons affichés sont enfin relues pour
+ * en donner le texte, ce qui écarte aussi une éventuelle collision d'empreintes.
+ *
+ * <p>Chaque catégorie est comptée entièrement, mais seules les {@code limit}
+ * premières anomalies de chaque catégorie sont détaillées.
+ */
+public final class ZoneCheck {
+
+  /** Taille maximale d'un morceau. */
+  private static final int CHUNK = 8 << 20;
+
+  /** Nature d'une anomalie. */
+  public enum Kind {
+    MALFORMED("ligne mal formée"),
+    BAD_NAME("nom invalide"),
+    BAD_IP("adresse IP invalide"),
+    DUPLICATE_NAME("nom en double"),
+    DUPLICATE_IP("adresse IP en double"),
+    UNSORTED("noms non triés");
+
+    private final String label;
+
+    Kind(String label) {
+      this.label = label;
+    }
+
+    public String getLabel() {
+      return label;
+    }
+  }
+
+  private final int threads;
+  private final int limit;
+  private final int chunkSize;
+
+  /**
+   * Prépare une vérification.
+   *
+   * @param threads nombre de threads d'analyse
+   * @param limit nombre maximal d'anomalies détaillées par catégorie
+   */
+  public ZoneCheck(int threads, int limit) {
+    this(threads, limit, CHUNK);
+  }
+
+  ZoneCheck(int threads, int limit, int chunkSize) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Nombre de threads invalide: " + threads);
+    }
+    this.threads = threads;
+    this.limit = limit;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Vérifie un fichier de base au format texte.
+   *
+   * @param file fichier à vérifier
+   * @return le rapport
+   * @throws IOException en cas d'erreur de lecture
+   * @throws IllegalArgumentException si le fichier est au format compact
+   */
+  public Report check(Path file) throws IOException {
+    if (CompactZoneFile.isCompact(file)) {
+      throw new IllegalArgumentException("Format compact : fichier non vérifiable " + file);
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+      List<Chunk> chunks = split(ch);
+      List<Callable<Void>> analyse = new ArrayList<>();
+      for (Chunk c : chunks) {
+        analyse.add(() -> {
+          c.analyse(ch, limit);
+          return null;
+        });
+      }
+      run(pool, analyse);
+
+      Report report = new Report();
+      long line = 1;
+      long entries = 0;
+      for (Chunk c : chunks) {
+        c.firstLine = line;
+        line += c.lines;
+        entries += c.entries;
+        for (Problem p : c.problems) {
+          p.line += c.firstLine - 1;
+          p.endLine += c.firstLine - 1;
+        }
+        report.add(c.problems);
+        for (int k = 0; k < c.counts.length; k++) {
+          report.counts[k] += c.counts[k];
+        }
+      }
+      report.lines = line - 1;
+      report.entries = entries;
+      unsorted(chunks, report);
+      duplicates(ch, pool, chunks, report);
+      report.finish(limit);
+      return report;
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /** Découpe le fichier en morceaux commençant chacun au début d'une ligne. */
+  private List<Chunk> split(FileChannel ch) throws IOException {
+    long size = ch.size();
+    int n = (int) Math.max(Math.min(threads * 4L, size / 4096 + 1),
+        (size + chunkSize - 1) / chunkSize);
+    List<Chunk> chunks = new ArrayList<>(n);
+    long start = 0;
+    ByteBuffer probe = ByteBuffer.allocate(4096);
+    for (int i = 1; i <= n && start < size; i++) {
+      long end = (i == n) ? size : Math.max(start, size * i / n);
+      // avance jusqu'après la prochaine fin de ligne
+      while (end < size) {
+        probe.clear();
+        int r = ch.read(probe, end);
+        int k = 0;
+        while (k < r && probe.get(k) != '\n') {
+          k++;
+        }
+        end += k;
+        if (k < r) {
+          end++;
+          break;
+        }
+      }
+      if (end - start > Integer.MAX_VALUE - 8) {
+        throw new IOException("Ligne trop longue vers l'octet " + start);
+      }
+      if (end > start) {
+        chunks.add(new Chunk(start, (int) (end - start)));
+      }
+      start = end;
+    }
+    return chunks;
+  }
+
+  /** Regroupe les ruptures d'ordre d'entrées consécutives en zones. */
+  private static void unsorted(List<Chunk> chunks, Report report) {
+    List<Problem> regions = new ArrayList<>();
+    Problem current = null;
+    long ordinal = 0;
+    String previous = null;
+    long lastBreak = -2;
+    for (Chunk c : chunks) {
+      if (previous != null && c.firstName != null && c.firstName.compareTo(previous) < 0) {
+        c.breaks.add(0, 0);
+      }
+      for (int i = 0; i < c.breaks.size(); i++) {
+        int b = c.breaks.get(i);
+        long line = c.firstLine + c.line[b];
+        if (ordinal + b == lastBreak + 1 && current != null) {
+          current.endLine = line;
+        } else {
+          current = new Problem(Kind.UNSORTED, line, line, "");
+          regions.add(current);
+        }
+        lastBreak = ordinal + b;
+      }
+      ordinal += c.entries;
+      if (c.lastName != null) {
+        previous = c.lastName;
+      }
+    }
+    report.counts[Kind.UNSORTED.ordinal()] = regions.size();
+    report.add(regions);
+  }
+
+  /** Cherche les noms et adresses en double, une partition d'empreintes par tâche. */
+  private void duplicates(FileChannel ch, ExecutorService pool, List<Chunk> chunks,
+      Report report) throws IOException {
+    int parts = Math.min(256, Integer.highestOneBit(Math.max(1, threads * 2 - 1)));
+    long total = report.entries;
+    List<Callable<Duplicates>> tasks = new ArrayList<>();
+    for (int p = 0; p < parts; p++) {
+      int part = p;
+      tasks.add(() -> {
+        int capacity = (int) Math.min(1 << 29, total / parts + 16);
+        LongIntMap names = new LongIntMap(capacity);
+        LongIntMap ips = new LongIntMap(capacity);
+        Duplicates d = new Duplicates();
+        for (Chunk c : chunks) {
+          for (int i = 0; i < c.entries; i++) {
+            int line = (int) (c.firstLine + c.line[i]);
+            long nk = c.names[i];
+            if (partition(nk, parts) == part) {
+              int first = names.putIfAbsent(nk, line);
+              if (first >= 0 && d.names++ < limit) {
+                d.found.add(new Problem(Kind.DUPLICATE_NAME, line, first, null));
+              }
+            }
+            long ik = c.ips[i] & 0xFFFFFFFFL;
+            if (partition(ik, parts) == part) {
+              int first = ips.putIfAbsent(ik, line);
+              if (first >= 0 && d.ips++ < limit) {
+                d.found.add(new Problem(Kind.DUPLICATE_IP, line, first, null));
+              }
+            }
+          }
+        }
+        return d;
+      });
+    }
+    List<Problem> dups = new ArrayList<>();
+    for (Duplicates d : run(pool, tasks)) {
+      report.counts[Kind.DUPLICATE_NAME.ordinal()] += d.names;
+      report.counts[Kind.DUPLICATE_IP.ordinal()] += d.ips;
+      dups.addAll(d.found);
+    }
+    dups.sort(Comparator.comparingLong((Problem p) -> p.line));
+    List<Problem> shown = new ArrayList<>();
+    int[] perKind = new int[Kind.values().length];
+    for (Problem p : dups) {
+      if (perKind[p.kind.ordinal()]++ < limit) {
+        shown.add(p);
+      }
+    }
+    describe(ch, pool, chunks, shown, report);
+  }
+
+  /** Relit les lignes des doublons affichés pour en donner le texte. */
+  private static void describe(FileChannel ch, ExecutorService pool, List<Chunk> chunks,
+      List<Problem> shown, Report report) throws IOException {
+    long[] wanted = new long[shown.size() * 2];
+    int n = 0;
+    for (Problem p : shown) {
+      wanted[n++] = p.line;
+      wanted[n++] = p.endLine;
+    }
+    Arrays.sort(wanted);
+    Map<Long, String> text = Collections.synchronizedMap(new HashMap<>());
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for (Chunk c : chunks) {
+      long from = c.firstLine;
+      long to = c.firstLine + c.lines;
+      int i = Arrays.binarySearch(wanted, from);
+      i = (i < 0) ? -i - 1 : i;
+      if (i < wanted.length && wanted[i] < to) {
+        tasks.add(() -> {
+          c.scan(ch, (local, line) -> {
+            long global = from + local;
+            if (Arrays.binarySearch(wanted, global) >= 0) {
+              text.put(global, line);
+            }
+          });
+          return null;
+        });
+      }
+    }
+    run(pool, tasks);
+    List<Problem> confirmed = new ArrayList<>();
+    for (Problem p : shown) {
+      String[] a = text.get(p.line).trim().split("\\s+");
+      String[] b = text.get(p.endLine).trim().split("\\s+");
+      int field = (p.kind == Kind.DUPLICATE_NAME) ? 0 : 1;
+      if (a[field].equals(b[field])) {
+        confirmed.add(new Problem(p.kind, p.line, p.line,
+            a[field] + " (déjà ligne " + p.endLine + ")"));
+      } else {
+        report.counts[p.kind.ordinal()]--; // collision d'empreintes
+      }
+    }
+    report.add(confirmed);
+  }
+
+  private static <T> List<T> run(ExecutorService pool, List<? extends Callable<T>> tasks)
+      throws IOException {
+    try {
+      List<T> res = new ArrayList<>(tasks.size());
+      for (Future<T> f : pool.invokeAll(tasks)) {
+        res.add(f.get());
+      }
+      return res;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Vérification interrompue", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private static long mix(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    return k;
+  }
+
+  /** Partition d'une clé : bits de poids fort, les tables utilisant les bits de poids faible. */
+  private static int partition(long key, int parts) {
+    return (int) (mix(key) >>> 56) & (parts - 1);
+  }
+
+  /** Doublons trouvés dans une partition : nombres exacts, premiers détails. */
+  private static final class Duplicates {
+    private final List<Problem> found = new ArrayList<>();
+    private long names;
+    private long ips;
+  }
+
+  /** Anomalie détectée. */
+  public static final class Problem {
+    private final Kind kind;
+    private long line;
+    private long endLine;
+    private final String detail;
+
+    Problem(Kind kind, long line, long endLine, String detail) {
+      this.kind = kind;
+      this.line = line;
+      this.endLine = endLine;
+      this.detail = detail;
+    }
+
+    public Kind getKind() {
+      return kind;
+    }
+
+    /** Numéro de la ligne (à partir de 1), première ligne de la zone pour un défaut d'ordre. */
+    public long getLine() {
+      return line;
+    }
+
+    /** Format {@code ligne 12 : nom en double : a.b.fr (déjà ligne 3)}. */
+    @Override
+    public String toString() {
+      if (kind == Kind.UNSORTED) {
+        String where = (endLine == line) ? "ligne " + line : "lignes " + line + "-" + endLine;
+        return where + " : " + kind.label;
+      }
+      return "ligne " + line + " : " + kind.label + " : " + detail;
+    }
+  }
+
+  /** Rapport de vérification. */
+  public static final class Report {
+    private long lines;
+    private long entries;
+    private final long[] counts = new long[Kind.values().length];
+    private List<Problem> problems = new ArrayList<>();
+
+    private void add(List<Problem> l) {
+      problems.addAll(l);
+    }
+
+    /** Trie les anomalies par ligne et ne garde que {@code limit} détails par catégorie. */
+    private void finish(int limit) {
+      problems.sort(Comparator.comparingLong((Problem p) -> p.line)
+          .thenComparing(p -> p.kind));
+      List<Problem> kept = new ArrayList<>();
+      int[] perKind = new int[counts.length];
+      for (Problem p : problems) {
+        if (perKind[p.kind.ordinal()]++ < limit) {
+          kept.add(p);
+        }
+      }
+      problems = kept;
+    }
+
+    /** Nombre de lignes du fichier. */
+    public long getLines() {
+      return lines;
+    }
+
+    /** Nombre de lignes décrivant une entrée valide. */
+    public long getEntries() {
+      return entries;
+    }
+
+    /**
+     * Nombre total d'anomalies d'une catégorie.
+     *
+     * @param kind catégorie
+     * @return le nombre d'anomalies, détaillées ou non
+     */
+    public long count(Kind kind) {
+      return counts[kind.ordinal()];
+    }
+
+    /** Anomalies détaillées, par numéro de ligne. */
+    public List<Problem> getProblems() {
+      return Collections.unmodifiableList(problems);
+    }
+
+    /** Indique si le fichier ne présente aucune anomalie. */
+    public boolean isValid() {
+      return Arrays.stream(counts).allMatch(c -> c == 0);
+    }
+
+    /** Bilan sur une ligne : nombre de lignes, d'entrées et d'anomalies par catégorie. */
+    public String summary() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(lines).append(" ligne(s), ").append(entries).append(" entrée(s)");
+      Map<Kind, Long> byKind = new EnumMap<>(Kind.class);
+      for (Kind k : Kind.values()) {
+        if (counts[k.ordinal()] > 0) {
+          byKind.put(k, counts[k.ordinal()]);
+        }
+      }
+      if (byKind.isEmpty()) {
+        return sb.append(" : aucune anomalie").toString();
+      }
+      String sep = " : ";
+      for (Map.Entry<Kind, Long> e : byKind.entrySet()) {
+        sb.append(sep).append(e.getKey().label).append(" ").append(e.getValue());
+        sep = ", ";
+      }
+      return sb.toString();
+    }
+
+    /** Anomalies détaillées, une par ligne, suivies du bilan. */
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      for (Problem p : problems) {
+        sb.append(p).append(System.lineSeparator());
+      }
+      return sb.append(summary()).toString();
+    }
+  }
+
+  /** Reçoit une ligne d'un morceau et son numéro local (à partir de 0). */
+  private interface LineVisitor {
+    void visit(int local, String line);
+  }
+
+  /** Morceau du fichier et résultat de son analyse. */
+  private static final class Chunk {
+    private final long start;
+    private final int length;
+    private long firstLine;
+    private int lines;
+
+    private int entries;
+    private long[] names = new long[0];
+    private int[] ips = new int[0];
+    private int[] line = new int[0];
+    private String firstName;
+    private String lastName;
+
+    /** Rang (dans le morceau) des entrées plus petites que la précédente. */
+    private final List<Integer> breaks = new ArrayList<>();
+    private final List<Problem> problems = new ArrayList<>();
+    private final long[] counts = new long[Kind.values().length];
+    private final String[] fields = new String[4];
+
+    Chunk(long start, int length) {
+      this.start = start;
+      this.length = length;
+    }
+
+    void analyse(FileChannel ch, int limit) throws IOException {
+      int estimate = length / 24 + 16;
+      names = new long[estimate];
+      ips = new int[estimate];
+      line = new int[estimate];
+      lines = scan(ch, (local, text) -> classify(local, text, limit));
+    }
+
+    private void classify(int local, String text, int limit) {
+      String trimmed = text.trim();
+      if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+        return;
+      }
+      String[] parts = fields;
+      int count = split(trimmed, parts);
+      if (count != 2 && count != 3) {
+        problem(Kind.MALFORMED, local, trimmed, limit);
+        return;
+      }
+      NomMachine nom;
+      try {
+        nom = new NomMachine(parts[0]);
+      } catch (IllegalArgumentException e) {
+        problem(Kind.BAD_NAME, local, parts[0], limit);
+        return;
+      }
+      AdresseIP ip;
+      try {
+        ip = new AdresseIP(parts[1]);
+      } catch (IllegalArgumentException e) {
+        problem(Kind.BAD_IP, local, parts[1], limit);
+        return;
+      }
+      if (count == 3) {
+        try {
+          Instant.parse(parts[2]);
+        } catch (DateTimeException e) {
+          problem(Kind.MALFORMED, local, trimmed, limit);
+          return;
+        }
+      }
+      String fqdn = nom.getFqdn();
+      if (entries == names.length) {
+        int grown = entries * 2 + 16;
+        names = Arrays.copyOf(names, grown);
+        ips = Arrays.copyOf(ips, grown);
+        line = Arrays.copyOf(line, grown);
+      }
+      if (lastName == null) {
+        firstName = fqdn;
+      } else if (fqdn.compareTo(lastName) < 0) {
+        breaks.add(entries);
+      }
+      lastName = fqdn;
+      names[entries] = Dns.hash64(fqdn);
+      ips[entries] = ip.toInt();
+      line[entries] = local;
+      entries++;
+    }
+
+    /**
+     * Découpe une ligne sans espaces en tête ni en fin sur les blancs, sans
+     * expression régulière ; retourne le nombre de champs (au plus 4 sont
+     * comptés, ce qui suffit à rejeter une ligne trop longue).
+     */
+    private static int split(String s, String[] out) {
+      int n = 0;
+      int i = 0;
+      int len = s.length();
+      while (i < len && n < out.length) {
+        int from = i;
+        while (i < len && !Character.isWhitespace(s.charAt(i))) {
+          i++;
+        }
+        out[n++] = s.substring(from, i);
+        while (i < len && Character.isWhitespace(s.charAt(i))) {
+          i++;
+        }
+      }
+      return (i < len) ? n + 1 : n;
+    }
+
+    private void problem(Kind kind, int local, String detail, int limit) {
+      if (counts[kind.ordinal()]++ < limit) {
+        problems.add(new Problem(kind, local + 1, local + 1, detail));
+      }
+    }
+
+    /** Lit le morceau ligne par ligne ; retourne le nombre de lignes. */
+    int scan(FileChannel ch, LineVisitor visitor) throws IOException {
+      byte[] data = new byte[length];
+      ByteBuffer bb = ByteBuffer.wrap(data);
+      while (bb.hasRemaining()) {
+        if (ch.read(bb, start + bb.position()) < 0) {
+          throw new IOException("Fichier tronqué pendant la vérification");
+        }
+      }
+      int count = 0;
+      int from = 0;
+      for (int i = 0; i <= length; i++) {
+        if (i == length ? i > from : data[i] == '\n') {
+          visitor.visit(count++, new String(data, from, i - from, StandardCharsets.UTF_8));
+          from = i + 1;
+        }
+      }
+      return count;
+    }
+  }
+
+  /** Table à adressage ouvert de clés {@code long} vers des valeurs {@code int} positives. */
+  private static final class LongIntMap {
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private boolean hasZero;
+    private int zeroValue;
+
+    LongIntMap(int expected) {
+      int cap = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+      keys = new long[cap];
+      values = new int[cap];
+    }
+
+    /** Associe {@code value} à {@code key} si absente ; retourne la valeur existante, ou -1. */
+    int putIfAbsent(long key, int value) {
+      if (key == 0) {
+        if (hasZero) {
+          return zeroValue;
+        }
+        hasZero = true;
+        zeroValue = value;
+        return -1;
+      }
+      int mask = keys.length - 1;
+      int i = (int) mix(key) & mask;
+      while (keys[i] != 0) {
+        if (keys[i] == key) {
+          return values[i];
+        }
+        i = (i + 1) & mask;
+      }
+      keys[i] = key;
+      values[i] = value;
+      if (++size * 2 > keys.length) {
+        grow();
+      }
+      return -1;
+    }
+
+    private void grow() {
+      long[] oldKeys = keys;
+      int[] oldValues = values;
+      keys = new long[oldKeys.length * 2];
+      values = new int[oldValues.length * 2];
+      int mask = keys.length - 1;
+      for (int j = 0; j < oldKeys.length; j++) {
+        if (oldKeys[j] != 0) {
+          int i = (int) mix(oldKeys[j]) & mask;
+          while (keys[i] != 0) {
+            i = (i + 1) & mask;
+          }
+          keys[i] = oldKeys[j];
+          values[i] = oldValues[j];
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,211 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.format.DateTimeParseException;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Différence entre deux fichiers de zone au format texte, triés par FQDN.
+ *
+ * <p>Les deux fichiers sont lus une seule fois, en parallèle, à la manière de
+ * l'étape de fusion d'un tri-fusion : seule la ligne courante de chaque côté
+ * est en mémoire, quelle que soit la taille des fichiers. Deux lignes de même
+ * nom et de même texte sont écartées sans être analysées ; seules les lignes
+ * qui diffèrent produisent des objets. Un fichier écrit par {@link Dns} est
+ * toujours trié ; un fichier désordonné (édité à la main) est refusé.
+ */
+public final class ZoneDiff {
+
+  /** Nature d'une différence. */
+  public enum Kind {
+    /** Nom présent seulement dans le second fichier. */
+    ADD,
+    /** Nom présent seulement dans le premier fichier. */
+    REMOVE,
+    /** Nom présent des deux côtés avec une adresse ou une expiration différente. */
+    CHANGE
+  }
+
+  /** Différence portant sur un nom. */
+  public static final class Change {
+    private final Kind kind;
+    private final DnsItem before;
+    private final DnsItem after;
+
+    /**
+     * Crée une différence.
+     *
+     * @param kind nature de la différence
+     * @param before entrée du premier fichier ({@code null} pour un ajout)
+     * @param after entrée du second fichier ({@code null} pour une suppression)
+     */
+    public Change(Kind kind, DnsItem before, DnsItem after) {
+      this.kind = Objects.requireNonNull(kind, "kind");
+      this.before = before;
+      this.after = after;
+    }
+
+    /** Retourne la nature de la différence. */
+    public Kind getKind() {
+      return kind;
+    }
+
+    /** Retourne l'entrée du premier fichier, ou {@code null} pour un ajout. */
+    public DnsItem getBefore() {
+      return before;
+    }
+
+    /** Retourne l'entrée du second fichier, ou {@code null} pour une suppression. */
+    public DnsItem getAfter() {
+      return after;
+    }
+
+    /** Nom concerné. */
+    public NomMachine getNom() {
+      return (after != null) ? after.getNom() : before.getNom();
+    }
+
+    /** Formate la différence : {@code + ip fqdn}, {@code - ip fqdn} ou {@code ~ fqdn ip -> ip}. */
+    @Override
+    public String toString() {
+      switch (kind) {
+        case ADD:
+          return "+ " + after.getIp().value() + " " + after.getNom().getFqdn();
+        case REMOVE:
+          return "- " + before.getIp().value() + " " + before.getNom().getFqdn();
+        default:
+          return "~ " + after.getNom().getFqdn() + " "
+              + before.getIp().value() + " -> " + after.getIp().value();
+      }
+    }
+  }
+
+  private ZoneDiff() {
+  }
+
+  /**
+   * Compare deux fichiers de zone.
+   *
+   * @param from fichier de départ
+   * @param to fichier d'arrivée
+   * @param sink destinataire des différences, par FQDN croissant
+   * @return le nombre de différences
+   * @throws IOException en cas d'erreur de lecture
+   * @throws IllegalStateException si un fichier n'est pas trié ou est au format compact
+   */
+  public static long diff(Path from, Path to, Consumer<? super Change> sink) throws IOException {
+    try (Side a = new Side(from); Side b = new Side(to)) {
+      long count = 0;
+      a.next();
+      b.next();
+      while (a.line != null || b.line != null) {
+        int cmp = (a.line == null) ? 1 : (b.line == null) ? -1 : a.key.compareTo(b.key);
+        if (cmp < 0) {
+          DnsItem before = a.item();
+          if (before != null) {
+            sink.accept(new Change(Kind.REMOVE, before, null));
+            count++;
+          }
+          a.next();
+        } else if (cmp > 0) {
+          DnsItem after = b.item();
+          if (after != null) {
+            sink.accept(new Change(Kind.ADD, null, after));
+            count++;
+          }
+          b.next();
+        } else {
+          if (!a.line.equals(b.line)) {
+            Change c = compare(a.item(), b.item());
+            if (c != null) {
+              sink.accept(c);
+              count++;
+            }
+          }
+          a.next();
+          b.next();
+        }
+      }
+      return count;
+    }
+  }
+
+  /** Différence entre deux lignes de même nom mais de textes distincts. */
+  private static Change compare(DnsItem before, DnsItem after) {
+    if (before == null || after == null) {
+      return (after != null) ? new Change(Kind.ADD, null, after)
+          : (before != null) ? new Change(Kind.REMOVE, before, null) : null;
+    }
+    if (before.getIp().equals(after.getIp())
+        && Objects.equals(before.getExpiration(), after.getExpiration())) {
+      return null; // même contenu, espacement différent
+    }
+    return new Change(Kind.CHANGE, before, after);
+  }
+
+  /** Curseur sur les lignes de données d'un fichier, avec contrôle de l'ordre. */
+  private static final class Side implements AutoCloseable {
+    private final Path file;
+    private final BufferedReader in;
+    private String line;
+    private String key;
+
+    Side(Path file) throws IOException {
+      if (CompactZoneFile.isCompact(file)) {
+        throw new IllegalStateException("Format compact non supporté : " + file);
+      }
+      this.file = file;
+      this.in = new BufferedReader(
+          new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    /** Passe à la ligne de données suivante ({@code line == null} en fin de fichier). */
+    void next() throws IOException {
+      String prev = key;
+      key = readLine();
+      if (prev != null && key != null && prev.compareTo(key) >= 0) {
+        throw new IllegalStateException("Fichier non trié par FQDN : " + file + " (" + key + ")");
+      }
+    }
+
+    /** Lit la ligne de données suivante et renvoie son FQDN ({@code null} en fin de fichier). */
+    private String readLine() throws IOException {
+      String l;
+      while ((l = in.readLine()) != null) {
+        l = l.trim();
+        if (!l.isEmpty() && l.charAt(0) != '#') {
+          break;
+        }
+      }
+      line = l;
+      if (l == null) {
+        return null;
+      }
+      int sp = 0;
+      while (sp < l.length() && !Character.isWhitespace(l.charAt(sp))) {
+        sp++;
+      }
+      return l.substring(0, sp);
+    }
+
+    /** Entrée de la ligne courante, ou {@code null} si elle est mal formée. */
+    DnsItem item() {
+      try {
+        return Dns.parseLine(line, false);
+      } catch (IllegalArgumentException | DateTimeParseException e) {
+        return null;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
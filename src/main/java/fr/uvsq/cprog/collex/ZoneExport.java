@@ -0,0 +1,326 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * Export de la base en fichiers de zone au format BIND.
+ *
+ * <p>Une zone directe est écrite par domaine ({@code <domaine>.zone},
+ * enregistrements {@code A} par nom croissant) ; le domaine devient un nom de
+ * fichier et doit donc être fait d'étiquettes simples (lettres, chiffres,
+ * {@code -} et {@code _}), sans quoi rien n'est écrit. Une zone inverse est
+ * écrite par /24
+ * ({@code <c>.<b>.<a>.in-addr.arpa.zone}, enregistrements {@code PTR} par
+ * adresse croissante). Chaque fichier est une tâche indépendante, répartie sur
+ * un groupe de threads.
+ *
+ * <p>Les zones inverses ne trient pas d'objets : chaque entrée est résumée par
+ * une clé {@code long} (adresse en poids fort, rang de l'entrée en poids
+ * faible), le tableau de clés est trié puis découpé en plages d'un même /24.
+ * Les fichiers sont écrits par un tampon d'octets vidé dans un
+ * {@link FileChannel}.
+ *
+ * <p>Chaque zone commence par {@code $ORIGIN}, {@code $TTL}, un enregistrement
+ * {@code SOA} dont le numéro de série est la date d'export en secondes, et un
+ * {@code NS} ({@code ns.<origine>}). Une entrée à durée de vie reçoit comme
+ * TTL le nombre de secondes qui lui restent.
+ */
+public final class ZoneExport {
+
+  /** TTL par défaut des zones, en secondes. */
+  static final int DEFAULT_TTL = 86400;
+
+  /** Taille du tampon d'écriture de chaque fichier. */
+  private static final int BUFFER = 1 << 16;
+
+  /** Domaine utilisable comme nom de fichier : étiquettes simples séparées par des points. */
+  private static final Pattern DOMAINE = Pattern.compile("[A-Za-z0-9_-]+(\\.[A-Za-z0-9_-]+)*");
+
+  private final Path dir;
+  private final int threads;
+  private final Instant now;
+
+  /**
+   * Prépare un export.
+   *
+   * @param dir répertoire de destination (créé si besoin ; les fichiers existants sont remplacés)
+   * @param threads nombre de threads d'écriture
+   * @param now date de l'export : numéro de série et TTL restants
+   */
+  public ZoneExport(Path dir, int threads, Instant now) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Nombre de threads invalide: " + threads);
+    }
+    this.dir = dir;
+    this.threads = threads;
+    this.now = now;
+  }
+
+  /**
+   * Écrit les zones directes et inverses de toutes les entrées.
+   *
+   * @param items entrées à exporter (non expirées)
+   * @return le nombre de fichiers et d'enregistrements écrits
+   * @throws IOException en cas d'erreur d'écriture
+   * @throws IllegalArgumentException si un domaine n'est pas fait d'étiquettes simples
+   */
+  public Result export(List<DnsItem> items) throws IOException {
+    Files.createDirectories(dir);
+    DnsItem[] all = items.toArray(new DnsItem[0]);
+    List<Callable<Integer>> forward = forwardJobs(all);
+    List<Callable<Integer>> reverse = reverseJobs(all);
+    List<Callable<Integer>> jobs = new ArrayList<>(forward);
+    jobs.addAll(reverse);
+    int records = run(jobs);
+    return new Result(forward.size(), reverse.size(), records);
+  }
+
+  /** Une tâche par domaine, vérifié avant toute écriture ; le tri par nom se fait dans la tâche. */
+  private List<Callable<Integer>> forwardJobs(DnsItem[] all) {
+    Map<String, List<DnsItem>> byDomain = new HashMap<>();
+    for (DnsItem it : all) {
+      byDomain.computeIfAbsent(it.getNom().getDomaine(), d -> new ArrayList<>()).add(it);
+    }
+    for (String domaine : byDomain.keySet()) {
+      zoneFile(domaine + ".");
+    }
+    List<Callable<Integer>> jobs = new ArrayList<>(byDomain.size());
+    for (Map.Entry<String, List<DnsItem>> e : byDomain.entrySet()) {
+      jobs.add(() -> writeForward(e.getKey(), e.getValue()));
+    }
+    return jobs;
+  }
+
+  /** Une tâche par /24, découpée dans le tableau trié des clés. */
+  private List<Callable<Integer>> reverseJobs(DnsItem[] all) {
+    long[] keys = new long[all.length];
+    for (int i = 0; i < all.length; i++) {
+      keys[i] = key(all[i].getIp().toInt(), i);
+    }
+    if (threads > 1) {
+      Arrays.parallelSort(keys);
+    } else {
+      Arrays.sort(keys);
+    }
+    List<Callable<Integer>> jobs = new ArrayList<>();
+    int start = 0;
+    while (start < keys.length) {
+      int net = ip(keys[start]) >>> 8;
+      int end = start + 1;
+      while (end < keys.length && ip(keys[end]) >>> 8 == net) {
+        end++;
+      }
+      int from = start;
+      int to = end;
+      jobs.add(() -> writeReverse(net, keys, from, to, all));
+      start = end;
+    }
+    return jobs;
+  }
+
+  /**
+   * Clé de tri : l'adresse, bit de signe inversé pour que l'ordre signé des
+   * {@code long} suive l'ordre non signé des adresses, puis le rang de l'entrée.
+   */
+  static long key(int ip, int index) {
+    return ((long) (ip ^ Integer.MIN_VALUE) << 32) | index;
+  }
+
+  /**
+   * Fichier d'une zone, qui reste dans le répertoire d'export.
+   *
+   * @param origine origine de la zone, point final compris
+   * @throws IllegalArgumentException si l'origine n'est pas faite d'étiquettes simples
+   */
+  private Path zoneFile(String origine) {
+    String domaine = origine.substring(0, origine.length() - 1);
+    Path base = dir.toAbsolutePath().normalize();
+    Path file = base.resolve(origine + "zone").normalize();
+    if (!DOMAINE.matcher(domaine).matches() || !base.equals(file.getParent())) {
+      throw new IllegalArgumentException("Domaine invalide pour un fichier de zone: " + domaine);
+    }
+    return file;
+  }
+
+  static int ip(long key) {
+    return (int) (key >>> 32) ^ Integer.MIN_VALUE;
+  }
+
+  private static int index(long key) {
+    return (int) key;
+  }
+
+  private int writeForward(String domaine, List<DnsItem> items) throws IOException {
+    items.sort((a, b) -> a.getNom().compareTo(b.getNom()));
+    try (ZoneWriter out = new ZoneWriter(zoneFile(domaine + "."))) {
+      header(out, domaine + ".");
+      for (DnsItem it : items) {
+        out.append(it.getNom().getMachine());
+        ttl(out, it);
+        out.append("\tIN\tA\t").append(it.getIp().value()).newLine();
+      }
+    }
+    return items.size();
+  }
+
+  private int writeReverse(int net, long[] keys, int from, int to, DnsItem[] all)
+      throws IOException {
+    String origin = (net & 0xFF) + "." + ((net >>> 8) & 0xFF) + "." + (net >>> 16)
+        + ".in-addr.arpa.";
+    try (ZoneWriter out = new ZoneWriter(zoneFile(origin))) {
+      header(out, origin);
+      for (int i = from; i < to; i++) {
+        DnsItem it = all[index(keys[i])];
+        out.append(Integer.toString(ip(keys[i]) & 0xFF));
+        ttl(out, it);
+        out.append("\tIN\tPTR\t").append(it.getNom().getFqdn()).append(".").newLine();
+      }
+    }
+    return 0; // les enregistrements sont comptés une fois, dans les zones directes
+  }
+
+  private void header(ZoneWriter out, String origin) throws IOException {
+    out.append("$ORIGIN ").append(origin).newLine();
+    out.append("$TTL ").append(Integer.toString(DEFAULT_TTL)).newLine();
+    out.append("@\tIN\tSOA\tns.").append(origin).append(" hostmaster.").append(origin)
+        .append(" ").append(Long.toString(now.getEpochSecond()))
+        .append(" 3600 900 604800 ").append(Integer.toString(DEFAULT_TTL)).newLine();
+    out.append("@\tIN\tNS\tns.").append(origin).newLine();
+  }
+
+  private void ttl(ZoneWriter out, DnsItem it) throws IOException {
+    if (it.getExpiration() != null) {
+      long s = Math.max(1, it.getExpiration().getEpochSecond() - now.getEpochSecond());
+      out.append("\t").append(Long.toString(s));
+    }
+  }
+
+  private int run(List<Callable<Integer>> jobs) throws IOException {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      int total = 0;
+      for (Future<Integer> f : pool.invokeAll(jobs)) {
+        total += f.get();
+      }
+      return total;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Export interrompu", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /** Bilan d'un export. */
+  public static final class Result {
+    private final int forwardZones;
+    private final int reverseZones;
+    private final int records;
+
+    Result(int forwardZones, int reverseZones, int records) {
+      this.forwardZones = forwardZones;
+      this.reverseZones = reverseZones;
+      this.records = records;
+    }
+
+    public int getForwardZones() {
+      return forwardZones;
+    }
+
+    public int getReverseZones() {
+      return reverseZones;
+    }
+
+    /** Nombre d'entrées exportées (chacune a un {@code A} et un {@code PTR}). */
+    public int getRecords() {
+      return records;
+    }
+
+    @Override
+    public String toString() {
+      return forwardZones + " zone(s) directe(s), " + reverseZones + " zone(s) inverse(s), "
+          + records + " entrée(s)";
+    }
+  }
+
+  /** Écriture d'un fichier par un tampon d'octets vidé dans un canal. */
+  private static final class ZoneWriter implements Closeable {
+    private final FileChannel ch;
+    private final ByteBuffer buf = ByteBuffer.allocate(BUFFER);
+
+    ZoneWriter(Path file) throws IOException {
+      ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    ZoneWriter append(String s) throws IOException {
+      for (int i = 0; i < s.length(); i++) {
+        char c = s.charAt(i);
+        if (c >= 0x80) {
+          // caractère non ASCII : encodage UTF-8 du reste de la chaîne
+          put(s.substring(i).getBytes(StandardCharsets.UTF_8));
+          return this;
+        }
+        if (!buf.hasRemaining()) {
+          flush();
+        }
+        buf.put((byte) c);
+      }
+      return this;
+    }
+
+    ZoneWriter newLine() throws IOException {
+      return append("\n");
+    }
+
+    private void put(byte[] bytes) throws IOException {
+      for (byte b : bytes) {
+        if (!buf.hasRemaining()) {
+          flush();
+        }
+        buf.put(b);
+      }
+    }
+
+    private void flush() throws IOException {
+      buf.flip();
+      while (buf.hasRemaining()) {
+        ch.write(buf);
+      }
+      buf.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        flush();
+      } finally {
+        ch.close();
+      }
+    }
+  }
+}
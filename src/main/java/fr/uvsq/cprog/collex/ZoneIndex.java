@@ -0,0 +1,18 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+
+/**
+ * Accès direct par nom à un fichier de zone, sans le charger entièrement.
+ */
+interface ZoneIndex {
+
+  /**
+   * Recherche l'entrée d'un nom en ne lisant qu'une petite partie du fichier.
+   *
+   * @param nom nom recherché
+   * @return l'entrée telle qu'enregistrée (éventuellement expirée), ou {@code null}
+   * @throws IOException en cas d'erreur de lecture
+   */
+  DnsItem lookup(NomMachine nom) throws IOException;
+}
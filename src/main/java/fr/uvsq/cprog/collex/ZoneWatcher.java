@@ -0,0 +1,157 @@
+package fr.uvsq.cprog.collex;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Surveille les fichiers de base et recharge la base ({@link DnsBase}) lorsqu'ils sont
+ * modifiés de l'extérieur (éditeur, outil de déploiement).
+ *
+ * <p>Chaque fichier de données ({@link DnsBase#dataFiles} : celui d'une base
+ * simple, ceux des partitions d'une {@link ShardedDns}, ceux de chaque zone
+ * d'une {@link ZonedDns}) est rechargé par la base qui le tient, et seulement
+ * elle. Les répertoires des fichiers sont observés par un {@link WatchService}
+ * depuis un thread démon. Les événements arrivant en rafale (un éditeur écrit
+ * souvent en plusieurs fois) sont regroupés : le rechargement n'a lieu qu'après
+ * {@value #DEBOUNCE_MILLIS} ms sans nouvel événement. {@link Dns#reload} ignore
+ * les écritures faites par la base elle-même et n'applique que la différence.
+ * Une erreur de rechargement (fichier en cours d'écriture, ligne invalide en
+ * mode strict) est signalée sur la sortie d'erreur ; la base reste dans son
+ * état précédent jusqu'à la modification suivante.
+ */
+public final class ZoneWatcher implements AutoCloseable {
+
+  /** Délai de regroupement des événements. */
+  private static final long DEBOUNCE_MILLIS = 50;
+
+  /** Rechargement de chaque fichier surveillé, par chemin absolu. */
+  private final Map<Path, IntSupplier> files = new HashMap<>();
+  private final WatchService service;
+  private final Thread thread;
+  private final AtomicLong reloads = new AtomicLong();
+  private final AtomicLong mutations = new AtomicLong();
+
+  /**
+   * Démarre la surveillance des fichiers d'une base.
+   *
+   * @param dns base à recharger
+   * @throws IOException si un répertoire ne peut pas être observé
+   */
+  public ZoneWatcher(DnsBase dns) throws IOException {
+    this(dns.dataFiles());
+  }
+
+  /**
+   * Démarre la surveillance d'un fichier donné.
+   *
+   * @param dns base à recharger
+   * @param file fichier dont la modification déclenche {@link DnsBase#reload}
+   * @throws IOException si le répertoire ne peut pas être observé
+   */
+  public ZoneWatcher(DnsBase dns, Path file) throws IOException {
+    this(Collections.singletonMap(file, dns::reload));
+  }
+
+  private ZoneWatcher(Map<Path, IntSupplier> reloads) throws IOException {
+    this.service = FileSystems.getDefault().newWatchService();
+    try {
+      Set<Path> dirs = new HashSet<>();
+      for (Map.Entry<Path, IntSupplier> e : reloads.entrySet()) {
+        Path file = e.getKey().toAbsolutePath();
+        files.put(file, e.getValue());
+        if (dirs.add(file.getParent())) {
+          file.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE,
+              StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      service.close();
+      throw e;
+    }
+    this.thread = new Thread(this::run, "zone-watcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** Nombre de rechargements effectués (y compris sans différence). */
+  public long reloads() {
+    return reloads.get();
+  }
+
+  /** Nombre total de mutations appliquées par les rechargements. */
+  public long mutations() {
+    return mutations.get();
+  }
+
+  private void run() {
+    try {
+      while (true) {
+        // rechargements concernés, chacun avec un fichier qui l'a déclenché
+        Map<IntSupplier, Path> pending = new LinkedHashMap<>();
+        drain(service.take(), pending);
+        // regroupe la rafale d'événements d'une même écriture
+        WatchKey next;
+        while ((next = service.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+          drain(next, pending);
+        }
+        for (Map.Entry<IntSupplier, Path> e : pending.entrySet()) {
+          try {
+            mutations.addAndGet(e.getKey().getAsInt());
+          } catch (RuntimeException ex) {
+            System.err.println("ERREUR : rechargement de " + e.getValue() + " : "
+                + ex.getMessage());
+          }
+        }
+        if (!pending.isEmpty()) {
+          reloads.incrementAndGet();
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // arrêt demandé
+    }
+  }
+
+  /** Consomme les événements d'une clé et retient les rechargements des fichiers concernés. */
+  private void drain(WatchKey key, Map<IntSupplier, Path> pending) {
+    Path dir = (Path) key.watchable();
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        // événements perdus : tous les fichiers du répertoire sont concernés
+        files.forEach((f, reload) -> {
+          if (f.getParent().equals(dir)) {
+            pending.putIfAbsent(reload, f);
+          }
+        });
+        continue;
+      }
+      Path file = dir.resolve((Path) event.context());
+      IntSupplier reload = files.get(file);
+      if (reload != null) {
+        pending.putIfAbsent(reload, file);
+      }
+    }
+    key.reset();
+  }
+
+  /** Arrête la surveillance. */
+  @Override
+  public void close() throws IOException {
+    thread.interrupt();
+    service.close();
+  }
+}
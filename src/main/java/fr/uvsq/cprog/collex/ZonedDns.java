@@ -0,0 +1,504 @@
+package fr.uvsq.cprog.collex;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+
+/**
+ * Plusieurs zones indépendantes servies par un même processus.
+ *
+ * <p>Chaque zone est désignée par un suffixe de domaine et possède sa propre
+ * base ({@link Dns}, ou {@link ShardedDns} si {@code db.shards} est supérieur
+ * à 1) : fichier, moteur, index, cache, verrou et journal. Un nom est routé
+ * vers la zone dont le suffixe est le plus long ({@code iut.uvsq.fr} avant
+ * {@code uvsq.fr}) ; la zone {@code .}, si elle existe, reçoit les noms qui ne
+ * correspondent à aucune autre. Les autres noms n'appartiennent à aucune zone :
+ * ils sont introuvables et ne peuvent pas être ajoutés.
+ *
+ * <p>Les zones sont chargées en parallèle, chacune sur son thread, et le
+ * constructeur n'attend pas la fin des chargements : une recherche n'attend
+ * que la zone qui la concerne, si bien qu'une zone volumineuse ou lente ne
+ * retarde pas les autres. Les opérations sur toutes les zones (listage,
+ * recherches par motif) attendent chaque zone interrogée ; la recherche par
+ * adresse interroge d'abord les zones chargées et n'attend les autres que si
+ * l'adresse n'y figure pas.
+ *
+ * <p>Les zones sont isolées : une même adresse peut figurer dans deux zones ;
+ * la recherche par adresse retourne alors l'entrée de la première zone chargée
+ * dans l'ordre de configuration. Empreinte mémoire et activité d'écriture sont
+ * tenues par zone ({@link #zoneStats}).
+ *
+ * <p>Les transactions, la surveillance, la sauvegarde et la réplication
+ * reposent sur le journal d'une seule base : elles ne sont pas offertes.
+ */
+public class ZonedDns implements DnsBase {
+
+  /** Suffixe de la zone par défaut. */
+  static final String DEFAULT = ".";
+
+  /** Zones dans l'ordre de configuration. */
+  private final List<Zone> zones;
+
+  /** Zones par suffixe en minuscules. */
+  private final Map<String, Zone> bySuffix = new HashMap<>();
+
+  /** Nombre de partitions de chaque zone ({@code db.shards}). */
+  private final int shards;
+
+  private final Clock clock;
+  private volatile QueryLog queryLog;
+  private volatile Forwarder forwarder;
+
+  /** Zone hébergée : suffixe, fichier et base en cours de chargement ou chargée. */
+  static final class Zone {
+    private final String suffix;
+    private final Path file;
+    private final CompletableFuture<DnsBase> dns;
+
+    private Zone(String suffix, Path file, CompletableFuture<DnsBase> dns) {
+      this.suffix = suffix;
+      this.file = file;
+      this.dns = dns;
+    }
+
+    /** Base de la zone, une fois chargée. */
+    DnsBase dns() {
+      try {
+        return dns.join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw e;
+      }
+    }
+
+    String suffix() {
+      return suffix;
+    }
+
+    /** Indique si le chargement est terminé (avec ou sans erreur). */
+    boolean isLoaded() {
+      return dns.isDone();
+    }
+  }
+
+  /**
+   * Ouvre (ou crée) les bases des zones et lance leur chargement.
+   *
+   * @param files fichier de chaque zone, par suffixe, dans l'ordre de routage
+   *     des recherches par adresse
+   * @param config propriétés communes aux zones (voir {@link Dns})
+   */
+  public ZonedDns(Map<String, Path> files, Properties config) {
+    this(files, config, Clock.systemUTC());
+  }
+
+  ZonedDns(Map<String, Path> files, Properties config, Clock clock) {
+    if (files.isEmpty()) {
+      throw new IllegalArgumentException("Aucune zone");
+    }
+    int shards = Integer.parseInt(config.getProperty("db.shards", "1"));
+    this.shards = shards;
+    this.clock = clock;
+    // un thread par zone : le chargement d'une zone n'attend jamais celui d'une autre
+    ExecutorService loaders = Executors.newFixedThreadPool(files.size(), r -> {
+      Thread t = new Thread(r, "zone-load");
+      t.setDaemon(true);
+      return t;
+    });
+    List<Zone> list = new ArrayList<>(files.size());
+    try {
+      for (Map.Entry<String, Path> e : files.entrySet()) {
+        String suffix = normalize(e.getKey());
+        Path file = e.getValue();
+        if (bySuffix.containsKey(suffix)) {
+          throw new IllegalArgumentException("Zone en double : " + suffix);
+        }
+        CompletableFuture<DnsBase> dns = CompletableFuture.supplyAsync(() -> (shards > 1)
+            ? new ShardedDns(file, shards, config, clock)
+            : new Dns(file, config, clock), loaders);
+        Zone z = new Zone(suffix, file, dns);
+        list.add(z);
+        bySuffix.put(suffix, z);
+      }
+    } finally {
+      loaders.shutdown(); // les chargements lancés vont à leur terme
+    }
+    this.zones = Collections.unmodifiableList(list);
+  }
+
+  /**
+   * Zones décrites par {@code db.zones} : {@code suffixe=fichier} séparés par
+   * des virgules.
+   *
+   * @param config propriétés
+   * @return les fichiers par suffixe, dans l'ordre, ou une table vide si la
+   *     propriété est absente ou vide
+   */
+  static Map<String, Path> zonesOf(Properties config) {
+    Map<String, Path> res = new LinkedHashMap<>();
+    String spec = config.getProperty("db.zones", "").trim();
+    if (spec.isEmpty()) {
+      return res;
+    }
+    for (String part : spec.split(",")) {
+      int eq = part.indexOf('=');
+      if (eq <= 0 || eq == part.trim().length() - 1) {
+        throw new IllegalStateException("Zone invalide dans db.zones : " + part.trim());
+      }
+      res.put(part.substring(0, eq).trim(), Paths.get(part.substring(eq + 1).trim()));
+    }
+    return res;
+  }
+
+  private static String normalize(String suffix) {
+    String s = suffix.trim().toLowerCase(Locale.ROOT);
+    if (s.equals(DEFAULT)) {
+      return s;
+    }
+    if (s.endsWith(".")) {
+      s = s.substring(0, s.length() - 1);
+    }
+    if (s.isEmpty() || s.startsWith(".")) {
+      throw new IllegalArgumentException("Suffixe de zone invalide : " + suffix);
+    }
+    return s;
+  }
+
+  /**
+   * Zone d'un nom : celle du plus long suffixe correspondant, en ne coupant
+   * qu'aux points.
+   *
+   * @param fqdn nom qualifié
+   * @return la zone, ou {@code null} si aucune ne correspond
+   */
+  Zone zoneOf(String fqdn) {
+    String s = fqdn.toLowerCase(Locale.ROOT);
+    while (true) {
+      Zone z = bySuffix.get(s);
+      if (z != null) {
+        return z;
+      }
+      int dot = s.indexOf('.');
+      if (dot < 0) {
+        return bySuffix.get(DEFAULT);
+      }
+      s = s.substring(dot + 1);
+    }
+  }
+
+  /** Base d'un nom, ou erreur s'il n'appartient à aucune zone. */
+  private DnsBase route(NomMachine nom) {
+    Zone z = zoneOf(nom.getFqdn());
+    if (z == null) {
+      throw new IllegalStateException("Aucune zone pour " + nom.getFqdn());
+    }
+    return z.dns();
+  }
+
+  /** Zones hébergées, dans l'ordre de configuration. */
+  List<Zone> zones() {
+    return zones;
+  }
+
+  /** Attend la fin du chargement de toutes les zones. */
+  public void awaitLoaded() {
+    for (Zone z : zones) {
+      z.dns();
+    }
+  }
+
+  /**
+   * Fichiers de chaque zone (ceux de ses partitions si {@code db.shards} est
+   * supérieur à 1), rechargés par la base de la zone ; une zone en cours de
+   * chargement n'est attendue qu'à son premier rechargement.
+   */
+  @Override
+  public Map<Path, IntSupplier> dataFiles() {
+    Map<Path, IntSupplier> res = new LinkedHashMap<>();
+    for (Zone z : zones) {
+      IntSupplier reload = () -> z.dns().reload();
+      if (shards > 1) {
+        for (int i = 0; i < shards; i++) {
+          res.put(ShardedDns.shardFile(z.file, i), reload);
+        }
+      } else {
+        res.put(z.file, reload);
+      }
+    }
+    return res;
+  }
+
+  @Override
+  public DnsItem getItem(NomMachine nom) {
+    Zone z = zoneOf(nom.getFqdn());
+    return (z == null) ? null : z.dns().getItem(nom);
+  }
+
+  /** Zones chargées d'abord ; les autres ne sont attendues que si l'adresse n'y est pas. */
+  @Override
+  public DnsItem getItem(AdresseIP ip) {
+    List<Zone> loading = new ArrayList<>();
+    for (Zone z : zones) {
+      if (!z.isLoaded()) {
+        loading.add(z);
+        continue;
+      }
+      DnsItem item = z.dns().getItem(ip);
+      if (item != null) {
+        return item;
+      }
+    }
+    for (Zone z : loading) {
+      DnsItem item = z.dns().getItem(ip);
+      if (item != null) {
+        return item;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public List<DnsItem> getItems(String domaine) {
+    return fanOut(dns -> dns.getItems(domaine), Integer.MAX_VALUE, Comparator.naturalOrder());
+  }
+
+  @Override
+  public List<DnsItem> findByPrefix(String prefix, int limit) {
+    return fanOut(dns -> dns.findByPrefix(prefix, limit), limit, NameIndex.ORDER);
+  }
+
+  @Override
+  public List<DnsItem> findContaining(String part, int limit) {
+    return fanOut(dns -> dns.findContaining(part, limit), limit, NameIndex.ORDER);
+  }
+
+  /** Interroge chaque zone et fusionne les {@code limit} premiers résultats, triés par nom. */
+  private List<DnsItem> fanOut(Function<DnsBase, List<DnsItem>> query, int limit,
+      Comparator<? super NomMachine> order) {
+    List<List<DnsItem>> sorted = new ArrayList<>(zones.size());
+    for (Zone z : zones) {
+      sorted.add(query.apply(z.dns()));
+    }
+    List<DnsItem> res = ShardedDns.merge(sorted, order);
+    return Collections.unmodifiableList(res.subList(0, Math.min(limit, res.size())));
+  }
+
+  @Override
+  public void addItem(AdresseIP ip, NomMachine nom, Duration ttl) {
+    route(nom).addItem(ip, nom, ttl);
+  }
+
+  @Override
+  public AdresseIP allocate(NomMachine nom, Subnet subnet, Duration ttl) {
+    return route(nom).allocate(nom, subnet, ttl);
+  }
+
+  /**
+   * Somme des occupations des zones. Chaque zone attribue ses adresses
+   * indépendamment : une adresse présente dans deux zones compte deux fois.
+   */
+  @Override
+  public SubnetAllocator.Usage usage(Subnet subnet) {
+    SubnetAllocator.Usage total = zones.get(0).dns().usage(subnet);
+    for (int i = 1; i < zones.size(); i++) {
+      total = total.plus(zones.get(i).dns().usage(subnet));
+    }
+    return total;
+  }
+
+  /** Occupations des zones, cumulées par sous-réseau. */
+  @Override
+  public List<SubnetAllocator.Usage> usages() {
+    Map<Subnet, SubnetAllocator.Usage> total = new TreeMap<>();
+    for (Zone z : zones) {
+      for (SubnetAllocator.Usage u : z.dns().usages()) {
+        total.merge(u.getSubnet(), u, SubnetAllocator.Usage::plus);
+      }
+    }
+    return Collections.unmodifiableList(new ArrayList<>(total.values()));
+  }
+
+  /**
+   * Applique un lot en le répartissant entre les zones. Chaque zone vérifie
+   * d'abord sa part ({@link DnsBase#validate}) : un lot refusé par l'une n'est
+   * appliqué par aucune. Chaque zone applique ensuite sa part en une seule
+   * opération ; seule une écriture concurrente entre la vérification et
+   * l'application peut encore faire échouer une zone après une autre.
+   */
+  @Override
+  public int applyChanges(List<ZoneDiff.Change> changes) {
+    Map<Zone, List<ZoneDiff.Change>> parts = split(changes);
+    validate(parts);
+    int count = 0;
+    for (Map.Entry<Zone, List<ZoneDiff.Change>> e : parts.entrySet()) {
+      count += e.getKey().dns().applyChanges(e.getValue());
+    }
+    return count;
+  }
+
+  /** Chaque zone vérifie sa part du lot. */
+  @Override
+  public void validate(List<ZoneDiff.Change> changes) {
+    validate(split(changes));
+  }
+
+  private static void validate(Map<Zone, List<ZoneDiff.Change>> parts) {
+    for (Map.Entry<Zone, List<ZoneDiff.Change>> e : parts.entrySet()) {
+      e.getKey().dns().validate(e.getValue());
+    }
+  }
+
+  /** Répartit un lot entre les zones, ou erreur si un nom n'appartient à aucune. */
+  private Map<Zone, List<ZoneDiff.Change>> split(List<ZoneDiff.Change> changes) {
+    Map<Zone, List<ZoneDiff.Change>> parts = new LinkedHashMap<>();
+    for (ZoneDiff.Change c : changes) {
+      Zone z = zoneOf(c.getNom().getFqdn());
+      if (z == null) {
+        throw new IllegalStateException("Aucune zone pour " + c.getNom().getFqdn());
+      }
+      parts.computeIfAbsent(z, k -> new ArrayList<>()).add(c);
+    }
+    return parts;
+  }
+
+  /** Recharge chaque zone dont le fichier a changé. */
+  @Override
+  public int reload() {
+    int n = 0;
+    for (Zone z : zones) {
+      n += z.dns().reload();
+    }
+    return n;
+  }
+
+  /** Somme des versions des zones : croît à chaque mutation. */
+  @Override
+  public long version() {
+    long v = 0;
+    for (Zone z : zones) {
+      v += z.dns().version();
+    }
+    return v;
+  }
+
+  @Override
+  public List<DnsItem> snapshot() {
+    List<DnsItem> res = new ArrayList<>();
+    for (Zone z : zones) {
+      res.addAll(z.dns().snapshot());
+    }
+    return res;
+  }
+
+  /** Cumul des caches des zones chargées. */
+  @Override
+  public LookupCache.Stats cacheStats() {
+    LookupCache.Stats total = null;
+    for (Zone z : zones) {
+      LookupCache.Stats s = z.isLoaded() ? z.dns().cacheStats() : null;
+      if (s != null) {
+        total = (total == null) ? s : total.plus(s);
+      }
+    }
+    return total;
+  }
+
+  /** Somme des empreintes des zones ; le détail est donné par {@link #zoneStats}. */
+  @Override
+  public Footprint.Report footprint() {
+    Footprint.Report total = zones.get(0).dns().footprint();
+    for (int i = 1; i < zones.size(); i++) {
+      total = total.plus(zones.get(i).dns().footprint());
+    }
+    return total;
+  }
+
+  /** Somme de l'activité d'écriture des zones. */
+  @Override
+  public Dns.WriteStats writeStats() {
+    Dns.WriteStats total = zones.get(0).dns().writeStats();
+    for (int i = 1; i < zones.size(); i++) {
+      total = total.plus(zones.get(i).dns().writeStats());
+    }
+    return total;
+  }
+
+  /**
+   * Empreinte et activité d'écriture de chaque zone, sans attendre les zones
+   * en cours de chargement.
+   *
+   * @return une ligne par zone, dans l'ordre de configuration
+   */
+  public String zoneStats() {
+    StringBuilder sb = new StringBuilder();
+    for (Zone z : zones) {
+      if (sb.length() > 0) {
+        sb.append(System.lineSeparator());
+      }
+      sb.append(String.format(Locale.ROOT, "%-20s ", z.suffix));
+      if (!z.isLoaded()) {
+        sb.append("chargement en cours (").append(z.file).append(')');
+        continue;
+      }
+      if (z.dns.isCompletedExceptionally()) {
+        try {
+          z.dns();
+        } catch (RuntimeException e) {
+          sb.append("ERREUR : ").append(e.getMessage());
+        }
+        continue;
+      }
+      DnsBase dns = z.dns();
+      Footprint.Report r = dns.footprint();
+      sb.append(String.format(Locale.ROOT, "%d entrée(s), %s ; ", r.getEntries(),
+          Footprint.Report.bytes(r.getHeapBytes() + r.getOffHeapBytes())))
+          .append(dns.writeStats());
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public Instant now() {
+    return clock.instant();
+  }
+
+  @Override
+  public void setQueryLog(QueryLog queryLog) {
+    this.queryLog = queryLog;
+  }
+
+  @Override
+  public QueryLog queryLog() {
+    return queryLog;
+  }
+
+  @Override
+  public void setForwarder(Forwarder forwarder) {
+    this.forwarder = forwarder;
+  }
+
+  @Override
+  public Forwarder forwarder() {
+    return forwarder;
+  }
+}
@@ -1,5 +1,7 @@
 package fr.uvsq.cprog.collex;
 
+import static org.junit.Assert.*;
+
 import org.junit.Test;
 
 public class AdresseIPTest {
@@ -13,4 +15,11 @@ public class AdresseIPTest {
   @Test(expected = IllegalArgumentException.class) public void ko_forme() {
     new AdresseIP("1.2.3");
   }
+  @Test public void ordre_numerique_non_signe() {
+    assertTrue(new AdresseIP("9.0.0.1").compareTo(new AdresseIP("10.0.0.0")) < 0);
+    assertTrue(new AdresseIP("127.255.255.255").compareTo(new AdresseIP("128.0.0.0")) < 0);
+    assertTrue(new AdresseIP("255.0.0.0").compareTo(new AdresseIP("1.0.0.0")) > 0);
+    assertEquals(0, new AdresseIP("192.168.1.2").compareTo(new AdresseIP(" 192.168.1.2")));
+    assertEquals(0xC0A80102, new AdresseIP("192.168.1.2").toInt());
+  }
 }
@@ -1,14 +1,38 @@
 package fr.uvsq.cprog.collex;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 /**
  * Unit test for simple App.
  */
 public class AppTest 
 {
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
     /**
      * Rigorous Test :-)
      */
@@ -17,4 +41,111 @@ public class AppTest
     {
         assertTrue( true );
     }
+
+    private static String ip( int i )
+    {
+        return "10." + ( i >> 16 & 255 ) + "." + ( i >> 8 & 255 ) + "." + ( i & 255 );
+    }
+
+    @Test
+    public void batch_ordre_et_quit() throws Exception
+    {
+        Dns dns = new Dns( tmp.getRoot().toPath().resolve( "db.txt" ) );
+        String script = "add 1.0.0.1 a.b.fr\na.b.fr\n1.0.0.1\nadd 1.0.0.2 a.b.fr\n"
+            + "ls b.fr\nnimporte\nquit\nadd 1.0.0.3 c.b.fr\n";
+        StringWriter out = new StringWriter();
+        new BatchRunner( dns, 4 ).run( new BufferedReader( new StringReader( script ) ), out );
+        String nl = System.lineSeparator();
+        assertEquals( "1.0.0.1" + nl + "a.b.fr" + nl + "ERREUR : Le nom de machine existe déjà !" + nl
+            + "1.0.0.1 a.b.fr" + nl + "ERREUR : Commande invalide" + nl, out.toString() );
+        assertEquals( null, dns.getItem( new NomMachine( "c.b.fr" ) ) );
+    }
+
+    @Test
+    public void parallel_invalide_refuse() throws Exception
+    {
+        Path db = Files.write( tmp.getRoot().toPath().resolve( "db.txt" ),
+            "a.b.fr 1.0.0.1\n".getBytes( StandardCharsets.UTF_8 ) );
+        String nl = System.lineSeparator();
+        for ( String v : new String[] { "0", "-2", "deux" } )
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            PrintStream out = new PrintStream( bytes, true, "UTF-8" );
+            assertFalse( new App().check(
+                new String[] { "--check", db.toString(), "--parallel", v }, out ) );
+            assertEquals( "ERREUR : Valeur invalide pour --parallel : " + v + nl,
+                bytes.toString( "UTF-8" ) );
+            assertFalse( new App().batch(
+                new String[] { "--batch", db.toString(), "--parallel", v } ) );
+        }
+    }
+
+    @Test
+    public void batch_et_interactif_meme_sortie() throws Exception
+    {
+        Path base = tmp.getRoot().toPath().resolve( "base.txt" );
+        int n = 20_000;
+        List<String> lines = new ArrayList<>();
+        for ( int i = 0; i < n; i++ )
+        {
+            lines.add( "h" + i + ".d" + ( i % 50 ) + ".fr " + ip( i ) );
+        }
+        Files.write( base, lines );
+
+        Random rnd = new Random( 42 );
+        StringBuilder script = new StringBuilder();
+        int commandes = 100_000;
+        for ( int i = 0; i < commandes; i++ )
+        {
+            int k = rnd.nextInt( n + n / 10 );
+            if ( i % 10_000 == 9_999 )
+            {
+                script.append( "add " ).append( ip( n + i ) ).append( " neuf" ).append( i ).append( ".d1.fr\n" );
+            }
+            else if ( i % 2 == 0 )
+            {
+                script.append( "h" ).append( k ).append( ".d" ).append( k % 50 ).append( ".fr\n" );
+            }
+            else
+            {
+                script.append( ip( k ) ).append( '\n' );
+            }
+        }
+        byte[] bytes = script.toString().getBytes( StandardCharsets.UTF_8 );
+
+        // interactif : invite, Scanner, println sur un flux vidé à chaque ligne
+        Path interactif = tmp.newFile( "interactif.out" ).toPath();
+        Dns dns = new Dns( copy( base, "i.txt" ) );
+        try ( PrintStream ps = new PrintStream( new FileOutputStream( interactif.toFile() ), true, "UTF-8" ) )
+        {
+            App.interactive( dns, new Scanner( new ByteArrayInputStream( bytes ) ), ps );
+        }
+
+        Path sequentiel = tmp.newFile( "seq.out" ).toPath();
+        batch( copy( base, "s.txt" ), bytes, sequentiel, 1 );
+        Path parallele = tmp.newFile( "par.out" ).toPath();
+        batch( copy( base, "p.txt" ), bytes, parallele, 4 );
+
+        String attendu = new String( Files.readAllBytes( sequentiel ), StandardCharsets.UTF_8 );
+        assertEquals( attendu, new String( Files.readAllBytes( parallele ), StandardCharsets.UTF_8 ) );
+        assertEquals( attendu,
+            new String( Files.readAllBytes( interactif ), StandardCharsets.UTF_8 ).replace( "> ", "" ) );
+    }
+
+    private Path copy( Path base, String name ) throws Exception
+    {
+        return Files.copy( base, tmp.getRoot().toPath().resolve( name ),
+            StandardCopyOption.REPLACE_EXISTING );
+    }
+
+    private static void batch( Path db, byte[] script, Path out, int threads ) throws Exception
+    {
+        Dns dns = new Dns( db );
+        try ( BufferedReader in = new BufferedReader( new StringReader(
+                  new String( script, StandardCharsets.UTF_8 ) ), 1 << 16 );
+              Writer w = new BufferedWriter( Files.newBufferedWriter( out ), 1 << 16 ) )
+        {
+            new BatchRunner( dns, threads ).run( in, w );
+        }
+    }
 }
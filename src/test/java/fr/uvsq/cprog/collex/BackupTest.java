@@ -0,0 +1,173 @@
+package fr.uvsq.cprog.collex;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BackupTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path path(String name) {
+    return tmp.getRoot().toPath().resolve(name);
+  }
+
+  private static Set<String> contenu(List<DnsItem> items) {
+    Set<String> res = new HashSet<>();
+    for (DnsItem it : items) {
+      res.add(it.getNom().getFqdn() + " " + it.getIp().value() + " " + it.getExpiration());
+    }
+    return res;
+  }
+
+  @Test public void complete_puis_incrementale_et_instant_donne() throws Exception {
+    DnsTest.FakeClock clock = new DnsTest.FakeClock();
+    Dns dns = new Dns(path("db.txt"), clock);
+    Path dir = path("sauvegardes");
+    for (int i = 0; i < 10; i++) {
+      dns.addItem(AdresseIP.fromInt(0x0A000000 + i), new NomMachine("h" + i + ".uvsq.fr"));
+    }
+    Backup.Result r = Backup.backup(dns, dir, false);
+    assertTrue(r.toString(), r.isFull());
+    assertEquals(10, r.getSeq());
+    r = Backup.backup(dns, dir, false);
+    assertNull(r.toString(), r.getFile());
+
+    clock.avance(Duration.ofMinutes(1));
+    Instant apresCopie = clock.instant();
+    Set<String> etatCopie = contenu(dns.snapshot());
+    clock.avance(Duration.ofMinutes(1));
+    dns.transaction(tx -> {
+      tx.removeItem(new NomMachine("h0.uvsq.fr"));
+      tx.addItem(new AdresseIP("10.1.0.1"), new NomMachine("mail.uvsq.fr"));
+    });
+    clock.avance(Duration.ofMinutes(1));
+    Instant milieu = clock.instant();
+    Set<String> etatMilieu = contenu(dns.snapshot());
+    clock.avance(Duration.ofMinutes(1));
+    dns.addItem(new AdresseIP("10.1.0.2"), new NomMachine("ttl.uvsq.fr"), Duration.ofMinutes(5));
+    r = Backup.backup(dns, dir, false);
+    assertFalse(r.isFull());
+    assertEquals(3, r.getMutations());
+    assertEquals(13, r.getSeq());
+
+    Backup.Restored now = Backup.restore(dir, clock.instant());
+    assertEquals(contenu(dns.snapshot()), contenu(now.getItems()));
+    assertEquals(3, now.getReplayed());
+    Backup.Restored mid = Backup.restore(dir, milieu);
+    assertEquals(etatMilieu, contenu(mid.getItems()));
+    assertEquals(12, mid.getSeq());
+    assertEquals(etatCopie, contenu(Backup.restore(dir, apresCopie).getItems()));
+    // l'entrée à TTL n'existe plus dix minutes plus tard
+    Backup.Restored later = Backup.restore(dir, clock.instant().plus(Duration.ofMinutes(10)));
+    assertEquals(now.getItems().size() - 1, later.getItems().size());
+    try {
+      Backup.restore(dir, Instant.parse("2000-01-01T00:00:00Z"));
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Aucune sauvegarde"));
+    }
+
+    // un nouveau chargement repart d'une copie complète
+    Dns reopened = new Dns(path("db.txt"), clock);
+    assertTrue(Backup.backup(reopened, dir, false).isFull());
+  }
+
+  @Test public void commandes_et_somme_de_controle() throws Exception {
+    Dns dns = new Dns(path("db.txt"));
+    DnsTUI tui = new DnsTUI(new Scanner(""), System.out, dns);
+    Path dir = path("sauvegardes");
+    dns.addItem(new AdresseIP("10.0.0.1"), new NomMachine("www.uvsq.fr"));
+    String out = tui.parse("backup " + dir).execute(dns);
+    assertTrue(out, out.startsWith("sauvegarde complète base-"));
+    dns.addItem(new AdresseIP("10.0.0.2"), new NomMachine("ftp.uvsq.fr"));
+    out = tui.parse("backup " + dir).execute(dns);
+    assertTrue(out, out.startsWith("sauvegarde incrémentale changes-"));
+    assertTrue(tui.parse("backup -full " + dir).execute(dns).startsWith("sauvegarde complète"));
+
+    // restauration dans une base vide
+    Dns other = new Dns(path("other.txt"));
+    other.addItem(new AdresseIP("10.9.9.9"), new NomMachine("intrus.uvsq.fr"));
+    out = tui.parse("restore " + dir).execute(other);
+    assertTrue(out, out.contains("2 entrée(s)"));
+    assertTrue(out, out.contains("3 mutation(s) appliquée(s)"));
+    assertEquals(contenu(dns.snapshot()), contenu(other.snapshot()));
+    assertEquals("ERREUR : Instant invalide: hier",
+        tui.parse("restore " + dir + " hier").execute(other));
+
+    // un octet modifié dans la dernière copie : restauration refusée, base intacte
+    List<Backup.Entry> manifest = Backup.readManifest(dir);
+    Path base = dir.resolve(manifest.get(manifest.size() - 1).file);
+    try (FileChannel ch = FileChannel.open(base, StandardOpenOption.WRITE)) {
+      ch.write(ByteBuffer.wrap(new byte[] {'W'}), 0);
+    }
+    other.addItem(new AdresseIP("10.9.9.9"), new NomMachine("intrus.uvsq.fr"));
+    try {
+      tui.parse("restore " + dir).execute(other);
+      fail();
+    } catch (UncheckedIOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("Somme de contrôle incorrecte"));
+    }
+    assertEquals(3, other.snapshot().size());
+  }
+
+  @Test public void copies_coherentes_pendant_les_ecritures() throws Exception {
+    Dns dns = new Dns(path("db.txt"));
+    AtomicBoolean stop = new AtomicBoolean();
+    Thread writer = new Thread(() -> {
+      for (int i = 0; !stop.get(); i++) {
+        dns.addItem(AdresseIP.fromInt(0x0A000000 + i), new NomMachine("h" + i + ".uvsq.fr"));
+      }
+    });
+    writer.start();
+    Path dir = path("sauvegardes");
+    try {
+      for (int k = 0; k < 20; k++) {
+        Backup.Result r = Backup.backup(dns, dir, true);
+        // chaque ajout est une mutation : la copie #n contient exactement n entrées
+        Path copy = dir.resolve(r.getFile());
+        long lines = Files.readAllLines(copy).stream().filter(l -> !l.isBlank()).count();
+        assertEquals(r.getFile(), r.getSeq(), lines);
+        Thread.sleep(5);
+      }
+    } finally {
+      stop.set(true);
+      writer.join();
+    }
+    Backup.Restored last = Backup.restore(dir, Instant.now());
+    assertTrue(last.getItems().size() > 0);
+    assertTrue(last.toString(), last.getVerifyNanos() > 0);
+    assertTrue(last.toString(), last.getReplayNanos() > 0);
+
+    // seule l'ouverture de la source suspend les écrivains, pas la copie
+    Backup.Source copie = dns.backupSource();
+    try {
+      CountDownLatch ecrit = new CountDownLatch(1);
+      new Thread(() -> {
+        dns.addItem(new AdresseIP("10.255.0.1"), new NomMachine("pendant.uvsq.fr"));
+        ecrit.countDown();
+      }).start();
+      assertTrue("écrivain bloqué pendant la copie", ecrit.await(30, TimeUnit.SECONDS));
+    } finally {
+      copie.close();
+    }
+    assertNotNull(dns.getItem(new NomMachine("pendant.uvsq.fr")));
+  }
+}
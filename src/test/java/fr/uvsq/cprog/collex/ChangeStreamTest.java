@@ -0,0 +1,109 @@
+package fr.uvsq.cprog.collex;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Properties;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ChangeStreamTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path db() {
+    return tmp.getRoot().toPath().resolve("db.txt");
+  }
+
+  private static AdresseIP ip(int i) {
+    return new AdresseIP("10.0." + (i >> 8) + "." + (i & 255));
+  }
+
+  @Test public void filtre_par_domaine_et_ordre() throws Exception {
+    Dns dns = new Dns(db());
+    dns.addItem(ip(0), new NomMachine("avant.a.fr"));
+    try (ChangeStream s = dns.watch("a.fr", 16)) {
+      dns.addItem(ip(1), new NomMachine("x.a.fr"));
+      dns.addItem(ip(2), new NomMachine("z.b.fr"));
+      dns.addItem(ip(3), new NomMachine("y.sub.a.fr"));
+      dns.addItem(ip(4), new NomMachine("x.aa.fr"));
+      Mutation m1 = s.poll(1, TimeUnit.SECONDS);
+      Mutation m2 = s.poll(1, TimeUnit.SECONDS);
+      assertEquals("x.a.fr", m1.getItem().getNom().getFqdn());
+      assertEquals(2, m1.getSeq());
+      assertEquals("y.sub.a.fr", m2.getItem().getNom().getFqdn());
+      assertEquals(4, m2.getSeq());
+      assertNull(s.poll(50, TimeUnit.MILLISECONDS));
+    }
+  }
+
+  @Test public void abonne_lent_ne_bloque_pas_et_rattrape() throws Exception {
+    Dns dns = new Dns(db());
+    ChangeStream s = dns.watch("", 4);
+    for (int i = 0; i < 100; i++) {
+      dns.addItem(ip(i), new NomMachine("h" + i + ".lent.fr"));
+    }
+    for (int i = 1; i <= 100; i++) {
+      Mutation m = s.poll(1, TimeUnit.SECONDS);
+      assertEquals(i, m.getSeq());
+    }
+    assertEquals(0, s.gaps());
+    s.close();
+    dns.addItem(ip(200), new NomMachine("apres.lent.fr"));
+    assertNull(s.poll(10, TimeUnit.MILLISECONDS));
+  }
+
+  @Test public void saut_si_journal_depasse() throws Exception {
+    Properties p = new Properties();
+    p.setProperty("log.size", "10");
+    Dns dns = new Dns(db(), p);
+    ChangeStream s = dns.watch("", 2);
+    for (int i = 0; i < 50; i++) {
+      dns.addItem(ip(i), new NomMachine("h" + i + ".saut.fr"));
+    }
+    assertEquals(1, s.poll(1, TimeUnit.SECONDS).getSeq());
+    assertEquals(2, s.poll(1, TimeUnit.SECONDS).getSeq());
+    assertNull(s.poll(50, TimeUnit.MILLISECONDS));
+    assertEquals(1, s.gaps());
+    dns.addItem(ip(60), new NomMachine("suite.saut.fr"));
+    assertEquals(51, s.poll(1, TimeUnit.SECONDS).getSeq());
+    s.close();
+  }
+
+  @Test public void expiration_publiee() throws Exception {
+    DnsTest.FakeClock clock = new DnsTest.FakeClock();
+    Dns dns = new Dns(db(), clock);
+    try (ChangeStream s = dns.watch("ttl.fr", 8)) {
+      dns.addItem(ip(1), new NomMachine("eph.ttl.fr"), Duration.ofSeconds(5));
+      clock.avance(Duration.ofSeconds(6));
+      assertNull(dns.getItem(new NomMachine("eph.ttl.fr")));
+      assertEquals(Mutation.Type.ADD, s.poll(1, TimeUnit.SECONDS).getType());
+      assertEquals(Mutation.Type.REMOVE, s.poll(1, TimeUnit.SECONDS).getType());
+    }
+  }
+
+  @Test public void commande_watch_affiche_les_modifications() throws Exception {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(baos, true);
+    Dns dns = new Dns(db());
+    DnsTUI tui = new DnsTUI(new Scanner(""), out, dns);
+    assertTrue(tui.parse("watch t.fr").execute(dns).startsWith("Surveillance de t.fr"));
+    assertTrue(tui.parse("watch t.fr").execute(dns).startsWith("ERREUR"));
+    tui.parse("add 1.2.3.4 a.t.fr").execute(dns);
+    tui.parse("add 1.2.3.5 a.u.fr").execute(dns);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!baos.toString().contains("#1 + 1.2.3.4 a.t.fr")
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(baos.toString().contains("#1 + 1.2.3.4 a.t.fr"));
+    assertEquals("Surveillance de t.fr arrêtée", tui.parse("unwatch t.fr").execute(dns));
+    assertTrue(tui.parse("unwatch t.fr").execute(dns).startsWith("ERREUR"));
+    assertFalse(baos.toString().contains("a.u.fr"));
+  }
+}
@@ -0,0 +1,90 @@
+package fr.uvsq.cprog.collex;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompactZoneFileTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static List<DnsItem> zone(int n) {
+    List<DnsItem> items = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      Instant exp = (i % 10 == 0) ? Instant.ofEpochSecond(1_900_000_000L + i) : null;
+      items.add(new DnsItem(new NomMachine("host-" + i + ".rack" + (i % 13) + ".dc.example.com"),
+          AdresseIP.fromInt(0x0A000000 + i * 7), exp));
+    }
+    return items;
+  }
+
+  @Test public void labels_inverses() {
+    assertEquals("fr.uvsq.www", CompactZoneFile.reverseLabels("www.uvsq.fr"));
+    assertEquals("www.uvsq.fr", CompactZoneFile.reverseLabels("fr.uvsq.www"));
+  }
+
+  @Test public void aller_retour_et_recherche_par_bloc() throws Exception {
+    Path f = tmp.newFile("zone.bin").toPath();
+    List<DnsItem> items = zone(5_000);
+    CompactZoneFile.write(f, items, 64);
+    assertTrue(CompactZoneFile.isCompact(f));
+
+    Map<String, DnsItem> relus = new HashMap<>();
+    CompactZoneFile.forEach(f, it -> relus.put(it.getNom().getFqdn(), it));
+    assertEquals(items.size(), relus.size());
+    CompactZoneFile idx = CompactZoneFile.open(f);
+    for (DnsItem it : items) {
+      DnsItem r = relus.get(it.getNom().getFqdn());
+      assertEquals(it.getIp(), r.getIp());
+      assertEquals(it.getExpiration(), r.getExpiration());
+      assertEquals(it.getIp(), idx.lookup(it.getNom()).getIp());
+    }
+    assertNull(idx.lookup(new NomMachine("absent.dc.example.com")));
+    assertNull(idx.lookup(new NomMachine("a.a")));
+    assertNull(idx.lookup(new NomMachine("zzz.zzz")));
+  }
+
+  @Test public void plus_petit_que_le_texte() throws Exception {
+    Path txt = tmp.newFile("db.txt").toPath();
+    Dns dns = new Dns(txt);
+    for (DnsItem it : zone(2_000)) {
+      dns.addItem(it.getIp(), it.getNom());
+    }
+    Path bin = tmp.newFile("zone.bin").toPath();
+    CompactZoneFile.write(bin, zone(2_000), 128);
+    assertTrue(Files.size(bin) * 2 < Files.size(txt));
+  }
+
+  @Test public void dns_migre_une_base_texte_et_recharge_paresseusement() throws Exception {
+    Path db = tmp.newFile("db.txt").toPath();
+    Files.write(db, "www.uvsq.fr 193.51.31.90\nposte.uvsq.fr 193.51.31.154\n".getBytes());
+    Properties p = new Properties();
+    p.setProperty("db.format", "compact");
+    Dns dns = new Dns(db, p);
+    dns.addItem(new AdresseIP("193.51.25.12"), new NomMachine("ecampus.uvsq.fr"));
+    assertTrue(CompactZoneFile.isCompact(db));
+
+    p.setProperty("db.lazy", "true");
+    Dns lazy = new Dns(db, p);
+    assertEquals("193.51.31.154", lazy.getItem(new NomMachine("poste.uvsq.fr")).getIp().value());
+    assertEquals(3, lazy.getItems("uvsq.fr").size());
+  }
+
+  @Test public void base_texte_commencant_par_la_signature() throws Exception {
+    Path db = tmp.newFile("db.txt").toPath();
+    Files.write(db, "DNSZ.uvsq.fr 10.0.0.1\nwww.uvsq.fr 10.0.0.2\n".getBytes());
+    assertFalse(CompactZoneFile.isCompact(db));
+    Dns dns = new Dns(db);
+    assertEquals("10.0.0.1", dns.getItem(new NomMachine("DNSZ.uvsq.fr")).getIp().value());
+    assertEquals(2, dns.getItems("uvsq.fr").size());
+  }
+}
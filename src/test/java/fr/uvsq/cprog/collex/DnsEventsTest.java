@@ -0,0 +1,121 @@
+package fr.uvsq.cprog.collex;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DnsEventsTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static final String[] EVENTS = {"fr.uvsq.cprog.collex.Commande",
+      "fr.uvsq.cprog.collex.Chargement", "fr.uvsq.cprog.collex.Ecriture",
+      "fr.uvsq.cprog.collex.Index"};
+
+  private static Configuration configuration() throws Exception {
+    try (Reader r = new InputStreamReader(
+        DnsEventsTest.class.getResourceAsStream("/jfr/dns.jfc"), StandardCharsets.UTF_8)) {
+      return Configuration.create(r);
+    }
+  }
+
+  @Test public void configuration_livree() throws Exception {
+    Map<String, String> settings = configuration().getSettings();
+    for (String e : EVENTS) {
+      assertEquals(e, "true", settings.get(e + "#enabled"));
+    }
+  }
+
+  @Test public void session_enregistree() throws Exception {
+    Path db = tmp.getRoot().toPath().resolve("db.txt");
+    Dns init = new Dns(db);
+    init.addItem(new AdresseIP("10.0.0.1"), new NomMachine("www.uvsq.fr"));
+
+    Path jfr = tmp.getRoot().toPath().resolve("session.jfr");
+    try (Recording rec = new Recording(configuration())) {
+      for (String e : EVENTS) {
+        rec.enable(e).withoutThreshold(); // la session est trop brève pour les seuils
+      }
+      rec.start();
+      Dns dns = new Dns(db);
+      String script = String.join("\n", "www.uvsq.fr", "add 10.0.0.2 ftp.uvsq.fr",
+          "find uvsq", "10.0.0.9", "add 10.0.0.2 mail.uvsq.fr");
+      StringWriter out = new StringWriter();
+      new BatchRunner(dns, 1).run(new BufferedReader(new StringReader(script)), out);
+      rec.stop();
+      rec.dump(jfr);
+    }
+
+    List<String> commandes = new ArrayList<>();
+    List<RecordedEvent> events = RecordingFile.readAllEvents(jfr);
+    int chargements = 0;
+    int ecritures = 0;
+    int index = 0;
+    for (RecordedEvent e : events) {
+      switch (e.getEventType().getName()) {
+        case "fr.uvsq.cprog.collex.Commande":
+          commandes.add(e.getString("type") + " " + e.getString("argument") + " "
+              + e.getInt("resultSize") + " " + e.getBoolean("succes"));
+          assertFalse(e.getDuration().isNegative());
+          break;
+        case "fr.uvsq.cprog.collex.Chargement":
+          chargements++;
+          assertEquals(1, e.getInt("entrees"));
+          assertTrue(e.getLong("octets") > 0);
+          assertEquals(db.toString(), e.getString("fichier"));
+          break;
+        case "fr.uvsq.cprog.collex.Ecriture":
+          ecritures++;
+          assertEquals(2, e.getInt("entrees"));
+          assertFalse(e.getBoolean("compact"));
+          break;
+        case "fr.uvsq.cprog.collex.Index":
+          index++;
+          assertEquals("noms", e.getString("index"));
+          assertEquals(2, e.getInt("entrees"));
+          break;
+        default:
+          break;
+      }
+    }
+    assertEquals(1, chargements);
+    assertEquals(1, ecritures);
+    assertEquals(1, index);
+    assertEquals(5, commandes.size());
+    assertEquals("CommandeNom www.uvsq.fr 8 true", commandes.get(0));
+    assertEquals("CommandeAdd add 10.0.0.2 ftp.uvsq.fr 0 true", commandes.get(1));
+    assertTrue(commandes.get(2), commandes.get(2).startsWith("CommandeFind find uvsq "));
+    assertTrue(commandes.get(3), commandes.get(3).startsWith("CommandeIp 10.0.0.9 "));
+    assertEquals("CommandeAdd add 10.0.0.2 mail.uvsq.fr 0 false", commandes.get(4));
+  }
+
+  @Test public void sans_enregistrement_commande_inchangee() {
+    Dns dns = new Dns(tmp.getRoot().toPath().resolve("db.txt"));
+    dns.addItem(new AdresseIP("10.0.0.1"), new NomMachine("www.uvsq.fr"));
+    DnsTUI tui = new DnsTUI(new Scanner(""), System.out, dns);
+    Commande brute = tui.parse("www.uvsq.fr");
+    Commande tracee = DnsEvents.trace(brute, "www.uvsq.fr");
+    // aucun enregistrement actif : l'événement n'est ni activé ni validé
+    DnsEvents.Execution ev = new DnsEvents.Execution();
+    assertFalse(ev.isEnabled());
+    assertFalse(ev.shouldCommit());
+    assertEquals(brute.execute(dns), tracee.execute(dns));
+    assertEquals(brute.lectureSeule(), tracee.lectureSeule());
+  }
+}
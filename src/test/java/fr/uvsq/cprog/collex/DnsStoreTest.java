@@ -0,0 +1,141 @@
+package fr.uvsq.cprog.collex;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Suite de conformité et de performance commune à tous les moteurs de stockage.
+ */
+@RunWith(Parameterized.class)
+public class DnsStoreTest {
+
+  @Parameters(name = "{0}")
+  public static Collection<Object[]> moteurs() {
+    return Arrays.asList(new Object[][] {{"hash"}, {"tree"}, {"offheap"}, {"mmap"}});
+  }
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private final String type;
+  private DnsStore store;
+
+  public DnsStoreTest(String type) {
+    this.type = type;
+  }
+
+  @Before public void setUp() throws IOException {
+    store = DnsStore.create(type, tmp.newFolder().toPath().resolve("db.txt"));
+  }
+
+  private static DnsItem item(String fqdn, String ip) {
+    return new DnsItem(new NomMachine(fqdn), new AdresseIP(ip));
+  }
+
+  @Test public void put_get_par_nom_et_ip() {
+    store.put(item("www.uvsq.fr", "193.51.31.90"));
+    assertEquals(1, store.size());
+    assertEquals("193.51.31.90", store.get(new NomMachine("www.uvsq.fr")).getIp().value());
+    assertEquals("www.uvsq.fr", store.get(new AdresseIP("193.51.31.90")).getNom().getFqdn());
+    assertNull(store.get(new NomMachine("absent.uvsq.fr")));
+    assertNull(store.get(new AdresseIP("1.1.1.1")));
+  }
+
+  @Test public void expiration_conservee() {
+    Instant exp = Instant.parse("2030-01-01T00:00:00Z");
+    store.put(new DnsItem(new NomMachine("a.b"), new AdresseIP("1.2.3.4"), exp));
+    assertEquals(exp, store.get(new NomMachine("a.b")).getExpiration());
+  }
+
+  @Test public void remove_retire_des_deux_index() {
+    store.put(item("a.b", "1.1.1.1"));
+    store.put(item("c.b", "2.2.2.2"));
+    assertEquals("1.1.1.1", store.remove(new NomMachine("a.b")).getIp().value());
+    assertNull(store.remove(new NomMachine("a.b")));
+    assertNull(store.get(new AdresseIP("1.1.1.1")));
+    assertNotNull(store.get(new NomMachine("c.b")));
+    assertEquals(1, store.size());
+  }
+
+  @Test public void nombreuses_insertions_et_suppressions() {
+    int n = 20_000;
+    for (int i = 0; i < n; i++) {
+      store.put(item("h" + i + ".d" + (i % 7), AdresseIP.fromInt(0x0A000000 + i).value()));
+    }
+    for (int i = 0; i < n; i += 2) {
+      assertNotNull(store.remove(new NomMachine("h" + i + ".d" + (i % 7))));
+    }
+    for (int i = 0; i < n; i += 2) {
+      store.put(item("n" + i + ".d", AdresseIP.fromInt(0x0A000000 + i).value()));
+    }
+    assertEquals(n, store.size());
+    for (int i = 1; i < n; i += 2) {
+      DnsItem it = store.get(AdresseIP.fromInt(0x0A000000 + i));
+      assertEquals("h" + i + ".d" + (i % 7), it.getNom().getFqdn());
+    }
+    Set<String> vus = new HashSet<>();
+    store.forEach(it -> vus.add(it.getNom().getFqdn()));
+    assertEquals(n, vus.size());
+  }
+
+  @Test public void parcours_trie_si_annonce() {
+    store.put(item("z.b", "1.1.1.3"));
+    store.put(item("a.b", "1.1.1.1"));
+    store.put(item("m.b", "1.1.1.2"));
+    List<String> noms = new ArrayList<>();
+    store.forEach(it -> noms.add(it.getNom().getFqdn()));
+    if (store.isSorted()) {
+      assertEquals(Arrays.asList("a.b", "m.b", "z.b"), noms);
+    } else {
+      assertEquals(new HashSet<>(Arrays.asList("a.b", "m.b", "z.b")), new HashSet<>(noms));
+    }
+  }
+
+  @Test public void dns_avec_ce_moteur() throws IOException {
+    Path db = tmp.newFile("db.txt").toPath();
+    Files.write(db, "x.d 1.1.1.1\nb.d 1.1.1.2\n".getBytes());
+    Properties config = new Properties();
+    config.setProperty("db.store", type);
+    Dns dns = new Dns(db, config);
+    dns.addItem(new AdresseIP("1.1.1.3"), new NomMachine("a.d"));
+    assertEquals(Arrays.asList("a.d 1.1.1.3", "b.d 1.1.1.2", "x.d 1.1.1.1"),
+        Files.readAllLines(db));
+    assertEquals(3, dns.getItems("d").size());
+    assertEquals("a.d", dns.getItems("d").get(0).getNom().getFqdn());
+  }
+
+  @Test public void volume() {
+    int n = 100_000;
+    NomMachine[] noms = new NomMachine[n];
+    AdresseIP[] ips = new AdresseIP[n];
+    for (int i = 0; i < n; i++) {
+      noms[i] = new NomMachine("host" + i + ".zone" + (i % 100) + ".example");
+      ips[i] = AdresseIP.fromInt(0x0A000000 + i);
+    }
+    for (int i = 0; i < n; i++) {
+      store.put(new DnsItem(noms[i], ips[i]));
+    }
+    assertEquals(n, store.size());
+    for (int i = 0; i < n; i++) {
+      assertEquals(ips[(i * 31) % n], store.get(noms[(i * 31) % n]).getIp());
+      assertEquals(noms[(i * 17) % n], store.get(ips[(i * 17) % n]).getNom());
+    }
+  }
+}
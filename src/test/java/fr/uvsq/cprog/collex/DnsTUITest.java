@@ -6,10 +6,19 @@ import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.util.Scanner;
 
+import org.junit.ClassRule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class DnsTUITest {
 
+  @ClassRule public static TemporaryFolder tmp = new TemporaryFolder();
+
+  /** Base vide sur laquelle les TUI sont construites. */
+  private static Dns base() {
+    return new Dns(tmp.getRoot().toPath().resolve("db.txt"));
+  }
+
   /** Utilitaire pour construire une TUI en mémoire. */
   private static class Harness implements AutoCloseable {
     final ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -17,7 +26,7 @@ public class DnsTUITest {
     final DnsTUI tui;
 
     Harness(String input) {
-      this.tui = new DnsTUI(new Scanner(input), out);
+      this.tui = new DnsTUI(new Scanner(input), out, base());
     }
     String getOut() { return new String(baos.toByteArray()); }
 
@@ -31,19 +40,24 @@ public class DnsTUITest {
 
   @Test(expected = NullPointerException.class)
   public void constructor_nullScanner_throws() {
-    new DnsTUI(null, System.out);
+    new DnsTUI(null, System.out, base());
   }
 
   @Test(expected = NullPointerException.class)
   public void constructor_nullOut_throws() {
-    new DnsTUI(new Scanner(""), null);
+    new DnsTUI(new Scanner(""), null, base());
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void constructor_nullDns_throws() {
+    new DnsTUI(new Scanner(""), System.out, null);
   }
 
   // -------------------- parse(...) : lignes invalides --------------------
 
   @Test
   public void parse_null_returnsErreur() {
-    DnsTUI tui = new DnsTUI(new Scanner(""), System.out);
+    DnsTUI tui = new DnsTUI(new Scanner(""), System.out, base());
     Commande c = tui.parse(null);
     String res = c.execute(null); // lambda renvoie un message d'erreur
     assertTrue(res.startsWith("ERREUR"));
@@ -51,7 +65,7 @@ public class DnsTUITest {
 
   @Test
   public void parse_empty_returnsNoOp() {
-    DnsTUI tui = new DnsTUI(new Scanner(""), System.out);
+    DnsTUI tui = new DnsTUI(new Scanner(""), System.out, base());
     Commande c = tui.parse("   ");
     String res = c.execute(null); // lambda retourne ""
     assertEquals("", res);
@@ -61,7 +75,7 @@ public class DnsTUITest {
 
   @Test
   public void parse_quit_returnsCommandeQuit() {
-    DnsTUI tui = new DnsTUI(new Scanner(""), System.out);
+    DnsTUI tui = new DnsTUI(new Scanner(""), System.out, base());
     assertTrue(tui.parse("quit") instanceof CommandeQuit);
     assertTrue(tui.parse("QUIT") instanceof CommandeQuit);
     assertTrue(tui.parse("exit") instanceof CommandeQuit);
@@ -71,7 +85,7 @@ public class DnsTUITest {
 
   @Test
   public void parse_ls_missingArg_isError() {
-    DnsTUI tui = new DnsTUI(new Scanner(""), System.out);
+    DnsTUI tui = new DnsTUI(new Scanner(""), System.out, base());
     Commande c1 = tui.parse("ls");
     Commande c2 = tui.parse("ls   ");
     String r1 = c1.execute(null);
@@ -82,14 +96,14 @@ public class DnsTUITest {
 
   @Test
   public void parse_ls_withDomain_returnsCommandeLs() {
-    DnsTUI tui = new DnsTUI(new Scanner(""), System.out);
+    DnsTUI tui = new DnsTUI(new Scanner(""), System.out, base());
     Commande c = tui.parse("ls uvq.fr");
     assertTrue(c instanceof CommandeLs);
   }
 
   @Test
   public void parse_ls_withOptionA_returnsCommandeLs() {
-    DnsTUI tui = new DnsTUI(new Scanner(""), System.out);
+    DnsTUI tui = new DnsTUI(new Scanner(""), System.out, base());
     Commande c = tui.parse("ls -a example.com");
     assertTrue(c instanceof CommandeLs);
   }
@@ -98,14 +112,14 @@ public class DnsTUITest {
 
   @Test
   public void parse_add_ok_returnsCommandeAdd() {
-    DnsTUI tui = new DnsTUI(new Scanner(""), System.out);
+    DnsTUI tui = new DnsTUI(new Scanner(""), System.out, base());
     Commande c = tui.parse("add 192.168.1.10 host.example.com");
     assertTrue(c instanceof CommandeAdd);
   }
 
   @Test
   public void parse_add_badArity_isError() {
-    DnsTUI tui = new DnsTUI(new Scanner(""), System.out);
+    DnsTUI tui = new DnsTUI(new Scanner(""), System.out, base());
     String r1 = tui.parse("add 192.168.1.10").execute(null);
     String r2 = tui.parse("add 192.168.1.10 host extra").execute(null);
     assertTrue(r1.startsWith("ERREUR"));
@@ -114,7 +128,7 @@ public class DnsTUITest {
 
   @Test
   public void parse_add_invalidIp_orInvalidName_isErrorMessage() {
-    DnsTUI tui = new DnsTUI(new Scanner(""), System.out);
+    DnsTUI tui = new DnsTUI(new Scanner(""), System.out, base());
     String r1 = tui.parse("add 999.999.999.999 host.example.com").execute(null);
     String r2 = tui.parse("add 1.2.3.4 not_a_valid_fqdn").execute(null);
     assertTrue(r1.startsWith("ERREUR"));
@@ -125,14 +139,14 @@ public class DnsTUITest {
 
   @Test
   public void parse_ip_returnsCommandeIp() {
-    DnsTUI tui = new DnsTUI(new Scanner(""), System.out);
+    DnsTUI tui = new DnsTUI(new Scanner(""), System.out, base());
     assertTrue(tui.parse("8.8.8.8") instanceof CommandeIp);
     assertTrue(tui.parse("1.2.3.4") instanceof CommandeIp);
   }
 
   @Test
   public void parse_fqdn_returnsCommandeNom() {
-    DnsTUI tui = new DnsTUI(new Scanner(""), System.out);
+    DnsTUI tui = new DnsTUI(new Scanner(""), System.out, base());
     assertTrue(tui.parse("www.example.com") instanceof CommandeNom);
     assertTrue(tui.parse("sub.domain.co.uk") instanceof CommandeNom);
   }
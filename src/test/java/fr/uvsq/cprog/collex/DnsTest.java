@@ -3,7 +3,14 @@ import static org.junit.Assert.*;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Properties;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -47,4 +54,144 @@ public class DnsTest {
     Dns dns = new Dns(db);
     dns.addItem(new AdresseIP("1.1.1.1"), new NomMachine("y.d"));
   }
+
+  /** Horloge réglable pour les tests de TTL. */
+  static final class FakeClock extends Clock {
+    private Instant now = Instant.parse("2025-01-01T00:00:00Z");
+
+    void avance(Duration d) {
+      now = now.plus(d);
+    }
+
+    @Override public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override public Clock withZone(ZoneId zone) {
+      return this;
+    }
+
+    @Override public Instant instant() {
+      return now;
+    }
+  }
+
+  @Test public void ttl_expiration_et_tombstone() throws Exception {
+    Path db = makeDb("");
+    FakeClock clock = new FakeClock();
+    Dns dns = new Dns(db, clock);
+    dns.addItem(new AdresseIP("1.2.3.4"), new NomMachine("eph.d"), Duration.ofSeconds(30));
+    dns.addItem(new AdresseIP("1.2.3.5"), new NomMachine("perm.d"));
+    assertNotNull(dns.getItem(new NomMachine("eph.d")).getExpiration());
+    assertTrue(Files.readAllLines(db).get(0).startsWith("eph.d 1.2.3.4 2025-01-01T00:00:30Z"));
+
+    clock.avance(Duration.ofSeconds(31));
+    assertNull(dns.getItem(new NomMachine("eph.d")));
+    assertNull(dns.getItem(new AdresseIP("1.2.3.4")));
+    assertNotNull(dns.getItem(new NomMachine("perm.d")));
+    List<String> tombstones = Files.readAllLines(db.resolveSibling("db.txt.tombstones"));
+    assertEquals(1, tombstones.size());
+    assertTrue(tombstones.get(0).startsWith("eph.d 1.2.3.4"));
+
+    // le nom et l'adresse sont de nouveau disponibles
+    dns.addItem(new AdresseIP("1.2.3.4"), new NomMachine("eph.d"));
+  }
+
+  @Test public void ttl_relu_et_ignore_si_echu() throws Exception {
+    Path db = makeDb("a.d 1.1.1.1 2025-01-01T00:01:00Z\nb.d 2.2.2.2 2024-12-31T00:00:00Z\n");
+    FakeClock clock = new FakeClock();
+    Dns dns = new Dns(db, clock);
+    assertNotNull(dns.getItem(new NomMachine("a.d")));
+    assertNull(dns.getItem(new NomMachine("b.d")));
+    clock.avance(Duration.ofMinutes(2));
+    assertTrue(dns.getItems("d").isEmpty());
+  }
+
+  @Test public void tombstone_non_repete_au_redemarrage() throws Exception {
+    Path db = makeDb("a.d 1.1.1.1\nb.d 2.2.2.2 2024-12-31T00:00:00Z\n");
+    FakeClock clock = new FakeClock();
+    for (int i = 0; i < 3; i++) {
+      assertNull(new Dns(db, clock).getItem(new NomMachine("b.d")));
+    }
+    List<String> tombstones = Files.readAllLines(db.resolveSibling("db.txt.tombstones"));
+    assertEquals(List.of("b.d 2.2.2.2 2024-12-31T00:00:00Z"), tombstones);
+    assertEquals(List.of("a.d 1.1.1.1"), Files.readAllLines(db));
+  }
+
+  @Test public void ttl_mal_forme_ignore_hors_mode_strict() throws Exception {
+    Path db = makeDb("a.d 1.1.1.1 demain\nb.d 2.2.2.2\n");
+    Dns dns = new Dns(db, new FakeClock());
+    assertNull(dns.getItem(new NomMachine("a.d")));
+    assertNotNull(dns.getItem(new NomMachine("b.d")));
+    Properties strict = new Properties();
+    strict.setProperty("db.strict", "true");
+    try {
+      new Dns(db, strict);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("Expiration invalide : a.d 1.1.1.1 demain", e.getMessage());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void ttl_negatif() throws Exception {
+    Dns dns = new Dns(makeDb(""));
+    dns.addItem(new AdresseIP("1.2.3.4"), new NomMachine("a.b"), Duration.ofSeconds(-1));
+  }
+
+  private static Properties lazy(int step) {
+    Properties p = new Properties();
+    p.setProperty("db.lazy", "true");
+    p.setProperty("db.lazy.step", Integer.toString(step));
+    return p;
+  }
+
+  @Test public void paresseux_recherche_par_nom_sans_chargement() throws Exception {
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      lines.add(String.format("h%04d.zone 10.0.%d.%d", i, i / 256, i % 256));
+    }
+    Path db = tmp.newFile("db.txt").toPath();
+    Files.write(db, lines);
+    Dns dns = new Dns(db, lazy(16));
+    assertTrue(Files.exists(db.resolveSibling("db.txt.idx")));
+    assertEquals("10.0.2.121", dns.getItem(new NomMachine("h0633.zone")).getIp().value());
+    assertEquals("10.0.0.0", dns.getItem(new NomMachine("h0000.zone")).getIp().value());
+    assertEquals("10.0.3.231", dns.getItem(new NomMachine("h0999.zone")).getIp().value());
+    assertNull(dns.getItem(new NomMachine("h0633x.zone")));
+    assertNull(dns.getItem(new NomMachine("a.zone")));
+    // index relu depuis le fichier compagnon
+    Dns again = new Dns(db, lazy(16));
+    assertEquals("10.0.1.0", again.getItem(new NomMachine("h0256.zone")).getIp().value());
+  }
+
+  @Test public void paresseux_charge_a_la_demande_et_reindexe() throws Exception {
+    Path db = makeDb("b.d 1.1.1.2\nc.d 1.1.1.3\n");
+    Dns dns = new Dns(db, lazy(1));
+    assertEquals("b.d", dns.getItem(new AdresseIP("1.1.1.2")).getNom().getFqdn());
+    dns.addItem(new AdresseIP("1.1.1.1"), new NomMachine("a.d"));
+    Dns again = new Dns(db, lazy(1));
+    assertEquals("1.1.1.1", again.getItem(new NomMachine("a.d")).getIp().value());
+    assertEquals("1.1.1.3", again.getItem(new NomMachine("c.d")).getIp().value());
+  }
+
+  @Test public void paresseux_fichier_non_trie_charge_tout() throws Exception {
+    Path db = makeDb("z.d 1.1.1.9\na.d 1.1.1.1\n");
+    Dns dns = new Dns(db, lazy(1));
+    assertEquals("1.1.1.9", dns.getItem(new NomMachine("z.d")).getIp().value());
+    assertEquals("1.1.1.1", dns.getItem(new NomMachine("a.d")).getIp().value());
+  }
+
+  @Test public void paresseux_nom_repete_garde_la_derniere_ligne() throws Exception {
+    String zone = "a.d 1.1.1.1\nb.d 1.1.1.2\nb.d 1.1.1.3\nb.d 1.1.1.4\nc.d 1.1.1.5\n";
+    NomMachine b = new NomMachine("b.d");
+    // même résultat qu'un chargement complet, où la dernière ligne l'emporte
+    assertEquals("1.1.1.4", new Dns(makeDb(zone)).getItem(b).getIp().value());
+    for (int step = 1; step <= 3; step++) {
+      Path db = tmp.newFile("zone" + step + ".txt").toPath();
+      Files.write(db, zone.getBytes());
+      Dns dns = new Dns(db, lazy(step));
+      assertEquals("pas " + step, "1.1.1.4", dns.getItem(b).getIp().value());
+    }
+  }
 }
@@ -0,0 +1,165 @@
+package fr.uvsq.cprog.collex;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Scanner;
+import java.util.function.Consumer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FootprintTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  /** JVM 64 bits, références compressées, chaînes compactes. */
+  private static final HeapLayout COMPRESSED = new HeapLayout(true, true, 8, true);
+
+  private Path db() {
+    return tmp.getRoot().toPath().resolve("db.txt");
+  }
+
+  @Test public void tailles_des_objets() {
+    assertEquals(24, COMPRESSED.object(3, 0));                // DnsItem, NomMachine
+    assertEquals(24, COMPRESSED.object(1, 4));                // AdresseIP
+    assertEquals(56, COMPRESSED.string("www.uvsq.fr"));       // 24 + 16 + 11 arrondi à 32
+    assertEquals(24 + 24, COMPRESSED.string("\u00e9.fr"));   // Latin-1 : 16 + 4 arrondi à 24
+    assertEquals(24 + 24, COMPRESSED.string("\u4e2d.fr"));   // UTF-16 : 16 + 8
+    assertEquals(32, COMPRESSED.hashNode());
+    assertEquals(40, COMPRESSED.linkedHashNode());
+    assertEquals(40, COMPRESSED.treeNode());
+    assertEquals(0, COMPRESSED.hashTable(0));
+    assertEquals(16 + 16 * 4, COMPRESSED.hashTable(12));
+    assertEquals(16 + 32 * 4, COMPRESSED.hashTable(13));
+    HeapLayout large = new HeapLayout(false, false, 8, true);
+    assertEquals(16 + 3 * 8, large.object(3, 0));
+  }
+
+  @Test public void comptabilite_incrementale() {
+    DnsTest.FakeClock clock = new DnsTest.FakeClock();
+    Dns dns = new Dns(db(), clock);
+    for (int i = 0; i < 300; i++) {
+      Duration ttl = (i % 3 == 0) ? Duration.ofSeconds(10 + i) : null;
+      dns.addItem(AdresseIP.fromInt(0x0A000000 + i),
+          new NomMachine("h" + i + ".d" + (i % 7) + ".fr"), ttl);
+    }
+    dns.transaction(tx -> {
+      for (int i = 0; i < 300; i += 5) {
+        tx.removeItem(new NomMachine("h" + i + ".d" + (i % 7) + ".fr"));
+      }
+    });
+    clock.avance(Duration.ofSeconds(100));
+    Footprint.Report r = dns.footprint();
+
+    // même comptabilité recalculée d'un seul parcours
+    Footprint scratch = new Footprint(HeapLayout.current());
+    for (DnsItem it : dns.snapshot()) {
+      scratch.add(it);
+    }
+    Footprint.Report expected = scratch.report(new HashDnsStore());
+    assertEquals(dns.snapshot().size(), r.getEntries());
+    for (String k : new String[] {"objets des entrées", "chaînes fqdn", "chaînes machine",
+        "chaînes domaine", "chaînes ip"}) {
+      assertEquals(k, expected.getParts().get(k), r.getParts().get(k));
+    }
+    assertEquals(expected.getTtlEntries(), r.getTtlEntries());
+    assertEquals(7, r.getDistinctDomains());
+    assertEquals(expected.getDuplicateDomainBytes(), r.getDuplicateDomainBytes());
+    assertTrue(r.getDuplicateDomainBytes() > 0);
+
+    // une base vidée ne garde que ses tables, qui ne rétrécissent pas
+    dns.transaction(tx -> dns.snapshot().forEach(it -> tx.removeItem(it.getNom())));
+    r = dns.footprint();
+    assertEquals(0, r.getEntries());
+    assertEquals(Long.valueOf(0), r.getParts().get("chaînes fqdn"));
+    assertEquals(0, r.getDuplicateDomainBytes());
+    assertTrue(r.getParts().get("byName") > 0);
+  }
+
+  @Test public void moteurs_et_partitions() {
+    Properties p = new Properties();
+    p.setProperty("db.store", "offheap");
+    Dns offheap = new Dns(db(), p);
+    offheap.addItem(new AdresseIP("10.0.0.1"), new NomMachine("a.uvsq.fr"));
+    Footprint.Report r = offheap.footprint();
+    assertEquals(1, r.getEntries());
+    assertTrue(r.getOffHeapBytes() > 0);
+    assertNull(r.getParts().get("chaînes fqdn"));
+
+    ShardedDns sharded = new ShardedDns(tmp.getRoot().toPath().resolve("s.txt"), 4,
+        new Properties());
+    for (int i = 0; i < 100; i++) {
+      sharded.addItem(AdresseIP.fromInt(0x0A000000 + i), new NomMachine("h" + i + ".uvsq.fr"));
+    }
+    r = sharded.footprint();
+    assertEquals(100, r.getEntries());
+    assertEquals(4, r.getDistinctDomains());
+    assertTrue(r.toString(), r.toString().contains("total tas"));
+  }
+
+  @Test public void commande_mem_et_rapport_sans_parcours() {
+    Dns dns = new Dns(db());
+    int n = 100_000;
+    dns.transaction(tx -> {
+      for (int i = 0; i < n; i++) {
+        tx.addItem(AdresseIP.fromInt(0x0A000000 + i),
+            new NomMachine("machine" + i + ".site" + (i % 20) + ".uvsq.fr"));
+      }
+    });
+    String out = new DnsTUI(new Scanner(""), System.out, dns).parse("mem").execute(dns);
+    assertTrue(out, out.startsWith("entrées"));
+    assertTrue(out, out.contains("20 domaine(s) distinct(s)"));
+    Map<String, Long> parts = dns.footprint().getParts();
+    assertEquals(Long.valueOf(HeapLayout.current().hashTable(n)
+        + n * HeapLayout.current().linkedHashNode()), parts.get("byName"));
+
+    // compteurs tenus à jour : le rapport ne relit aucune entrée du moteur
+    Footprint fp = new Footprint(HeapLayout.current());
+    SansLecture store = new SansLecture();
+    for (int i = 0; i < n; i++) {
+      DnsItem it = new DnsItem(new NomMachine("machine" + i + ".site" + (i % 20) + ".uvsq.fr"),
+          AdresseIP.fromInt(0x0A000000 + i));
+      store.put(it);
+      fp.add(it);
+    }
+    Footprint.Report r = fp.report(store);
+    assertEquals(n, r.getEntries());
+    assertEquals(parts, r.getParts());
+  }
+
+  /** Moteur dont les entrées ne peuvent être relues, seulement comptées. */
+  private static final class SansLecture implements DnsStore {
+    private final HashDnsStore store = new HashDnsStore();
+
+    @Override public DnsItem get(NomMachine nom) {
+      throw new AssertionError("lecture de " + nom);
+    }
+
+    @Override public DnsItem get(AdresseIP ip) {
+      throw new AssertionError("lecture de " + ip);
+    }
+
+    @Override public void put(DnsItem item) {
+      store.put(item);
+    }
+
+    @Override public DnsItem remove(NomMachine nom) {
+      return store.remove(nom);
+    }
+
+    @Override public int size() {
+      return store.size();
+    }
+
+    @Override public void forEach(Consumer<? super DnsItem> action) {
+      throw new AssertionError("parcours des entrées");
+    }
+
+    @Override public Map<String, Long> indexBytes(HeapLayout layout) {
+      return store.indexBytes(layout);
+    }
+  }
+}
@@ -0,0 +1,239 @@
+package fr.uvsq.cprog.collex;
+
+import static org.junit.Assert.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ForwarderTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private StubResolver stub;
+  private DnsTest.FakeClock clock;
+  private Dns dns;
+
+  /**
+   * Résolveur amont minimal : répond aux questions A et PTR à partir de tables,
+   * NXDOMAIN (SOA de minimum 30 s) sinon, après un délai réglable.
+   */
+  static final class StubResolver implements Closeable {
+    final Map<String, String> a = new ConcurrentHashMap<>();
+    final Map<String, String> ptr = new ConcurrentHashMap<>();
+    final AtomicInteger questions = new AtomicInteger();
+    volatile int ttl = 300;
+    volatile long delayMillis;
+    volatile boolean mute;
+    private final DatagramSocket socket;
+    private final Thread thread;
+
+    StubResolver() throws SocketException {
+      socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+      thread = new Thread(this::loop, "stub-resolver");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    InetSocketAddress address() {
+      return new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort());
+    }
+
+    private void loop() {
+      byte[] buf = new byte[512];
+      while (!socket.isClosed()) {
+        try {
+          DatagramPacket p = new DatagramPacket(buf, buf.length);
+          socket.receive(p);
+          questions.incrementAndGet();
+          if (mute) {
+            continue;
+          }
+          byte[] reply = answer(ByteBuffer.wrap(buf, 0, p.getLength()));
+          if (delayMillis > 0) {
+            Thread.sleep(delayMillis);
+          }
+          socket.send(new DatagramPacket(reply, reply.length, p.getSocketAddress()));
+        } catch (IOException | InterruptedException e) {
+          return;
+        }
+      }
+    }
+
+    private byte[] answer(ByteBuffer q) {
+      int id = q.getShort() & 0xFFFF;
+      q.position(12);
+      String qname = Forwarder.readName(q);
+      int qtype = q.getShort();
+      byte[] question = new byte[q.position() + 2 - 12];
+      q.position(12);
+      q.get(question);
+      String name = qname.substring(0, qname.length() - 1);
+      String value = (qtype == Forwarder.TYPE_A) ? a.get(name) : ptr.get(name);
+
+      ByteBuffer r = ByteBuffer.allocate(512);
+      r.putShort((short) id);
+      r.putShort((short) (0x8180 | ((value == null) ? Forwarder.RCODE_NXDOMAIN : 0)));
+      r.putShort((short) 1).putShort((short) ((value == null) ? 0 : 1))
+          .putShort((short) ((value == null) ? 1 : 0)).putShort((short) 0);
+      r.put(question);
+      if (value != null) {
+        r.putShort((short) 0xC00C).putShort((short) qtype).putShort((short) 1).putInt(ttl);
+        if (qtype == Forwarder.TYPE_A) {
+          r.putShort((short) 4).putInt(new AdresseIP(value).toInt());
+        } else {
+          byte[] n = labels(value);
+          r.putShort((short) n.length).put(n);
+        }
+      } else {
+        byte[] mname = labels("ns.stub");
+        byte[] rname = labels("hostmaster.stub");
+        r.putShort((short) 0xC00C).putShort((short) Forwarder.TYPE_SOA).putShort((short) 1)
+            .putInt(3600).putShort((short) (mname.length + rname.length + 20))
+            .put(mname).put(rname).putInt(1).putInt(3600).putInt(900).putInt(604800).putInt(30);
+      }
+      byte[] res = new byte[r.position()];
+      r.flip();
+      r.get(res);
+      return res;
+    }
+
+    private static byte[] labels(String name) {
+      ByteBuffer b = ByteBuffer.allocate(256);
+      for (String l : name.split("\\.")) {
+        byte[] bytes = l.getBytes(StandardCharsets.US_ASCII);
+        b.put((byte) bytes.length).put(bytes);
+      }
+      b.put((byte) 0);
+      byte[] res = new byte[b.position()];
+      b.flip();
+      b.get(res);
+      return res;
+    }
+
+    @Override
+    public void close() {
+      socket.close();
+    }
+  }
+
+  @Before public void setUp() throws Exception {
+    stub = new StubResolver();
+    stub.a.put("www.ailleurs.org", "93.184.216.34");
+    stub.ptr.put("34.216.184.93.in-addr.arpa", "www.ailleurs.org");
+    clock = new DnsTest.FakeClock();
+    dns = new Dns(tmp.getRoot().toPath().resolve("db.txt"), clock);
+    dns.addItem(new AdresseIP("10.0.0.1"), new NomMachine("www.uvsq.fr"));
+    dns.setForwarder(new Forwarder(stub.address(), 100, Duration.ofMillis(500),
+        Duration.ofSeconds(60), clock));
+  }
+
+  @After public void tearDown() {
+    stub.close();
+  }
+
+  @Test public void absents_transmis_et_mis_en_cache() {
+    DnsTUI tui = new DnsTUI(new Scanner(""), System.out, dns);
+    assertEquals("10.0.0.1", tui.parse("www.uvsq.fr").execute(dns));
+    assertEquals(0, stub.questions.get());
+
+    assertEquals("93.184.216.34", tui.parse("www.ailleurs.org").execute(dns));
+    assertEquals("93.184.216.34", tui.parse("www.ailleurs.org").execute(dns));
+    assertEquals("www.ailleurs.org", tui.parse("93.184.216.34").execute(dns));
+    assertEquals(2, stub.questions.get());
+    // le cache amont ne se mêle pas aux données de la base
+    assertNull(dns.getItem(new NomMachine("www.ailleurs.org")));
+
+    // TTL échu : nouvelle question
+    clock.avance(Duration.ofSeconds(301));
+    stub.a.put("www.ailleurs.org", "93.184.216.35");
+    assertEquals("93.184.216.35", tui.parse("www.ailleurs.org").execute(dns));
+    assertEquals(3, stub.questions.get());
+
+    // réponse négative gardée le minimum du SOA (30 s)
+    assertEquals("ERREUR : Élément introuvable", tui.parse("rien.ailleurs.org").execute(dns));
+    assertEquals("ERREUR : Élément introuvable", tui.parse("rien.ailleurs.org").execute(dns));
+    assertEquals(4, stub.questions.get());
+    clock.avance(Duration.ofSeconds(31));
+    tui.parse("rien.ailleurs.org").execute(dns);
+    assertEquals(5, stub.questions.get());
+
+    Forwarder.Stats s = dns.forwarder().stats();
+    assertEquals(7, s.getLookups());
+    assertEquals(2, s.getHits());
+    assertTrue(tui.parse("forward").execute(dns).startsWith("recherches=7 cache=2"));
+  }
+
+  @Test public void recherches_simultanees_regroupees() throws Exception {
+    stub.delayMillis = 200;
+    int n = 8;
+    ExecutorService pool = Executors.newFixedThreadPool(n);
+    CountDownLatch go = new CountDownLatch(1);
+    List<Future<AdresseIP>> fs = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      fs.add(pool.submit(() -> {
+        go.await();
+        return dns.forwarder().resolve(new NomMachine("www.ailleurs.org"));
+      }));
+    }
+    go.countDown();
+    for (Future<AdresseIP> f : fs) {
+      assertEquals("93.184.216.34", f.get().value());
+    }
+    pool.shutdown();
+    Forwarder.Stats s = dns.forwarder().stats();
+    assertEquals(1, stub.questions.get());
+    assertEquals(n - 1, s.getCoalesced());
+  }
+
+  @Test public void amont_muet() {
+    stub.mute = true;
+    long t0 = System.nanoTime();
+    assertEquals("ERREUR : Résolveur amont muet : " + stub.address().getHostString() + ":"
+        + stub.address().getPort(),
+        new CommandeNom(new NomMachine("www.ailleurs.org")).execute(dns));
+    assertTrue(System.nanoTime() - t0 < 5_000_000_000L);
+    assertEquals(2, stub.questions.get());
+    assertEquals(1, dns.forwarder().stats().getFailures());
+    dns.setForwarder(null);
+    assertEquals("ERREUR : Aucun résolveur amont", new CommandeForward().execute(dns));
+  }
+
+  @Test public void taux_de_succes_du_cache() throws Exception {
+    stub.delayMillis = 1;
+    for (int i = 0; i < 50; i++) {
+      stub.a.put("h" + i + ".ailleurs.org", AdresseIP.fromInt(0x5D000000 + i).value());
+    }
+    Random rnd = new Random(42);
+    for (int i = 0; i < 2000; i++) {
+      // loi à queue lourde : quelques noms très demandés
+      int k = (int) Math.min(49, Math.floor(-Math.log(1 - rnd.nextDouble()) * 6));
+      assertNotNull(dns.forwarder().resolve(new NomMachine("h" + k + ".ailleurs.org")));
+    }
+    Forwarder.Stats s = dns.forwarder().stats();
+    assertTrue(s.hitRate() > 0.9);
+    assertEquals(s.getLookups() - s.getHits(), stub.questions.get());
+  }
+}
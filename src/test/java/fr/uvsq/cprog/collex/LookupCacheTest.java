@@ -0,0 +1,163 @@
+package fr.uvsq.cprog.collex;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LookupCacheTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  /** Tirage de rangs selon une loi de Zipf d'exposant {@code s} sur {@code n} clés. */
+  static final class Zipf {
+    private final double[] cdf;
+    private final Random rnd;
+
+    Zipf(int n, double s, long seed) {
+      cdf = new double[n];
+      double sum = 0;
+      for (int i = 0; i < n; i++) {
+        sum += 1 / Math.pow(i + 1, s);
+        cdf[i] = sum;
+      }
+      for (int i = 0; i < n; i++) {
+        cdf[i] /= sum;
+      }
+      rnd = new Random(seed);
+    }
+
+    int next() {
+      int k = Arrays.binarySearch(cdf, rnd.nextDouble());
+      return (k >= 0) ? k : Math.min(-k - 1, cdf.length - 1);
+    }
+  }
+
+  @Test public void get_put_invalidate_et_compteurs() {
+    LookupCache<String, String> c = new LookupCache<>(100, v -> 1, 100);
+    assertNull(c.get("a"));
+    c.put("a", "1");
+    assertEquals("1", c.get("a"));
+    c.invalidate("a");
+    assertNull(c.get("a"));
+    LookupCache.Stats st = c.stats();
+    assertEquals(1, st.getHits());
+    assertEquals(2, st.getMisses());
+  }
+
+  @Test public void budget_respecte_et_evictions_comptees() {
+    LookupCache<Integer, Integer> c = new LookupCache<>(50, v -> 1, 50);
+    for (int i = 0; i < 1000; i++) {
+      c.put(i, i);
+    }
+    assertTrue(c.size() <= 50);
+    assertEquals(1000 - c.size(), c.stats().getEvictions());
+  }
+
+  @Test public void budget_en_octets() {
+    LookupCache<Integer, String> c = new LookupCache<>(1000, String::length, 100);
+    for (int i = 0; i < 100; i++) {
+      c.put(i, "x".repeat(100));
+    }
+    assertTrue(c.size() <= 10);
+  }
+
+  /** Rejeu Zipf : W-TinyLFU doit faire au moins aussi bien qu'un LRU de même taille. */
+  @Test public void rejeu_zipf_contre_lru() {
+    int keys = 100_000;
+    int size = 1_000;
+    int requests = 500_000;
+    LookupCache<Integer, Integer> tiny = new LookupCache<>(size, v -> 1, size);
+    Map<Integer, Integer> lru = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override protected boolean removeEldestEntry(Map.Entry<Integer, Integer> e) {
+        return size() > size;
+      }
+    };
+    Zipf zipf = new Zipf(keys, 0.9, 7);
+    long lruHits = 0;
+    for (int i = 0; i < requests; i++) {
+      int k = zipf.next();
+      if (tiny.get(k) == null) {
+        tiny.put(k, k);
+      }
+      if (lru.get(k) != null) {
+        lruHits++;
+      } else {
+        lru.put(k, k);
+      }
+    }
+    double lruRate = (double) lruHits / requests;
+    assertTrue(tiny.stats().hitRate() >= lruRate);
+  }
+
+  @Test public void dns_invalide_sur_mutation() throws Exception {
+    Path db = tmp.newFile("db.txt").toPath();
+    Files.write(db, "a.d 1.1.1.1\n".getBytes());
+    Properties p = new Properties();
+    p.setProperty("cache.size", "10");
+    p.setProperty("db.store", "offheap");
+    Dns dns = new Dns(db, p);
+    assertNull(dns.getItem(new NomMachine("b.d")));
+    assertEquals("1.1.1.1", dns.getItem(new NomMachine("a.d")).getIp().value());
+    assertEquals("1.1.1.1", dns.getItem(new NomMachine("a.d")).getIp().value());
+    dns.addItem(new AdresseIP("2.2.2.2"), new NomMachine("b.d"));
+    assertEquals("2.2.2.2", dns.getItem(new NomMachine("b.d")).getIp().value());
+    assertEquals("b.d", dns.getItem(new AdresseIP("2.2.2.2")).getNom().getFqdn());
+    assertEquals(1, dns.cacheStats().getHits());
+  }
+
+  @Test public void lectures_concurrentes() throws Exception {
+    LookupCache<Integer, Integer> c = new LookupCache<>(1000, v -> 1, 1000);
+    for (int i = 0; i < 500; i++) {
+      c.put(i, i);
+    }
+    int threads = 8;
+    int reads = 50_000;
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    Future<?>[] done = new Future<?>[threads];
+    for (int t = 0; t < threads; t++) {
+      int seed = t;
+      done[t] = pool.submit(() -> {
+        Random rnd = new Random(seed);
+        for (int i = 0; i < reads; i++) {
+          int k = rnd.nextInt(500);
+          assertEquals(Integer.valueOf(k), c.get(k));
+        }
+      });
+    }
+    for (Future<?> f : done) {
+      f.get();
+    }
+    pool.shutdown();
+    // les accès restés en tampon sont appliqués par l'écriture suivante
+    c.put(1000, 1000);
+    assertEquals(threads * (long) reads, c.stats().getHits());
+    assertEquals(501, c.size());
+  }
+
+  @Test public void commande_cache() throws Exception {
+    Path db = tmp.newFile("db.txt").toPath();
+    Files.write(db, "a.d 1.1.1.1\n".getBytes());
+    Dns sansCache = new Dns(db);
+    assertEquals("ERREUR : Cache de recherche désactivé",
+        new DnsTUI(new Scanner(""), System.out, sansCache).parse("cache").execute(sansCache));
+    Properties p = new Properties();
+    p.setProperty("cache.size", "10");
+    Dns dns = new Dns(db, p);
+    DnsTUI tui = new DnsTUI(new Scanner(""), System.out, dns);
+    dns.getItem(new NomMachine("a.d"));
+    dns.getItem(new NomMachine("a.d"));
+    assertEquals("hits=1 misses=1 evictions=0 taux=0.500", tui.parse("cache").execute(dns));
+  }
+}
@@ -0,0 +1,144 @@
+package fr.uvsq.cprog.collex;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class NameIndexTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static List<String> fqdns(List<NomMachine> noms) {
+    return noms.stream().map(NomMachine::getFqdn).collect(Collectors.toList());
+  }
+
+  @Test public void prefixe_et_sous_chaine() {
+    NameIndex idx = new NameIndex();
+    for (String n : new String[] {"web-2.a.fr", "web-1.b.fr", "db-1.a.fr", "webdb.c.fr",
+        "Mydb.a.fr", "web.a.fr"}) {
+      idx.add(new NomMachine(n));
+    }
+    assertEquals(List.of("web-1.b.fr", "web-2.a.fr"), fqdns(idx.startingWith("web-", 10)));
+    assertEquals(List.of("web-1.b.fr"), fqdns(idx.startingWith("WEB-", 1)));
+    assertEquals(List.of("db-1.a.fr", "Mydb.a.fr", "webdb.c.fr"), fqdns(idx.containing("db", 10)));
+    assertEquals(List.of("db-1.a.fr", "Mydb.a.fr"), fqdns(idx.containing("db", 2)));
+    assertEquals(List.of("Mydb.a.fr", "webdb.c.fr"), fqdns(idx.containing("DB.", 10)));
+    assertEquals(List.of(), fqdns(idx.containing("zzz", 10)));
+
+    idx.remove(new NomMachine("webdb.c.fr"));
+    assertEquals(List.of("Mydb.a.fr"), fqdns(idx.containing("db.", 10)));
+    idx.add(new NomMachine("webdb.c.fr"));
+    assertEquals(List.of("Mydb.a.fr", "webdb.c.fr"), fqdns(idx.containing("db.", 10)));
+  }
+
+  @Test public void conforme_a_une_recherche_exhaustive() {
+    Random rnd = new Random(7);
+    NameIndex idx = new NameIndex();
+    TreeSet<String> ref = new TreeSet<>();
+    String[] roles = {"web", "db", "cache", "mail", "lb", "dns"};
+    for (int i = 0; i < 50_000; i++) {
+      String n = roles[rnd.nextInt(roles.length)] + "-" + rnd.nextInt(5000)
+          + ".site" + rnd.nextInt(40) + ".fr";
+      if (rnd.nextInt(4) == 0 && ref.remove(n)) {
+        idx.remove(new NomMachine(n));
+      } else if (ref.add(n)) {
+        idx.add(new NomMachine(n));
+      }
+    }
+    assertEquals(ref.size(), idx.size());
+    for (String q : new String[] {"ca", "b-12", "site3.", "-499", "mail-4"}) {
+      List<String> attendu = ref.stream().filter(n -> n.contains(q)).limit(50)
+          .collect(Collectors.toList());
+      assertEquals(q, attendu, fqdns(idx.containing(q, 50)));
+      List<String> prefixe = ref.stream().filter(n -> n.startsWith(q)).limit(50)
+          .collect(Collectors.toList());
+      assertEquals(q, prefixe, fqdns(idx.startingWith(q, 50)));
+    }
+
+    for (int i = 0; i < 200; i++) {
+      String q = "-" + (i % 5000) + ".site";
+      assertEquals(q, ref.stream().filter(n -> n.contains(q)).limit(20).count(),
+          idx.containing(q, 20).size());
+    }
+  }
+
+  @Test public void dns_maintient_l_index() throws Exception {
+    DnsTest.FakeClock clock = new DnsTest.FakeClock();
+    Dns dns = new Dns(tmp.getRoot().toPath().resolve("db.txt"), clock);
+    dns.addItem(new AdresseIP("1.0.0.1"), new NomMachine("web-1.a.fr"));
+    assertEquals(1, dns.findByPrefix("web-", 10).size());
+    dns.addItem(new AdresseIP("1.0.0.2"), new NomMachine("web-2.b.fr"), Duration.ofSeconds(5));
+    dns.addItem(new AdresseIP("1.0.0.3"), new NomMachine("db.web.fr"));
+    assertEquals(2, dns.findByPrefix("web-", 10).size());
+    assertEquals(3, dns.findContaining("web", 10).size());
+    clock.avance(Duration.ofSeconds(6));
+    assertEquals(1, dns.findByPrefix("web-", 10).size());
+
+    DnsTUI tui = new DnsTUI(new Scanner(""), System.out, dns);
+    assertEquals("1.0.0.1 web-1.a.fr", tui.parse("find web-*").execute(dns));
+    assertEquals("1.0.0.3 db.web.fr", tui.parse("find -n 1 *web*").execute(dns));
+    assertTrue(tui.parse("find -n 0 web").execute(dns).startsWith("ERREUR"));
+    assertTrue(tui.parse("find *").execute(dns).startsWith("ERREUR"));
+  }
+
+  @Test public void recherche_sur_base_partitionnee() {
+    Path db = tmp.getRoot().toPath().resolve("s.txt");
+    ShardedDns dns = new ShardedDns(db, 3, new Properties());
+    List<String> attendu = new ArrayList<>();
+    for (int i = 0; i < 30; i++) {
+      dns.addItem(new AdresseIP("2.0.0." + i), new NomMachine("web-" + (100 + i) + ".p.fr"));
+      if (i < 5) {
+        attendu.add("web-" + (100 + i) + ".p.fr");
+      }
+    }
+    assertEquals(attendu, dns.findByPrefix("web-1", 5).stream()
+        .map(it -> it.getNom().getFqdn()).collect(Collectors.toList()));
+    assertEquals(10, dns.findContaining("-12", 100).size());
+  }
+
+  @Test public void noms_ne_differant_que_par_la_casse() {
+    NameIndex idx = new NameIndex();
+    idx.add(new NomMachine("web.a.fr"));
+    idx.add(new NomMachine("Web.a.fr"));
+    assertEquals(2, idx.size());
+    assertEquals(List.of("Web.a.fr", "web.a.fr"), fqdns(idx.startingWith("WEB", 10)));
+    idx.remove(new NomMachine("web.a.fr"));
+    assertEquals(List.of("Web.a.fr"), fqdns(idx.containing("eb.a", 10)));
+    assertEquals(List.of("Web.a.fr"), fqdns(idx.containing("w", 10)));
+  }
+
+  @Test public void fusion_des_partitions_dans_l_ordre_de_l_index() {
+    Path dir = tmp.getRoot().toPath();
+    ShardedDns sharded = new ShardedDns(dir.resolve("s.txt"), 4, new Properties());
+    Dns simple = new Dns(dir.resolve("u.txt"));
+    String[] noms = {"Web.p.fr", "web.p.fr", "WEB-1.p.fr", "web-2.p.fr", "Wa.p.fr", "wb.p.fr",
+        "xweb.p.fr", "XWEB2.p.fr"};
+    for (int i = 0; i < noms.length; i++) {
+      sharded.addItem(new AdresseIP("3.0.0." + i), new NomMachine(noms[i]));
+      simple.addItem(new AdresseIP("3.0.0." + i), new NomMachine(noms[i]));
+    }
+    List<String> attendu = fqdns(simple.findByPrefix("w", 100));
+    assertEquals(List.of("Wa.p.fr", "wb.p.fr", "WEB-1.p.fr", "web-2.p.fr", "Web.p.fr",
+        "web.p.fr"), attendu);
+    assertEquals(attendu, fqdns(sharded.findByPrefix("w", 100)));
+    assertEquals(fqdns(simple.findContaining("web", 100)),
+        fqdns(sharded.findContaining("web", 100)));
+    assertEquals(fqdns(simple.findContaining("web", 3)), fqdns(sharded.findContaining("web", 3)));
+  }
+
+  private static List<String> fqdns(Iterable<DnsItem> items) {
+    List<String> res = new ArrayList<>();
+    items.forEach(it -> res.add(it.getNom().getFqdn()));
+    return res;
+  }
+}
@@ -0,0 +1,173 @@
+package fr.uvsq.cprog.collex;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class QueryLogTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path logFile() {
+    return tmp.getRoot().toPath().resolve("queries.log");
+  }
+
+  private static List<QueryLog.Event> readAll(Path file) throws IOException {
+    List<QueryLog.Event> res = new ArrayList<>();
+    for (Path p : QueryLog.chronological(file)) {
+      QueryLog.read(p, res::add);
+    }
+    return res;
+  }
+
+  @Test public void evenements_des_commandes() throws Exception {
+    Dns dns = new Dns(tmp.getRoot().toPath().resolve("db.txt"));
+    QueryLog log = new QueryLog(logFile(), 64, QueryLog.Policy.BLOCK, 1 << 20, 2);
+    dns.setQueryLog(log);
+    DnsTUI tui = new DnsTUI(new Scanner(""), System.out, dns);
+    assertEquals("", tui.parse("add 10.0.0.1 www.uvsq.fr").execute(dns));
+    try {
+      tui.parse("add 10.0.0.1 ftp.uvsq.fr").execute(dns);
+      fail();
+    } catch (IllegalStateException e) {
+      // doublon : journalisé en erreur
+    }
+    tui.parse("www.uvsq.fr").execute(dns);
+    tui.parse("10.0.0.1").execute(dns);
+    tui.parse("absent.uvsq.fr").execute(dns);
+    log.close();
+    assertFalse(log.publish(QueryLog.Type.NOM, QueryLog.Status.OK, "x.fr", null));
+
+    List<String> lines = new ArrayList<>();
+    for (QueryLog.Event e : readAll(logFile())) {
+      String s = e.toString();
+      lines.add(s.substring(s.indexOf(' ') + 1));
+    }
+    assertEquals(List.of("ADD OK www.uvsq.fr 10.0.0.1", "ADD ERROR ftp.uvsq.fr 10.0.0.1",
+        "NOM OK www.uvsq.fr 10.0.0.1", "IP OK www.uvsq.fr 10.0.0.1",
+        "NOM NOT_FOUND absent.uvsq.fr -"), lines);
+
+    // outil de lecture
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    assertTrue(new App().queryLog(new String[] {"--querylog", logFile().toString()},
+        new PrintStream(buf, true, "UTF-8")));
+    assertEquals(5, buf.toString("UTF-8").split("\\R").length);
+    assertFalse(new App().queryLog(new String[] {"--querylog",
+        tmp.newFile("autre").toString()}, new PrintStream(new ByteArrayOutputStream())));
+  }
+
+  @Test public void producteurs_concurrents_bloquants() throws Exception {
+    QueryLog log = new QueryLog(logFile(), 256, QueryLog.Policy.BLOCK, 1 << 30, 1);
+    int threads = 4;
+    int perThread = 20_000;
+    CountDownLatch go = new CountDownLatch(1);
+    List<Thread> ts = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      int id = t;
+      Thread th = new Thread(() -> {
+        try {
+          go.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        String name = "p" + id + ".uvsq.fr";
+        for (int i = 0; i < perThread; i++) {
+          // le compteur du producteur voyage dans le champ adresse
+          log.publish(QueryLog.Type.NOM, QueryLog.Status.OK, name, AdresseIP.fromInt(i));
+        }
+      });
+      th.start();
+      ts.add(th);
+    }
+    go.countDown();
+    for (Thread th : ts) {
+      th.join();
+    }
+    log.close();
+    assertEquals(threads * perThread, log.written());
+    assertEquals(0, log.dropped());
+    int[] next = new int[threads];
+    for (QueryLog.Event e : readAll(logFile())) {
+      int id = e.getName().charAt(1) - '0';
+      assertEquals("ordre du producteur " + id, next[id]++, e.getIp());
+    }
+    for (int n : next) {
+      assertEquals(perThread, n);
+    }
+  }
+
+  @Test public void anneau_plein_abandons_et_rotation() throws Exception {
+    QueryLog log = new QueryLog(logFile(), 8, QueryLog.Policy.DROP, 200, 2,
+        Clock.systemUTC(), false);
+    int accepted = 0;
+    for (int i = 0; i < 20; i++) {
+      if (log.publish(QueryLog.Type.IP, QueryLog.Status.NOT_FOUND, null,
+          AdresseIP.fromInt(i))) {
+        accepted++;
+      }
+    }
+    assertEquals(8, accepted);
+    assertEquals(12, log.dropped());
+    log.start();
+    for (int i = 0; i < 40; i++) {
+      while (!log.publish(QueryLog.Type.NOM, QueryLog.Status.OK, "h" + i + ".uvsq.fr",
+          AdresseIP.fromInt(i))) {
+        Thread.sleep(1);
+      }
+    }
+    log.close();
+
+    // 200 octets par fichier au plus (ou presque) : rotation, deux anciens gardés
+    assertTrue(Files.exists(QueryLog.rolled(logFile(), 2)));
+    assertFalse(Files.exists(QueryLog.rolled(logFile(), 3)));
+    List<QueryLog.Event> events = readAll(logFile());
+    QueryLog.Event last = events.get(events.size() - 1);
+    assertEquals("h39.uvsq.fr", last.getName());
+    assertTrue(events.size() < 48);
+
+    // sans rotation, les abandons sont signalés dans le journal
+    Path other = tmp.getRoot().toPath().resolve("other.log");
+    log = new QueryLog(other, 8, QueryLog.Policy.DROP, 1 << 20, 1, Clock.systemUTC(), false);
+    for (int i = 0; i < 20; i++) {
+      log.publish(QueryLog.Type.IP, QueryLog.Status.NOT_FOUND, null, AdresseIP.fromInt(i + 1));
+    }
+    log.start();
+    log.close();
+    events = readAll(other);
+    assertEquals(9, events.size());
+    assertEquals(QueryLog.Type.DROPPED, events.get(8).getType());
+    assertEquals(12, events.get(8).getIp());
+  }
+
+  @Test public void publication_sans_allocation() throws Exception {
+    com.sun.management.ThreadMXBean mx =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    QueryLog log = new QueryLog(logFile(), 1 << 16, QueryLog.Policy.DROP, 1 << 30, 1);
+    AdresseIP ip = new AdresseIP("10.0.0.1");
+    int n = 200_000;
+    for (int i = 0; i < n; i++) {
+      // préchauffage (compilation JIT)
+      log.publish(QueryLog.Type.NOM, QueryLog.Status.OK, "www.uvsq.fr", ip);
+    }
+    long tid = Thread.currentThread().getId();
+    long before = mx.getThreadAllocatedBytes(tid);
+    for (int i = 0; i < n; i++) {
+      log.publish(QueryLog.Type.NOM, QueryLog.Status.OK, "www.uvsq.fr", ip);
+    }
+    long allocated = mx.getThreadAllocatedBytes(tid) - before;
+    log.close();
+    assertTrue("octets alloués : " + allocated, allocated < 64 * 1024);
+  }
+}
@@ -0,0 +1,122 @@
+package fr.uvsq.cprog.collex;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Réplication meneur/suiveurs sur localhost.
+ */
+public class ReplicationTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Dns dns(String content, Properties p) throws Exception {
+    Path f = tmp.newFolder().toPath().resolve("db.txt");
+    Files.write(f, content.getBytes());
+    return new Dns(f, p);
+  }
+
+  private Dns dns(DnsTest.FakeClock clock) throws Exception {
+    return new Dns(tmp.newFolder().toPath().resolve("db.txt"), clock);
+  }
+
+  private static void attendre(Dns leader, List<ReplicationFollower> followers) throws Exception {
+    long limite = System.currentTimeMillis() + 10_000;
+    for (ReplicationFollower f : followers) {
+      while (!f.isSynced() || f.dns().version() != leader.version()) {
+        assertTrue("réplication trop lente", System.currentTimeMillis() < limite);
+        Thread.sleep(5);
+      }
+    }
+  }
+
+  private static void ajouter(Dns dns, int from, int to) {
+    for (int i = from; i < to; i++) {
+      dns.addItem(AdresseIP.fromInt(0x0A000000 + i), new NomMachine("h" + i + ".repl"));
+    }
+  }
+
+  @Test public void suiveurs_a_jour_et_reprise_apres_coupure() throws Exception {
+    Dns leader = dns("init.repl 10.9.9.9\n", new Properties());
+    try (ReplicationLeader rl = new ReplicationLeader(leader, 0, 10_000)) {
+      List<ReplicationFollower> followers = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        followers.add(new ReplicationFollower(dns("", new Properties()), "localhost",
+            rl.port(), 20));
+      }
+      attendre(leader, followers);
+      assertNotNull(followers.get(0).dns().getItem(new NomMachine("init.repl")));
+
+      ajouter(leader, 0, 500);
+      attendre(leader, followers);
+      for (ReplicationFollower f : followers) {
+        assertEquals("h123.repl", f.dns().getItem(AdresseIP.fromInt(0x0A000000 + 123))
+            .getNom().getFqdn());
+      }
+
+      ReplicationFollower coupe = followers.get(1);
+      coupe.disconnect();
+      ajouter(leader, 500, 600);
+      attendre(leader, followers);
+      assertTrue(coupe.reconnects() >= 1);
+      assertEquals(601, coupe.dns().getItems("repl").size());
+      for (ReplicationFollower f : followers) {
+        f.close();
+      }
+    }
+  }
+
+  @Test public void instantane_si_journal_depasse() throws Exception {
+    Properties small = new Properties();
+    small.setProperty("log.size", "5");
+    Dns leader = dns("", small);
+    try (ReplicationLeader rl = new ReplicationLeader(leader, 0, 10_000)) {
+      ReplicationFollower f = new ReplicationFollower(dns("", new Properties()), "localhost",
+          rl.port(), 20);
+      List<ReplicationFollower> one = List.of(f);
+      attendre(leader, one);
+      f.disconnect();
+      ajouter(leader, 0, 50); // bien plus que les 5 mutations conservées
+      attendre(leader, one);
+      assertEquals(50, f.dns().getItems("repl").size());
+      f.close();
+    }
+  }
+
+  @Test public void seul_le_meneur_fait_expirer() throws Exception {
+    DnsTest.FakeClock horlogeMeneur = new DnsTest.FakeClock();
+    DnsTest.FakeClock horlogeSuiveur = new DnsTest.FakeClock();
+    Dns leader = dns(horlogeMeneur);
+    NomMachine eph = new NomMachine("eph.repl");
+    NomMachine suivant = new NomMachine("suivant.repl");
+    leader.addItem(new AdresseIP("10.0.0.1"), eph, Duration.ofSeconds(30));
+    try (ReplicationLeader rl = new ReplicationLeader(leader, 0, 10_000)) {
+      ReplicationFollower f = new ReplicationFollower(dns(horlogeSuiveur), "localhost",
+          rl.port(), 20);
+      List<ReplicationFollower> one = List.of(f);
+      attendre(leader, one);
+
+      // l'échéance passe chez le suiveur avant que le meneur ne l'ait traitée
+      horlogeSuiveur.avance(Duration.ofSeconds(31));
+      assertNotNull(f.dns().getItem(eph));
+      leader.addItem(new AdresseIP("10.0.0.2"), suivant);
+      attendre(leader, one);
+      assertEquals("10.0.0.2", f.dns().getItem(suivant).getIp().value());
+
+      horlogeMeneur.avance(Duration.ofSeconds(31));
+      assertNull(leader.getItem(eph));
+      attendre(leader, one);
+      assertNull(f.dns().getItem(eph));
+      assertEquals(1, f.dns().getItems("repl").size());
+      f.close();
+    }
+  }
+}
@@ -0,0 +1,221 @@
+package fr.uvsq.cprog.collex;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ShardedDnsTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static NomMachine nom(int i) {
+    return new NomMachine("h" + i + ".sh.fr");
+  }
+
+  private static AdresseIP ip(int i) {
+    return new AdresseIP("10." + (i >> 16 & 255) + "." + (i >> 8 & 255) + "." + (i & 255));
+  }
+
+  @Test public void routage_et_persistance_par_partition() throws Exception {
+    Path db = tmp.getRoot().toPath().resolve("dns.txt");
+    ShardedDns dns = new ShardedDns(db, 4, new Properties());
+    for (int i = 0; i < 200; i++) {
+      dns.addItem(ip(i), nom(i));
+    }
+    for (int i = 0; i < 4; i++) {
+      assertTrue(Files.exists(ShardedDns.shardFile(db, i)));
+    }
+    int[] sizes = dns.shardSizes();
+    assertEquals(200, Arrays.stream(sizes).sum());
+    for (int size : sizes) {
+      assertTrue("partition déséquilibrée : " + Arrays.toString(sizes), size > 20);
+    }
+
+    ShardedDns relu = new ShardedDns(db, 4, new Properties());
+    for (int i = 0; i < 200; i++) {
+      assertEquals(ip(i), relu.getItem(nom(i)).getIp());
+      assertEquals(nom(i), relu.getItem(ip(i)).getNom());
+    }
+  }
+
+  @Test public void unicite_des_adresses_entre_partitions() {
+    ShardedDns dns = new ShardedDns(tmp.getRoot().toPath().resolve("dns.txt"), 8, new Properties());
+    dns.addItem(ip(1), nom(1));
+    // trouve un nom routé vers une autre partition
+    int autre = 2;
+    while (dns.shardOf(nom(autre)) == dns.shardOf(nom(1))) {
+      autre++;
+    }
+    try {
+      dns.addItem(ip(1), nom(autre));
+      fail("adresse dupliquée acceptée");
+    } catch (IllegalStateException e) {
+      assertEquals("L'adresse IP existe déjà !", e.getMessage());
+    }
+    try {
+      dns.addItem(ip(99), nom(1));
+      fail("nom dupliqué accepté");
+    } catch (IllegalStateException e) {
+      assertEquals("Le nom de machine existe déjà !", e.getMessage());
+    }
+    assertNull(dns.getItem(nom(autre)));
+  }
+
+  @Test public void listage_fusionne_comme_une_base_simple() {
+    Path dir = tmp.getRoot().toPath();
+    ShardedDns sharded = new ShardedDns(dir.resolve("s.txt"), 5, new Properties());
+    Dns simple = new Dns(dir.resolve("u.txt"));
+    for (int i = 0; i < 300; i++) {
+      NomMachine n = new NomMachine("m" + (i * 7919 % 300) + ((i % 3 == 0) ? ".a.fr" : ".b.fr"));
+      sharded.addItem(ip(i), n);
+      simple.addItem(ip(i), n);
+    }
+    for (String domaine : new String[] {"a.fr", "b.fr", "c.fr"}) {
+      List<String> attendu = new ArrayList<>();
+      simple.getItems(domaine).forEach(it -> attendu.add(it.toString()));
+      List<String> obtenu = new ArrayList<>();
+      sharded.getItems(domaine).forEach(it -> obtenu.add(it.toString()));
+      assertEquals(attendu, obtenu);
+    }
+    assertEquals("", new CommandeLs("c.fr", false).execute(sharded));
+  }
+
+  @Test public void ajouts_concurrents_sans_doublon_d_adresse() throws Exception {
+    ShardedDns dns = new ShardedDns(tmp.getRoot().toPath().resolve("dns.txt"), 4, new Properties());
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    AtomicInteger refus = new AtomicInteger();
+    List<Future<?>> futures = new ArrayList<>();
+    // chaque adresse est proposée par deux noms différents : un seul doit gagner
+    for (int t = 0; t < 8; t++) {
+      int base = t * 1000;
+      futures.add(pool.submit(() -> {
+        for (int i = 0; i < 100; i++) {
+          try {
+            dns.addItem(ip(i), nom(base + i));
+          } catch (IllegalStateException e) {
+            refus.incrementAndGet();
+          }
+        }
+      }));
+    }
+    for (Future<?> f : futures) {
+      f.get();
+    }
+    pool.shutdown();
+    assertEquals(700, refus.get());
+    assertEquals(100, dns.getItems("sh.fr").size());
+  }
+
+  /** Premier nom, à partir de {@code i}, routé vers une autre partition que {@code n}. */
+  private static int ailleurs(ShardedDns dns, NomMachine n, int i) {
+    while (dns.shardOf(nom(i)) == dns.shardOf(n)) {
+      i++;
+    }
+    return i;
+  }
+
+  @Test public void lot_reparti_entre_partitions() {
+    ShardedDns dns = new ShardedDns(tmp.getRoot().toPath().resolve("dns.txt"), 4, new Properties());
+    dns.addItem(ip(1), nom(1));
+    dns.addItem(ip(2), nom(2));
+    int autre = ailleurs(dns, nom(1), 100);
+    // l'adresse libérée dans une partition est reprise dans une autre
+    List<ZoneDiff.Change> lot = Arrays.asList(
+        new ZoneDiff.Change(ZoneDiff.Kind.REMOVE, dns.getItem(nom(1)), null),
+        new ZoneDiff.Change(ZoneDiff.Kind.ADD, null, new DnsItem(nom(autre), ip(1))),
+        new ZoneDiff.Change(ZoneDiff.Kind.CHANGE, dns.getItem(nom(2)),
+            new DnsItem(nom(2), ip(50))));
+    assertEquals(3, dns.applyChanges(lot));
+    assertNull(dns.getItem(nom(1)));
+    assertEquals(nom(autre), dns.getItem(ip(1)).getNom());
+    assertEquals(ip(50), dns.getItem(nom(2)).getIp());
+
+    // adresse tenue par un nom d'une autre partition que le lot ne touche pas
+    int tiers = ailleurs(dns, nom(2), autre + 1);
+    try {
+      dns.applyChanges(Arrays.asList(
+          new ZoneDiff.Change(ZoneDiff.Kind.ADD, null, new DnsItem(nom(tiers), ip(50))),
+          new ZoneDiff.Change(ZoneDiff.Kind.ADD, null, new DnsItem(nom(tiers + 1), ip(51)))));
+      fail("adresse dupliquée acceptée");
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("L'adresse IP existe déjà !"));
+    }
+    assertNull(dns.getItem(nom(tiers)));
+    assertNull(dns.getItem(nom(tiers + 1)));
+  }
+
+  @Test public void allocation_sur_toutes_les_partitions() {
+    ShardedDns dns = new ShardedDns(tmp.getRoot().toPath().resolve("dns.txt"), 4, new Properties());
+    Subnet subnet = new Subnet("10.9.0.0/29");
+    int autre = ailleurs(dns, nom(1), 2);
+    dns.addItem(new AdresseIP("10.9.0.1"), nom(1));
+    dns.addItem(new AdresseIP("10.9.0.2"), nom(autre));
+    List<String> attribuees = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      attribuees.add(dns.allocate(nom(1000 + i), subnet, null).value());
+    }
+    assertEquals(Arrays.asList("10.9.0.3", "10.9.0.4", "10.9.0.5", "10.9.0.6"), attribuees);
+    try {
+      dns.allocate(nom(2000), subnet, null);
+      fail("sous-réseau plein accepté");
+    } catch (IllegalStateException e) {
+      assertEquals("Sous-réseau plein : 10.9.0.0/29", e.getMessage());
+    }
+    assertEquals("10.9.0.0/29 6/6 (100.0 %)", dns.usage(subnet).toString());
+    assertEquals(1, dns.usages().size());
+    assertEquals(6, dns.usages().get(0).getUsed());
+  }
+
+  @Test public void nombre_de_partitions_verifie() throws Exception {
+    Path db = tmp.getRoot().toPath().resolve("dns.txt");
+    new ShardedDns(db, 4, new Properties()).addItem(ip(1), nom(1));
+    assertEquals("4", Files.readString(ShardedDns.countFile(db)).trim());
+    try {
+      new ShardedDns(db, 2, new Properties());
+      fail("nombre de partitions modifié accepté");
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Base créée avec 4 partitions"));
+    }
+    // base antérieure au fichier : le nombre vient des fichiers de partition
+    Files.delete(ShardedDns.countFile(db));
+    try {
+      new ShardedDns(db, 8, new Properties());
+      fail("nombre de partitions modifié accepté");
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Base créée avec 4 partitions"));
+    }
+    assertEquals(ip(1), new ShardedDns(db, 4, new Properties()).getItem(nom(1)).getIp());
+    assertTrue(Files.exists(ShardedDns.countFile(db)));
+  }
+
+  @Test public void fonctions_indisponibles_refusees_a_l_analyse() throws Exception {
+    ShardedDns dns = new ShardedDns(tmp.getRoot().toPath().resolve("dns.txt"), 2, new Properties());
+    DnsTUI tui = new DnsTUI(new Scanner(""), System.out, dns);
+    assertFalse(tui.parse("begin") instanceof CommandeTransaction);
+    String begin = tui.parse("begin").execute(dns);
+    assertTrue(begin, begin.startsWith("ERREUR : Transactions indisponibles"));
+    assertTrue(tui.parse("commit").execute(dns).startsWith("ERREUR : Transactions indisponibles"));
+    assertFalse(tui.parse("watch sh.fr") instanceof CommandeWatch);
+    String watch = tui.parse("watch sh.fr").execute(dns);
+    assertTrue(watch, watch.startsWith("ERREUR : Surveillance indisponible"));
+    Path dir = tmp.getRoot().toPath().resolve("sauvegardes");
+    assertFalse(tui.parse("backup " + dir) instanceof CommandeBackup);
+    String backup = tui.parse("backup -full " + dir).execute(dns);
+    assertTrue(backup, backup.startsWith("ERREUR : Sauvegarde indisponible"));
+    assertFalse(Files.exists(dir));
+    tui.parse("add 10.0.0.1 a.sh.fr").execute(dns);
+    assertEquals("a.sh.fr", tui.parse("10.0.0.1").execute(dns));
+  }
+}
@@ -0,0 +1,152 @@
+package fr.uvsq.cprog.collex;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SubnetAllocatorTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Dns dns(DnsTest.FakeClock clock) {
+    return new Dns(tmp.getRoot().toPath().resolve("db.txt"), clock);
+  }
+
+  @Test public void notation_cidr() {
+    Subnet s = new Subnet("10.0.0.77/24");
+    assertEquals("10.0.0.0/24", s.toString());
+    assertEquals(256, s.size());
+    assertTrue(s.contains(new AdresseIP("10.0.0.255")));
+    assertFalse(s.contains(new AdresseIP("10.0.1.0")));
+    assertEquals(new Subnet("10.0.0.0/24"), s);
+    assertEquals("255.255.255.255/32", new Subnet("255.255.255.255/32").toString());
+    for (String bad : new String[] {"10.0.0.0", "10.0.0.0/7", "10.0.0.0/33", "10.0.0/24", "x/24"}) {
+      try {
+        new Subnet(bad);
+        fail(bad);
+      } catch (IllegalArgumentException e) {
+        // attendu
+      }
+    }
+  }
+
+  @Test public void premiere_adresse_libre() {
+    DnsTest.FakeClock clock = new DnsTest.FakeClock();
+    Dns dns = dns(clock);
+    dns.addItem(new AdresseIP("10.0.0.2"), new NomMachine("deja.a.fr"));
+    dns.addItem(new AdresseIP("10.0.1.1"), new NomMachine("ailleurs.a.fr"));
+    Subnet s = new Subnet("10.0.0.0/29");
+    assertEquals("10.0.0.1", dns.allocate(new NomMachine("h1.a.fr"), s).value());
+    assertEquals("10.0.0.3", dns.allocate(new NomMachine("h3.a.fr"), s).value());
+    assertEquals("10.0.0.4",
+        dns.allocate(new NomMachine("h4.a.fr"), s, Duration.ofSeconds(10)).value());
+    assertEquals("10.0.0.5", dns.allocate(new NomMachine("h5.a.fr"), s).value());
+    assertEquals("10.0.0.6", dns.allocate(new NomMachine("h6.a.fr"), s).value());
+    assertEquals("10.0.0.0/29 6/6 (100.0 %)", dns.usage(s).toString());
+    try {
+      dns.allocate(new NomMachine("h7.a.fr"), s);
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("Sous-réseau plein : 10.0.0.0/29", e.getMessage());
+    }
+    try {
+      dns.allocate(new NomMachine("h1.a.fr"), new Subnet("10.9.0.0/24"));
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("Le nom de machine existe déjà !", e.getMessage());
+    }
+
+    // expiration, réécriture et ajout direct tiennent la table à jour
+    clock.avance(Duration.ofSeconds(11));
+    assertEquals("10.0.0.4", dns.allocate(new NomMachine("h4bis.a.fr"), s).value());
+    assertEquals("10.0.0.3", dns.getItem(new NomMachine("h3.a.fr")).getIp().value());
+    assertEquals("10.0.0.0/29 6/6 (100.0 %)", dns.usage(s).toString());
+    assertEquals("10.0.0.0/32 0/1 (0.0 %)", dns.usage(new Subnet("10.0.0.0/32")).toString());
+    try {
+      dns.allocate(new NomMachine("h2.a.fr"), new Subnet("10.0.0.2/31")); // .2 et .3 déjà pris
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("Sous-réseau plein : 10.0.0.2/31", e.getMessage());
+    }
+  }
+
+  @Test public void sous_reseaux_imbriques() {
+    Dns dns = dns(new DnsTest.FakeClock());
+    Subnet large = new Subnet("10.1.0.0/16");
+    Subnet etroit = new Subnet("10.1.2.0/24");
+    assertEquals("10.1.0.1", dns.allocate(new NomMachine("a.b.fr"), large).value());
+    assertEquals("10.1.2.1", dns.allocate(new NomMachine("c.b.fr"), etroit).value());
+    dns.addItem(new AdresseIP("10.1.2.2"), new NomMachine("d.b.fr"));
+    assertEquals("10.1.2.3", dns.allocate(new NomMachine("e.b.fr"), etroit).value());
+    assertEquals(4, dns.usage(large).getUsed());
+    assertEquals(65534, dns.usage(large).getCapacity());
+    assertEquals(3, dns.usage(etroit).getUsed());
+
+    DnsTUI tui = new DnsTUI(new Scanner(""), System.out, dns);
+    assertEquals("10.1.0.2", tui.parse("alloc f.b.fr 10.1.0.0/16").execute(dns));
+    assertEquals("10.1.0.0/16 5/65534 (0.0 %)" + System.lineSeparator()
+        + "10.1.2.0/24 3/254 (1.2 %)", tui.parse("subnets").execute(dns));
+    assertEquals("10.2.0.0/30 0/2 (0.0 %)", tui.parse("subnets 10.2.0.0/30").execute(dns));
+    // une consultation compte sans faire suivre le sous-réseau
+    assertEquals("10.1.0.0/23 2/510 (0.4 %)", tui.parse("subnets 10.1.0.0/23").execute(dns));
+    assertEquals(2, dns.usages().size());
+    assertTrue(tui.parse("alloc g.b.fr 10.1.0.0/40").execute(dns).startsWith("ERREUR"));
+    assertTrue(tui.parse("alloc g.b.fr").execute(dns).startsWith("ERREUR"));
+  }
+
+  @Test public void allocations_concurrentes() throws Exception {
+    Dns dns = dns(new DnsTest.FakeClock());
+    Subnet s = new Subnet("10.3.0.0/22");
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    List<Future<List<AdresseIP>>> res = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      int thread = t;
+      res.add(pool.submit(() -> {
+        List<AdresseIP> ips = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+          ips.add(dns.allocate(new NomMachine("t" + thread + "-" + i + ".c.fr"), s));
+        }
+        return ips;
+      }));
+    }
+    Set<AdresseIP> toutes = new HashSet<>();
+    for (Future<List<AdresseIP>> f : res) {
+      toutes.addAll(f.get());
+    }
+    pool.shutdown();
+    assertEquals(400, toutes.size());
+    assertEquals(400, dns.usage(s).getUsed());
+    assertEquals("10.3.1.145", dns.allocate(new NomMachine("dernier.c.fr"), s).value());
+  }
+
+  @Test public void recherche_par_mots() {
+    HashDnsStore store = new HashDnsStore();
+    int n = 60_000;
+    for (int i = 1; i <= n; i++) {
+      store.put(new DnsItem(new NomMachine("h" + i + ".g.fr"),
+          AdresseIP.fromInt(0x0A040000 + i), null));
+    }
+    SubnetAllocator alloc = new SubnetAllocator();
+    Subnet s = new Subnet("10.4.0.0/16");
+    alloc.track(s, store);
+
+    // recherche adresse par adresse, comme le faisaient les scripts
+    int bits = s.network() + 1;
+    while (store.get(AdresseIP.fromInt(bits)) != null) {
+      bits++;
+    }
+    AdresseIP libre = alloc.nextFree(s);
+    assertEquals(AdresseIP.fromInt(bits), libre);
+    assertEquals("10.4.234.97", libre.value());
+  }
+}
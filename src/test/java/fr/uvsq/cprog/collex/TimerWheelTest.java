@@ -0,0 +1,55 @@
+package fr.uvsq.cprog.collex;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class TimerWheelTest {
+
+  @Test public void expiration_au_bon_tick() {
+    TimerWheel<String> w = new TimerWheel<>(1000, 0);
+    w.schedule("a", 5_000);
+    List<String> out = new ArrayList<>();
+    w.advance(4_999, out::add);
+    assertTrue(out.isEmpty());
+    w.advance(5_000, out::add);
+    assertEquals(List.of("a"), out);
+    assertEquals(0, w.size());
+  }
+
+  @Test public void annulation() {
+    TimerWheel<String> w = new TimerWheel<>(1000, 0);
+    TimerWheel.Timer<String> t = w.schedule("a", 3_000);
+    w.schedule("b", 3_000);
+    w.cancel(t);
+    w.cancel(t); // sans effet
+    List<String> out = new ArrayList<>();
+    w.advance(10_000, out::add);
+    assertEquals(List.of("b"), out);
+    assertFalse(t.isScheduled());
+  }
+
+  @Test public void echeances_lointaines_cascadent() {
+    TimerWheel<Long> w = new TimerWheel<>(1, 0);
+    Random rnd = new Random(42);
+    long[] deadlines = new long[2_000];
+    for (int i = 0; i < deadlines.length; i++) {
+      deadlines[i] = 1 + rnd.nextInt(20_000_000);
+      w.schedule(deadlines[i], deadlines[i]);
+    }
+    List<Long> out = new ArrayList<>();
+    long now = 0;
+    while (w.size() > 0) {
+      now += 1 + rnd.nextInt(100_000);
+      int before = out.size();
+      w.advance(now, out::add);
+      for (int i = before; i < out.size(); i++) {
+        assertTrue("expirée en avance", out.get(i) <= now);
+      }
+    }
+    assertEquals(deadlines.length, out.size());
+  }
+}
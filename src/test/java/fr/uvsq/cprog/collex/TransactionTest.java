@@ -0,0 +1,209 @@
+package fr.uvsq.cprog.collex;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TransactionTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static AdresseIP ip(String s) {
+    return new AdresseIP(s);
+  }
+
+  private static NomMachine nom(String s) {
+    return new NomMachine(s);
+  }
+
+  @Test public void mutations_privees_jusqu_a_la_validation() throws Exception {
+    Path db = tmp.getRoot().toPath().resolve("db.txt");
+    Dns dns = new Dns(db, new DnsTest.FakeClock());
+    dns.addItem(ip("10.0.0.1"), nom("a.r.fr"));
+    dns.addItem(ip("10.0.0.2"), nom("b.r.fr"));
+    long v = dns.version();
+
+    // réadressage du rack : échange des deux adresses, plus un ajout
+    Transaction tx = dns.transaction();
+    DnsItem a = tx.removeItem(nom("a.r.fr"));
+    DnsItem b = tx.removeItem(nom("b.r.fr"));
+    tx.addItem(b.getIp(), a.getNom());
+    tx.addItem(a.getIp(), b.getNom());
+    tx.addItem(ip("10.0.0.3"), nom("c.r.fr"), Duration.ofSeconds(60));
+    assertEquals("10.0.0.2", tx.getItem(nom("a.r.fr")).getIp().value());
+    assertEquals("c.r.fr", tx.getItem(ip("10.0.0.3")).getNom().getFqdn());
+    assertNull(dns.getItem(nom("c.r.fr")));
+    assertEquals("10.0.0.1", dns.getItem(nom("a.r.fr")).getIp().value());
+    try {
+      tx.addItem(ip("10.0.0.1"), nom("d.r.fr"));
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("L'adresse IP existe déjà !", e.getMessage());
+    }
+
+    assertEquals(3, tx.commit());
+    assertEquals(v + 3, dns.version());
+    assertEquals("10.0.0.2", dns.getItem(nom("a.r.fr")).getIp().value());
+    assertEquals("b.r.fr", dns.getItem(ip("10.0.0.1")).getNom().getFqdn());
+    assertNotNull(dns.getItem(nom("c.r.fr")).getExpiration());
+    assertEquals(3, Files.readAllLines(db).size());
+    try {
+      tx.addItem(ip("10.0.0.9"), nom("e.r.fr"));
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("Transaction terminée", e.getMessage());
+    }
+
+    // suppression d'un ajout de la même transaction : rien à appliquer
+    assertEquals(0, dns.transaction(t -> {
+      t.addItem(ip("10.0.0.8"), nom("x.r.fr"));
+      t.removeItem(nom("x.r.fr"));
+    }));
+  }
+
+  @Test public void conflits() {
+    Dns dns = new Dns(tmp.getRoot().toPath().resolve("db.txt"));
+    dns.addItem(ip("10.0.0.1"), nom("a.r.fr"));
+
+    Transaction tx = dns.transaction();
+    tx.addItem(ip("10.0.0.5"), nom("e.r.fr"));
+    dns.addItem(ip("10.0.0.9"), nom("sans-rapport.r.fr"));
+    assertEquals(1, tx.commit());
+
+    Transaction perdante = dns.transaction();
+    perdante.addItem(ip("10.0.0.6"), nom("f.r.fr"));
+    dns.addItem(ip("10.0.0.6"), nom("concurrent.r.fr"));
+    try {
+      perdante.commit();
+      fail();
+    } catch (TransactionConflictException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("concurrent.r.fr"));
+    }
+    assertNull(dns.getItem(nom("f.r.fr")));
+
+    // une lecture suffit à créer une dépendance
+    Transaction lectrice = dns.transaction();
+    assertNotNull(lectrice.getItem(nom("a.r.fr")));
+    lectrice.addItem(ip("10.0.0.7"), nom("g.r.fr"));
+    dns.transaction(t -> t.removeItem(nom("a.r.fr")));
+    try {
+      lectrice.commit();
+      fail();
+    } catch (TransactionConflictException e) {
+      assertNull(dns.getItem(nom("g.r.fr")));
+    }
+
+    // un script qui échoue n'applique rien
+    try {
+      dns.transaction(t -> {
+        t.addItem(ip("10.0.1.1"), nom("h.r.fr"));
+        t.addItem(ip("10.0.1.1"), nom("i.r.fr"));
+      });
+      fail();
+    } catch (IllegalStateException e) {
+      assertNull(dns.getItem(nom("h.r.fr")));
+    }
+  }
+
+  @Test public void journal_depasse() {
+    Properties p = new Properties();
+    p.setProperty("log.size", "2");
+    Dns dns = new Dns(tmp.getRoot().toPath().resolve("db.txt"), p);
+    Transaction tx = dns.transaction();
+    tx.addItem(ip("10.0.0.1"), nom("a.r.fr"));
+    for (int i = 0; i < 3; i++) {
+      dns.addItem(ip("10.1.0." + i), nom("n" + i + ".r.fr"));
+    }
+    try {
+      tx.commit();
+      fail();
+    } catch (TransactionConflictException e) {
+      assertTrue(e.getMessage().contains("journal"));
+    }
+  }
+
+  @Test public void transactions_concurrentes() throws Exception {
+    Dns dns = new Dns(tmp.getRoot().toPath().resolve("db.txt"));
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    AtomicInteger conflits = new AtomicInteger();
+    List<Future<?>> fs = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      int thread = t;
+      fs.add(pool.submit(() -> {
+        for (int i = 0; i < 25; i++) {
+          // chaque thread ajoute ses propres noms, et tous se disputent « compteur »
+          int k = i;
+          while (true) {
+            try {
+              dns.transaction(tx -> {
+                DnsItem c = tx.removeItem(nom("compteur.r.fr"));
+                int n = (c == null) ? 0 : c.getIp().toInt() & 0xFFFF;
+                tx.addItem(AdresseIP.fromInt(0x0A090000 + n + 1), nom("compteur.r.fr"));
+                tx.addItem(ip("10." + (thread + 1) + ".0." + k), nom("t" + thread + "-" + k + ".r.fr"));
+              });
+              break;
+            } catch (TransactionConflictException e) {
+              conflits.incrementAndGet();
+            }
+          }
+        }
+      }));
+    }
+    for (Future<?> f : fs) {
+      f.get();
+    }
+    pool.shutdown();
+    assertEquals("10.9.0.100", dns.getItem(nom("compteur.r.fr")).getIp().value());
+    assertEquals(101, dns.snapshot().size());
+  }
+
+  @Test public void commandes_begin_commit_abort() {
+    Dns dns = new Dns(tmp.getRoot().toPath().resolve("db.txt"));
+    DnsTUI tui = new DnsTUI(new Scanner(""), System.out, dns);
+    assertEquals("ERREUR : Aucune transaction ouverte", tui.parse("commit").execute(dns));
+    assertEquals("", tui.parse("begin").execute(dns));
+    assertEquals("ERREUR : Transaction déjà ouverte", tui.parse("begin").execute(dns));
+    assertEquals("", tui.parse("add 10.0.0.1 a.r.fr").execute(dns));
+    assertEquals("10.0.0.1", tui.parse("a.r.fr").execute(dns));
+    assertEquals("a.r.fr", tui.parse("10.0.0.1").execute(dns));
+    assertNull(dns.getItem(nom("a.r.fr")));
+    assertEquals("ERREUR : Commande impossible dans une transaction",
+        tui.parse("alloc b.r.fr 10.0.0.0/24").execute(dns));
+    assertEquals("1 mutation(s) appliquée(s)", tui.parse("commit").execute(dns));
+    assertEquals("10.0.0.1", tui.parse("a.r.fr").execute(dns));
+
+    tui.parse("begin").execute(dns);
+    tui.parse("add 10.0.0.2 b.r.fr").execute(dns);
+    assertEquals("Transaction abandonnée", tui.parse("abort").execute(dns));
+    assertEquals("ERREUR : Élément introuvable", tui.parse("b.r.fr").execute(dns));
+  }
+
+  @Test public void un_seul_enregistrement_du_fichier() {
+    int n = 500;
+    Dns direct = new Dns(tmp.getRoot().toPath().resolve("direct.txt"));
+    for (int i = 0; i < n; i++) {
+      direct.addItem(AdresseIP.fromInt(0x0A000000 + i), nom("h" + i + ".r.fr"));
+    }
+    Dns lot = new Dns(tmp.getRoot().toPath().resolve("lot.txt"));
+    assertEquals(n, lot.transaction(tx -> {
+      for (int i = 0; i < n; i++) {
+        tx.addItem(AdresseIP.fromInt(0x0A000000 + i), nom("h" + i + ".r.fr"));
+      }
+    }));
+    assertEquals(direct.snapshot().size(), lot.snapshot().size());
+    assertEquals(n, direct.writeStats().getRewrites());
+    assertEquals(1, lot.writeStats().getRewrites());
+  }
+}
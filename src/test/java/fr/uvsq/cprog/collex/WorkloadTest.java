@@ -0,0 +1,116 @@
+package fr.uvsq.cprog.collex;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WorkloadTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path path(String name) {
+    return tmp.getRoot().toPath().resolve(name);
+  }
+
+  @Test public void options() {
+    Workload.Options o = Workload.Options.parse(
+        new String[] {"--load", "--entries", "5000", "--threads", "4", "--ops", "400"}, 1);
+    assertEquals(5, o.domains());
+    assertEquals(10, o.warmup());
+    for (String[] bad : List.of(new String[] {"--ops", "0"}, new String[] {"--mix", "foo=1"},
+        new String[] {"--mix", "nom=0"}, new String[] {"--verbose", "1"},
+        new String[] {"--ops"})) {
+      try {
+        Workload.Options.parse(bad, 0);
+        fail(String.join(" ", bad));
+      } catch (IllegalArgumentException e) {
+        // attendu
+      }
+    }
+    assertEquals(Workload.Op.LSA, Workload.Op.of("ls -a d1.load.test"));
+    assertEquals(Workload.Op.LS, Workload.Op.of("ls d1.load.test"));
+    assertEquals(Workload.Op.IP, Workload.Op.of("10.0.0.1"));
+    assertEquals(Workload.Op.NOM, Workload.Op.of("www.uvsq.fr"));
+    assertEquals(Workload.Op.AUTRE, Workload.Op.of("mem"));
+  }
+
+  @Test public void zipf_et_histogramme() {
+    Workload.Zipf zipf = new Workload.Zipf(1000, 1.0);
+    SplittableRandom rnd = new SplittableRandom(1);
+    int[] counts = new int[1000];
+    for (int i = 0; i < 100_000; i++) {
+      counts[zipf.next(rnd)]++;
+    }
+    // rang 1 environ deux fois plus tiré que le rang 2, dix fois plus que le rang 10
+    assertEquals(2.0, (double) counts[0] / counts[1], 0.2);
+    assertEquals(10.0, (double) counts[0] / counts[9], 1.5);
+
+    Workload.Histogram h = new Workload.Histogram();
+    for (int i = 1; i <= 10_000; i++) {
+      h.record(i * 1000L);
+    }
+    assertEquals(5_000_000, h.percentile(0.5), 5_000_000 * 0.016);
+    assertEquals(9_900_000, h.percentile(0.99), 9_900_000 * 0.016);
+    assertEquals(10_000_000, h.max());
+    for (long v : new long[] {0, 63, 64, 1000, 123_456_789, Long.MAX_VALUE / 2}) {
+      long mid = Workload.Histogram.value(Workload.Histogram.index(v));
+      assertEquals(v, mid, Math.max(1, v * 0.016));
+    }
+  }
+
+  @Test public void mesure_enregistrement_et_rejeu() throws Exception {
+    Path record = path("flux.txt");
+    Workload.Options o = Workload.Options.parse(new String[] {"--entries", "2000",
+        "--threads", "2", "--ops", "1000", "--mix", "nom=50,ip=30,ls=5,lsa=5,add=10",
+        "--record", record.toString()}, 0);
+    Workload.Report r = new Workload(o, new Properties()).run();
+    assertEquals(1000, r.getOps());
+    assertEquals(0, r.getErrors());
+    assertTrue(r.getThroughput() > 0);
+    long sum = 0;
+    for (Workload.Op op : Workload.Op.values()) {
+      sum += r.count(op);
+    }
+    assertEquals(1000, sum);
+    assertTrue(r.count(Workload.Op.ADD) > 0 && r.count(Workload.Op.LSA) > 0);
+    String json = r.toJson();
+    for (String key : List.of("\"throughput\":", "\"gc\":{\"count\":", "\"allocation\":",
+        "\"latencyUs\":{\"all\":{\"count\":1000", "\"p99\":", "\"store\":\"hash\"")) {
+      assertTrue(key + " absent de " + json, json.contains(key));
+    }
+    // mise en route comprise : 2 x (50 + 500) lignes
+    assertEquals(1100, Files.readAllLines(record).size());
+
+    // rejeu sur la même zone synthétique : mêmes commandes, mêmes types
+    Workload.Options replay = Workload.Options.parse(new String[] {"--entries", "2000",
+        "--threads", "2", "--warmup", "50", "--replay", record.toString()}, 0);
+    Workload.Report rr = new Workload(replay, new Properties()).run();
+    for (Workload.Op op : Workload.Op.values()) {
+      assertEquals(op.key(), r.count(op), rr.count(op));
+    }
+    assertEquals(0, rr.getErrors());
+  }
+
+  @Test public void mode_load() throws Exception {
+    App app = new App();
+    Path out = path("rapport.json");
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    assertTrue(app.load(new String[] {"--load", "--entries", "500", "--ops", "200",
+        "--out", out.toString()}, new PrintStream(buf, true, StandardCharsets.UTF_8)));
+    assertEquals("", buf.toString(StandardCharsets.UTF_8));
+    assertTrue(Files.readString(out).startsWith("{\"version\":"));
+    assertFalse(app.load(new String[] {"--load", "--threads", "x"},
+        new PrintStream(buf, true, StandardCharsets.UTF_8)));
+    assertTrue(buf.toString(StandardCharsets.UTF_8)
+        .startsWith("ERREUR : Valeur invalide pour --threads"));
+  }
+}
@@ -0,0 +1,108 @@
+package fr.uvsq.cprog.collex;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ZoneCheckTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static final List<String> ZONE = List.of(
+      "# zone de test",
+      "a.x.fr 10.0.0.1",
+      "b.x.fr 10.0.0.2",
+      "b.x.fr 10.0.0.3",
+      "c.x.fr",
+      "d.x.fr 10.0.0.1",
+      "",
+      "e.x.fr 10.0.0.300",
+      "nom 10.0.0.9",
+      "f.x.fr 10.0.0.6 demain",
+      "g.x.fr 10.0.0.7 2030-01-01T00:00:00Z",
+      "aa.x.fr 10.0.0.8",
+      "a1.x.fr 10.0.0.10",
+      "a0.x.fr 10.0.0.11",
+      "h.x.fr 10.0.0.12");
+
+  private static List<String> lignes(ZoneCheck.Report r) {
+    return r.getProblems().stream().map(Object::toString).collect(Collectors.toList());
+  }
+
+  @Test public void toutes_les_anomalies() throws Exception {
+    Path f = tmp.getRoot().toPath().resolve("zone.txt");
+    Files.write(f, ZONE);
+    ZoneCheck.Report r = new ZoneCheck(2, 100).check(f);
+    assertEquals(List.of(
+        "ligne 4 : nom en double : b.x.fr (déjà ligne 3)",
+        "ligne 5 : ligne mal formée : c.x.fr",
+        "ligne 6 : adresse IP en double : 10.0.0.1 (déjà ligne 2)",
+        "ligne 8 : adresse IP invalide : 10.0.0.300",
+        "ligne 9 : nom invalide : nom",
+        "ligne 10 : ligne mal formée : f.x.fr 10.0.0.6 demain",
+        "lignes 12-14 : noms non triés"), lignes(r));
+    assertEquals(15, r.getLines());
+    assertEquals(9, r.getEntries());
+    assertFalse(r.isValid());
+    assertEquals("15 ligne(s), 9 entrée(s) : ligne mal formée 2, nom invalide 1, "
+        + "adresse IP invalide 1, nom en double 1, adresse IP en double 1, noms non triés 1",
+        r.summary());
+
+    // les anomalies ne dépendent ni du découpage ni du nombre de threads
+    for (int chunk : new int[] {1, 16, 40, 100}) {
+      assertEquals("morceaux de " + chunk, lignes(r),
+          lignes(new ZoneCheck(3, 100, chunk).check(f)));
+    }
+    ZoneCheck.Report limite = new ZoneCheck(1, 1, 16).check(f);
+    assertEquals(2, limite.count(ZoneCheck.Kind.MALFORMED));
+    assertEquals(6, limite.getProblems().size());
+  }
+
+  @Test public void fichier_valide_et_mode_check() throws Exception {
+    Path f = tmp.getRoot().toPath().resolve("ok.txt");
+    Files.write(f, List.of("a.x.fr 10.0.0.1", "b.x.fr 10.0.0.2"));
+    assertEquals("2 ligne(s), 2 entrée(s) : aucune anomalie",
+        new ZoneCheck(1, 10).check(f).toString());
+    Files.write(tmp.getRoot().toPath().resolve("vide.txt"), new byte[0]);
+    assertTrue(new ZoneCheck(4, 10).check(tmp.getRoot().toPath().resolve("vide.txt")).isValid());
+
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    Path ko = tmp.getRoot().toPath().resolve("ko.txt");
+    Files.write(ko, ZONE);
+    PrintStream out = new PrintStream(buf, true, "UTF-8");
+    assertTrue(new App().check(new String[] {"--check", f.toString()}, out));
+    assertFalse(new App().check(new String[] {"--check", ko.toString(), "--parallel", "2"}, out));
+    assertTrue(buf.toString("UTF-8").contains("ligne 9 : nom invalide : nom"));
+  }
+
+  @Test public void grand_fichier() throws Exception {
+    Path f = tmp.getRoot().toPath().resolve("grand.txt");
+    int n = 1_000_000;
+    try (BufferedWriter w = Files.newBufferedWriter(f, StandardCharsets.UTF_8)) {
+      for (int i = 0; i < n; i++) {
+        if (i % 250_000 == 1000) {
+          w.write("h" + (10_000_000 + i - 1000) + ".grand.fr 11.0.0.1\n"); // nom et IP en double
+        } else {
+          w.write("h" + (10_000_000 + i) + ".grand.fr 10." + (i >> 16) + "." + ((i >> 8) & 255)
+              + "." + (i & 255) + "\n");
+        }
+      }
+    }
+    int cpus = Math.max(2, Runtime.getRuntime().availableProcessors());
+    ZoneCheck.Report seq = new ZoneCheck(1, 100).check(f);
+    ZoneCheck.Report par = new ZoneCheck(cpus, 100).check(f);
+    assertEquals(seq.toString(), par.toString());
+    assertEquals(4, par.count(ZoneCheck.Kind.DUPLICATE_NAME));
+    assertEquals(3, par.count(ZoneCheck.Kind.DUPLICATE_IP));
+    assertEquals(4, par.count(ZoneCheck.Kind.UNSORTED));
+  }
+}
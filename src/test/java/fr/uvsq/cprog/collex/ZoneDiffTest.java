@@ -0,0 +1,111 @@
+package fr.uvsq.cprog.collex;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ZoneDiffTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path file(String name, String content) throws Exception {
+    Path f = tmp.getRoot().toPath().resolve(name);
+    Files.write(f, content.getBytes(StandardCharsets.UTF_8));
+    return f;
+  }
+
+  private static List<String> diff(Path a, Path b) throws Exception {
+    List<String> res = new ArrayList<>();
+    ZoneDiff.diff(a, b, c -> res.add(c.toString()));
+    return res;
+  }
+
+  @Test public void ajouts_suppressions_et_changements() throws Exception {
+    Path a = file("a.txt", "# staging\na.z 1.0.0.1\nb.z 1.0.0.2\nc.z 1.0.0.3\nd.z   1.0.0.4\n");
+    Path b = file("b.txt", "a.z 1.0.0.1\nb.z 1.0.0.9\nd.z 1.0.0.4\ne.z 1.0.0.5\n");
+    assertEquals(List.of("~ b.z 1.0.0.2 -> 1.0.0.9", "- 1.0.0.3 c.z", "+ 1.0.0.5 e.z"), diff(a, b));
+    assertEquals(List.of(), diff(a, a));
+  }
+
+  @Test public void fichier_non_trie_refuse() throws Exception {
+    Path a = file("a.txt", "b.z 1.0.0.2\na.z 1.0.0.1\n");
+    Path b = file("b.txt", "");
+    try {
+      diff(a, b);
+      fail("fichier désordonné accepté");
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage().startsWith("Fichier non trié"));
+    }
+  }
+
+  @Test public void application_en_un_lot() throws Exception {
+    Path db = file("db.txt", "");
+    Dns dns = new Dns(db);
+    dns.addItem(new AdresseIP("1.0.0.1"), new NomMachine("a.z"));
+    dns.addItem(new AdresseIP("1.0.0.2"), new NomMachine("b.z"));
+    dns.addItem(new AdresseIP("1.0.0.3"), new NomMachine("c.z"));
+    Path cible = file("cible.txt", "a.z 1.0.0.1\nb.z 1.0.0.3\nd.z 1.0.0.2\n");
+    long avant = dns.version();
+
+    DnsTUI tui = new DnsTUI(new Scanner(""), System.out, dns);
+    String res = tui.parse("diff -apply " + db + " " + cible).execute(dns);
+    assertEquals("3 différence(s), 3 mutation(s) appliquée(s)", res);
+    assertEquals(avant + 3, dns.version());
+    assertEquals(Files.readAllLines(cible), Files.readAllLines(db));
+    assertEquals("d.z", dns.getItem(new AdresseIP("1.0.0.2")).getNom().getFqdn());
+    assertNull(dns.getItem(new NomMachine("c.z")));
+    assertEquals("", tui.parse("diff " + db + " " + cible).execute(dns));
+  }
+
+  @Test public void lot_en_conflit_sans_effet() throws Exception {
+    Path db = file("db.txt", "");
+    Dns dns = new Dns(db);
+    dns.addItem(new AdresseIP("1.0.0.1"), new NomMachine("a.z"));
+    dns.addItem(new AdresseIP("1.0.0.2"), new NomMachine("hors.z"));
+    List<ZoneDiff.Change> lot = List.of(
+        new ZoneDiff.Change(ZoneDiff.Kind.REMOVE, dns.getItem(new NomMachine("a.z")), null),
+        new ZoneDiff.Change(ZoneDiff.Kind.ADD, null,
+            new DnsItem(new NomMachine("n.z"), new AdresseIP("1.0.0.2"))));
+    try {
+      dns.applyChanges(lot);
+      fail("conflit d'adresse accepté");
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage().startsWith("L'adresse IP existe déjà !"));
+    }
+    assertNotNull(dns.getItem(new NomMachine("a.z")));
+    assertNull(dns.getItem(new NomMachine("n.z")));
+  }
+
+  @Test public void gros_fichiers_en_flux() throws Exception {
+    int n = 500_000;
+    Path a = tmp.getRoot().toPath().resolve("gros-a.txt");
+    Path b = tmp.getRoot().toPath().resolve("gros-b.txt");
+    try (BufferedWriter wa = Files.newBufferedWriter(a);
+         BufferedWriter wb = Files.newBufferedWriter(b)) {
+      for (int i = 0; i < n; i++) {
+        String nom = String.format("h%07d.big.fr", i);
+        String ip = "10." + (i >> 16 & 255) + "." + (i >> 8 & 255) + "." + (i & 255);
+        if (i % 1000 != 1) {
+          wa.write(nom + " " + ip + "\n");
+        }
+        if (i % 1000 != 2) {
+          wb.write(nom + " " + (i % 1000 == 3 ? "11.0.0." + (i / 1000 % 256) : ip) + "\n");
+        }
+      }
+    }
+    long[] kinds = new long[3];
+    long count = ZoneDiff.diff(a, b, c -> kinds[c.getKind().ordinal()]++);
+    assertEquals(1500, count);
+    assertEquals(500, kinds[ZoneDiff.Kind.ADD.ordinal()]);
+    assertEquals(500, kinds[ZoneDiff.Kind.REMOVE.ordinal()]);
+    assertEquals(500, kinds[ZoneDiff.Kind.CHANGE.ordinal()]);
+  }
+}
@@ -0,0 +1,115 @@
+package fr.uvsq.cprog.collex;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ZoneExportTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static final Instant NOW = Instant.parse("2025-01-01T00:00:00Z");
+
+  private static DnsItem item(String nom, String ip, Instant expiration) {
+    return new DnsItem(new NomMachine(nom), new AdresseIP(ip), expiration);
+  }
+
+  @Test public void zones_directes_et_inverses() throws Exception {
+    Path dir = tmp.getRoot().toPath().resolve("zones");
+    List<DnsItem> items = List.of(
+        item("www.uvsq.fr", "193.51.31.90", null),
+        item("ecampus.uvsq.fr", "193.51.25.12", null),
+        item("poste.uvsq.fr", "193.51.31.9", NOW.plusSeconds(300)),
+        item("a.b.fr", "10.0.0.1", null));
+    ZoneExport.Result r = new ZoneExport(dir, 2, NOW).export(items);
+    assertEquals("2 zone(s) directe(s), 3 zone(s) inverse(s), 4 entrée(s)", r.toString());
+
+    String soa = "@\tIN\tSOA\tns.uvsq.fr. hostmaster.uvsq.fr. 1735689600 3600 900 604800 86400";
+    assertEquals(List.of("$ORIGIN uvsq.fr.", "$TTL 86400", soa, "@\tIN\tNS\tns.uvsq.fr.",
+        "ecampus\tIN\tA\t193.51.25.12",
+        "poste\t300\tIN\tA\t193.51.31.9",
+        "www\tIN\tA\t193.51.31.90"), Files.readAllLines(dir.resolve("uvsq.fr.zone")));
+    List<String> rev = Files.readAllLines(dir.resolve("31.51.193.in-addr.arpa.zone"));
+    assertEquals("$ORIGIN 31.51.193.in-addr.arpa.", rev.get(0));
+    assertEquals(List.of("9\t300\tIN\tPTR\tposte.uvsq.fr.", "90\tIN\tPTR\twww.uvsq.fr."),
+        rev.subList(4, rev.size()));
+    assertTrue(Files.exists(dir.resolve("0.0.10.in-addr.arpa.zone")));
+    assertTrue(Files.exists(dir.resolve("b.fr.zone")));
+  }
+
+  @Test public void cles_dans_l_ordre_des_adresses() {
+    Random rnd = new Random(3);
+    AdresseIP[] ips = new AdresseIP[2000];
+    long[] keys = new long[ips.length];
+    for (int i = 0; i < ips.length; i++) {
+      ips[i] = AdresseIP.fromInt(rnd.nextInt());
+      keys[i] = ZoneExport.key(ips[i].toInt(), i);
+    }
+    Arrays.sort(keys);
+    AdresseIP[] attendu = ips.clone();
+    Arrays.sort(attendu);
+    for (int i = 0; i < keys.length; i++) {
+      assertEquals(attendu[i].toInt(), ZoneExport.ip(keys[i]));
+      assertEquals(attendu[i], ips[(int) keys[i]]);
+    }
+  }
+
+  @Test public void domaine_hors_du_repertoire_refuse() throws Exception {
+    Path dir = tmp.getRoot().toPath().resolve("zones");
+    for (String nom : new String[] {"x.../../../evil", "x.a/../../evil", "x..", "x.a b"}) {
+      try {
+        new ZoneExport(dir, 2, NOW).export(List.of(item("a.b.fr", "10.0.0.1", null),
+            item(nom, "10.0.0.2", null)));
+        fail("domaine accepté : " + nom);
+      } catch (IllegalArgumentException e) {
+        assertTrue(e.getMessage(), e.getMessage().startsWith("Domaine invalide"));
+      }
+    }
+    try (Stream<Path> files = Files.walk(tmp.getRoot().toPath())) {
+      assertEquals(List.of(), files.filter(Files::isRegularFile)
+          .map(f -> f.getFileName().toString()).collect(Collectors.toList()));
+    }
+  }
+
+  @Test public void commande_export() throws Exception {
+    DnsTest.FakeClock clock = new DnsTest.FakeClock();
+    clock.avance(Duration.ofSeconds(42));
+    Dns dns = new Dns(tmp.getRoot().toPath().resolve("db.txt"), clock);
+    dns.addItem(new AdresseIP("10.1.2.3"), new NomMachine("x.y.fr"));
+    DnsTUI tui = new DnsTUI(new Scanner(""), System.out, dns);
+    Path dir = tmp.getRoot().toPath().resolve("out");
+    assertEquals("1 zone(s) directe(s), 1 zone(s) inverse(s), 1 entrée(s)",
+        tui.parse("export " + dir).execute(dns));
+    assertTrue(Files.readAllLines(dir.resolve("2.1.10.in-addr.arpa.zone"))
+        .contains("3\tIN\tPTR\tx.y.fr."));
+    // numéro de série pris à l'horloge de la base
+    assertTrue(Files.readAllLines(dir.resolve("y.fr.zone")).get(2).contains(" 1735689642 "));
+  }
+
+  @Test public void export_parallele() throws Exception {
+    List<DnsItem> items = new ArrayList<>();
+    int n = 200_000;
+    for (int i = 0; i < n; i++) {
+      items.add(item("h" + i + ".d" + (i % 200) + ".fr", AdresseIP.fromInt(0x0A000000 + i * 7)
+          .value(), null));
+    }
+    int cpus = Math.max(2, Runtime.getRuntime().availableProcessors());
+    ZoneExport.Result seq = new ZoneExport(tmp.newFolder().toPath(), 1, NOW).export(items);
+    ZoneExport.Result par = new ZoneExport(tmp.newFolder().toPath(), cpus, NOW).export(items);
+    assertEquals(seq.toString(), par.toString());
+    assertEquals(200, par.getForwardZones());
+    assertEquals((n * 7 - 1) / 256 + 1, par.getReverseZones());
+  }
+}
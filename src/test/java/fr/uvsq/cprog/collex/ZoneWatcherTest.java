@@ -0,0 +1,115 @@
+package fr.uvsq.cprog.collex;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ZoneWatcherTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static String ip(int i) {
+    return "10." + (i >> 16 & 255) + "." + (i >> 8 & 255) + "." + (i & 255);
+  }
+
+  private static String nom(int i) {
+    return String.format("h%06d.zone.fr", i);
+  }
+
+  /** Écrit une zone de {@code n} entrées, avec quelques retouches. */
+  private static void writeZone(Path db, int n, boolean retouche) throws Exception {
+    try (BufferedWriter w = Files.newBufferedWriter(db, StandardCharsets.UTF_8)) {
+      for (int i = 0; i < n; i++) {
+        if (retouche && i == 10) {
+          continue; // suppression
+        }
+        String ip = (retouche && i == 20) ? "11.0.0.20" : ip(i);
+        String sep = (retouche && i == 30) ? "   " : " "; // espacement seul : pas de changement
+        w.write(nom(i) + sep + ip + "\n");
+      }
+      if (retouche) {
+        w.write("zz.zone.fr 11.0.0.99\n");
+      }
+    }
+  }
+
+  @Test public void rechargement_incremental() throws Exception {
+    Path db = tmp.getRoot().toPath().resolve("db.txt");
+    int n = 200_000;
+    writeZone(db, n, false);
+    Dns dns = new Dns(db);
+    assertEquals(0, dns.reload());
+    ChangeStream changes = dns.watch("", 16);
+    long avant = dns.version();
+
+    writeZone(db, n, true);
+    Files.setLastModifiedTime(db, FileTime.fromMillis(System.currentTimeMillis() + 2000));
+    int applied = dns.reload();
+
+    assertEquals(3, applied);
+    assertEquals(avant + 3, dns.version());
+    assertNull(dns.getItem(new NomMachine(nom(10))));
+    assertEquals("11.0.0.20", dns.getItem(new NomMachine(nom(20))).getIp().value());
+    assertNull(dns.getItem(new AdresseIP(ip(20))));
+    assertEquals(nom(30), dns.getItem(new AdresseIP(ip(30))).getNom().getFqdn());
+    assertNotNull(dns.getItem(new NomMachine("zz.zone.fr")));
+    assertEquals(n, dns.getItems("zone.fr").size());
+    assertEquals(Mutation.Type.REMOVE, changes.poll(1, TimeUnit.SECONDS).getType());
+    changes.close();
+
+    // fichier inchangé ou réécrit par la base elle-même : rien à faire
+    assertEquals(0, dns.reload());
+    dns.addItem(new AdresseIP("12.0.0.1"), new NomMachine("neuf.zone.fr"));
+    assertEquals(0, dns.reload());
+  }
+
+  @Test public void surveillance_du_fichier() throws Exception {
+    Path db = tmp.getRoot().toPath().resolve("db.txt");
+    Files.write(db, List.of("a.w.fr 1.0.0.1", "b.w.fr 1.0.0.2"));
+    Dns dns = new Dns(db);
+    try (ZoneWatcher watcher = new ZoneWatcher(dns)) {
+      dns.addItem(new AdresseIP("1.0.0.3"), new NomMachine("c.w.fr"));
+      Files.write(db, List.of("a.w.fr 1.0.0.1", "c.w.fr 1.0.0.3", "d.w.fr 1.0.0.4"));
+      long deadline = System.currentTimeMillis() + 20_000;
+      while (dns.getItem(new NomMachine("d.w.fr")) == null
+          && System.currentTimeMillis() < deadline) {
+        Thread.sleep(20);
+      }
+      assertNotNull(dns.getItem(new NomMachine("d.w.fr")));
+      assertNull(dns.getItem(new NomMachine("b.w.fr")));
+      assertEquals(2, watcher.mutations());
+    }
+  }
+
+  @Test public void rechargement_paresseux_et_partitionne() throws Exception {
+    Path db = tmp.getRoot().toPath().resolve("lazy.txt");
+    Files.write(db, List.of("a.l.fr 1.0.0.1", "b.l.fr 1.0.0.2"));
+    Properties p = new Properties();
+    p.setProperty("db.lazy", "true");
+    Dns lazy = new Dns(db, p);
+    assertNotNull(lazy.getItem(new NomMachine("b.l.fr")));
+    Files.write(db, List.of("a.l.fr 1.0.0.1", "c.l.fr 1.0.0.3"));
+    Files.setLastModifiedTime(db, FileTime.fromMillis(System.currentTimeMillis() + 2000));
+    lazy.reload();
+    assertNull(lazy.getItem(new NomMachine("b.l.fr")));
+    assertNotNull(lazy.getItem(new NomMachine("c.l.fr")));
+
+    Path base = tmp.getRoot().toPath().resolve("s.txt");
+    ShardedDns sharded = new ShardedDns(base, 2, new Properties());
+    sharded.addItem(new AdresseIP("2.0.0.1"), new NomMachine("x.s.fr"));
+    Path shard = ShardedDns.shardFile(base, sharded.shardOf(new NomMachine("x.s.fr")));
+    Files.write(shard, List.of("x.s.fr 2.0.0.9"));
+    Files.setLastModifiedTime(shard, FileTime.fromMillis(System.currentTimeMillis() + 2000));
+    assertEquals(1, sharded.reload());
+    assertEquals("2.0.0.9", sharded.getItem(new NomMachine("x.s.fr")).getIp().value());
+  }
+}
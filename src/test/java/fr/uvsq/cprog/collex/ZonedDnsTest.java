@@ -0,0 +1,191 @@
+package fr.uvsq.cprog.collex;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Scanner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ZonedDnsTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path path(String name) {
+    return tmp.getRoot().toPath().resolve(name);
+  }
+
+  private Map<String, Path> troisZones() {
+    Map<String, Path> zones = new LinkedHashMap<>();
+    zones.put("uvsq.fr", path("uvsq.txt"));
+    zones.put("IUT.uvsq.fr.", path("iut.txt"));
+    zones.put(".", path("autres.txt"));
+    return zones;
+  }
+
+  @Test public void configuration() {
+    Properties p = new Properties();
+    assertTrue(ZonedDns.zonesOf(p).isEmpty());
+    p.setProperty("db.zones", " uvsq.fr = a.txt , .=b.txt");
+    Map<String, Path> zones = ZonedDns.zonesOf(p);
+    assertEquals(List.of("uvsq.fr", "."), List.copyOf(zones.keySet()));
+    assertEquals("b.txt", zones.get(".").toString());
+    p.setProperty("db.zones", "uvsq.fr");
+    try {
+      ZonedDns.zonesOf(p);
+      fail();
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage().startsWith("Zone invalide"));
+    }
+  }
+
+  @Test public void routage_par_plus_long_suffixe() throws Exception {
+    ZonedDns dns = new ZonedDns(troisZones(), new Properties());
+    dns.addItem(new AdresseIP("10.0.0.1"), new NomMachine("www.uvsq.fr"));
+    dns.addItem(new AdresseIP("10.0.0.2"), new NomMachine("a.iut.uvsq.fr"));
+    dns.addItem(new AdresseIP("10.0.0.3"), new NomMachine("b.dept.iut.uvsq.fr"));
+    dns.addItem(new AdresseIP("10.0.0.4"), new NomMachine("x.example.org"));
+    // zones isolées : la même adresse dans une autre zone
+    dns.addItem(new AdresseIP("10.0.0.1"), new NomMachine("web.example.org"));
+
+    assertEquals(List.of("www.uvsq.fr 10.0.0.1"), Files.readAllLines(path("uvsq.txt")));
+    assertEquals(List.of("a.iut.uvsq.fr 10.0.0.2", "b.dept.iut.uvsq.fr 10.0.0.3"),
+        Files.readAllLines(path("iut.txt")));
+    assertEquals(2, Files.readAllLines(path("autres.txt")).size());
+    assertEquals("uvsq.fr", dns.zoneOf("WWW.UVSQ.FR").suffix());
+    assertEquals("iut.uvsq.fr", dns.zoneOf("b.dept.iut.uvsq.fr").suffix());
+    assertEquals(".", dns.zoneOf("x.example.org").suffix());
+
+    assertEquals("10.0.0.2", dns.getItem(new NomMachine("a.iut.uvsq.fr")).getIp().value());
+    assertEquals("www.uvsq.fr", dns.getItem(new AdresseIP("10.0.0.1")).getNom().getFqdn());
+    assertEquals(2, dns.getItems("example.org").size());
+    assertEquals(3, dns.findContaining("uvsq", 10).size());
+    assertEquals(5, dns.snapshot().size());
+    assertEquals(5, dns.footprint().getEntries());
+
+    // activité d'écriture par zone
+    String stats = dns.zoneStats();
+    String[] lines = stats.split("\\R");
+    assertEquals(stats, 3, lines.length);
+    assertTrue(stats, lines[0].startsWith("uvsq.fr") && lines[0].contains("1 réécriture(s)"));
+    assertTrue(stats, lines[1].contains("2 entrée(s)") && lines[1].contains("2 réécriture(s)"));
+    assertEquals(5, dns.writeStats().getRewrites());
+    String out = new DnsTUI(new Scanner(""), System.out, dns).parse("zones").execute(dns);
+    assertEquals(out, 3, out.split("\\R").length);
+    assertTrue(out, out.startsWith("uvsq.fr "));
+
+    // un lot traversant les zones est réparti ; refusé par une zone, il n'est appliqué par aucune
+    try {
+      dns.applyChanges(List.of(
+          new ZoneDiff.Change(ZoneDiff.Kind.ADD, null,
+              new DnsItem(new NomMachine("c.uvsq.fr"), new AdresseIP("10.0.1.1"), null)),
+          new ZoneDiff.Change(ZoneDiff.Kind.ADD, null,
+              new DnsItem(new NomMachine("c.iut.uvsq.fr"), new AdresseIP("10.0.0.2"), null))));
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("L'adresse IP existe déjà ! 10.0.0.2", e.getMessage());
+    }
+    assertNull(dns.getItem(new NomMachine("c.uvsq.fr")));
+    assertEquals(2, dns.applyChanges(List.of(
+        new ZoneDiff.Change(ZoneDiff.Kind.ADD, null,
+            new DnsItem(new NomMachine("c.uvsq.fr"), new AdresseIP("10.0.1.1"), null)),
+        new ZoneDiff.Change(ZoneDiff.Kind.ADD, null,
+            new DnsItem(new NomMachine("c.iut.uvsq.fr"), new AdresseIP("10.0.1.2"), null)))));
+    assertEquals("10.0.1.2", dns.getItem(new NomMachine("c.iut.uvsq.fr")).getIp().value());
+    assertEquals("10.0.0.0/16 7/65534 (0.0 %)", dns.usage(new Subnet("10.0.0.0/16")).toString());
+    dns.allocate(new NomMachine("d.uvsq.fr"), new Subnet("10.0.0.0/24"), null);
+    dns.allocate(new NomMachine("d.iut.uvsq.fr"), new Subnet("10.0.0.0/24"), null);
+    assertEquals(1, dns.usages().size());
+    assertEquals(5, dns.usages().get(0).getUsed());
+
+    // rechargement : chaque zone retrouve son fichier
+    ZonedDns reopened = new ZonedDns(troisZones(), new Properties());
+    assertEquals(9, reopened.snapshot().size());
+  }
+
+  @Test public void sans_zone_par_defaut() {
+    Map<String, Path> zones = new LinkedHashMap<>();
+    zones.put("uvsq.fr", path("uvsq.txt"));
+    ZonedDns dns = new ZonedDns(zones, new Properties());
+    assertNull(dns.getItem(new NomMachine("www.example.org")));
+    try {
+      dns.addItem(new AdresseIP("10.0.0.1"), new NomMachine("www.example.org"));
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("Aucune zone pour www.example.org", e.getMessage());
+    }
+    zones.put("UVSQ.fr", path("autre.txt"));
+    try {
+      new ZonedDns(zones, new Properties());
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("Zone en double : uvsq.fr", e.getMessage());
+    }
+  }
+
+  @Test public void une_grosse_zone_ne_bloque_pas_les_autres() throws Exception {
+    int n = 400_000;
+    try (BufferedWriter w = Files.newBufferedWriter(path("grosse.txt"))) {
+      for (int i = 0; i < n; i++) {
+        w.write("h" + i + ".grosse.fr " + AdresseIP.fromInt(0x0A000000 + i).value());
+        w.newLine();
+      }
+    }
+    Files.write(path("petite.txt"), List.of("www.petite.fr 192.168.0.1"));
+    Map<String, Path> zones = new LinkedHashMap<>();
+    zones.put("grosse.fr", path("grosse.txt"));
+    zones.put("petite.fr", path("petite.txt"));
+
+    ZonedDns dns = new ZonedDns(zones, new Properties());
+    DnsItem petite = dns.getItem(new NomMachine("www.petite.fr"));
+    // la grosse zone, première dans la configuration, n'est pas attendue
+    DnsItem parAdresse = dns.getItem(new AdresseIP("192.168.0.1"));
+    boolean grosseEnCours = !dns.zones().get(0).isLoaded();
+    String pendant = dns.zoneStats();
+    dns.awaitLoaded();
+
+    assertEquals("192.168.0.1", petite.getIp().value());
+    assertEquals("www.petite.fr", parAdresse.getNom().getFqdn());
+    assertTrue("la petite zone a attendu la grosse", grosseEnCours);
+    assertTrue(pendant, pendant.contains("chargement en cours"));
+    assertEquals("10.0.0.5", dns.getItem(new NomMachine("h5.grosse.fr")).getIp().value());
+    assertEquals(n + 1, dns.footprint().getEntries());
+  }
+
+  @Test public void surveillance_et_verification_de_chaque_zone() throws Exception {
+    ZonedDns dns = new ZonedDns(troisZones(), new Properties());
+    dns.addItem(new AdresseIP("10.0.0.1"), new NomMachine("www.uvsq.fr"));
+    dns.addItem(new AdresseIP("10.0.0.2"), new NomMachine("a.iut.uvsq.fr"));
+
+    String rapport = new CommandeCheck(null).execute(dns);
+    assertEquals(rapport, 3, rapport.lines().filter(l -> l.startsWith("== ")).count());
+    assertTrue(rapport, rapport.contains("== " + path("iut.txt")));
+
+    try (ZoneWatcher watcher = new ZoneWatcher(dns)) {
+      Files.write(path("iut.txt"), List.of("a.iut.uvsq.fr 10.0.0.2", "b.iut.uvsq.fr 10.0.0.3"));
+      long deadline = System.currentTimeMillis() + 20_000;
+      while (watcher.mutations() == 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(20);
+      }
+      assertEquals(1, watcher.mutations());
+      assertEquals("10.0.0.3", dns.getItem(new NomMachine("b.iut.uvsq.fr")).getIp().value());
+      assertEquals("www.uvsq.fr", dns.getItem(new AdresseIP("10.0.0.1")).getNom().getFqdn());
+    }
+  }
+
+  @Test public void fonctions_indisponibles_refusees_a_l_analyse() {
+    ZonedDns dns = new ZonedDns(troisZones(), new Properties());
+    DnsTUI tui = new DnsTUI(new Scanner(""), System.out, dns);
+    assertTrue(tui.parse("begin").execute(dns).startsWith("ERREUR : Transactions indisponibles"));
+    assertTrue(tui.parse("watch uvsq.fr").execute(dns).startsWith("ERREUR : Surveillance"));
+    assertTrue(tui.parse("backup " + path("sauvegardes")).execute(dns)
+        .startsWith("ERREUR : Sauvegarde indisponible"));
+    assertFalse(Files.exists(path("sauvegardes")));
+  }
+}